@@ -0,0 +1,210 @@
+package io.github.ritonglue.gostock;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.money.Monetary;
+import javax.money.MonetaryAmount;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.annotations.Mode;
+
+import io.github.ritonglue.gostock.StockManager.TradeWrapper;
+
+/**
+ * BinaryCodec against java serialization, on the trades, closed positions and modifications of a FIFO history.
+ * Run with : mvn -Pjmh test-compile exec:exec
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+	/**
+	 * number of buys of a sell
+	 */
+	@Param({"1", "20"})
+	public int lots;
+
+	private final BinaryCodec codec = new BinaryCodec(new SourceCodec() {
+		@Override
+		public void write(java.io.DataOutput out, Object source) throws IOException {
+			out.writeInt((Integer) source);
+		}
+
+		@Override
+		public Object read(java.io.DataInput in) throws IOException {
+			return in.readInt();
+		}
+	});
+	private List<TradeWrapper> trades;
+	private List<Position> positions;
+	private List<Modification> modifications;
+	private byte[] binaryTrades;
+	private byte[] serializedTrades;
+	private byte[] binaryPositions;
+	private byte[] serializedPositions;
+	private byte[] binaryModifications;
+	private byte[] serializedModifications;
+
+	@Setup
+	public void setup() throws IOException {
+		StockManager manager = StockManager.create(io.github.ritonglue.gostock.Mode.FIFO).modificationMode(ModificationMode.MIXED).build();
+		trades = new ArrayList<>();
+		int id = 0;
+		for(int i = 0 ; i < 1000 / lots ; ++i) {
+			for(int j = 0 ; j < lots ; ++j) {
+				MonetaryAmount amount = Monetary.getDefaultAmountFactory().setCurrency("EUR").setNumber(new BigDecimal("10.25")).create();
+				trades.add(TradeWrapper.buy(new BigDecimal(3), amount, ++id));
+			}
+			MonetaryAmount fee = Monetary.getDefaultAmountFactory().setCurrency("EUR").setNumber(new BigDecimal("-0.75")).create();
+			trades.add(TradeWrapper.modification(fee, ++id));
+			trades.add(TradeWrapper.sell(new BigDecimal(3 * lots - 1), ++id));
+		}
+		manager.process(trades);
+		positions = manager.getClosedPositions();
+		modifications = manager.getModifications();
+		binaryTrades = encodeTrades();
+		serializedTrades = serialize(trades);
+		binaryPositions = encodePositions();
+		serializedPositions = serialize(positions);
+		binaryModifications = encodeModifications();
+		serializedModifications = serialize(modifications);
+	}
+
+	@Benchmark
+	public byte[] encodeTrades() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		codec.writeHeader(out);
+		out.writeInt(trades.size());
+		for(TradeWrapper t : trades) {
+			codec.writeTrade(out, t);
+		}
+		return bytes.toByteArray();
+	}
+
+	@Benchmark
+	public List<TradeWrapper> decodeTrades() throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(binaryTrades));
+		short version = codec.readHeader(in);
+		int n = in.readInt();
+		List<TradeWrapper> list = new ArrayList<>(n);
+		for(int i = 0 ; i < n ; ++i) {
+			list.add(codec.readTrade(in, version));
+		}
+		return list;
+	}
+
+	@Benchmark
+	public byte[] serializeTrades() throws IOException {
+		return serialize(trades);
+	}
+
+	@Benchmark
+	public Object deserializeTrades() throws Exception {
+		return deserialize(serializedTrades);
+	}
+
+	@Benchmark
+	public byte[] encodePositions() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		codec.writeHeader(out);
+		out.writeInt(positions.size());
+		for(Position p : positions) {
+			codec.writePosition(out, p);
+		}
+		return bytes.toByteArray();
+	}
+
+	@Benchmark
+	public List<Position> decodePositions() throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(binaryPositions));
+		short version = codec.readHeader(in);
+		int n = in.readInt();
+		List<Position> list = new ArrayList<>(n);
+		for(int i = 0 ; i < n ; ++i) {
+			list.add(codec.readPosition(in, version));
+		}
+		return list;
+	}
+
+	@Benchmark
+	public byte[] serializePositions() throws IOException {
+		return serialize(positions);
+	}
+
+	@Benchmark
+	public Object deserializePositions() throws Exception {
+		return deserialize(serializedPositions);
+	}
+
+	@Benchmark
+	public byte[] encodeModifications() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		codec.writeHeader(out);
+		out.writeInt(modifications.size());
+		for(Modification m : modifications) {
+			codec.writeModification(out, m);
+		}
+		return bytes.toByteArray();
+	}
+
+	@Benchmark
+	public List<Modification> decodeModifications() throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(binaryModifications));
+		short version = codec.readHeader(in);
+		int n = in.readInt();
+		List<Modification> list = new ArrayList<>(n);
+		for(int i = 0 ; i < n ; ++i) {
+			list.add(codec.readModification(in, version));
+		}
+		return list;
+	}
+
+	@Benchmark
+	public byte[] serializeModifications() throws IOException {
+		return serialize(modifications);
+	}
+
+	@Benchmark
+	public Object deserializeModifications() throws Exception {
+		return deserialize(serializedModifications);
+	}
+
+	private static byte[] serialize(List<?> list) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try(ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(new ArrayList<>(list));
+		}
+		return bytes.toByteArray();
+	}
+
+	private static Object deserialize(byte[] bytes) throws Exception {
+		try(ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+			return in.readObject();
+		}
+	}
+}
@@ -0,0 +1,333 @@
+package io.github.ritonglue.gostock;
+
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.money.MonetaryAmount;
+
+import io.github.ritonglue.gostock.StockManager.TradeWrapper;
+
+/**
+ * Pre-pass of a batch on copies of the quantities and amounts of the lots.
+ * The trades and the manager are only read.
+ */
+final class BatchValidator {
+	private final StockManager manager;
+	private final Mode mode;
+	//lots in sell order
+	private final Deque<Lot> lots = new ArrayDeque<>();
+	private final List<ValidationIssue> issues = new ArrayList<>();
+	//quantity of the short lots in short selling mode
+	private BigDecimal shortQuantity;
+	private long index;
+
+	/**
+	 * running values of a lot
+	 */
+	private static class Lot {
+		//key of the forced amounts, null in PRMP mode
+		private final TradeWrapper trade;
+		private BigDecimal quantity;
+		private MonetaryAmount amount;
+
+		Lot(TradeWrapper trade, BigDecimal quantity, MonetaryAmount amount) {
+			this.trade = trade;
+			this.quantity = quantity;
+			this.amount = amount;
+		}
+	}
+
+	BatchValidator(StockManager manager) {
+		this.manager = manager;
+		this.mode = manager.getMode();
+		this.shortQuantity = manager.getShortQuantity();
+		if(!manager.isEmpty()) {
+			for(TradeWrapper t : manager.getLots()) {
+				lots.add(new Lot(mode == Mode.PRMP ? null : t, t.getQuantity(), t.getAmount()));
+			}
+		}
+	}
+
+	List<ValidationIssue> validate(Iterable<TradeWrapper> trades) {
+		for(TradeWrapper t : trades) {
+			if(t != null) {
+				switch(t.getTradeType()) {
+				case BUY:
+					buy(t);
+					break;
+				case SELL:
+					sell(t, t.getQuantity(), manager.isShortSelling());
+					break;
+				case RBT:
+					sell(t, t.getQuantity() == null ? quantity() : t.getQuantity(), false);
+					break;
+				case MODIFICATION:
+					modification(t);
+					break;
+				case MODIFICATION_QUANTITY:
+					modificationQuantity(t);
+					break;
+				}
+			}
+			++index;
+		}
+		return issues;
+	}
+
+	private void issue(ValidationIssue.Kind kind, TradeWrapper t, String message) {
+		issues.add(new ValidationIssue(kind, index, t, message));
+	}
+
+	private BigDecimal quantity() {
+		BigDecimal quantity = BigDecimal.ZERO;
+		for(Lot lot : lots) {
+			quantity = quantity.add(lot.quantity);
+		}
+		return quantity;
+	}
+
+	private void buy(TradeWrapper t) {
+		BigDecimal quantity = t.getQuantity();
+		MonetaryAmount amount = t.getAmount();
+		if(shortQuantity.signum() > 0) {
+			//cover the short lots first
+			BigDecimal covered = shortQuantity.min(quantity);
+			shortQuantity = shortQuantity.subtract(covered);
+			if(covered.compareTo(quantity) == 0) return;
+			amount = amount.subtract(manager.shareByQuantity(amount, covered, quantity));
+			quantity = quantity.subtract(covered);
+		}
+		switch(mode) {
+		case FIFO:
+			lots.addLast(new Lot(t, quantity, amount));
+			break;
+		case LIFO:
+			lots.addFirst(new Lot(t, quantity, amount));
+			break;
+		case PRMP:
+			Lot stock = lots.peekFirst();
+			if(stock == null) {
+				lots.add(new Lot(null, quantity, amount));
+			} else {
+				stock.quantity = stock.quantity.add(quantity);
+				stock.amount = stock.amount.add(amount);
+			}
+			break;
+		}
+	}
+
+	/**
+	 * @param shortSelling true if the rest of the sell is a short lot
+	 */
+	private void sell(TradeWrapper t, BigDecimal quantity, boolean shortSelling) {
+		if(quantity.signum() <= 0) return;
+		while(!lots.isEmpty()) {
+			Lot lot = lots.peekFirst();
+			if(lot.quantity.compareTo(quantity) <= 0) {
+				quantity = quantity.subtract(lot.quantity);
+				lots.removeFirst();
+				if(quantity.signum() == 0) return;
+			} else {
+				MonetaryAmount m = lot.trade == null ? null : manager.getForcedAmount(t, lot.trade);
+				if(m == null) {
+					m = manager.shareByQuantity(lot.amount, quantity, lot.quantity);
+				}
+				MonetaryAmount amount = lot.amount.subtract(m);
+				if(amount.isNegative()) {
+					issue(ValidationIssue.Kind.FORCED_AMOUNT, t, "sell amount %s exceeds lot amount %s".formatted(m, lot.amount));
+					return;
+				}
+				lot.quantity = lot.quantity.subtract(quantity);
+				lot.amount = amount;
+				return;
+			}
+		}
+		if(shortSelling) {
+			shortQuantity = shortQuantity.add(quantity);
+		} else {
+			issue(ValidationIssue.Kind.ORPHAN_SELL, t, "quantity %s not in stock".formatted(quantity));
+		}
+	}
+
+	private void modification(TradeWrapper t) {
+		MonetaryAmount modificationAmount = t.getAmount();
+		if(modificationAmount.isZero()) return;
+		if(lots.isEmpty()) {
+			issue(ValidationIssue.Kind.EMPTY_POSITION_MODIFICATION, t, "modification %s of an empty stock".formatted(modificationAmount));
+			return;
+		}
+		MonetaryAmount stockAmount = null;
+		for(Lot lot : lots) {
+			stockAmount = stockAmount == null ? lot.amount : stockAmount.add(lot.amount);
+		}
+		if(stockAmount.add(modificationAmount).isNegative()) {
+			issue(ValidationIssue.Kind.AMOUNT_REDUCTION, t, "modification %s exceeds stock %s".formatted(modificationAmount, stockAmount));
+			return;
+		}
+		if(lots.size() == 1) {
+			Lot lot = lots.peekFirst();
+			lot.amount = lot.amount.add(modificationAmount);
+			return;
+		}
+		List<Lot> buys = new ArrayList<>(lots);
+		Map<TradeWrapper, MonetaryAmount> forced = manager.getForcedAmounts(t);
+		if(forced != null) {
+			MonetaryAmount sum = null;
+			for(MonetaryAmount amount : forced.values()) {
+				sum = sum == null ? amount.abs() : sum.add(amount.abs());
+			}
+			if(sum != null && modificationAmount.abs().subtract(sum).isNegative()) {
+				issue(ValidationIssue.Kind.FORCED_AMOUNT, t, "forced amounts %s exceed modification %s".formatted(sum, modificationAmount));
+				return;
+			}
+			for(Iterator<Lot> iter = buys.iterator() ; iter.hasNext() ; ) {
+				Lot lot = iter.next();
+				MonetaryAmount amount = forced.get(manager.keyOf(lot.trade));
+				if(amount == null) continue;
+				iter.remove();
+				if(lot.amount.add(amount).isNegative()) {
+					issue(ValidationIssue.Kind.AMOUNT_REDUCTION, t, "forced amount %s exceeds lot amount %s".formatted(amount, lot.amount));
+					return;
+				}
+				lot.amount = lot.amount.add(amount);
+				modificationAmount = modificationAmount.subtract(amount);
+			}
+			if(buys.isEmpty()) return;
+		}
+		int sign = modificationAmount.signum();
+		ModificationMode modificationMode = manager.getModificationMode(t);
+		ValidationIssue issue;
+		if(sign > 0) {
+			issue = modificationMode == ModificationMode.MONEY ? byAmount(t, buys, modificationAmount) : byQuantity(t, buys, modificationAmount, true);
+		} else if(sign < 0 && modificationMode == ModificationMode.QUANTITY) {
+			issue = byQuantity(t, buys, modificationAmount, true);
+		} else if(sign < 0 && modificationMode == ModificationMode.QUANTITY_FIRST) {
+			//by amount if a lot is below the threshold or if the reduction fails by quantity
+			issue = byQuantity(t, buys, modificationAmount, false);
+			if(issue != null) {
+				issue = byAmount(t, buys, modificationAmount);
+			}
+		} else {
+			issue = byAmount(t, buys, modificationAmount);
+		}
+		if(issue != null) {
+			issues.add(issue);
+		}
+	}
+
+	/**
+	 * Same pass as the stock manager : reductions zero the lots below the threshold, then the rest is shared by quantity.
+	 * The lots are only changed if the modification succeeds.
+	 * @param zero true to zero the lots below the threshold, false to fail
+	 * @return the issue, null if none
+	 */
+	private ValidationIssue byQuantity(TradeWrapper t, List<Lot> buys, MonetaryAmount modificationAmount, boolean zero) {
+		int n = buys.size();
+		MonetaryAmount[] amounts = new MonetaryAmount[n];
+		BigDecimal stockQuantity = BigDecimal.ZERO;
+		for(Lot lot : buys) {
+			stockQuantity = stockQuantity.add(lot.quantity);
+		}
+		List<Integer> shared = new ArrayList<>(n);
+		if(modificationAmount.isNegative()) {
+			MonetaryAmount modificationUnit = modificationAmount.divide(stockQuantity);
+			for(int i = 0 ; i < n ; ++i) {
+				Lot lot = buys.get(i);
+				if(lot.amount.add(modificationUnit.multiply(lot.quantity)).isNegative()) {
+					if(!zero) {
+						return new ValidationIssue(ValidationIssue.Kind.AMOUNT_REDUCTION, index, t, "lot amount %s below the threshold".formatted(lot.amount));
+					}
+					amounts[i] = lot.amount.subtract(lot.amount);
+					modificationAmount = modificationAmount.add(lot.amount);
+					stockQuantity = stockQuantity.subtract(lot.quantity);
+				} else {
+					shared.add(i);
+				}
+			}
+		} else {
+			for(int i = 0 ; i < n ; ++i) {
+				shared.add(i);
+			}
+		}
+		boolean done = false;
+		for(int i : shared) {
+			Lot lot = buys.get(i);
+			MonetaryAmount value = modificationAmount;
+			//the lot with the rest of the quantity takes the rest of the amount
+			done = lot.quantity.equals(stockQuantity);
+			if(!done) {
+				value = manager.shareByQuantity(modificationAmount, lot.quantity, stockQuantity);
+			}
+			MonetaryAmount amount = lot.amount.add(value);
+			if(amount.isNegative()) {
+				return new ValidationIssue(ValidationIssue.Kind.AMOUNT_REDUCTION, index, t, "modification %s exceeds lot amount %s".formatted(value, lot.amount));
+			}
+			amounts[i] = amount;
+			if(done) break;
+			modificationAmount = modificationAmount.subtract(value);
+			stockQuantity = stockQuantity.subtract(lot.quantity);
+		}
+		if(!done) {
+			return new ValidationIssue(ValidationIssue.Kind.EMPTY_POSITION_MODIFICATION, index, t, "no lot left for modification %s".formatted(modificationAmount));
+		}
+		for(int i = 0 ; i < n ; ++i) {
+			if(amounts[i] != null) {
+				buys.get(i).amount = amounts[i];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the issue, null if none
+	 */
+	private ValidationIssue byAmount(TradeWrapper t, List<Lot> buys, MonetaryAmount modificationAmount) {
+		MonetaryAmount stockAmount = null;
+		for(Lot lot : buys) {
+			stockAmount = stockAmount == null ? lot.amount : stockAmount.add(lot.amount);
+		}
+		if(stockAmount.add(modificationAmount).isNegative()) {
+			return new ValidationIssue(ValidationIssue.Kind.AMOUNT_REDUCTION, index, t, "modification %s exceeds stock %s".formatted(modificationAmount, stockAmount));
+		}
+		for(Lot lot : buys) {
+			if(lot.amount.equals(stockAmount)) {
+				lot.amount = lot.amount.add(modificationAmount);
+				return null;
+			}
+			MonetaryAmount value = manager.shareByAmount(modificationAmount, lot.amount, stockAmount);
+			stockAmount = stockAmount.subtract(lot.amount);
+			lot.amount = lot.amount.add(value);
+			modificationAmount = modificationAmount.subtract(value);
+		}
+		return null;
+	}
+
+	/**
+	 * the rounded total is shared as by the stock manager : the first lot takes the rest
+	 */
+	private void modificationQuantity(TradeWrapper t) {
+		if(lots.isEmpty()) return;
+		BigDecimal quantityBefore = t.getQuantityBefore();
+		BigDecimal quantityAfter = t.getQuantityAfter();
+		if(BigDecimal.ONE.compareTo(quantityBefore) == 0) {
+			for(Lot lot : lots) {
+				lot.quantity = lot.quantity.multiply(quantityAfter);
+			}
+			return;
+		}
+		BigDecimal total = quantity().multiply(quantityAfter).divide(quantityBefore, t.getScale(), t.getRoundingMode());
+		Iterator<Lot> iter = lots.iterator();
+		Lot first = iter.next();
+		while(iter.hasNext()) {
+			Lot lot = iter.next();
+			lot.quantity = lot.quantity.multiply(quantityAfter).divide(quantityBefore, t.getScale(), t.getRoundingMode());
+			total = total.subtract(lot.quantity);
+		}
+		first.quantity = total;
+	}
+}
@@ -0,0 +1,262 @@
+package io.github.ritonglue.gostock;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.money.CurrencyUnit;
+import javax.money.Monetary;
+import javax.money.MonetaryAmount;
+import javax.money.MonetaryAmountFactory;
+
+import io.github.ritonglue.gostock.StockManager.TradeWrapper;
+
+/**
+ * Explicit binary encoding of the domain types. Thread safe if the source codec is.
+ * Optional values are announced by a flags byte.
+ * <p>
+ * The layouts belong to the schema {@link #VERSION}. A stream starts with a header ({@link #writeHeader(DataOutput)})
+ * holding the schema version. When a layout changes, the version is increased and the readers keep decoding older versions :
+ * the read methods take the version of the stream.
+ * <ul>
+ * <li>1 : first version</li>
+ * <li>2 : unscaled values of 255 bytes or more</li>
+ * </ul>
+ * <p>
+ * Unlike java serialization, object graphs are not written : the buy values of a sell are dropped
+ * and the trades of a modification are read as new instances.
+ */
+public final class BinaryCodec {
+	public static final short VERSION = 2;
+	/**
+	 * size in bytes of the header
+	 */
+	public static final int HEADER_SIZE = Integer.BYTES + Short.BYTES;
+	private static final int MAGIC = 0x474F5343;
+
+	private static final int QUANTITY = 1;
+	private static final int AMOUNT = 1 << 1;
+	private static final int SOURCE = 1 << 2;
+	private static final int MODIFICATION_MODE = 1 << 3;
+	private static final int QUANTITY_BEFORE = 1 << 4;
+	private static final int QUANTITY_AFTER = 1 << 5;
+	private static final int BUY = 1 << 6;
+	private static final int SELL = 1 << 7;
+	//decimal length announcing an int length
+	private static final int LONG_LENGTH = 0xFF;
+
+	private final SourceCodec sourceCodec;
+	//factories are mutable
+	private final ThreadLocal<MonetaryAmountFactory<?>> factory = ThreadLocal.withInitial(Monetary::getDefaultAmountFactory);
+	private final Map<String, CurrencyUnit> currencies = new ConcurrentHashMap<>();
+
+	/**
+	 * A codec using java serialization for the sources
+	 */
+	public BinaryCodec() {
+		this(SourceCodec.serialization());
+	}
+
+	public BinaryCodec(SourceCodec sourceCodec) {
+		this.sourceCodec = Objects.requireNonNull(sourceCodec, "source codec null");
+	}
+
+	public void writeHeader(DataOutput out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeShort(VERSION);
+	}
+
+	/**
+	 * @param in
+	 * @return the schema version of the stream
+	 * @throws IOException if the header is not valid or the version is unknown
+	 */
+	public short readHeader(DataInput in) throws IOException {
+		if(in.readInt() != MAGIC) {
+			throw new InvalidObjectException("not a go-stock stream");
+		}
+		short version = in.readShort();
+		if(version < 1 || version > VERSION) {
+			throw new InvalidObjectException("unsupported schema version %s".formatted(version));
+		}
+		return version;
+	}
+
+	/**
+	 * write the trade. The buy values of a sell are not written.
+	 * @param out
+	 * @param t
+	 * @throws IOException
+	 */
+	public void writeTrade(DataOutput out, TradeWrapper t) throws IOException {
+		int flags = 0;
+		if(t.getQuantity() != null) flags |= QUANTITY;
+		if(t.getAmount() != null) flags |= AMOUNT;
+		if(t.getSource() != null) flags |= SOURCE;
+		if(t.getModificationMode() != null) flags |= MODIFICATION_MODE;
+		if(t.getQuantityBefore() != null) flags |= QUANTITY_BEFORE;
+		if(t.getQuantityAfter() != null) flags |= QUANTITY_AFTER;
+		out.writeByte(t.getTradeType().ordinal());
+		out.writeByte(flags);
+		if(t.getQuantity() != null) writeDecimal(out, t.getQuantity());
+		if(t.getAmount() != null) writeAmount(out, t.getAmount());
+		if(t.getSource() != null) sourceCodec.write(out, t.getSource());
+		if(t.getModificationMode() != null) out.writeByte(t.getModificationMode().ordinal());
+		if(t.getQuantityBefore() != null) writeDecimal(out, t.getQuantityBefore());
+		if(t.getQuantityAfter() != null) writeDecimal(out, t.getQuantityAfter());
+		out.writeInt(t.getScale());
+	}
+
+	public TradeWrapper readTrade(DataInput in) throws IOException {
+		return readTrade(in, VERSION);
+	}
+
+	/**
+	 * @param in
+	 * @param version schema version of the stream
+	 * @return the trade
+	 * @throws IOException
+	 */
+	public TradeWrapper readTrade(DataInput in, short version) throws IOException {
+		TradeType tradeType = readEnum(TradeType.values(), in.readByte());
+		int flags = in.readUnsignedByte();
+		TradeWrapper.Builder builder = TradeWrapper.tradeType(tradeType);
+		if((flags & QUANTITY) != 0) builder.quantity(readDecimal(in, version));
+		MonetaryAmount amount = (flags & AMOUNT) != 0 ? readAmount(in, version) : null;
+		if((flags & SOURCE) != 0) builder.source(sourceCodec.read(in));
+		if((flags & MODIFICATION_MODE) != 0) builder.modificationMode(readEnum(ModificationMode.values(), in.readByte()));
+		if((flags & QUANTITY_BEFORE) != 0) builder.quantityBefore(readDecimal(in, version));
+		if((flags & QUANTITY_AFTER) != 0) builder.quantityAfter(readDecimal(in, version));
+		builder.scale(in.readInt());
+		TradeWrapper t = builder.build();
+		//the builder drops the amount of a sell
+		t.setAmount(amount);
+		return t;
+	}
+
+	public void writePosition(DataOutput out, Position p) throws IOException {
+		int flags = 0;
+		if(p.getBuy() != null) flags |= BUY;
+		if(p.getSell() != null) flags |= SELL;
+		if(p.getQuantity() != null) flags |= QUANTITY;
+		if(p.getAmount() != null) flags |= AMOUNT;
+		out.writeByte(flags);
+		if(p.getBuy() != null) sourceCodec.write(out, p.getBuy());
+		if(p.getSell() != null) sourceCodec.write(out, p.getSell());
+		if(p.getQuantity() != null) writeDecimal(out, p.getQuantity());
+		if(p.getAmount() != null) writeAmount(out, p.getAmount());
+		CloseCause closeCause = p.getCloseCause();
+		out.writeByte(closeCause == null ? -1 : closeCause.ordinal());
+	}
+
+	public Position readPosition(DataInput in) throws IOException {
+		return readPosition(in, VERSION);
+	}
+
+	public Position readPosition(DataInput in, short version) throws IOException {
+		int flags = in.readUnsignedByte();
+		Object buy = (flags & BUY) != 0 ? sourceCodec.read(in) : null;
+		Object sell = (flags & SELL) != 0 ? sourceCodec.read(in) : null;
+		BigDecimal quantity = (flags & QUANTITY) != 0 ? readDecimal(in, version) : null;
+		MonetaryAmount amount = (flags & AMOUNT) != 0 ? readAmount(in, version) : null;
+		byte closeCause = in.readByte();
+		return new Position(buy, sell, quantity, amount, closeCause < 0 ? null : readEnum(CloseCause.values(), closeCause));
+	}
+
+	public void writeModification(DataOutput out, Modification m) throws IOException {
+		writeTrade(out, m.getBuy());
+		writeTrade(out, m.getModification());
+		writeDecimal(out, m.getQuantity());
+		writeAmount(out, m.getAmountBefore());
+		writeAmount(out, m.getAmountAfter());
+	}
+
+	public Modification readModification(DataInput in) throws IOException {
+		return readModification(in, VERSION);
+	}
+
+	public Modification readModification(DataInput in, short version) throws IOException {
+		TradeWrapper buy = readTrade(in, version);
+		TradeWrapper modification = readTrade(in, version);
+		BigDecimal quantity = readDecimal(in, version);
+		MonetaryAmount amountBefore = readAmount(in, version);
+		MonetaryAmount amountAfter = readAmount(in, version);
+		return new Modification(buy, modification, quantity, amountBefore, amountAfter);
+	}
+
+	static <E extends Enum<E>> E readEnum(E[] values, int ordinal) throws IOException {
+		if(ordinal < 0 || ordinal >= values.length) {
+			throw new InvalidObjectException("bad ordinal %s for %s".formatted(ordinal, values.getClass().getComponentType().getSimpleName()));
+		}
+		return values[ordinal];
+	}
+
+	/**
+	 * small unscaled values are written as a long. The length of the others is a byte, an int from 255 bytes.
+	 */
+	public static void writeDecimal(DataOutput out, BigDecimal value) throws IOException {
+		BigInteger unscaled = value.unscaledValue();
+		if(unscaled.bitLength() < Long.SIZE) {
+			out.writeInt(value.scale());
+			out.writeByte(0);
+			out.writeLong(unscaled.longValue());
+		} else {
+			byte[] bytes = unscaled.toByteArray();
+			out.writeInt(value.scale());
+			if(bytes.length < LONG_LENGTH) {
+				out.writeByte(bytes.length);
+			} else {
+				out.writeByte(LONG_LENGTH);
+				out.writeInt(bytes.length);
+			}
+			out.write(bytes);
+		}
+	}
+
+	public static BigDecimal readDecimal(DataInput in) throws IOException {
+		return readDecimal(in, VERSION);
+	}
+
+	/**
+	 * @param in
+	 * @param version schema version of the stream : the length is always a byte in version 1
+	 * @return the decimal
+	 * @throws IOException
+	 */
+	public static BigDecimal readDecimal(DataInput in, short version) throws IOException {
+		int scale = in.readInt();
+		int length = in.readUnsignedByte();
+		if(length == 0) {
+			return BigDecimal.valueOf(in.readLong(), scale);
+		}
+		if(length == LONG_LENGTH && version >= 2) {
+			length = in.readInt();
+			if(length < 0) {
+				throw new InvalidObjectException("bad decimal length " + length);
+			}
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new BigDecimal(new BigInteger(bytes), scale);
+	}
+
+	static void writeAmount(DataOutput out, MonetaryAmount amount) throws IOException {
+		out.writeUTF(amount.getCurrency().getCurrencyCode());
+		writeDecimal(out, amount.getNumber().numberValueExact(BigDecimal.class));
+	}
+
+	/**
+	 * the default factory and the currencies are looked up once
+	 */
+	MonetaryAmount readAmount(DataInput in, short version) throws IOException {
+		CurrencyUnit currency = currencies.computeIfAbsent(in.readUTF(), Monetary::getCurrency);
+		BigDecimal number = readDecimal(in, version);
+		return factory.get().setCurrency(currency).setNumber(number).create();
+	}
+}
@@ -0,0 +1,45 @@
+package io.github.ritonglue.gostock;
+
+import java.util.List;
+
+/**
+ * Storage of the closed positions of a StockManager and of their indexes by buy and by sell.
+ * Positions without sell are not indexed.
+ */
+public interface ClosedPositionStore {
+
+	void add(Position position);
+
+	/**
+	 * @return the closed positions in closing order
+	 */
+	List<Position> getPositions();
+
+	/**
+	 * @param buy a buy source
+	 * @return the closed positions of this buy in closing order
+	 */
+	List<Position> getByBuy(Object buy);
+
+	/**
+	 * @param sell a sell source
+	 * @return the closed positions of this sell in closing order
+	 */
+	List<Position> getBySell(Object sell);
+
+	/**
+	 * @return an independent store with the same positions
+	 */
+	ClosedPositionStore copy();
+
+	/**
+	 * remove every position
+	 */
+	void clear();
+
+	/**
+	 * remove the last positions
+	 * @param size number of positions to keep
+	 */
+	void truncate(int size);
+}
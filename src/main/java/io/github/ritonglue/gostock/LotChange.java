@@ -0,0 +1,65 @@
+package io.github.ritonglue.gostock;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+
+import javax.money.MonetaryAmount;
+
+/**
+ * An opened position changed since the last checkpoint of the stock manager
+ * @see StockManager#getLotChanges()
+ */
+public class LotChange implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	public enum Kind {
+		/** new lot. Later changes of the lot are included. */
+		ADDED,
+		/** lot partially sold or modified */
+		CHANGED,
+		/** lot sold */
+		REMOVED
+	}
+
+	private final Kind kind;
+	private final Object source;
+	private final BigDecimal quantity;
+	private final MonetaryAmount amount;
+
+	LotChange(Kind kind, Object source, BigDecimal quantity, MonetaryAmount amount) {
+		this.kind = kind;
+		this.source = source;
+		this.quantity = quantity;
+		this.amount = amount;
+	}
+
+	public Kind getKind() {
+		return kind;
+	}
+
+	/**
+	 * @return the source of the buy. Null in PRMP mode.
+	 */
+	public Object getSource() {
+		return source;
+	}
+
+	/**
+	 * @return the current quantity. Zero if removed.
+	 */
+	public BigDecimal getQuantity() {
+		return quantity;
+	}
+
+	/**
+	 * @return the current amount
+	 */
+	public MonetaryAmount getAmount() {
+		return amount;
+	}
+
+	@Override
+	public String toString() {
+		return "LotChange [kind=%s, source=%s, quantity=%s, amount=%s]".formatted(kind, source, quantity, amount);
+	}
+}
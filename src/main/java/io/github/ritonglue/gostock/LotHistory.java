@@ -0,0 +1,206 @@
+package io.github.ritonglue.gostock;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import io.github.ritonglue.gostock.StockManager.TradeWrapper;
+
+/**
+ * Versions of the opened positions of a StockManager.
+ * <p>
+ * Each trade records the new values of the lots it changed. The opened positions are copied every
+ * checkpoint interval trades : a past state is the previous checkpoint plus the following versions.
+ * Lots are numbered in insertion order and tracked by identity.
+ */
+final class LotHistory {
+	//lot number of the PRMP stock
+	private static final long STOCK = 0;
+
+	private final StockManager manager;
+	private final boolean prmp;
+	private final int checkpointInterval;
+	//trade count when the history started
+	private final long start;
+	private final Map<TradeWrapper, Long> numbers = new IdentityHashMap<>();
+	//lots changed by the current trade in change order. TradeWrapper equals is the identity.
+	private final Map<TradeWrapper, Boolean> touched = new LinkedHashMap<>();
+	private boolean stockTouched;
+	private long nextNumber = STOCK + 1;
+	//opened positions after the last trade by lot number
+	private final TreeMap<Long, Position> current = new TreeMap<>();
+	private final List<Version> versions = new ArrayList<>();
+	private final List<Checkpoint> checkpoints = new ArrayList<>();
+
+	/**
+	 * new values of a lot after a trade. Position null if the lot is closed.
+	 */
+	private static class Version {
+		private final long trade;
+		private final long lot;
+		private final Position position;
+
+		Version(long trade, long lot, Position position) {
+			this.trade = trade;
+			this.lot = lot;
+			this.position = position;
+		}
+	}
+
+	private static class Checkpoint {
+		private final long trade;
+		//number of versions before the checkpoint
+		private final int version;
+		private final TreeMap<Long, Position> lots;
+
+		Checkpoint(long trade, int version, TreeMap<Long, Position> lots) {
+			this.trade = trade;
+			this.version = version;
+			this.lots = lots;
+		}
+	}
+
+	LotHistory(StockManager manager, int checkpointInterval) {
+		this.manager = manager;
+		this.prmp = manager.getMode() == Mode.PRMP;
+		this.checkpointInterval = checkpointInterval;
+		this.start = manager.getTradeCount();
+		for(TradeWrapper t : manager.getLots()) {
+			if(t.getQuantity().signum() != 0) {
+				current.put(prmp ? STOCK : number(t), new Position(prmp ? null : t.getSource(), t.getQuantity(), t.getAmount()));
+			}
+		}
+		checkpoints.add(new Checkpoint(start, 0, new TreeMap<>(current)));
+	}
+
+	void touch(TradeWrapper lot) {
+		if(prmp) {
+			stockTouched = true;
+		} else {
+			//new lots are numbered in insertion order
+			number(lot);
+			touched.put(lot, Boolean.TRUE);
+		}
+	}
+
+	/**
+	 * record the versions of the lots changed by the trade
+	 * @param trade trade count after the trade
+	 */
+	void endTrade(long trade) {
+		if(prmp) {
+			if(stockTouched) {
+				TradeWrapper stock = manager.getStock();
+				Position position = manager.isEmpty() ? null : new Position(null, stock.getQuantity(), stock.getAmount());
+				version(trade, STOCK, position);
+				stockTouched = false;
+			}
+		} else if(!touched.isEmpty()) {
+			List<TradeWrapper> lots = new ArrayList<>(touched.keySet());
+			touched.clear();
+			for(TradeWrapper t : lots) {
+				long number = numbers.get(t);
+				boolean closed = t.getQuantity().signum() == 0;
+				if(closed) {
+					numbers.remove(t);
+				}
+				version(trade, number, closed ? null : new Position(t.getSource(), t.getQuantity(), t.getAmount()));
+			}
+		}
+		//a bulk load may jump over a multiple of the interval
+		if(trade / checkpointInterval > checkpoints.get(checkpoints.size() - 1).trade / checkpointInterval) {
+			checkpoints.add(new Checkpoint(trade, versions.size(), new TreeMap<>(current)));
+		}
+	}
+
+	/**
+	 * @param trade a trade count since the start of the history
+	 * @return the opened positions after this trade in the order of the strategy
+	 */
+	List<Position> getOpenedPositions(long trade) {
+		if(trade < start || trade > manager.getTradeCount()) {
+			throw new IllegalArgumentException("trade %s out of history [%s, %s]".formatted(trade, start, manager.getTradeCount()));
+		}
+		Checkpoint checkpoint = checkpoint(trade);
+		TreeMap<Long, Position> lots = new TreeMap<>(checkpoint.lots);
+		for(int i = checkpoint.version, n = versions.size() ; i < n ; ++i) {
+			Version v = versions.get(i);
+			if(v.trade > trade) break;
+			apply(lots, v);
+		}
+		Iterable<Position> positions = manager.getMode() == Mode.LIFO ? lots.descendingMap().values() : lots.values();
+		List<Position> list = new ArrayList<>(lots.size());
+		for(Position p : positions) {
+			list.add(p);
+		}
+		return list;
+	}
+
+	/**
+	 * @return number of versions and of checkpoints, to rollback
+	 */
+	long[] mark() {
+		return new long[] {versions.size(), checkpoints.size()};
+	}
+
+	/**
+	 * Forget the versions after the mark. The lots of the strategy must be those of the mark.
+	 */
+	void rollback(long[] mark) {
+		versions.subList((int) mark[0], versions.size()).clear();
+		checkpoints.subList((int) mark[1], checkpoints.size()).clear();
+		touched.clear();
+		stockTouched = false;
+		Checkpoint checkpoint = checkpoints.get(checkpoints.size() - 1);
+		current.clear();
+		current.putAll(checkpoint.lots);
+		for(int i = checkpoint.version, n = versions.size() ; i < n ; ++i) {
+			apply(current, versions.get(i));
+		}
+		if(!prmp) {
+			//the lots of the strategy are in lot number order
+			numbers.clear();
+			List<TradeWrapper> lots = manager.getLots();
+			Iterator<Long> iterator = current.keySet().iterator();
+			for(TradeWrapper t : lots) {
+				numbers.put(t, iterator.next());
+			}
+		}
+	}
+
+	private Checkpoint checkpoint(long trade) {
+		int low = 0;
+		int high = checkpoints.size() - 1;
+		while(low < high) {
+			int middle = (low + high + 1) >>> 1;
+			if(checkpoints.get(middle).trade <= trade) {
+				low = middle;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return checkpoints.get(low);
+	}
+
+	private long number(TradeWrapper t) {
+		return numbers.computeIfAbsent(t, o -> nextNumber++);
+	}
+
+	private void version(long trade, long lot, Position position) {
+		Version v = new Version(trade, lot, position);
+		versions.add(v);
+		apply(current, v);
+	}
+
+	private static void apply(TreeMap<Long, Position> lots, Version v) {
+		if(v.position == null) {
+			lots.remove(v.lot);
+		} else {
+			lots.put(v.lot, v.position);
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package io.github.ritonglue.gostock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Default store : a list and two hash maps
+ */
+public final class MemoryClosedPositionStore implements ClosedPositionStore {
+	private final List<Position> positions = new ArrayList<>();
+	private final Map<Object, List<Position>> mapBySell = new HashMap<>();
+	private final Map<Object, List<Position>> mapByBuy = new HashMap<>();
+
+	@Override
+	public void add(Position position) {
+		positions.add(position);
+		Object sell = position.getSell();
+		if(sell == null) return;
+		mapBySell.computeIfAbsent(sell, o -> new ArrayList<>()).add(position);
+		mapByBuy.computeIfAbsent(position.getBuy(), o -> new ArrayList<>()).add(position);
+	}
+
+	@Override
+	public List<Position> getPositions() {
+		return positions;
+	}
+
+	@Override
+	public List<Position> getByBuy(Object buy) {
+		return mapByBuy.getOrDefault(buy, Collections.emptyList());
+	}
+
+	@Override
+	public List<Position> getBySell(Object sell) {
+		return mapBySell.getOrDefault(sell, Collections.emptyList());
+	}
+
+	@Override
+	public void clear() {
+		positions.clear();
+		mapBySell.clear();
+		mapByBuy.clear();
+	}
+
+	@Override
+	public void truncate(int size) {
+		for(int i = positions.size() - 1 ; i >= size ; --i) {
+			Position position = positions.remove(i);
+			Object sell = position.getSell();
+			if(sell == null) continue;
+			removeLast(mapBySell, sell);
+			removeLast(mapByBuy, position.getBuy());
+		}
+	}
+
+	private static void removeLast(Map<Object, List<Position>> map, Object key) {
+		List<Position> list = map.get(key);
+		list.remove(list.size() - 1);
+		if(list.isEmpty()) {
+			map.remove(key);
+		}
+	}
+
+	@Override
+	public MemoryClosedPositionStore copy() {
+		MemoryClosedPositionStore store = new MemoryClosedPositionStore();
+		store.positions.addAll(positions);
+		mapBySell.forEach((k, v) -> store.mapBySell.put(k, new ArrayList<>(v)));
+		mapByBuy.forEach((k, v) -> store.mapByBuy.put(k, new ArrayList<>(v)));
+		return store;
+	}
+}
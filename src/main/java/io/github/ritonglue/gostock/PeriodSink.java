@@ -0,0 +1,20 @@
+package io.github.ritonglue.gostock;
+
+import java.util.List;
+
+import io.github.ritonglue.gostock.StockManager.TradeWrapper;
+
+/**
+ * Receives the history of a period closed by {@link StockManager#closePeriod(PeriodSink)}.
+ */
+public interface PeriodSink {
+
+	/**
+	 * The lists are read only and valid during the call : they're cleared after.
+	 * @param manager the stock manager
+	 * @param closedPositions closed positions of the period in closing order
+	 * @param modifications modifications of the period
+	 * @param orphanSells sells of the period into an empty stock
+	 */
+	void periodClosed(StockManager manager, List<Position> closedPositions, List<Modification> modifications, List<TradeWrapper> orphanSells);
+}
@@ -14,11 +14,11 @@ public class Position implements Serializable {
 	private final MonetaryAmount amount;
 	private final CloseCause closeCause;
 
-	Position(Object buy, BigDecimal quantity, MonetaryAmount amount) {
+	public Position(Object buy, BigDecimal quantity, MonetaryAmount amount) {
 		this(buy, null, quantity, amount, null);
 	}
 
-	Position(Object buy, Object sell, BigDecimal quantity, MonetaryAmount amount, CloseCause closeCause) {
+	public Position(Object buy, Object sell, BigDecimal quantity, MonetaryAmount amount, CloseCause closeCause) {
 		this.buy = buy;
 		this.sell = sell;
 		this.quantity = quantity;
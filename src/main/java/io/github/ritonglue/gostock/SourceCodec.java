@@ -0,0 +1,48 @@
+package io.github.ritonglue.gostock;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * Binary encoding of the sources of the trades.
+ */
+public interface SourceCodec {
+
+	void write(DataOutput out, Object source) throws IOException;
+
+	Object read(DataInput in) throws IOException;
+
+	/**
+	 * @return a codec using java serialization. Sources must be serializable.
+	 */
+	static SourceCodec serialization() {
+		return new SourceCodec() {
+			@Override
+			public void write(DataOutput out, Object source) throws IOException {
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				try(ObjectOutputStream o = new ObjectOutputStream(bytes)) {
+					o.writeObject(source);
+				}
+				out.writeInt(bytes.size());
+				out.write(bytes.toByteArray());
+			}
+
+			@Override
+			public Object read(DataInput in) throws IOException {
+				byte[] bytes = new byte[in.readInt()];
+				in.readFully(bytes);
+				try(ObjectInputStream o = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+					return o.readObject();
+				} catch(ClassNotFoundException e) {
+					throw new InvalidObjectException(e.getMessage());
+				}
+			}
+		};
+	}
+}
@@ -0,0 +1,19 @@
+package io.github.ritonglue.gostock;
+
+import java.math.BigDecimal;
+
+import javax.money.MonetaryAmount;
+
+/**
+ * Notified by the StockManager after each added trade with the stock changes.
+ */
+public interface StockListener {
+
+	/**
+	 * @param manager the stock manager
+	 * @param quantity quantity added to the stock. Negative for a sell.
+	 * @param amount amount added to the stock. Null if unchanged.
+	 * @param realized buy value of the positions closed by the trade. Null if none.
+	 */
+	void stockChanged(StockManager manager, BigDecimal quantity, MonetaryAmount amount, MonetaryAmount realized);
+}
@@ -3,14 +3,21 @@ package io.github.ritonglue.gostock;
 import java.io.Serializable;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.function.Function;
 
 import javax.money.CurrencyUnit;
 import javax.money.Monetary;
@@ -18,6 +25,7 @@ import javax.money.MonetaryAmount;
 import javax.money.MonetaryAmountFactory;
 import javax.money.MonetaryRounding;
 
+import io.github.ritonglue.gostock.exception.BatchValidationException;
 import io.github.ritonglue.gostock.exception.EmptyPositionModificationException;
 import io.github.ritonglue.gostock.exception.StockAmountReductionException;
 import io.github.ritonglue.gostock.strategy.FIFOStrategy;
@@ -34,10 +42,10 @@ public class StockManager {
 	private final ModificationMode modificationMode;
 	private final Strategy strategy;
 	private final MonetaryAmountFactory<?> factory = Monetary.getDefaultAmountFactory();
-	private final List<Position> closedPositions = new ArrayList<>();
-	private final Map<Object, List<Position>> mapClosedPositionsBySell = new HashMap<>();
-	private final Map<Object, List<Position>> mapClosedPositionsByBuy = new HashMap<>();
+	private final ClosedPositionStore closedPositionStore;
 	private final List<TradeWrapper> orphanSells = new ArrayList<>();
+	//sells not covered yet in cover order, with their remaining quantity
+	private final Deque<TradeWrapper> shortLots = new ArrayDeque<>();
 	private final List<Modification> modifications = new ArrayList<>();
 	public List<Modification> getModifications() {
 		return modifications;
@@ -48,18 +56,43 @@ public class StockManager {
 	private final Map<BuySellKey, MonetaryAmount> mapBuySell = new HashMap<>();
 	//key is a modification tradeWrapper
 	private final Map<TradeWrapper, Map<TradeWrapper, MonetaryAmount>> mapModification = new HashMap<>();
+	private final List<StockListener> listeners = new ArrayList<>();
+	//forced amounts keys restored from a snapshot. Key is (trade type, source)
+	private final Map<List<Object>, TradeWrapper> restoredKeys = new HashMap<>();
+	//number of added trades
+	private long tradeCount;
+	//changes of the trade being added. Only used with listeners.
+	private StockDelta delta;
+	//lots changed since the last checkpoint in first change order. Null if not tracked.
+	private Map<TradeWrapper, LotChange.Kind> changedLots;
+	//undo actions of the current transaction in execution order. Null outside of a transaction.
+	private List<Runnable> undoLog;
+	//trades and lots whose values are saved in the undo log
+	private Map<TradeWrapper, Boolean> savedTrades;
+	//number of closed positions at the start of the transaction
+	private int transactionClosed;
+	//versions of the opened positions. Null if not kept.
+	private LotHistory history;
+	//consecutive modifications of process are applied in one pass
+	private boolean pipelining;
+	//sells exceeding the stock are short lots instead of orphan sells
+	private boolean shortSelling;
 
 	public static class Builder {
 		private Mode mode;
 		private ModificationMode modificationMode;
 		private MonetaryRounding rounding;
+		private Strategy strategy;
+		private ClosedPositionStore closedPositionStore;
 
 		public Builder mode(Mode mode) {this.mode = mode; return this;}
 		public Builder modificationMode(ModificationMode modificationMode) {this.modificationMode = modificationMode; return this;}
 		public Builder rouding(MonetaryRounding rounding) {this.rounding = rounding; return this;}
+		public Builder strategy(Strategy strategy) {this.strategy = strategy; return this;}
+		public Builder closedPositionStore(ClosedPositionStore closedPositionStore) {this.closedPositionStore = closedPositionStore; return this;}
 
 		public StockManager build() {
-			return new StockManager(mode, rounding, modificationMode);
+			return new StockManager(mode, rounding, modificationMode, strategy, closedPositionStore);
 		}
 	}
 
@@ -67,15 +100,23 @@ public class StockManager {
 		return new Builder().mode(mode);
 	}
 
-	private static class BuySellKey {
+	static class BuySellKey {
 		private final TradeWrapper buy;
 		private final TradeWrapper sell;
 
-		private BuySellKey(TradeWrapper sell, TradeWrapper buy) {
+		BuySellKey(TradeWrapper sell, TradeWrapper buy) {
 			this.buy = buy;
 			this.sell = sell;
 		}
 
+		TradeWrapper getBuy() {
+			return buy;
+		}
+
+		TradeWrapper getSell() {
+			return sell;
+		}
+
 		@Override
 		public boolean equals(Object obj) {
 			if(!(obj instanceof BuySellKey)) return false;
@@ -114,24 +155,147 @@ public class StockManager {
 	 * @param rounding
 	 */
 	public StockManager(Mode mode, MonetaryRounding rounding, ModificationMode modificationMode) {
+		this(mode, rounding, modificationMode, null);
+	}
+
+	/**
+	 * Build a stock manager with its own strategy. The strategy must follow the mode semantics.
+	 * @param mode
+	 * @param rounding
+	 * @param modificationMode
+	 * @param strategy an empty strategy, null for the default strategy of the mode
+	 */
+	public StockManager(Mode mode, MonetaryRounding rounding, ModificationMode modificationMode, Strategy strategy) {
+		this(mode, rounding, modificationMode, strategy, null);
+	}
+
+	/**
+	 * @param closedPositionStore null for an in memory store
+	 */
+	private StockManager(Mode mode, MonetaryRounding rounding, ModificationMode modificationMode, Strategy strategy, ClosedPositionStore closedPositionStore) {
+		this.closedPositionStore = closedPositionStore == null ? new MemoryClosedPositionStore() : closedPositionStore;
 		this.modificationMode = Objects.requireNonNull(modificationMode, "modification mode null");
 		this.mode = Objects.requireNonNull(mode, "mode null");
-		switch(mode) {
-		case FIFO:
-			strategy = new FIFOStrategy();
-			break;
-		case LIFO:
-			strategy = new LIFOStrategy();
-			break;
-		case PRMP:
-			strategy = new PRMPStrategy();
-			break;
-		default:
-			throw new AssertionError();
+		if(strategy != null) {
+			if(!strategy.isEmpty()) {
+				throw new IllegalArgumentException("strategy not empty");
+			}
+			this.strategy = strategy;
+		} else {
+			switch(mode) {
+			case FIFO:
+				this.strategy = new FIFOStrategy();
+				break;
+			case LIFO:
+				this.strategy = new LIFOStrategy();
+				break;
+			case PRMP:
+				this.strategy = new PRMPStrategy();
+				break;
+			default:
+				throw new AssertionError();
+			}
 		}
 		this.rounding = rounding == null ? Monetary.getDefaultRounding() : rounding;
 	}
 
+	private StockManager(StockManager other, ModificationMode modificationMode, MonetaryRounding rounding) {
+		this.mode = other.mode;
+		this.modificationMode = modificationMode == null ? other.modificationMode : modificationMode;
+		this.rounding = rounding == null ? other.rounding : rounding;
+		this.strategy = other.strategy.copy();
+		this.closedPositionStore = other.closedPositionStore.copy();
+		this.orphanSells.addAll(other.orphanSells);
+		for(TradeWrapper t : other.shortLots) {
+			this.shortLots.add(t.copy());
+		}
+		this.shortSelling = other.shortSelling;
+		this.modifications.addAll(other.modifications);
+		this.mapBuySell.putAll(other.mapBuySell);
+		other.mapModification.forEach((k, v) -> this.mapModification.put(k, new HashMap<>(v)));
+		this.restoredKeys.putAll(other.restoredKeys);
+		this.tradeCount = other.tradeCount;
+		this.changedLots = other.changedLots == null ? null : new LinkedHashMap<>();
+		this.pipelining = other.pipelining;
+	}
+
+	/**
+	 * @return a copy of this stock manager
+	 * @see #copy(ModificationMode, MonetaryRounding)
+	 */
+	public StockManager copy() {
+		return copy(null, null);
+	}
+
+	/**
+	 * Copy the state of this stock manager without replaying the trades.
+	 * Opened positions are copied. Positions and modifications are immutable and shared.
+	 * Trades added to the copy don't change this stock manager.
+	 * Forced amounts registered on the original trades still apply in the copy.
+	 *
+	 * @param modificationMode null to keep the current one
+	 * @param rounding null to keep the current one
+	 * @return the copy
+	 */
+	public StockManager copy(ModificationMode modificationMode, MonetaryRounding rounding) {
+		return new StockManager(this, modificationMode, rounding);
+	}
+
+	/**
+	 * Stock changes are accumulated during add and notified at the end.
+	 */
+	private static class StockDelta {
+		private BigDecimal quantity = BigDecimal.ZERO;
+		private MonetaryAmount amount;
+		private MonetaryAmount realized;
+
+		void buy(TradeWrapper t) {
+			quantity = quantity.add(t.getQuantity());
+			amount = add(amount, t.getAmount());
+		}
+
+		void close(Position position) {
+			quantity = quantity.subtract(position.getQuantity());
+			amount = add(amount, position.getAmount().negate());
+			realized = add(realized, position.getAmount());
+		}
+
+		void cover(Position position) {
+			realized = add(realized, position.getAmount());
+		}
+
+		/**
+		 * @param quantityBefore
+		 * @param amountBefore values of the stock before the modification : the strategy may modify its stock wrapper
+		 * @param after
+		 */
+		void modification(BigDecimal quantityBefore, MonetaryAmount amountBefore, TradeWrapper after) {
+			quantity = quantity.add(after.getQuantity()).subtract(quantityBefore);
+			if(after.getAmount() != null) {
+				amount = add(amount, after.getAmount());
+			}
+			if(amountBefore != null) {
+				amount = add(amount, amountBefore.negate());
+			}
+		}
+
+		private static MonetaryAmount add(MonetaryAmount a, MonetaryAmount b) {
+			return a == null ? b : a.add(b);
+		}
+	}
+
+	/**
+	 * The listener is notified after each added trade
+	 * @param listener
+	 */
+	public void addListener(StockListener listener) {
+		this.listeners.add(Objects.requireNonNull(listener, "listener null"));
+	}
+
+	public void removeListener(StockListener listener) {
+		this.listeners.remove(listener);
+	}
+
 	/**
 	 * Force amount reduction to the buy value sold by sell value
 	 * Only used if there are many buy values for this sell.
@@ -145,7 +309,8 @@ public class StockManager {
 		if(sell == null) return;
 		if(amount == null) return;
 		if(amount.signum() > 0) {
-			this.mapBuySell.put(new BuySellKey(sell, buy), amount);
+			this.mapBuySell.put(new BuySellKey(keyOf(sell), keyOf(buy)), amount);
+			addLotKey(buy);
 		}
 	}
 
@@ -164,8 +329,18 @@ public class StockManager {
 		MonetaryAmount modificationAmount = modification.getAmount();
 		//check same sign
 		if(amount.signum() * modificationAmount.signum() > 0) {
-			this.mapModification.computeIfAbsent(modification, o -> new HashMap<>())
-				.put(buy, amount);
+			this.mapModification.computeIfAbsent(keyOf(modification), o -> new HashMap<>())
+				.put(keyOf(buy), amount);
+			addLotKey(buy);
+		}
+	}
+
+	/**
+	 * the lots read from a strategy not keeping them find the forced amounts of the buy by source
+	 */
+	private void addLotKey(TradeWrapper buy) {
+		if(!getStrategy().keepsLots()) {
+			addRestoredKey(keyOf(buy));
 		}
 	}
 
@@ -176,28 +351,663 @@ public class StockManager {
 			Position position = new Position(t.getSource(), t.getQuantity(), t.getAmount());
 			openedPositions.add(position);
 		}
+		strategy.flush();
 		return openedPositions;
 	}
 
 	public List<Position> getClosedPositions() {
-		return Collections.unmodifiableList(this.closedPositions);
+		return Collections.unmodifiableList(this.closedPositionStore.getPositions());
 	}
 
 	/**
 	 * @param trades in ascending time order
 	 */
 	public void process(Iterable<TradeWrapper> trades) {
+		if(!pipelining) {
+			for(TradeWrapper t : trades) {
+				add(t);
+			}
+			return;
+		}
+		//consecutive modifications
+		List<TradeWrapper> pending = new ArrayList<>();
 		for(TradeWrapper t : trades) {
-			add(t);
+			if(t == null) continue;
+			if(t.getTradeType() == TradeType.MODIFICATION) {
+				pending.add(t);
+			} else {
+				addModifications(pending);
+				pending.clear();
+				add(t);
+			}
+		}
+		addModifications(pending);
+	}
+
+	/**
+	 * In pipelined mode, process applies consecutive modifications of the same kind in one pass over the lots,
+	 * with the same results and modification records as one by one.
+	 * Modifications with forced amounts, reductions by quantity, and those of a manager with listeners
+	 * or history are added one by one.
+	 * @param pipelining
+	 */
+	public void setModificationPipelining(boolean pipelining) {
+		this.pipelining = pipelining;
+	}
+
+	public boolean isModificationPipelining() {
+		return pipelining;
+	}
+
+	/**
+	 * Check the trades without changing this manager nor the trades : orphan sells, reductions exceeding the stock,
+	 * modifications of an empty stock and forced amounts exceeding a lot are all reported.
+	 * In short selling mode, sells exceeding the stock are short lots : they are not reported.
+	 * The lots are simulated with their quantities and amounts : the forced amounts are used, shares may differ
+	 * by rounding from process.
+	 * @param trades in ascending time order
+	 * @return the issues in trade order, empty if none
+	 */
+	public List<ValidationIssue> validate(Iterable<TradeWrapper> trades) {
+		return new BatchValidator(this).validate(trades);
+	}
+
+	/**
+	 * Validate then process the trades : nothing is changed if there's an issue.
+	 * @param trades in ascending time order, iterated twice
+	 * @throws BatchValidationException with all the issues
+	 * @see #validate(Iterable)
+	 */
+	public void processValidated(Iterable<TradeWrapper> trades) {
+		List<ValidationIssue> issues = validate(trades);
+		if(!issues.isEmpty()) {
+			throw new BatchValidationException(issues);
+		}
+		process(trades);
+	}
+
+	/**
+	 * Merge trade feeds sorted by time and add the trades in time order, without building the merged list.
+	 * Trades of the same time are added by trade type order, then by feed order.
+	 * @param feeds each one in ascending time order. Null trades are ignored.
+	 * @param timestamp time of a trade
+	 * @throws IllegalArgumentException if a feed is not sorted. The previous trades are added.
+	 */
+	public <T extends Comparable<? super T>> void process(List<? extends Iterator<TradeWrapper>> feeds, Function<? super TradeWrapper, ? extends T> timestamp) {
+		process(feeds, timestamp, Comparator.naturalOrder());
+	}
+
+	/**
+	 * @param tieBreak order of the trades of the same time
+	 * @see #process(List, Function)
+	 */
+	public <T extends Comparable<? super T>> void process(List<? extends Iterator<TradeWrapper>> feeds, Function<? super TradeWrapper, ? extends T> timestamp, Comparator<TradeType> tieBreak) {
+		Comparator<FeedHead<T>> comparator = Comparator.<FeedHead<T>, T>comparing(h -> h.time)
+			.thenComparing(h -> h.trade.getTradeType(), tieBreak)
+			.thenComparingInt(h -> h.feed);
+		PriorityQueue<FeedHead<T>> heap = new PriorityQueue<>(Math.max(1, feeds.size()), comparator);
+		for(int i = 0, n = feeds.size() ; i < n ; ++i) {
+			FeedHead<T> head = new FeedHead<>(i, feeds.get(i));
+			if(head.next(timestamp)) {
+				heap.add(head);
+			}
+		}
+		while(!heap.isEmpty()) {
+			//the head is reused for the next trade of its feed
+			FeedHead<T> head = heap.poll();
+			add(head.trade);
+			if(head.next(timestamp)) {
+				heap.add(head);
+			}
+		}
+	}
+
+	/**
+	 * next trade of a feed
+	 */
+	private static class FeedHead<T extends Comparable<? super T>> {
+		private final int feed;
+		private final Iterator<TradeWrapper> iterator;
+		private TradeWrapper trade;
+		private T time;
+
+		FeedHead(int feed, Iterator<TradeWrapper> iterator) {
+			this.feed = feed;
+			this.iterator = iterator;
+		}
+
+		/**
+		 * @return false at the end of the feed
+		 */
+		boolean next(Function<? super TradeWrapper, ? extends T> timestamp) {
+			while(iterator.hasNext()) {
+				TradeWrapper t = iterator.next();
+				if(t == null) continue;
+				T time = Objects.requireNonNull(timestamp.apply(t), "timestamp null");
+				if(this.time != null && time.compareTo(this.time) < 0) {
+					throw new IllegalArgumentException("feed %s not sorted : %s after %s".formatted(feed, time, this.time));
+				}
+				this.trade = t;
+				this.time = time;
+				return true;
+			}
+			return false;
 		}
 	}
 
 	public void add(TradeWrapper trade) {
 		if(trade == null) return;
+		++this.tradeCount;
+		if(this.listeners.isEmpty()) {
+			dispatch(trade);
+			return;
+		}
+		//notify the listeners even if the trade fails : some stock values may be modified
+		StockDelta delta = new StockDelta();
+		this.delta = delta;
+		TradeType type = trade.getTradeType();
+		boolean modification = type == TradeType.MODIFICATION || type == TradeType.MODIFICATION_QUANTITY;
+		BigDecimal quantityBefore = null;
+		MonetaryAmount amountBefore = null;
+		if(modification) {
+			TradeWrapper before = getStock();
+			quantityBefore = before.getQuantity();
+			amountBefore = before.getAmount();
+		}
+		try {
+			dispatch(trade);
+		} finally {
+			this.delta = null;
+			if(modification) {
+				delta.modification(quantityBefore, amountBefore, getStock());
+			}
+			for(StockListener listener : new ArrayList<>(this.listeners)) {
+				listener.stockChanged(this, delta.quantity, delta.amount, delta.realized);
+			}
+		}
+	}
+
+	/**
+	 * Add opening lots, for instance from a statement. Same as adding each buy, in one call of the strategy :
+	 * the short lots are covered first.
+	 * Listeners are notified once.
+	 * @param lots buys in time order. Null values are ignored.
+	 * @throws IllegalArgumentException if a lot is not a buy. Nothing is added.
+	 */
+	public void addLots(Collection<TradeWrapper> lots) {
+		List<TradeWrapper> list = new ArrayList<>(lots.size());
+		for(TradeWrapper t : lots) {
+			if(t == null) continue;
+			if(t.getTradeType() != TradeType.BUY) {
+				throw new IllegalArgumentException("lot %s is not a buy".formatted(t));
+			}
+			list.add(t);
+		}
+		if(list.isEmpty()) return;
+		this.tradeCount += list.size();
+		StockDelta delta = this.listeners.isEmpty() ? null : new StockDelta();
+		if(!shortLots.isEmpty()) {
+			this.delta = delta;
+			try {
+				for(Iterator<TradeWrapper> iter = list.iterator() ; iter.hasNext() && !shortLots.isEmpty() ; ) {
+					TradeWrapper t = iter.next();
+					cover(t);
+					if(t.getQuantity().signum() == 0) {
+						iter.remove();
+					}
+				}
+			} finally {
+				this.delta = null;
+			}
+		}
+		if(delta != null) {
+			for(TradeWrapper t : list) {
+				delta.buy(t);
+			}
+		}
+		if(!list.isEmpty()) {
+			if(undoLog != null) {
+				logAdd(list);
+			}
+			this.getStrategy().addAll(list);
+			for(TradeWrapper t : list) {
+				lotChanged(t, LotChange.Kind.ADDED);
+			}
+		}
+		if(history != null) {
+			history.endTrade(tradeCount);
+		}
+		if(delta != null) {
+			for(StockListener listener : new ArrayList<>(this.listeners)) {
+				listener.stockChanged(this, delta.quantity, delta.amount, delta.realized);
+			}
+		}
+	}
+
+	/**
+	 * Close the period : closed positions, modifications and orphan sells are handed to the sink, then cleared
+	 * with the forced amounts. The opened positions become the opening balance of the next period.
+	 * Forced amounts of later trades must be registered after the close. The trade count is kept.
+	 * @param sink null to drop the history
+	 */
+	public void closePeriod(PeriodSink sink) {
+		if(undoLog != null) {
+			throw new IllegalStateException("period close in a transaction");
+		}
+		if(sink != null) {
+			sink.periodClosed(this, Collections.unmodifiableList(this.closedPositionStore.getPositions()),
+				Collections.unmodifiableList(this.modifications), Collections.unmodifiableList(this.orphanSells));
+		}
+		this.closedPositionStore.clear();
+		this.modifications.clear();
+		this.orphanSells.clear();
+		this.mapBuySell.clear();
+		this.mapModification.clear();
+		if(!this.restoredKeys.isEmpty()) {
+			//only the opened positions can be traded again
+			Map<TradeWrapper, Boolean> lots = new IdentityHashMap<>();
+			for(TradeWrapper t : getStrategy()) {
+				lots.put(keyOf(t), Boolean.TRUE);
+			}
+			getStrategy().flush();
+			this.restoredKeys.values().removeIf(t -> !lots.containsKey(t));
+		}
+	}
+
+	/**
+	 * Start or stop the tracking of the changed lots. Tracking starts with no change.
+	 * The lots are tracked by identity : the strategy must keep its TradeWrappers (not the case of the OffHeapStrategy).
+	 * A copy tracks its lots if this stock manager does.
+	 * @param tracking
+	 */
+	public void setLotTracking(boolean tracking) {
+		this.changedLots = tracking ? new LinkedHashMap<>() : null;
+	}
+
+	public boolean isLotTracking() {
+		return changedLots != null;
+	}
+
+	/**
+	 * Lots added, partially sold, modified or sold since the last checkpoint, one change by lot with its current values.
+	 * In PRMP mode, the stock is the only lot : it's CHANGED or REMOVED. Short lots are not included.
+	 * @return the changes in first change order
+	 * @throws IllegalStateException if the lots are not tracked
+	 */
+	public Iterator<LotChange> getLotChanges() {
+		if(changedLots == null) {
+			throw new IllegalStateException("lots not tracked");
+		}
+		if(mode == Mode.PRMP) {
+			if(changedLots.isEmpty()) return Collections.emptyIterator();
+			TradeWrapper stock = getStock();
+			LotChange.Kind kind = isEmpty() ? LotChange.Kind.REMOVED : LotChange.Kind.CHANGED;
+			return List.of(new LotChange(kind, null, stock.getQuantity(), stock.getAmount())).iterator();
+		}
+		Iterator<Map.Entry<TradeWrapper, LotChange.Kind>> iterator = changedLots.entrySet().iterator();
+		return new Iterator<>() {
+			@Override
+			public boolean hasNext() {
+				return iterator.hasNext();
+			}
+
+			@Override
+			public LotChange next() {
+				Map.Entry<TradeWrapper, LotChange.Kind> e = iterator.next();
+				TradeWrapper t = e.getKey();
+				return new LotChange(e.getValue(), t.getSource(), t.getQuantity(), t.getAmount());
+			}
+		};
+	}
+
+	/**
+	 * forget the changed lots
+	 */
+	public void checkpointLots() {
+		if(changedLots != null) {
+			changedLots.clear();
+		}
+	}
+
+	private void lotChanged(TradeWrapper lot, LotChange.Kind kind) {
+		if(history != null) {
+			history.touch(lot);
+		}
+		if(changedLots == null) return;
+		if(mode == Mode.PRMP) {
+			//the stock TradeWrapper is replaced by each buy : a single entry
+			changedLots.put(null, LotChange.Kind.CHANGED);
+			return;
+		}
+		LotChange.Kind previous = changedLots.get(lot);
+		if(previous == null) {
+			changedLots.put(lot, kind);
+		} else if(previous == LotChange.Kind.ADDED) {
+			if(kind == LotChange.Kind.REMOVED) {
+				//added and removed in the same period
+				changedLots.remove(lot);
+			}
+		} else {
+			changedLots.put(lot, kind);
+		}
+	}
+
+	private void lotsChanged(List<TradeWrapper> lots) {
+		if(changedLots == null && history == null) return;
+		for(TradeWrapper t : lots) {
+			lotChanged(t, LotChange.Kind.CHANGED);
+		}
+	}
+
+	/**
+	 * Keep the versions of the opened positions from now on, for the queries as of a past trade.
+	 * The opened positions are copied every checkpoint interval trades : a query costs the number of opened positions
+	 * and the changes since the previous checkpoint.
+	 * The lots are tracked by identity : the strategy must keep its TradeWrappers (not the case of the OffHeapStrategy).
+	 * Short lots are not versioned, see {@link #getShortPositions()}. A copy doesn't keep the history.
+	 * @param checkpointInterval number of trades between copies of the opened positions
+	 */
+	public void enableHistory(int checkpointInterval) {
+		if(checkpointInterval <= 0) {
+			throw new IllegalArgumentException("bad checkpoint interval " + checkpointInterval);
+		}
+		if(undoLog != null) {
+			throw new IllegalStateException("history enabled in a transaction");
+		}
+		this.history = new LotHistory(this, checkpointInterval);
+	}
+
+	public void disableHistory() {
+		this.history = null;
+	}
+
+	/**
+	 * @param asOf a trade count since the history is enabled
+	 * @return the opened positions after this trade
+	 * @throws IllegalStateException if the history is not enabled
+	 * @throws IllegalArgumentException if asOf is out of the history
+	 */
+	public List<Position> getOpenedPositions(long asOf) {
+		if(history == null) {
+			throw new IllegalStateException("history not enabled");
+		}
+		return history.getOpenedPositions(asOf);
+	}
+
+	/**
+	 * @param asOf a trade count since the history is enabled
+	 * @return the quantity and buy value amount after this trade
+	 * @see #getOpenedPositions(long)
+	 */
+	public TradeWrapper getStock(long asOf) {
+		BigDecimal quantity = BigDecimal.ZERO;
+		MonetaryAmount amount = null;
+		for(Position p : getOpenedPositions(asOf)) {
+			quantity = quantity.add(p.getQuantity());
+			amount = amount == null ? p.getAmount() : amount.add(p.getAmount());
+		}
+		return TradeWrapper.buy(quantity, amount, null);
+	}
+
+	/**
+	 * Start a transaction : the trades added until the commit can be rolled back.
+	 * Forced amounts, listeners and lot tracking checkpoints are not part of the transaction.
+	 * @throws IllegalStateException if a transaction is running or if the strategy doesn't support undo
+	 */
+	public void begin() {
+		if(undoLog != null) {
+			throw new IllegalStateException("transaction running");
+		}
+		if(!getStrategy().supportsUndo()) {
+			throw new IllegalStateException("strategy %s doesn't support transactions".formatted(getStrategy().getClass().getSimpleName()));
+		}
+		undoLog = new ArrayList<>();
+		savedTrades = new IdentityHashMap<>();
+		transactionClosed = this.closedPositionStore.getPositions().size();
+		saveCounters();
+		if(changedLots != null) {
+			Map<TradeWrapper, LotChange.Kind> changes = new LinkedHashMap<>(changedLots);
+			undoLog.add(() -> {
+				changedLots.clear();
+				changedLots.putAll(changes);
+			});
+		}
+	}
+
+	/**
+	 * keep the changes of the transaction
+	 * @throws IllegalStateException if no transaction is running
+	 */
+	public void commit() {
+		if(undoLog == null) {
+			throw new IllegalStateException("no transaction");
+		}
+		undoLog = null;
+		savedTrades = null;
+	}
+
+	/**
+	 * Undo the trades added since begin, including the failed ones. The added trades get their values back.
+	 * Listeners are notified once of the reversal : stock change and opposite of the realized amount.
+	 * @throws IllegalStateException if no transaction is running
+	 */
+	public void rollback() {
+		if(undoLog == null) {
+			throw new IllegalStateException("no transaction");
+		}
+		List<Runnable> log = undoLog;
+		undoLog = null;
+		savedTrades = null;
+		revert(transactionClosed, () -> {
+			for(int i = log.size() - 1 ; i >= 0 ; --i) {
+				log.get(i).run();
+			}
+		});
+	}
+
+	/**
+	 * run undo and notify the listeners of the reversal
+	 * @param closed number of closed positions kept
+	 */
+	private void revert(int closed, Runnable undo) {
+		StockDelta delta = null;
+		BigDecimal quantityBefore = null;
+		MonetaryAmount amountBefore = null;
+		if(!this.listeners.isEmpty()) {
+			delta = new StockDelta();
+			TradeWrapper before = getStock();
+			quantityBefore = before.getQuantity();
+			amountBefore = before.getAmount();
+			List<Position> positions = this.closedPositionStore.getPositions();
+			for(Position position : positions.subList(closed, positions.size())) {
+				delta.cover(position);
+			}
+		}
+		undo.run();
+		if(delta != null) {
+			delta.modification(quantityBefore, amountBefore, getStock());
+			if(delta.realized != null) {
+				delta.realized = delta.realized.negate();
+			}
+			for(StockListener listener : new ArrayList<>(this.listeners)) {
+				listener.stockChanged(this, delta.quantity, delta.amount, delta.realized);
+			}
+		}
+	}
+
+	public boolean isInTransaction() {
+		return undoLog != null;
+	}
+
+	/**
+	 * State of a stock manager to roll back to : copies of the opened positions and the sizes of the append only lists.
+	 */
+	public static final class Savepoint {
+		private final StockManager manager;
+		private final List<TradeWrapper> lots = new ArrayList<>();
+		private final List<TradeWrapper> shortLots = new ArrayList<>();
+		private final long tradeCount;
+		private final int closed;
+		private final int modifications;
+		private final int orphans;
+		private final LotHistory history;
+		private final long[] mark;
+
+		private Savepoint(StockManager manager) {
+			this.manager = manager;
+			for(TradeWrapper t : manager.getLots()) {
+				this.lots.add(t.copy());
+			}
+			for(TradeWrapper t : manager.shortLots) {
+				this.shortLots.add(t.copy());
+			}
+			this.tradeCount = manager.tradeCount;
+			this.closed = manager.closedPositionStore.getPositions().size();
+			this.modifications = manager.modifications.size();
+			this.orphans = manager.orphanSells.size();
+			this.history = manager.history;
+			this.mark = history == null ? null : history.mark();
+		}
+	}
+
+	/**
+	 * Save the current state. Unlike a copy, the closed positions, modifications and orphan sells are not copied.
+	 * @return the savepoint
+	 * @see #rollback(Savepoint)
+	 */
+	public Savepoint savepoint() {
+		return new Savepoint(this);
+	}
+
+	/**
+	 * Go back to the state of the savepoint : the closed position store, the modifications and the orphan sells are truncated.
+	 * The savepoints taken after it are not valid anymore. Forced amounts and listeners are kept.
+	 * Listeners are notified once of the reversal as in {@link #rollback()}. Lot tracking starts again with no change.
+	 * @param savepoint a savepoint of this stock manager
+	 * @throws IllegalArgumentException if the savepoint is not of this stock manager or after its state
+	 * @throws IllegalStateException if a transaction is running
+	 */
+	public void rollback(Savepoint savepoint) {
+		if(undoLog != null) {
+			throw new IllegalStateException("transaction running");
+		}
+		if(savepoint.manager != this || savepoint.tradeCount > this.tradeCount
+				|| savepoint.closed > this.closedPositionStore.getPositions().size()
+				|| savepoint.modifications > this.modifications.size() || savepoint.orphans > this.orphanSells.size()) {
+			throw new IllegalArgumentException("savepoint not of this stock manager state");
+		}
+		revert(savepoint.closed, () -> {
+			Strategy strategy = getStrategy();
+			strategy.clear();
+			List<TradeWrapper> lots = new ArrayList<>(savepoint.lots.size());
+			for(TradeWrapper t : savepoint.lots) {
+				lots.add(t.copy());
+			}
+			strategy.addAll(lots);
+			this.shortLots.clear();
+			for(TradeWrapper t : savepoint.shortLots) {
+				this.shortLots.add(t.copy());
+			}
+			if(savepoint.history != null && savepoint.history == this.history) {
+				history.rollback(savepoint.mark);
+			}
+			this.tradeCount = savepoint.tradeCount;
+			this.closedPositionStore.truncate(savepoint.closed);
+			this.modifications.subList(savepoint.modifications, this.modifications.size()).clear();
+			this.orphanSells.subList(savepoint.orphans, this.orphanSells.size()).clear();
+			checkpointLots();
+		});
+	}
+
+	/**
+	 * the history is append only : it's truncated back
+	 */
+	private void saveCounters() {
+		long tradeCount = this.tradeCount;
+		int closed = this.closedPositionStore.getPositions().size();
+		int modifications = this.modifications.size();
+		int orphans = this.orphanSells.size();
+		LotHistory history = this.history;
+		long[] mark = history == null ? null : history.mark();
+		undoLog.add(() -> {
+			if(history != null && history == this.history) {
+				history.rollback(mark);
+			}
+			this.tradeCount = tradeCount;
+			this.closedPositionStore.truncate(closed);
+			this.modifications.subList(modifications, this.modifications.size()).clear();
+			this.orphanSells.subList(orphans, this.orphanSells.size()).clear();
+		});
+	}
+
+	/**
+	 * save the values of t before its first change in the transaction
+	 */
+	private void save(TradeWrapper t) {
+		if(undoLog == null || savedTrades.put(t, Boolean.TRUE) != null) return;
+		BigDecimal quantity = t.quantity;
+		MonetaryAmount amount = t.amount;
+		int buyValues = t.buyValues.size();
+		undoLog.add(() -> {
+			t.quantity = quantity;
+			t.amount = amount;
+			if(t.buyValues.size() > buyValues) {
+				t.buyValues.subList(buyValues, t.buyValues.size()).clear();
+			}
+		});
+	}
+
+	private void save(List<TradeWrapper> lots) {
+		if(undoLog == null) return;
+		for(TradeWrapper t : lots) {
+			save(t);
+		}
+	}
+
+	private void logAdd(List<TradeWrapper> lots) {
+		Strategy strategy = getStrategy();
+		if(mode == Mode.PRMP) {
+			//the stock is replaced by each buy
+			TradeWrapper previous = strategy.peek();
+			undoLog.add(() -> {
+				strategy.clear();
+				strategy.undoRemove(previous);
+			});
+		} else {
+			for(TradeWrapper t : lots) {
+				undoLog.add(() -> strategy.undoAdd(t));
+			}
+		}
+	}
+
+	private void dispatch(TradeWrapper trade) {
+		try {
+			apply(trade);
+		} finally {
+			//a failed trade may have changed lots
+			if(history != null) {
+				history.endTrade(tradeCount);
+			}
+			getStrategy().flush();
+		}
+	}
+
+	private void apply(TradeWrapper trade) {
 		TradeType type = trade.getTradeType();
 		switch(type) {
 		case BUY:
+			if(!shortLots.isEmpty()) {
+				cover(trade);
+				if(trade.getQuantity().signum() == 0) break;
+			}
+			if(undoLog != null) {
+				logAdd(List.of(trade));
+			}
 			this.getStrategy().add(trade);
+			lotChanged(trade, LotChange.Kind.ADDED);
+			if(delta != null) {
+				delta.buy(trade);
+			}
 			break;
 		case SELL:
 			sell(trade);
@@ -218,6 +1028,7 @@ public class StockManager {
 		if(trade.getTradeType() != TradeType.RBT) return;
 		BigDecimal quantity = trade.getQuantity();
 		if(quantity == null) {
+			save(trade);
 			//full reimbursement required
 			quantity = this.getStrategy().getQuantity();
 			trade.setQuantity(quantity);
@@ -265,12 +1076,16 @@ public class StockManager {
 		if(t.getTradeType() != TradeType.MODIFICATION) return;
 		List<TradeWrapper> list = buildListTradeWrappers();
 		checkModifications(t.getAmount());
+		lotsChanged(list);
+		save(list);
 		modification(t, list);
 	}
 
 	private void modificationQuantity(TradeWrapper t) {
 		if(t.getTradeType() != TradeType.MODIFICATION_QUANTITY) return;
 		List<TradeWrapper> list = buildListTradeWrappers();
+		lotsChanged(list);
+		save(list);
 		modificationQuantity(t, list);
 	}
 
@@ -341,7 +1156,7 @@ public class StockManager {
 			this.modifications.add(modification);
 		} else {
 			//multiple buy values
-			Map<TradeWrapper, MonetaryAmount> modifications = this.mapModification.get(t);
+			Map<TradeWrapper, MonetaryAmount> modifications = this.mapModification.get(keyOf(t));
 			if(modifications != null) {
 				checkModifications(modificationAmount, modifications.values());
 				//build new buys list
@@ -349,7 +1164,7 @@ public class StockManager {
 				//force modification amount
 				while(iter.hasNext()) {
 					TradeWrapper buy = iter.next();
-					MonetaryAmount amount = modifications.get(buy);
+					MonetaryAmount amount = modifications.get(keyOf(buy));
 					if(amount != null) {
 						modificationAmount = modificationAmount.subtract(amount);
 						MonetaryAmount stockAmount = buy.getAmount();
@@ -468,14 +1283,7 @@ public class StockManager {
 			Modification modification = new Modification(buy, t, buy.getQuantity(), amount, buy.getAmount());
 			this.modifications.add(modification);
 		} else {
-			MonetaryAmount value = modificationAmount.multiply(quantity);
-			try {
-				value = value.divide(stockQuantity);
-			} catch(ArithmeticException e) {
-				double x = value.getNumber().doubleValue() / stockQuantity.doubleValue();
-				value = factory.setNumber(x).setCurrency(amount.getCurrency()).create();
-			}
-			value = value.with(getRounding());
+			MonetaryAmount value = shareByQuantity(modificationAmount, quantity, stockQuantity);
 			MonetaryAmount diff = amount.add(value);
 			if(diff.isNegative()) {
 				throw new StockAmountReductionException(amount, value);
@@ -499,8 +1307,7 @@ public class StockManager {
 			Modification modification = new Modification(buy, t, buy.getQuantity(), amount, buy.getAmount());
 			this.modifications.add(modification);
 		} else {
-			double factor = amount.getNumber().doubleValue() / stockAmount.getNumber().doubleValue();
-			MonetaryAmount value = modificationAmount.multiply(factor).with(getRounding());
+			MonetaryAmount value = shareByAmount(modificationAmount, amount, stockAmount);
 			buy.setAmount(amount.add(value));
 			stockAmount = stockAmount.subtract(amount);
 			modificationAmount = modificationAmount.subtract(value);
@@ -510,10 +1317,267 @@ public class StockManager {
 		}
 	}
 
+	/**
+	 * @return rounded part of modificationAmount for quantity among stockQuantity
+	 */
+	MonetaryAmount shareByQuantity(MonetaryAmount modificationAmount, BigDecimal quantity, BigDecimal stockQuantity) {
+		MonetaryAmount value = modificationAmount.multiply(quantity);
+		try {
+			value = value.divide(stockQuantity);
+		} catch(ArithmeticException e) {
+			double x = value.getNumber().doubleValue() / stockQuantity.doubleValue();
+			value = factory.setNumber(x).setCurrency(modificationAmount.getCurrency()).create();
+		}
+		return value.with(getRounding());
+	}
+
+	/**
+	 * @return rounded part of modificationAmount for amount among stockAmount
+	 */
+	MonetaryAmount shareByAmount(MonetaryAmount modificationAmount, MonetaryAmount amount, MonetaryAmount stockAmount) {
+		double factor = amount.getNumber().doubleValue() / stockAmount.getNumber().doubleValue();
+		return modificationAmount.multiply(factor).with(getRounding());
+	}
+
+	/**
+	 * Add modifications in time order. Consecutive modifications sharing by quantity, or by amount, are applied
+	 * in one pass over the lots. Others are added one by one.
+	 */
+	private void addModifications(List<TradeWrapper> trades) {
+		int i = 0;
+		int n = trades.size();
+		while(i < n) {
+			int end = coalescable(trades, i);
+			if(end - i < 2) {
+				add(trades.get(i++));
+			} else {
+				coalesce(trades.subList(i, end));
+				i = end;
+			}
+		}
+	}
+
+	/**
+	 * @return end of the modifications from start applied the same way as one by one in a single pass
+	 */
+	private int coalescable(List<TradeWrapper> trades, int start) {
+		if(!this.listeners.isEmpty() || this.history != null || this.getStrategy().size() < 2) return start;
+		Boolean byQuantity = null;
+		MonetaryAmount stockAmount = getStock().getAmount();
+		int i = start;
+		for(int n = trades.size() ; i < n ; ++i) {
+			TradeWrapper t = trades.get(i);
+			if(this.mapModification.containsKey(keyOf(t))) break;
+			Boolean b = sharedByQuantity(t);
+			if(b == null || (byQuantity != null && !b.equals(byQuantity))) break;
+			MonetaryAmount diff = stockAmount.add(t.getAmount());
+			//a failing reduction is added alone
+			if(diff.isNegative()) break;
+			byQuantity = b;
+			stockAmount = diff;
+		}
+		if(Boolean.TRUE.equals(byQuantity) && lastLotByQuantity(buildListTradeWrappers()) < 0) {
+			//the modification fails by quantity
+			return start;
+		}
+		return i;
+	}
+
+	/**
+	 * @return true if t is shared by quantity, false by amount, null if it depends on the lots
+	 */
+	Boolean sharedByQuantity(TradeWrapper t) {
+		int sign = t.getAmount().signum();
+		ModificationMode modificationMode = getModificationMode(t);
+		if(sign > 0) {
+			return modificationMode != ModificationMode.MONEY;
+		} else if(sign < 0 && (modificationMode == ModificationMode.MIXED || modificationMode == ModificationMode.MONEY)) {
+			return Boolean.FALSE;
+		}
+		//zero amounts below the threshold
+		return null;
+	}
+
+	/**
+	 * The lot taking the remaining amount of a modification by quantity only depends on the quantities.
+	 * @return its index, -1 if none
+	 */
+	private static int lastLotByQuantity(List<TradeWrapper> buys) {
+		BigDecimal stockQuantity = buys.stream().map(TradeWrapper::getQuantity).reduce(BigDecimal.ZERO, BigDecimal::add);
+		for(int i = 0, n = buys.size() ; i < n ; ++i) {
+			BigDecimal quantity = buys.get(i).getQuantity();
+			if(quantity.equals(stockQuantity)) return i;
+			stockQuantity = stockQuantity.subtract(quantity);
+		}
+		return -1;
+	}
+
+	/**
+	 * Apply modifications in one pass over the lots : each lot receives its share of each modification in order.
+	 * Shares and modification records are the same as one by one.
+	 */
+	private void coalesce(List<TradeWrapper> trades) {
+		this.tradeCount += trades.size();
+		List<TradeWrapper> buys = buildListTradeWrappers();
+		lotsChanged(buys);
+		save(buys);
+		boolean byQuantity = sharedByQuantity(trades.get(0));
+		BigDecimal stockQuantity = buys.stream().map(TradeWrapper::getQuantity).reduce(BigDecimal.ZERO, BigDecimal::add);
+		MonetaryAmount stockAmount = buys.get(0).getAmount();
+		for(int i = 1, n = buys.size() ; i < n ; ++i) {
+			stockAmount = stockAmount.add(buys.get(i).getAmount());
+		}
+		List<PendingModification> pending = new ArrayList<>(trades.size());
+		for(TradeWrapper t : trades) {
+			pending.add(new PendingModification(t, stockQuantity, stockAmount));
+			//the amounts are shared exactly
+			stockAmount = stockAmount.add(t.getAmount());
+		}
+		for(TradeWrapper buy : buys) {
+			for(PendingModification p : pending) {
+				if(p.done) continue;
+				MonetaryAmount amount = buy.getAmount();
+				BigDecimal quantity = buy.getQuantity();
+				if(byQuantity ? quantity.equals(p.stockQuantity) : amount.equals(p.stockAmount)) {
+					buy.setAmount(amount.add(p.remaining));
+					p.done = true;
+				} else {
+					MonetaryAmount value = byQuantity ? shareByQuantity(p.remaining, quantity, p.stockQuantity) : shareByAmount(p.remaining, amount, p.stockAmount);
+					buy.setAmount(amount.add(value));
+					p.remaining = p.remaining.subtract(value);
+					p.stockQuantity = p.stockQuantity.subtract(quantity);
+					p.stockAmount = p.stockAmount.subtract(amount);
+				}
+				p.modifications.add(new Modification(buy, p.trade, buy.getQuantity(), amount, buy.getAmount()));
+			}
+		}
+		for(PendingModification p : pending) {
+			this.modifications.addAll(p.modifications);
+		}
+	}
+
+	/**
+	 * a modification being applied by coalesce
+	 */
+	private static class PendingModification {
+		private final TradeWrapper trade;
+		private final List<Modification> modifications = new ArrayList<>();
+		private MonetaryAmount remaining;
+		private BigDecimal stockQuantity;
+		private MonetaryAmount stockAmount;
+		private boolean done;
+
+		PendingModification(TradeWrapper trade, BigDecimal stockQuantity, MonetaryAmount stockAmount) {
+			this.trade = trade;
+			this.remaining = trade.getAmount();
+			this.stockQuantity = stockQuantity;
+			this.stockAmount = stockAmount;
+		}
+	}
+
 	public TradeWrapper getStock() {
 		return getStrategy().getStock();
 	}
 
+	/**
+	 * the rest of the sell is a short lot
+	 */
+	private void openShort(TradeWrapper sell) {
+		save(sell);
+		if(mode == Mode.LIFO) {
+			shortLots.addFirst(sell);
+			if(undoLog != null) {
+				undoLog.add(shortLots::removeFirst);
+			}
+		} else {
+			shortLots.addLast(sell);
+			if(undoLog != null) {
+				undoLog.add(shortLots::removeLast);
+			}
+		}
+	}
+
+	/**
+	 * Cover the short lots with the buy. The closed positions have the cost of the buy.
+	 * The rest of the buy quantity is a long lot.
+	 */
+	private void cover(TradeWrapper buy) {
+		save(buy);
+		while(buy.getQuantity().signum() > 0 && !shortLots.isEmpty()) {
+			TradeWrapper sell = shortLots.peekFirst();
+			save(sell);
+			BigDecimal buyQuantity = buy.getQuantity();
+			BigDecimal quantity = sell.getQuantity();
+			MonetaryAmount amount;
+			if(quantity.compareTo(buyQuantity) >= 0) {
+				quantity = buyQuantity;
+				amount = buy.getAmount();
+			} else {
+				amount = this.mapBuySell.get(new BuySellKey(keyOf(sell), keyOf(buy)));
+				if(amount == null) {
+					amount = shareByQuantity(buy.getAmount(), quantity, buyQuantity);
+				}
+			}
+			buy.setQuantity(buyQuantity.subtract(quantity));
+			buy.setAmount(buy.getAmount().subtract(amount));
+			sell.setQuantity(sell.getQuantity().subtract(quantity));
+			sell.setAmount(sell.getAmount() == null ? amount : sell.getAmount().add(amount));
+			sell.addBuyValues(buy);
+			Position position = new Position(buy.getSource(), sell.getSource(), quantity, amount, CloseCause.SELL);
+			closedPositionStore.add(position);
+			if(delta != null) {
+				delta.cover(position);
+			}
+			if(sell.getQuantity().signum() == 0) {
+				shortLots.removeFirst();
+				if(undoLog != null) {
+					undoLog.add(() -> shortLots.addFirst(sell));
+				}
+			}
+		}
+	}
+
+	/**
+	 * In short selling mode, the part of a sell exceeding the stock is a short lot instead of an orphan sell.
+	 * The next buys cover the short lots in mode order (FIFO in PRMP mode) and close positions with their cost.
+	 * Reimbursements are never short. Short lots are not in the lot tracking nor the history.
+	 * @param shortSelling
+	 * @throws IllegalStateException if short lots are opened
+	 */
+	public void setShortSelling(boolean shortSelling) {
+		if(!shortSelling && !shortLots.isEmpty()) {
+			throw new IllegalStateException("short lots opened");
+		}
+		this.shortSelling = shortSelling;
+	}
+
+	public boolean isShortSelling() {
+		return shortSelling;
+	}
+
+	/**
+	 * @return the short lots in cover order : sell source and quantity not covered yet.
+	 * The amount is the cost already covered, null if none.
+	 */
+	public List<Position> getShortPositions() {
+		List<Position> list = new ArrayList<>(shortLots.size());
+		for(TradeWrapper t : shortLots) {
+			list.add(new Position(null, t.getSource(), t.getQuantity(), t.getAmount(), null));
+		}
+		return list;
+	}
+
+	/**
+	 * @return the quantity of the short lots
+	 */
+	public BigDecimal getShortQuantity() {
+		BigDecimal quantity = BigDecimal.ZERO;
+		for(TradeWrapper t : shortLots) {
+			quantity = quantity.add(t.getQuantity());
+		}
+		return quantity;
+	}
+
 	private void sell(TradeWrapper sell) {
 		CloseCause closeCause = null;
 		switch(sell.getTradeType()) {
@@ -529,7 +1593,11 @@ public class StockManager {
 		BigDecimal sellQuantity = sell.getQuantity();
 		if(this.isEmpty()) {
 			if(sellQuantity.signum() > 0) {
-				this.orphanSells.add(sell);
+				if(shortSelling && closeCause == CloseCause.SELL) {
+					openShort(sell);
+				} else {
+					this.orphanSells.add(sell);
+				}
 			}
 			return;
 		}
@@ -539,6 +1607,8 @@ public class StockManager {
 
 		Strategy strategy = this.getStrategy();
 		TradeWrapper buy = strategy.peek();
+		save(sell);
+		save(buy);
 		final BigDecimal stockQuantity = buy.getQuantity();
 		final MonetaryAmount stockAmount = buy.getAmount();
 		CurrencyUnit currency = stockAmount.getCurrency();
@@ -559,13 +1629,18 @@ public class StockManager {
 			Position position = new Position(buySource, sellSource, stockQuantity, stockAmount, closeCause);
 			this.addClosedPosition(position);
 			strategy.remove();
+			if(undoLog != null) {
+				undoLog.add(() -> strategy.undoRemove(buy));
+			}
+			lotChanged(buy, LotChange.Kind.REMOVED);
 			if(nsign < 0) {
 				sell(sell);
 			}
 		} else {
 			//partial sell
-			BuySellKey key = new BuySellKey(sell, buy);
+			BuySellKey key = new BuySellKey(keyOf(sell), keyOf(buy));
 			buy.setQuantity(stockQuantity.subtract(sellQuantity));
+			lotChanged(buy, LotChange.Kind.CHANGED);
 			//is the amount provided ?
 			MonetaryAmount m = this.mapBuySell.get(key);
 			if(m == null) {
@@ -605,7 +1680,11 @@ public class StockManager {
 		private final Object source;
 		private final List<TradeWrapper> buyValues;
 		private final ModificationMode modificationMode;
-		
+		//identifies a redelivered trade
+		private final Object idempotencyKey;
+		//the copied trade
+		private final transient TradeWrapper origin;
+
 		public static class Builder {
 			private int scale;
 			private BigDecimal quantityBefore;
@@ -615,6 +1694,7 @@ public class StockManager {
 			private TradeType tradeType;
 			private Object source;
 			private ModificationMode modificationMode;
+			private Object idempotencyKey;
 
 			public Builder scale(int scale) {this.scale = scale; return this;}
 			public Builder quantityAfter(String quantity) {return quantityAfter(new BigDecimal(quantity));}
@@ -641,6 +1721,7 @@ public class StockManager {
 			public Builder tradeType(TradeType tradeType) {this.tradeType = tradeType; return this;}
 			public Builder source(Object source) {this.source = source; return this;}
 			public Builder modificationMode(ModificationMode modificationMode) {this.modificationMode = modificationMode; return this;}
+			public Builder idempotencyKey(Object idempotencyKey) {this.idempotencyKey = idempotencyKey; return this;}
 
 			public TradeWrapper build() {
 				List<TradeWrapper> buyValues = null;
@@ -666,7 +1747,7 @@ public class StockManager {
 						amount = null;
 						break;
 				}
-				return new TradeWrapper(scale, modificationMode, quantityBefore, quantityAfter, quantity, amount, tradeType, source, buyValues);
+				return new TradeWrapper(scale, modificationMode, quantityBefore, quantityAfter, quantity, amount, tradeType, source, buyValues, idempotencyKey);
 			}
 		}
 
@@ -680,7 +1761,7 @@ public class StockManager {
 			, BigDecimal quantityBefore
 			, BigDecimal quantityAfter
 			, BigDecimal quantity
-			, MonetaryAmount amount, TradeType tradeType, Object source, List<TradeWrapper> buyValues) {
+			, MonetaryAmount amount, TradeType tradeType, Object source, List<TradeWrapper> buyValues, Object idempotencyKey) {
 			this.scale = scale;
 			this.quantityAfter = quantityAfter;
 			this.quantityBefore = quantityBefore;
@@ -690,6 +1771,44 @@ public class StockManager {
 			this.source = source;
 			this.buyValues = buyValues;
 			this.modificationMode = modificationMode;
+			this.idempotencyKey = idempotencyKey;
+			this.origin = null;
+		}
+
+		private TradeWrapper(TradeWrapper t) {
+			this.scale = t.scale;
+			this.quantityAfter = t.quantityAfter;
+			this.quantityBefore = t.quantityBefore;
+			this.quantity = t.quantity;
+			this.amount = t.amount;
+			this.tradeType = t.tradeType;
+			this.source = t.source;
+			switch(tradeType) {
+			case SELL:
+			case RBT:
+				this.buyValues = new ArrayList<>(t.buyValues);
+				break;
+			default:
+				this.buyValues = Collections.emptyList();
+				break;
+			}
+			this.modificationMode = t.modificationMode;
+			this.idempotencyKey = t.idempotencyKey;
+			this.origin = t.key();
+		}
+
+		/**
+		 * @return a copy of this trade. Forced amounts registered for this trade apply to the copy.
+		 */
+		public TradeWrapper copy() {
+			return new TradeWrapper(this);
+		}
+
+		/**
+		 * @return the trade identifying this one in the forced amounts
+		 */
+		TradeWrapper key() {
+			return origin == null ? this : origin;
 		}
 
 		public static TradeWrapper modifyQuantity(BigDecimal quantityBefore, BigDecimal quantityAfter, int scale, Object source) {
@@ -774,7 +1893,7 @@ public class StockManager {
 			this.quantity = quantity;
 		}
 
-		private void setAmount(MonetaryAmount amount) {
+		void setAmount(MonetaryAmount amount) {
 			this.amount = amount;
 		}
 
@@ -817,13 +1936,20 @@ public class StockManager {
 		public ModificationMode getModificationMode() {
 			return modificationMode;
 		}
+
+		/**
+		 * @return the key identifying a redelivery of this trade. Null if none.
+		 */
+		public Object getIdempotencyKey() {
+			return idempotencyKey;
+		}
 	}
 	
 	public Mode getMode() {
 		return mode;
 	}
 
-	private Strategy getStrategy() {
+	Strategy getStrategy() {
 		return this.strategy;
 	}
 
@@ -845,12 +1971,10 @@ public class StockManager {
 
 	private void addClosedPosition(Position position) {
 		if(position == null) return;
-		closedPositions.add(position);
-		Object sell = position.getSell();
-		if(sell == null) return;
-		Object buy = position.getBuy();
-		this.mapClosedPositionsBySell.computeIfAbsent(sell, o -> new ArrayList<>()).add(position);
-		this.mapClosedPositionsByBuy.computeIfAbsent(buy, o -> new ArrayList<>()).add(position);
+		closedPositionStore.add(position);
+		if(delta != null) {
+			delta.close(position);
+		}
 	}
 
 	/**
@@ -858,8 +1982,7 @@ public class StockManager {
 	 * @return the list of closed positions attached to this buy position
 	 */
 	public List<Position> getClosedPositionsByBuy(Object buyValue) {
-		List<Position> list = this.mapClosedPositionsByBuy.get(buyValue);
-		return list == null ? Collections.emptyList() : Collections.unmodifiableList(list);
+		return Collections.unmodifiableList(this.closedPositionStore.getByBuy(buyValue));
 	}
 
 	/**
@@ -867,16 +1990,100 @@ public class StockManager {
 	 * @return the list of closed positions attached to this sell position
 	 */
 	public List<Position> getClosedPositionsBySell(Object sellValue) {
-		List<Position> list = this.mapClosedPositionsBySell.get(sellValue);
-		return list == null ? Collections.emptyList() : Collections.unmodifiableList(list);
+		return Collections.unmodifiableList(this.closedPositionStore.getBySell(sellValue));
 	}
 
 	public ModificationMode getModificationMode() {
 		return modificationMode;
 	}
 
-	private ModificationMode getModificationMode(TradeWrapper t) {
+	ModificationMode getModificationMode(TradeWrapper t) {
 		ModificationMode modificationMode = t.getModificationMode();
 		return modificationMode == null ? this.getModificationMode() : modificationMode;
 	}
+
+	/**
+	 * @return the number of added trades
+	 */
+	public long getTradeCount() {
+		return tradeCount;
+	}
+
+	void setTradeCount(long tradeCount) {
+		this.tradeCount = tradeCount;
+	}
+
+	/**
+	 * @param t
+	 * @return the trade used as key in the forced amounts maps
+	 */
+	TradeWrapper keyOf(TradeWrapper t) {
+		if(!restoredKeys.isEmpty() && t.getSource() != null) {
+			TradeWrapper restored = restoredKeys.get(List.of(t.getTradeType(), t.getSource()));
+			if(restored != null) return restored;
+		}
+		return t.key();
+	}
+
+	/**
+	 * @return forced amount of the sell for the buy, null if none
+	 */
+	MonetaryAmount getForcedAmount(TradeWrapper sell, TradeWrapper buy) {
+		return this.mapBuySell.get(new BuySellKey(keyOf(sell), keyOf(buy)));
+	}
+
+	/**
+	 * @return forced amounts of the modification by buy key, null if none
+	 */
+	Map<TradeWrapper, MonetaryAmount> getForcedAmounts(TradeWrapper modification) {
+		return this.mapModification.get(keyOf(modification));
+	}
+
+	/**
+	 * a trade restored from a snapshot. Trades with the same type and source share its forced amounts.
+	 */
+	void addRestoredKey(TradeWrapper t) {
+		if(t.getSource() != null) {
+			restoredKeys.put(List.of(t.getTradeType(), t.getSource()), t);
+		}
+	}
+
+	Map<BuySellKey, MonetaryAmount> getMapBuySell() {
+		return mapBuySell;
+	}
+
+	Map<TradeWrapper, Map<TradeWrapper, MonetaryAmount>> getMapModification() {
+		return mapModification;
+	}
+
+	/**
+	 * @return short lots in cover order
+	 */
+	Deque<TradeWrapper> getShortLots() {
+		return shortLots;
+	}
+
+	/**
+	 * @return opened positions in insertion order
+	 */
+	List<TradeWrapper> getLots() {
+		List<TradeWrapper> lots = new ArrayList<>();
+		Strategy strategy = getStrategy();
+		if(mode == Mode.PRMP) {
+			TradeWrapper stock = strategy.getStock();
+			//the amount of a zero quantity stock is kept
+			if(stock.getAmount() != null) {
+				lots.add(stock);
+			}
+		} else {
+			for(TradeWrapper t : strategy) {
+				lots.add(t);
+			}
+			strategy.flush();
+			if(mode == Mode.LIFO) {
+				Collections.reverse(lots);
+			}
+		}
+		return lots;
+	}
 }
@@ -0,0 +1,217 @@
+package io.github.ritonglue.gostock;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidObjectException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.money.MonetaryAmount;
+import javax.money.MonetaryRounding;
+
+import io.github.ritonglue.gostock.StockManager.BuySellKey;
+import io.github.ritonglue.gostock.StockManager.TradeWrapper;
+import io.github.ritonglue.gostock.strategy.Strategy;
+
+/**
+ * Binary snapshot of the state of a StockManager : opened positions, forced amounts, orphan sells, short lots and trade count.
+ * Restoring a snapshot costs the number of opened positions, not the length of the history.
+ * <p>
+ * Closed positions and modifications are not part of the snapshot : they belong to the history.
+ * The rounding is not stored : it's given at restore time.
+ * Trades and amounts are written by a {@link BinaryCodec}, sources by its source codec.
+ * The codec header follows the snapshot header : a snapshot is read with its schema version.
+ * <p>
+ * Forced amounts of trades not yet processed are restored by source : after a restore,
+ * a trade with the same type and the same source (equals) uses them. Such trades must have a non null source.
+ */
+public final class StockManagerSnapshot {
+	private static final int MAGIC = 0x474F5353;
+	//version 3 : binary codec encoding. Versions 1 and 2 were java serialization streams and are not read.
+	private static final short VERSION = 3;
+	//a reference to an opened position
+	private static final byte LOT = 0;
+	//a trade not in stock
+	private static final byte TRADE = 1;
+
+	private StockManagerSnapshot() {
+	}
+
+	/**
+	 * write with a codec using java serialization for the sources
+	 * @param manager
+	 * @param out not closed
+	 * @throws IOException
+	 */
+	public static void write(StockManager manager, OutputStream out) throws IOException {
+		write(manager, new BinaryCodec(), out);
+	}
+
+	/**
+	 * @param manager
+	 * @param codec
+	 * @param out not closed
+	 * @throws IOException
+	 */
+	public static void write(StockManager manager, BinaryCodec codec, OutputStream out) throws IOException {
+		DataOutputStream o = new DataOutputStream(out);
+		o.writeInt(MAGIC);
+		o.writeShort(VERSION);
+		codec.writeHeader(o);
+		o.writeByte(manager.getMode().ordinal());
+		o.writeByte(manager.getModificationMode().ordinal());
+		o.writeLong(manager.getTradeCount());
+
+		List<TradeWrapper> lots = manager.getLots();
+		Map<TradeWrapper, Integer> indexes = new IdentityHashMap<>();
+		o.writeInt(lots.size());
+		for(int i = 0, n = lots.size() ; i < n ; ++i) {
+			TradeWrapper lot = lots.get(i);
+			indexes.put(lot.key(), i);
+			codec.writeTrade(o, lot);
+		}
+
+		List<TradeWrapper> orphans = manager.getOrphanSells();
+		o.writeInt(orphans.size());
+		for(TradeWrapper t : orphans) {
+			codec.writeTrade(o, t);
+		}
+
+		o.writeBoolean(manager.isShortSelling());
+		Deque<TradeWrapper> shortLots = manager.getShortLots();
+		o.writeInt(shortLots.size());
+		for(TradeWrapper t : shortLots) {
+			codec.writeTrade(o, t);
+		}
+
+		Map<BuySellKey, MonetaryAmount> mapBuySell = manager.getMapBuySell();
+		o.writeInt(mapBuySell.size());
+		for(Map.Entry<BuySellKey, MonetaryAmount> e : mapBuySell.entrySet()) {
+			writeReference(o, codec, e.getKey().getSell(), indexes);
+			writeReference(o, codec, e.getKey().getBuy(), indexes);
+			BinaryCodec.writeAmount(o, e.getValue());
+		}
+
+		Map<TradeWrapper, Map<TradeWrapper, MonetaryAmount>> mapModification = manager.getMapModification();
+		o.writeInt(mapModification.size());
+		for(Map.Entry<TradeWrapper, Map<TradeWrapper, MonetaryAmount>> e : mapModification.entrySet()) {
+			writeReference(o, codec, e.getKey(), indexes);
+			o.writeInt(e.getValue().size());
+			for(Map.Entry<TradeWrapper, MonetaryAmount> f : e.getValue().entrySet()) {
+				writeReference(o, codec, f.getKey(), indexes);
+				BinaryCodec.writeAmount(o, f.getValue());
+			}
+		}
+		o.flush();
+	}
+
+	/**
+	 * read with a codec using java serialization for the sources
+	 * @param in not closed
+	 * @param rounding null for the default rounding
+	 * @return the restored stock manager
+	 * @throws IOException
+	 */
+	public static StockManager read(InputStream in, MonetaryRounding rounding) throws IOException {
+		return read(in, new BinaryCodec(), rounding);
+	}
+
+	/**
+	 * @param in not closed
+	 * @param codec
+	 * @param rounding null for the default rounding
+	 * @return the restored stock manager
+	 * @throws IOException
+	 */
+	public static StockManager read(InputStream in, BinaryCodec codec, MonetaryRounding rounding) throws IOException {
+		DataInputStream o = new DataInputStream(in);
+		if(o.readInt() != MAGIC) {
+			throw new InvalidObjectException("not a stock manager snapshot");
+		}
+		short version = o.readShort();
+		if(version != VERSION) {
+			throw new InvalidObjectException("unsupported snapshot version %s".formatted(version));
+		}
+		short schema = codec.readHeader(o);
+		Mode mode = BinaryCodec.readEnum(Mode.values(), o.readByte());
+		ModificationMode modificationMode = BinaryCodec.readEnum(ModificationMode.values(), o.readByte());
+		StockManager manager = new StockManager(mode, rounding, modificationMode);
+		manager.setTradeCount(o.readLong());
+
+		int n = o.readInt();
+		Strategy strategy = manager.getStrategy();
+		List<TradeWrapper> lots = new ArrayList<>(n);
+		for(int i = 0 ; i < n ; ++i) {
+			TradeWrapper lot = codec.readTrade(o, schema);
+			lots.add(lot);
+			strategy.add(lot);
+		}
+
+		n = o.readInt();
+		for(int i = 0 ; i < n ; ++i) {
+			manager.getOrphanSells().add(codec.readTrade(o, schema));
+		}
+
+		manager.setShortSelling(o.readBoolean());
+		n = o.readInt();
+		for(int i = 0 ; i < n ; ++i) {
+			manager.getShortLots().add(codec.readTrade(o, schema));
+		}
+
+		n = o.readInt();
+		for(int i = 0 ; i < n ; ++i) {
+			TradeWrapper sell = readReference(o, codec, schema, lots, manager);
+			TradeWrapper buy = readReference(o, codec, schema, lots, manager);
+			manager.getMapBuySell().put(new BuySellKey(sell, buy), codec.readAmount(o, schema));
+		}
+
+		n = o.readInt();
+		for(int i = 0 ; i < n ; ++i) {
+			TradeWrapper modification = readReference(o, codec, schema, lots, manager);
+			int m = o.readInt();
+			Map<TradeWrapper, MonetaryAmount> map = new HashMap<>();
+			for(int j = 0 ; j < m ; ++j) {
+				TradeWrapper buy = readReference(o, codec, schema, lots, manager);
+				map.put(buy, codec.readAmount(o, schema));
+			}
+			manager.getMapModification().put(modification, map);
+		}
+		return manager;
+	}
+
+	private static void writeReference(DataOutputStream o, BinaryCodec codec, TradeWrapper t, Map<TradeWrapper, Integer> indexes) throws IOException {
+		Integer index = indexes.get(t);
+		if(index == null) {
+			o.writeByte(TRADE);
+			codec.writeTrade(o, t);
+		} else {
+			o.writeByte(LOT);
+			o.writeInt(index);
+		}
+	}
+
+	private static TradeWrapper readReference(DataInputStream o, BinaryCodec codec, short schema, List<TradeWrapper> lots, StockManager manager) throws IOException {
+		byte kind = o.readByte();
+		switch(kind) {
+		case LOT:
+			int index = o.readInt();
+			if(index < 0 || index >= lots.size()) {
+				throw new InvalidObjectException("bad lot index %s".formatted(index));
+			}
+			return lots.get(index);
+		case TRADE:
+			TradeWrapper t = codec.readTrade(o, schema);
+			manager.addRestoredKey(t);
+			return t;
+		default:
+			throw new InvalidObjectException("bad reference %s".formatted(kind));
+		}
+	}
+}
@@ -0,0 +1,57 @@
+package io.github.ritonglue.gostock;
+
+import io.github.ritonglue.gostock.StockManager.TradeWrapper;
+
+/**
+ * A trade of a batch which would fail or not be matched
+ * @see StockManager#validate(Iterable)
+ */
+public class ValidationIssue {
+
+	public enum Kind {
+		/** sell or reimbursement exceeding the stock quantity : the rest is an orphan sell */
+		ORPHAN_SELL,
+		/** reduction exceeding the stock amount */
+		AMOUNT_REDUCTION,
+		/** modification of an empty stock */
+		EMPTY_POSITION_MODIFICATION,
+		/** forced amount exceeding the amount of a lot or the modification amount */
+		FORCED_AMOUNT
+	}
+
+	private final Kind kind;
+	private final long index;
+	private final TradeWrapper trade;
+	private final String message;
+
+	ValidationIssue(Kind kind, long index, TradeWrapper trade, String message) {
+		this.kind = kind;
+		this.index = index;
+		this.trade = trade;
+		this.message = message;
+	}
+
+	public Kind getKind() {
+		return kind;
+	}
+
+	/**
+	 * @return position of the trade in the batch
+	 */
+	public long getIndex() {
+		return index;
+	}
+
+	public TradeWrapper getTrade() {
+		return trade;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	@Override
+	public String toString() {
+		return "%s at %s : %s".formatted(kind, index, message);
+	}
+}
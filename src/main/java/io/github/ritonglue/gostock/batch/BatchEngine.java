@@ -0,0 +1,163 @@
+package io.github.ritonglue.gostock.batch;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntConsumer;
+
+import javax.money.Monetary;
+import javax.money.MonetaryAmount;
+import javax.money.MonetaryRounding;
+
+import io.github.ritonglue.gostock.CloseCause;
+import io.github.ritonglue.gostock.Mode;
+import io.github.ritonglue.gostock.StockManager.TradeWrapper;
+import io.github.ritonglue.gostock.TradeType;
+
+/**
+ * Offline computation of a full trade history.
+ * Only BUY, SELL and RBT trades are supported : modifications need the whole stock.
+ * Trades are not modified.
+ */
+public abstract class BatchEngine {
+	//below this size, a fork join task runs sequentially
+	static final int THRESHOLD = 1 << 12;
+
+	private final MonetaryRounding rounding;
+	private final ForkJoinPool pool;
+
+	BatchEngine(MonetaryRounding rounding, ForkJoinPool pool) {
+		this.rounding = rounding == null ? Monetary.getDefaultRounding() : rounding;
+		this.pool = pool == null ? ForkJoinPool.commonPool() : pool;
+	}
+
+	/**
+	 * @param mode
+	 * @param rounding null for the default rounding
+	 * @param pool null for the common pool
+	 * @return the batch engine of this mode
+	 */
+	public static BatchEngine create(Mode mode, MonetaryRounding rounding, ForkJoinPool pool) {
+		Objects.requireNonNull(mode, "mode null");
+		switch(mode) {
+		case FIFO:
+			return new FIFOBatchEngine(rounding, pool);
+		case LIFO:
+			return new LIFOBatchEngine(rounding, pool);
+		case PRMP:
+			return new PRMPBatchEngine(rounding, pool);
+		default:
+			throw new AssertionError();
+		}
+	}
+
+	/**
+	 * @param trades in ascending time order
+	 * @return the positions
+	 */
+	public BatchResult process(List<TradeWrapper> trades) {
+		Objects.requireNonNull(trades, "trades null");
+		List<TradeWrapper> list = new ArrayList<>(trades.size());
+		for(TradeWrapper t : trades) {
+			if(t == null) continue;
+			check(t);
+			list.add(t);
+		}
+		TradeWrapper[] array = list.toArray(new TradeWrapper[0]);
+		return pool.invoke(new ComputeTask(array));
+	}
+
+	abstract BatchResult compute(TradeWrapper[] trades);
+
+	void check(TradeWrapper t) {
+		TradeType type = t.getTradeType();
+		switch(type) {
+		case BUY:
+		case SELL:
+		case RBT:
+			break;
+		default:
+			throw new IllegalArgumentException("unsupported trade type %s".formatted(type));
+		}
+	}
+
+	public MonetaryRounding getRounding() {
+		return rounding;
+	}
+
+	/**
+	 * same computation as the StockManager partial sell
+	 * @param amount stock amount
+	 * @param quantity sold quantity
+	 * @param stockQuantity stock quantity
+	 * @return the rounded amount sold
+	 */
+	MonetaryAmount prorata(MonetaryAmount amount, BigDecimal quantity, BigDecimal stockQuantity) {
+		MonetaryAmount m = amount.multiply(quantity);
+		try {
+			m = m.divide(stockQuantity);
+		} catch(ArithmeticException e) {
+			double x = m.getNumber().doubleValue() / stockQuantity.doubleValue();
+			m = Monetary.getDefaultAmountFactory().setCurrency(amount.getCurrency()).setNumber(x).create();
+		}
+		return m.with(getRounding());
+	}
+
+	static CloseCause closeCause(TradeWrapper t) {
+		return t.getTradeType() == TradeType.RBT ? CloseCause.RBT : CloseCause.SELL;
+	}
+
+	static TradeWrapper orphan(TradeWrapper sell, BigDecimal quantity) {
+		return TradeWrapper.tradeType(sell.getTradeType()).quantity(quantity).source(sell.getSource()).build();
+	}
+
+	/**
+	 * run body(i) for i in [0, n) on the current fork join pool
+	 */
+	static void forEach(int n, IntConsumer body) {
+		new RangeAction(0, n, body).invoke();
+	}
+
+	@SuppressWarnings("serial")
+	private static class RangeAction extends RecursiveAction {
+		private final int lo;
+		private final int hi;
+		private final IntConsumer body;
+
+		RangeAction(int lo, int hi, IntConsumer body) {
+			this.lo = lo;
+			this.hi = hi;
+			this.body = body;
+		}
+
+		@Override
+		protected void compute() {
+			if(hi - lo <= THRESHOLD) {
+				for(int i = lo ; i < hi ; ++i) {
+					body.accept(i);
+				}
+			} else {
+				int mid = (lo + hi) >>> 1;
+				invokeAll(new RangeAction(lo, mid, body), new RangeAction(mid, hi, body));
+			}
+		}
+	}
+
+	@SuppressWarnings("serial")
+	private class ComputeTask extends RecursiveTask<BatchResult> {
+		private final TradeWrapper[] trades;
+
+		ComputeTask(TradeWrapper[] trades) {
+			this.trades = trades;
+		}
+
+		@Override
+		protected BatchResult compute() {
+			return BatchEngine.this.compute(trades);
+		}
+	}
+}
@@ -0,0 +1,37 @@
+package io.github.ritonglue.gostock.batch;
+
+import java.util.Collections;
+import java.util.List;
+
+import io.github.ritonglue.gostock.Position;
+import io.github.ritonglue.gostock.StockManager.TradeWrapper;
+
+/**
+ * Result of a batch computation. Same content as the StockManager getters.
+ */
+public final class BatchResult {
+	private final List<Position> closedPositions;
+	private final List<Position> openedPositions;
+	private final List<TradeWrapper> orphanSells;
+
+	BatchResult(List<Position> closedPositions, List<Position> openedPositions, List<TradeWrapper> orphanSells) {
+		this.closedPositions = Collections.unmodifiableList(closedPositions);
+		this.openedPositions = Collections.unmodifiableList(openedPositions);
+		this.orphanSells = Collections.unmodifiableList(orphanSells);
+	}
+
+	public List<Position> getClosedPositions() {
+		return closedPositions;
+	}
+
+	public List<Position> getOpenedPositions() {
+		return openedPositions;
+	}
+
+	/**
+	 * @return the sells that could not be matched. The quantity is the unmatched quantity.
+	 */
+	public List<TradeWrapper> getOrphanSells() {
+		return orphanSells;
+	}
+}
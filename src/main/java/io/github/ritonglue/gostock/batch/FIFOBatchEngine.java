@@ -0,0 +1,183 @@
+package io.github.ritonglue.gostock.batch;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.money.MonetaryAmount;
+import javax.money.MonetaryRounding;
+
+import io.github.ritonglue.gostock.Position;
+import io.github.ritonglue.gostock.StockManager.TradeWrapper;
+import io.github.ritonglue.gostock.TradeType;
+
+/**
+ * FIFO matching of a full history. Same positions as a StockManager in FIFO mode.
+ * <p>
+ * In FIFO mode, the i-th buy owns the interval [B(i-1), B(i)) of the cumulative bought quantity
+ * and a sell consumes the interval [S(j-1), S(j)) of the cumulative sold quantity.
+ * Both are computed with parallel prefix sums. Then each buy looks for its first sell
+ * with a binary search and computes its amounts in sequence (the rounding depends on the previous partial sells).
+ * <p>
+ * Quantities are equal to the StockManager ones (compareTo). If all quantities share the same scale, they're equal.
+ * Buys with zero quantity are not supported.
+ */
+public final class FIFOBatchEngine extends BatchEngine {
+
+	public FIFOBatchEngine() {
+		this(null, null);
+	}
+
+	public FIFOBatchEngine(MonetaryRounding rounding) {
+		this(rounding, null);
+	}
+
+	public FIFOBatchEngine(MonetaryRounding rounding, ForkJoinPool pool) {
+		super(rounding, pool);
+	}
+
+	@Override
+	void check(TradeWrapper t) {
+		super.check(t);
+		if(t.getTradeType() == TradeType.BUY && t.getQuantity().signum() == 0) {
+			throw new IllegalArgumentException("zero quantity buy not supported");
+		}
+	}
+
+	@Override
+	BatchResult compute(TradeWrapper[] trades) {
+		int n = trades.length;
+		BigDecimal[] bought = QuantityScan.bought(trades);
+		BigDecimal[] stock = QuantityScan.stock(trades);
+
+		int count = 0;
+		for(TradeWrapper t : trades) {
+			if(t.getTradeType() == TradeType.BUY) {
+				++count;
+			}
+		}
+		final int nbuys = count;
+		final int nsells = n - count;
+		//buys
+		TradeWrapper[] buys = new TradeWrapper[nbuys];
+		BigDecimal[] buyStart = new BigDecimal[nbuys];
+		BigDecimal[] buyEnd = new BigDecimal[nbuys];
+		//sells
+		TradeWrapper[] sells = new TradeWrapper[nsells];
+		BigDecimal[] sellStart = new BigDecimal[nsells];
+		BigDecimal[] sellEnd = new BigDecimal[nsells];
+		for(int i = 0, b = 0, s = 0 ; i < n ; ++i) {
+			TradeWrapper t = trades[i];
+			BigDecimal boughtBefore = i == 0 ? BigDecimal.ZERO : bought[i - 1];
+			if(t.getTradeType() == TradeType.BUY) {
+				buys[b] = t;
+				buyStart[b] = boughtBefore;
+				buyEnd[b] = bought[i];
+				++b;
+			} else {
+				BigDecimal stockBefore = i == 0 ? BigDecimal.ZERO : stock[i - 1];
+				sells[s] = t;
+				sellStart[s] = boughtBefore.subtract(stockBefore);
+				sellEnd[s] = bought[i].subtract(stock[i]);
+				++s;
+			}
+		}
+
+		//number of closed positions for each sell
+		int[] firstBuy = new int[nsells];
+		int[] offsets = new int[nsells];
+		forEach(nsells, s -> {
+			if(sellStart[s].compareTo(sellEnd[s]) == 0) return;
+			int first = firstAbove(buyEnd, sellStart[s]);
+			//the last buy starting strictly before sellEnd
+			int last = firstNotBelow(buyStart, sellEnd[s]) - 1;
+			firstBuy[s] = first;
+			offsets[s] = last - first + 1;
+		});
+		Arrays.parallelPrefix(offsets, Integer::sum);
+		int nclosed = nsells == 0 ? 0 : offsets[nsells - 1];
+
+		Position[] closed = new Position[nclosed];
+		BigDecimal[] openQuantities = new BigDecimal[nbuys];
+		MonetaryAmount[] openAmounts = new MonetaryAmount[nbuys];
+		forEach(nbuys, b -> {
+			TradeWrapper buy = buys[b];
+			BigDecimal quantity = buy.getQuantity();
+			MonetaryAmount amount = buy.getAmount();
+			BigDecimal end = buyEnd[b];
+			for(int s = firstAbove(sellEnd, buyStart[b]) ; s < nsells && sellStart[s].compareTo(end) < 0 ; ++s) {
+				BigDecimal start = sellStart[s].max(buyStart[b]);
+				if(start.compareTo(sellEnd[s]) >= 0) continue;
+				TradeWrapper sell = sells[s];
+				int index = (s == 0 ? 0 : offsets[s - 1]) + b - firstBuy[s];
+				if(sellEnd[s].compareTo(end) >= 0) {
+					//sell everything
+					closed[index] = new Position(buy.getSource(), sell.getSource(), quantity, amount, closeCause(sell));
+					quantity = BigDecimal.ZERO;
+					amount = null;
+					break;
+				}
+				//partial sell
+				BigDecimal sellQuantity = sellEnd[s].subtract(start);
+				MonetaryAmount m = prorata(amount, sellQuantity, quantity);
+				quantity = quantity.subtract(sellQuantity);
+				amount = amount.subtract(m);
+				if(amount.signum() < 0) {
+					throw new IllegalStateException("buy amount negative");
+				}
+				closed[index] = new Position(buy.getSource(), sell.getSource(), sellQuantity, m, closeCause(sell));
+			}
+			openQuantities[b] = quantity;
+			openAmounts[b] = amount;
+		});
+
+		List<TradeWrapper> orphanSells = new ArrayList<>();
+		for(int s = 0 ; s < nsells ; ++s) {
+			BigDecimal quantity = sells[s].getQuantity();
+			if(quantity == null) continue;
+			BigDecimal orphan = quantity.subtract(sellEnd[s].subtract(sellStart[s]));
+			if(orphan.signum() > 0) {
+				orphanSells.add(orphan(sells[s], orphan));
+			}
+		}
+		List<Position> opened = new ArrayList<>();
+		for(int b = firstAbove(buyEnd, n == 0 ? BigDecimal.ZERO : bought[n - 1].subtract(stock[n - 1])) ; b < nbuys ; ++b) {
+			opened.add(new Position(buys[b].getSource(), openQuantities[b], openAmounts[b]));
+		}
+		return new BatchResult(Arrays.asList(closed), opened, orphanSells);
+	}
+
+	/**
+	 * @param array ascending values
+	 * @param value
+	 * @return the first index i such that array[i] > value
+	 */
+	static int firstAbove(BigDecimal[] array, BigDecimal value) {
+		return search(array, value, 0);
+	}
+
+	/**
+	 * @param array ascending values
+	 * @param value
+	 * @return the first index i such that array[i] >= value
+	 */
+	static int firstNotBelow(BigDecimal[] array, BigDecimal value) {
+		return search(array, value, -1);
+	}
+
+	private static int search(BigDecimal[] array, BigDecimal value, int threshold) {
+		int lo = 0;
+		int hi = array.length;
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if(array[mid].compareTo(value) > threshold) {
+				hi = mid;
+			} else {
+				lo = mid + 1;
+			}
+		}
+		return lo;
+	}
+}
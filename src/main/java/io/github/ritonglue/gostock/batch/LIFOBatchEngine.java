@@ -0,0 +1,246 @@
+package io.github.ritonglue.gostock.batch;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import javax.money.MonetaryAmount;
+import javax.money.MonetaryRounding;
+
+import io.github.ritonglue.gostock.Position;
+import io.github.ritonglue.gostock.StockManager.TradeWrapper;
+import io.github.ritonglue.gostock.TradeType;
+
+/**
+ * LIFO matching of a full history. Same positions as a StockManager in LIFO mode.
+ * <p>
+ * LIFO matching is a bracket matching : a buy opens a bracket and a sell closes the last opened ones.
+ * The history is split in chunks matched in parallel. A chunk leaves a stack of unsold buys
+ * and a list of sells which emptied its stack. When two chunks are joined, the sells of the right chunk
+ * consume the stack of the left chunk. Then each buy computes its amounts in sequence
+ * (the rounding depends on the previous partial sells).
+ * <p>
+ * Buys with zero quantity are not supported.
+ */
+public final class LIFOBatchEngine extends BatchEngine {
+	private static final Comparator<Piece> ORDER = Comparator.<Piece>comparingInt(p -> p.sell)
+		.thenComparing(Comparator.<Piece>comparingInt(p -> p.lot.index).reversed());
+
+	public LIFOBatchEngine() {
+		this(null, null);
+	}
+
+	public LIFOBatchEngine(MonetaryRounding rounding) {
+		this(rounding, null);
+	}
+
+	public LIFOBatchEngine(MonetaryRounding rounding, ForkJoinPool pool) {
+		super(rounding, pool);
+	}
+
+	@Override
+	void check(TradeWrapper t) {
+		super.check(t);
+		if(t.getTradeType() == TradeType.BUY && t.getQuantity().signum() == 0) {
+			throw new IllegalArgumentException("zero quantity buy not supported");
+		}
+	}
+
+	@Override
+	BatchResult compute(TradeWrapper[] trades) {
+		int n = trades.length;
+		Lot[] lots = new Lot[n];
+		Fragment fragment = new MatchTask(trades, lots, 0, n).invoke();
+
+		//amounts
+		forEach(n, i -> {
+			if(lots[i] != null) lots[i].computeAmounts(trades);
+		});
+
+		List<Piece> pieces = new ArrayList<>();
+		for(Lot lot : lots) {
+			if(lot != null) pieces.addAll(lot.pieces);
+		}
+		Piece[] array = pieces.toArray(new Piece[0]);
+		Arrays.parallelSort(array, ORDER);
+		List<Position> closedPositions = new ArrayList<>(array.length);
+		for(Piece piece : array) {
+			closedPositions.add(piece.position);
+		}
+
+		List<TradeWrapper> orphanSells = new ArrayList<>();
+		for(Demand demand : fragment.demands) {
+			if(demand.quantity != null) {
+				orphanSells.add(orphan(trades[demand.sell], demand.quantity));
+			}
+		}
+		//top of the stack first
+		List<Position> openedPositions = new ArrayList<>();
+		for(int i = fragment.stack.size() - 1 ; i >= 0 ; --i) {
+			Lot lot = fragment.stack.get(i);
+			openedPositions.add(new Position(trades[lot.index].getSource(), lot.quantity, lot.amount));
+		}
+		return new BatchResult(closedPositions, openedPositions, orphanSells);
+	}
+
+	private class Lot {
+		private final int index;
+		private final List<Piece> pieces = new ArrayList<>();
+		//remaining quantity during matching
+		private BigDecimal remaining;
+		//remaining values after amount computation
+		private BigDecimal quantity;
+		private MonetaryAmount amount;
+
+		Lot(int index, BigDecimal remaining) {
+			this.index = index;
+			this.remaining = remaining;
+		}
+
+		void computeAmounts(TradeWrapper[] trades) {
+			TradeWrapper buy = trades[index];
+			quantity = buy.getQuantity();
+			amount = buy.getAmount();
+			for(Piece piece : pieces) {
+				TradeWrapper sell = trades[piece.sell];
+				if(piece.full) {
+					piece.position = new Position(buy.getSource(), sell.getSource(), quantity, amount, closeCause(sell));
+					quantity = BigDecimal.ZERO;
+					amount = null;
+				} else {
+					MonetaryAmount m = prorata(amount, piece.quantity, quantity);
+					quantity = quantity.subtract(piece.quantity);
+					amount = amount.subtract(m);
+					if(amount.signum() < 0) {
+						throw new IllegalStateException("buy amount negative");
+					}
+					piece.position = new Position(buy.getSource(), sell.getSource(), piece.quantity, m, closeCause(sell));
+				}
+			}
+		}
+	}
+
+	private static class Piece {
+		private final int sell;
+		private final Lot lot;
+		private final BigDecimal quantity;
+		private final boolean full;
+		private Position position;
+
+		Piece(int sell, Lot lot, BigDecimal quantity, boolean full) {
+			this.sell = sell;
+			this.lot = lot;
+			this.quantity = quantity;
+			this.full = full;
+		}
+	}
+
+	/**
+	 * a sell which emptied the stack. A null quantity is a full reimbursement.
+	 */
+	private static class Demand {
+		private final int sell;
+		private BigDecimal quantity;
+
+		Demand(int sell, BigDecimal quantity) {
+			this.sell = sell;
+			this.quantity = quantity;
+		}
+
+		boolean isSatisfied() {
+			return quantity != null && quantity.signum() <= 0;
+		}
+	}
+
+	/**
+	 * unmatched part of a chunk : unsold buys (top of the stack last) and unmatched sells in time order.
+	 */
+	private static class Fragment {
+		private final List<Lot> stack = new ArrayList<>();
+		private final List<Demand> demands = new ArrayList<>();
+
+		/**
+		 * the demand consumes the stack from the top
+		 */
+		void consume(Demand demand) {
+			while(!stack.isEmpty() && !demand.isSatisfied()) {
+				int top = stack.size() - 1;
+				Lot lot = stack.get(top);
+				if(demand.quantity == null || lot.remaining.compareTo(demand.quantity) <= 0) {
+					//sell everything
+					lot.pieces.add(new Piece(demand.sell, lot, lot.remaining, true));
+					if(demand.quantity != null) {
+						demand.quantity = demand.quantity.subtract(lot.remaining);
+					}
+					lot.remaining = BigDecimal.ZERO;
+					stack.remove(top);
+				} else {
+					//partial sell
+					lot.pieces.add(new Piece(demand.sell, lot, demand.quantity, false));
+					lot.remaining = lot.remaining.subtract(demand.quantity);
+					demand.quantity = BigDecimal.ZERO;
+				}
+			}
+			if(!demand.isSatisfied()) {
+				demands.add(demand);
+			}
+		}
+
+		/**
+		 * @param right the following chunk
+		 * @return this fragment followed by right
+		 */
+		Fragment join(Fragment right) {
+			for(Demand demand : right.demands) {
+				consume(demand);
+			}
+			stack.addAll(right.stack);
+			return this;
+		}
+	}
+
+	@SuppressWarnings("serial")
+	private class MatchTask extends RecursiveTask<Fragment> {
+		private final TradeWrapper[] trades;
+		private final Lot[] lots;
+		private final int lo;
+		private final int hi;
+
+		MatchTask(TradeWrapper[] trades, Lot[] lots, int lo, int hi) {
+			this.trades = trades;
+			this.lots = lots;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		@Override
+		protected Fragment compute() {
+			if(hi - lo <= THRESHOLD) {
+				Fragment fragment = new Fragment();
+				for(int i = lo ; i < hi ; ++i) {
+					TradeWrapper t = trades[i];
+					if(t.getTradeType() == TradeType.BUY) {
+						Lot lot = new Lot(i, t.getQuantity());
+						lots[i] = lot;
+						fragment.stack.add(lot);
+					} else {
+						BigDecimal quantity = t.getQuantity();
+						if(quantity != null && quantity.signum() <= 0) continue;
+						fragment.consume(new Demand(i, quantity));
+					}
+				}
+				return fragment;
+			}
+			int mid = (lo + hi) >>> 1;
+			MatchTask left = new MatchTask(trades, lots, lo, mid);
+			MatchTask right = new MatchTask(trades, lots, mid, hi);
+			right.fork();
+			Fragment fragment = left.compute();
+			return fragment.join(right.join());
+		}
+	}
+}
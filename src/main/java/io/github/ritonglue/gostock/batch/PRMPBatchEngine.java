@@ -0,0 +1,146 @@
+package io.github.ritonglue.gostock.batch;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.money.MonetaryAmount;
+import javax.money.MonetaryRounding;
+
+import io.github.ritonglue.gostock.Position;
+import io.github.ritonglue.gostock.StockManager.TradeWrapper;
+import io.github.ritonglue.gostock.TradeType;
+
+/**
+ * PRMP computation of a full history. Same positions as a StockManager in PRMP mode.
+ * <p>
+ * The stock quantity is computed with a parallel prefix scan. A sell emptying the stock
+ * resets the average cost : the history is split into independent segments at these sells.
+ * Segments are computed in parallel. Inside a segment, amounts are computed in sequence :
+ * the rounding of each partial sell depends on the previous ones.
+ * <p>
+ * Parallelism only happens across the segments : the amounts of an instrument whose stock never drops
+ * to zero are computed in sequence, only the quantity scan is parallel.
+ */
+public final class PRMPBatchEngine extends BatchEngine {
+
+	public PRMPBatchEngine() {
+		this(null, null);
+	}
+
+	public PRMPBatchEngine(MonetaryRounding rounding) {
+		this(rounding, null);
+	}
+
+	public PRMPBatchEngine(MonetaryRounding rounding, ForkJoinPool pool) {
+		super(rounding, pool);
+	}
+
+	@Override
+	BatchResult compute(TradeWrapper[] trades) {
+		int n = trades.length;
+		BigDecimal[] stock = QuantityScan.stock(trades);
+		boolean[] reset = new boolean[n];
+		forEach(n, i -> {
+			if(trades[i].getTradeType() == TradeType.BUY) return;
+			BigDecimal stockBefore = i == 0 ? BigDecimal.ZERO : stock[i - 1];
+			reset[i] = stockBefore.signum() > 0 && stock[i].signum() == 0;
+		});
+		//segment k is [starts[k], starts[k + 1])
+		List<Integer> list = new ArrayList<>();
+		list.add(0);
+		for(int i = 0 ; i < n ; ++i) {
+			if(reset[i] && i + 1 < n) {
+				list.add(i + 1);
+			}
+		}
+		int nsegments = list.size();
+		int[] starts = new int[nsegments + 1];
+		for(int k = 0 ; k < nsegments ; ++k) {
+			starts[k] = list.get(k);
+		}
+		starts[nsegments] = n;
+
+		Position[] closed = new Position[n];
+		TradeWrapper[] orphans = new TradeWrapper[n];
+		Segment[] segments = new Segment[nsegments];
+		forEach(nsegments, k -> {
+			Segment segment = new Segment();
+			for(int i = starts[k], end = starts[k + 1] ; i < end ; ++i) {
+				segment.add(trades[i], i, closed, orphans);
+			}
+			segments[k] = segment;
+		});
+
+		List<Position> closedPositions = new ArrayList<>();
+		List<TradeWrapper> orphanSells = new ArrayList<>();
+		for(int i = 0 ; i < n ; ++i) {
+			if(closed[i] != null) closedPositions.add(closed[i]);
+			if(orphans[i] != null) orphanSells.add(orphans[i]);
+		}
+		List<Position> openedPositions = Collections.emptyList();
+		Segment last = nsegments == 0 ? null : segments[nsegments - 1];
+		if(last != null && !last.isEmpty()) {
+			openedPositions = List.of(new Position(null, last.quantity, last.amount));
+		}
+		return new BatchResult(closedPositions, openedPositions, orphanSells);
+	}
+
+	/**
+	 * same computation as the PRMPStrategy
+	 */
+	private class Segment {
+		private BigDecimal quantity = BigDecimal.ZERO;
+		private MonetaryAmount amount;
+
+		boolean isEmpty() {
+			return quantity.signum() == 0;
+		}
+
+		void add(TradeWrapper t, int index, Position[] closed, TradeWrapper[] orphans) {
+			if(t.getTradeType() == TradeType.BUY) {
+				if(amount == null) {
+					amount = t.getAmount();
+					quantity = t.getQuantity();
+				} else {
+					amount = amount.add(t.getAmount());
+					quantity = quantity.add(t.getQuantity());
+				}
+				return;
+			}
+			BigDecimal sellQuantity = t.getQuantity();
+			if(sellQuantity == null) {
+				//full reimbursement
+				sellQuantity = quantity;
+			}
+			if(isEmpty()) {
+				if(sellQuantity.signum() > 0) {
+					orphans[index] = orphan(t, sellQuantity);
+				}
+				return;
+			}
+			if(sellQuantity.signum() <= 0) return;
+			if(quantity.compareTo(sellQuantity) <= 0) {
+				//sell everything
+				closed[index] = new Position(null, t.getSource(), quantity, amount, closeCause(t));
+				BigDecimal orphan = sellQuantity.subtract(quantity);
+				if(orphan.signum() > 0) {
+					orphans[index] = orphan(t, orphan);
+				}
+				quantity = BigDecimal.ZERO;
+				amount = null;
+			} else {
+				//partial sell
+				MonetaryAmount m = prorata(amount, sellQuantity, quantity);
+				quantity = quantity.subtract(sellQuantity);
+				amount = amount.subtract(m);
+				if(amount.signum() < 0) {
+					throw new IllegalStateException("buy amount negative");
+				}
+				closed[index] = new Position(null, t.getSource(), sellQuantity, m, closeCause(t));
+			}
+		}
+	}
+}
@@ -0,0 +1,90 @@
+package io.github.ritonglue.gostock.batch;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+import io.github.ritonglue.gostock.StockManager.TradeWrapper;
+import io.github.ritonglue.gostock.TradeType;
+
+/**
+ * Parallel prefix computations on the quantities of a trade history.
+ * Quantities don't depend on amounts, they can be computed before the matching.
+ */
+final class QuantityScan {
+
+	private QuantityScan() {
+	}
+
+	/**
+	 * @return cumulative bought quantity after each trade
+	 */
+	static BigDecimal[] bought(TradeWrapper[] trades) {
+		int n = trades.length;
+		BigDecimal[] array = new BigDecimal[n];
+		BatchEngine.forEach(n, i -> {
+			TradeWrapper t = trades[i];
+			array[i] = t.getTradeType() == TradeType.BUY ? t.getQuantity() : BigDecimal.ZERO;
+		});
+		Arrays.parallelPrefix(array, BigDecimal::add);
+		return array;
+	}
+
+	/**
+	 * @return stock quantity after each trade
+	 */
+	static BigDecimal[] stock(TradeWrapper[] trades) {
+		int n = trades.length;
+		Shift[] shifts = new Shift[n];
+		BatchEngine.forEach(n, i -> shifts[i] = Shift.of(trades[i]));
+		Arrays.parallelPrefix(shifts, Shift::then);
+		BigDecimal[] array = new BigDecimal[n];
+		BatchEngine.forEach(n, i -> array[i] = shifts[i].apply(BigDecimal.ZERO));
+		return array;
+	}
+
+	/**
+	 * x -> max(x + offset, floor). A null offset is minus infinity.
+	 * A buy adds its quantity, a sell removes its quantity without going below zero
+	 * and a full reimbursement empties the stock.
+	 * The composition of two shifts is a shift.
+	 */
+	static final class Shift {
+		private final BigDecimal offset;
+		private final BigDecimal floor;
+
+		Shift(BigDecimal offset, BigDecimal floor) {
+			this.offset = offset;
+			this.floor = floor;
+		}
+
+		static Shift of(TradeWrapper t) {
+			BigDecimal quantity = t.getQuantity();
+			switch(t.getTradeType()) {
+			case BUY:
+				return new Shift(quantity, BigDecimal.ZERO);
+			case SELL:
+			case RBT:
+				return new Shift(quantity == null ? null : quantity.negate(), BigDecimal.ZERO);
+			default:
+				throw new IllegalArgumentException("unsupported trade type %s".formatted(t.getTradeType()));
+			}
+		}
+
+		/**
+		 * @param next
+		 * @return this shift followed by next shift
+		 */
+		Shift then(Shift next) {
+			BigDecimal offset = this.offset == null || next.offset == null ? null : this.offset.add(next.offset);
+			BigDecimal floor = next.floor;
+			if(next.offset != null) {
+				floor = floor.max(this.floor.add(next.offset));
+			}
+			return new Shift(offset, floor);
+		}
+
+		BigDecimal apply(BigDecimal x) {
+			return offset == null ? floor : floor.max(x.add(offset));
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package io.github.ritonglue.gostock.dedup;
+
+import java.util.Arrays;
+
+/**
+ * Bloom filter of hash codes with double hashing
+ */
+final class BloomFilter {
+	private final long[] bits;
+	private final int size;
+	private final int hashes;
+
+	/**
+	 * @param expected number of keys
+	 * @param falsePositiveRate for the expected number of keys
+	 */
+	BloomFilter(int expected, double falsePositiveRate) {
+		double log2 = Math.log(2);
+		long size = (long) Math.ceil(-expected * Math.log(falsePositiveRate) / (log2 * log2));
+		this.size = (int) Math.max(Long.SIZE, Math.min(size, Integer.MAX_VALUE - Long.SIZE));
+		this.bits = new long[(this.size + Long.SIZE - 1) / Long.SIZE];
+		this.hashes = Math.max(1, (int) Math.round((double) this.size / expected * log2));
+	}
+
+	void add(int hashCode) {
+		long h1 = mix(hashCode);
+		long h2 = mix(h1) | 1;
+		for(int i = 0 ; i < hashes ; ++i) {
+			int bit = index(h1 + i * h2);
+			bits[bit >>> 6] |= 1L << bit;
+		}
+	}
+
+	boolean mightContain(int hashCode) {
+		long h1 = mix(hashCode);
+		long h2 = mix(h1) | 1;
+		for(int i = 0 ; i < hashes ; ++i) {
+			int bit = index(h1 + i * h2);
+			if((bits[bit >>> 6] & 1L << bit) == 0) return false;
+		}
+		return true;
+	}
+
+	void clear() {
+		Arrays.fill(bits, 0);
+	}
+
+	private int index(long hash) {
+		return (int) ((hash & Long.MAX_VALUE) % size);
+	}
+
+	/**
+	 * murmur3 finalizer
+	 */
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
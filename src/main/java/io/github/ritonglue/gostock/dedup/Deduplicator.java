@@ -0,0 +1,186 @@
+package io.github.ritonglue.gostock.dedup;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import io.github.ritonglue.gostock.StockManager;
+import io.github.ritonglue.gostock.StockManager.TradeWrapper;
+
+/**
+ * Drops the redelivered trades in front of a StockManager, by idempotency key.
+ * <p>
+ * The last used keys are kept in a bounded exact set, least recently used first out. The keys of the last windows
+ * are also kept in one bloom filter by window of windowSize keys : the oldest window expires when a new one starts.
+ * A key out of the exact set but in a bloom filter is a probable duplicate : it's given to the verifier,
+ * or handed back to the caller without verifier. A key older than the windows is new again.
+ * Key hash codes must be stable (String, Long...).
+ * <p>
+ * Not thread safe.
+ */
+public final class Deduplicator {
+
+	public enum Result {
+		NEW, DUPLICATE, PROBABLE_DUPLICATE;
+	}
+
+	private final Map<Object, Boolean> exact;
+	private final BloomFilter[] filters;
+	private final int windowSize;
+	private final Predicate<TradeWrapper> verifier;
+	//filter of the current window
+	private int window;
+	//keys of the current window
+	private int count;
+
+	public static class Builder {
+		private int capacity = 100_000;
+		private int windowSize = 100_000;
+		private int windows = 4;
+		private double falsePositiveRate = 0.001;
+		private Predicate<TradeWrapper> verifier;
+
+		/**
+		 * @param capacity size of the exact set
+		 */
+		public Builder capacity(int capacity) {this.capacity = capacity; return this;}
+		/**
+		 * @param windowSize number of keys by window
+		 */
+		public Builder windowSize(int windowSize) {this.windowSize = windowSize; return this;}
+		/**
+		 * @param windows number of windows kept
+		 */
+		public Builder windows(int windows) {this.windows = windows; return this;}
+		public Builder falsePositiveRate(double falsePositiveRate) {this.falsePositiveRate = falsePositiveRate; return this;}
+		/**
+		 * @param verifier true if a probable duplicate has been processed. Null to hand the probable duplicates to the caller.
+		 */
+		public Builder verifier(Predicate<TradeWrapper> verifier) {this.verifier = verifier; return this;}
+
+		public Deduplicator build() {
+			return new Deduplicator(this);
+		}
+	}
+
+	public static Builder create() {
+		return new Builder();
+	}
+
+	private Deduplicator(Builder builder) {
+		if(builder.capacity <= 0 || builder.windowSize <= 0 || builder.windows <= 0) {
+			throw new IllegalArgumentException("capacity, window size and windows must be positive");
+		}
+		if(!(builder.falsePositiveRate > 0 && builder.falsePositiveRate < 1)) {
+			throw new IllegalArgumentException("bad false positive rate " + builder.falsePositiveRate);
+		}
+		int capacity = builder.capacity;
+		this.exact = new LinkedHashMap<>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Object, Boolean> eldest) {
+				return size() > capacity;
+			}
+		};
+		this.windowSize = builder.windowSize;
+		this.filters = new BloomFilter[builder.windows];
+		for(int i = 0 ; i < filters.length ; ++i) {
+			filters[i] = new BloomFilter(builder.windowSize, builder.falsePositiveRate);
+		}
+		this.verifier = builder.verifier;
+	}
+
+	/**
+	 * Check a key and register it if new
+	 * @param key not null
+	 * @return the result
+	 */
+	public Result check(Object key) {
+		Objects.requireNonNull(key, "key null");
+		//get : the key is the most recently used
+		if(exact.get(key) != null) {
+			return Result.DUPLICATE;
+		}
+		int hash = key.hashCode();
+		for(BloomFilter filter : filters) {
+			if(filter.mightContain(hash)) {
+				return Result.PROBABLE_DUPLICATE;
+			}
+		}
+		register(key);
+		return Result.NEW;
+	}
+
+	/**
+	 * Register a key found processed, as a probable duplicate processed by the caller.
+	 * It's in the exact set and in the current window.
+	 * @param key not null
+	 */
+	public void register(Object key) {
+		Objects.requireNonNull(key, "key null");
+		exact.put(key, Boolean.TRUE);
+		if(count == windowSize) {
+			//the oldest window expires
+			window = (window + 1) % filters.length;
+			filters[window].clear();
+			count = 0;
+		}
+		filters[window].add(key.hashCode());
+		++count;
+	}
+
+	/**
+	 * Add the trade to the manager unless it's a duplicate. Trades without idempotency key are always added.
+	 * The key is registered before the add : a failed trade is not added again.
+	 * Without verifier, a probable duplicate is not added : the caller checks it, then adds it and registers its key if new.
+	 * @param manager
+	 * @param t not null
+	 * @return NEW if the trade is added, DUPLICATE if not, PROBABLE_DUPLICATE if not added and not verified
+	 */
+	public Result add(StockManager manager, TradeWrapper t) {
+		Object key = t.getIdempotencyKey();
+		if(key != null) {
+			switch(check(key)) {
+			case NEW:
+				break;
+			case DUPLICATE:
+				return Result.DUPLICATE;
+			case PROBABLE_DUPLICATE:
+				if(verifier == null) return Result.PROBABLE_DUPLICATE;
+				if(verifier.test(t)) return Result.DUPLICATE;
+				//a false positive : the key is registered again, it's still verified once out of the exact set
+				register(key);
+				break;
+			}
+		}
+		manager.add(t);
+		return Result.NEW;
+	}
+
+	/**
+	 * @param trades
+	 * @param probableDuplicates receives the probable duplicates not added, without verifier
+	 * @return number of added trades
+	 */
+	public int process(StockManager manager, Iterable<TradeWrapper> trades, Consumer<TradeWrapper> probableDuplicates) {
+		Objects.requireNonNull(probableDuplicates, "probable duplicates consumer null");
+		int n = 0;
+		for(TradeWrapper t : trades) {
+			if(t == null) continue;
+			switch(add(manager, t)) {
+			case NEW:
+				++n;
+				break;
+			case DUPLICATE:
+				break;
+			case PROBABLE_DUPLICATE:
+				probableDuplicates.accept(t);
+				break;
+			}
+		}
+		return n;
+	}
+}
@@ -0,0 +1,22 @@
+package io.github.ritonglue.gostock.exception;
+
+import java.util.List;
+
+import io.github.ritonglue.gostock.ValidationIssue;
+
+/**
+ * Exception is raised if a batch has issues. Nothing has been processed.
+ */
+@SuppressWarnings("serial")
+public class BatchValidationException extends RuntimeException {
+	private final List<ValidationIssue> issues;
+
+	public BatchValidationException(List<ValidationIssue> issues) {
+		super("%s issues, first one %s".formatted(issues.size(), issues.get(0)));
+		this.issues = List.copyOf(issues);
+	}
+
+	public List<ValidationIssue> getIssues() {
+		return issues;
+	}
+}
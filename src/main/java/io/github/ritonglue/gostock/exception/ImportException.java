@@ -0,0 +1,21 @@
+package io.github.ritonglue.gostock.exception;
+
+/**
+ * Exception is raised if a line of an imported file can't be parsed
+ */
+@SuppressWarnings("serial")
+public class ImportException extends RuntimeException {
+	private final long offset;
+
+	public ImportException(long offset, String message) {
+		super("%s at offset %s".formatted(message, offset));
+		this.offset = offset;
+	}
+
+	/**
+	 * @return position in the file of the start of the line
+	 */
+	public long getOffset() {
+		return offset;
+	}
+}
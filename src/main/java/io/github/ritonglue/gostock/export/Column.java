@@ -0,0 +1,8 @@
+package io.github.ritonglue.gostock.export;
+
+/**
+ * Columns of the columnar export, in file order
+ */
+public enum Column {
+	QUANTITY, AMOUNT, CURRENCY, BUY, SELL, CLOSE_CAUSE;
+}
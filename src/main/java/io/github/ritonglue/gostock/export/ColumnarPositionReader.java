@@ -0,0 +1,197 @@
+package io.github.ritonglue.gostock.export;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidObjectException;
+import java.math.BigDecimal;
+import java.util.EnumSet;
+import java.util.Set;
+
+import javax.money.CurrencyUnit;
+import javax.money.Monetary;
+
+import io.github.ritonglue.gostock.BinaryCodec;
+import io.github.ritonglue.gostock.CloseCause;
+
+/**
+ * Block by block reader of a {@link ColumnarPositionWriter} stream. Only the selected columns are decoded,
+ * the others are skipped.
+ * <pre>
+ * while(reader.next()) {
+ *   for(int i = 0 ; i &lt; reader.getRows() ; ++i) {
+ *     reader.getQuantity(i) ...
+ *   }
+ * }
+ * </pre>
+ * Not thread safe.
+ */
+public final class ColumnarPositionReader implements Closeable {
+	private static final CloseCause[] CLOSE_CAUSES = CloseCause.values();
+
+	private final DataInputStream in;
+	private final Set<Column> columns;
+	private int rows;
+	private boolean end;
+	private BigDecimal[] quantities;
+	private BigDecimal[] amounts;
+	private CurrencyUnit[] dictionary;
+	private short[] currencies;
+	private long[] buys;
+	private long[] sells;
+	private byte[] closeCauses;
+
+	/**
+	 * @param in closed with the reader
+	 * @param columns columns to decode
+	 * @throws IOException
+	 */
+	public ColumnarPositionReader(InputStream in, Set<Column> columns) throws IOException {
+		this.in = new DataInputStream(new BufferedInputStream(in));
+		this.columns = columns.isEmpty() ? EnumSet.noneOf(Column.class) : EnumSet.copyOf(columns);
+		if(this.in.readInt() != ColumnarPositionWriter.MAGIC) {
+			throw new InvalidObjectException("not a columnar positions stream");
+		}
+		short version = this.in.readShort();
+		if(version != ColumnarPositionWriter.VERSION) {
+			throw new InvalidObjectException("unsupported columnar version %s".formatted(version));
+		}
+	}
+
+	/**
+	 * read the next block
+	 * @return false at the end of the stream
+	 * @throws IOException
+	 */
+	public boolean next() throws IOException {
+		if(end) return false;
+		rows = in.readInt();
+		if(rows == 0) {
+			end = true;
+			return false;
+		}
+		for(Column column : Column.values()) {
+			int length = in.readInt();
+			if(!columns.contains(column)) {
+				skip(length);
+				continue;
+			}
+			switch(column) {
+			case QUANTITY:
+				quantities = readDecimals();
+				break;
+			case AMOUNT:
+				amounts = readDecimals();
+				break;
+			case CURRENCY:
+				dictionary = new CurrencyUnit[in.readUnsignedShort()];
+				for(int i = 0 ; i < dictionary.length ; ++i) {
+					dictionary[i] = Monetary.getCurrency(in.readUTF());
+				}
+				currencies = new short[rows];
+				for(int i = 0 ; i < rows ; ++i) {
+					currencies[i] = in.readShort();
+				}
+				break;
+			case BUY:
+				buys = readLongs();
+				break;
+			case SELL:
+				sells = readLongs();
+				break;
+			case CLOSE_CAUSE:
+				closeCauses = new byte[rows];
+				in.readFully(closeCauses);
+				break;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return number of rows of the current block
+	 */
+	public int getRows() {
+		return rows;
+	}
+
+	public BigDecimal getQuantity(int row) {
+		check(Column.QUANTITY);
+		return quantities[row];
+	}
+
+	/**
+	 * @return the number of the amount
+	 */
+	public BigDecimal getAmount(int row) {
+		check(Column.AMOUNT);
+		return amounts[row];
+	}
+
+	public CurrencyUnit getCurrency(int row) {
+		check(Column.CURRENCY);
+		return dictionary[currencies[row]];
+	}
+
+	/**
+	 * @return the id of the buy source, {@link ColumnarPositionWriter#NO_SOURCE} if null
+	 */
+	public long getBuy(int row) {
+		check(Column.BUY);
+		return buys[row];
+	}
+
+	/**
+	 * @return the id of the sell source, {@link ColumnarPositionWriter#NO_SOURCE} if null
+	 */
+	public long getSell(int row) {
+		check(Column.SELL);
+		return sells[row];
+	}
+
+	public CloseCause getCloseCause(int row) {
+		check(Column.CLOSE_CAUSE);
+		byte ordinal = closeCauses[row];
+		return ordinal < 0 ? null : CLOSE_CAUSES[ordinal];
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+
+	private void check(Column column) {
+		if(!columns.contains(column)) {
+			throw new IllegalStateException("column %s not read".formatted(column));
+		}
+	}
+
+	private BigDecimal[] readDecimals() throws IOException {
+		BigDecimal[] values = new BigDecimal[rows];
+		for(int i = 0 ; i < rows ; ++i) {
+			values[i] = BinaryCodec.readDecimal(in);
+		}
+		return values;
+	}
+
+	private long[] readLongs() throws IOException {
+		long[] values = new long[rows];
+		for(int i = 0 ; i < rows ; ++i) {
+			values[i] = in.readLong();
+		}
+		return values;
+	}
+
+	private void skip(int length) throws IOException {
+		while(length > 0) {
+			int n = in.skipBytes(length);
+			if(n <= 0) {
+				throw new EOFException();
+			}
+			length -= n;
+		}
+	}
+}
@@ -0,0 +1,153 @@
+package io.github.ritonglue.gostock.export;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.ToLongFunction;
+
+import io.github.ritonglue.gostock.BinaryCodec;
+import io.github.ritonglue.gostock.Position;
+
+/**
+ * Streaming export of closed positions in a columnar layout.
+ * <p>
+ * Positions are written by blocks. A block is the number of rows, then for each {@link Column}
+ * its length in bytes and its values : a reader skips the columns it doesn't need.
+ * <ul>
+ * <li>QUANTITY, AMOUNT : decimals, the amount without currency</li>
+ * <li>CURRENCY : dictionary of the currency codes of the block, then a short code by row</li>
+ * <li>BUY, SELL : long ids of the sources. {@link #NO_SOURCE} for a null source.</li>
+ * <li>CLOSE_CAUSE : a byte ordinal, -1 for null</li>
+ * </ul>
+ * The stream ends with a block of zero rows. Not thread safe.
+ */
+public final class ColumnarPositionWriter implements Closeable {
+	static final int MAGIC = 0x474F5043;
+	static final short VERSION = 1;
+	/**
+	 * id of a null source
+	 */
+	public static final long NO_SOURCE = Long.MIN_VALUE;
+
+	private final DataOutputStream out;
+	private final ToLongFunction<Object> ids;
+	private final int blockSize;
+	private final ByteArrayOutputStream[] bytes = new ByteArrayOutputStream[Column.values().length];
+	private final DataOutputStream[] columns = new DataOutputStream[Column.values().length];
+	private final Map<String, Integer> currencies = new LinkedHashMap<>();
+	private int rows;
+	private long count;
+
+	/**
+	 * @param out closed with the writer
+	 * @param ids id of a non null source
+	 * @param blockSize number of rows of a block
+	 * @throws IOException
+	 */
+	public ColumnarPositionWriter(OutputStream out, ToLongFunction<Object> ids, int blockSize) throws IOException {
+		if(blockSize <= 0) {
+			throw new IllegalArgumentException("bad block size " + blockSize);
+		}
+		this.out = new DataOutputStream(out);
+		this.ids = Objects.requireNonNull(ids, "ids null");
+		this.blockSize = blockSize;
+		for(int i = 0 ; i < bytes.length ; ++i) {
+			bytes[i] = new ByteArrayOutputStream();
+			columns[i] = new DataOutputStream(bytes[i]);
+		}
+		this.out.writeInt(MAGIC);
+		this.out.writeShort(VERSION);
+	}
+
+	public void write(Position p) throws IOException {
+		BinaryCodec.writeDecimal(column(Column.QUANTITY), p.getQuantity());
+		BinaryCodec.writeDecimal(column(Column.AMOUNT), p.getAmount().getNumber().numberValueExact(BigDecimal.class));
+		String currency = p.getAmount().getCurrency().getCurrencyCode();
+		Integer code = currencies.get(currency);
+		if(code == null) {
+			code = currencies.size();
+			currencies.put(currency, code);
+		}
+		column(Column.CURRENCY).writeShort(code);
+		column(Column.BUY).writeLong(id(p.getBuy()));
+		column(Column.SELL).writeLong(id(p.getSell()));
+		column(Column.CLOSE_CAUSE).writeByte(p.getCloseCause() == null ? -1 : p.getCloseCause().ordinal());
+		++count;
+		if(++rows == blockSize) {
+			writeBlock();
+		}
+	}
+
+	public void writeAll(Iterable<Position> positions) throws IOException {
+		for(Position p : positions) {
+			write(p);
+		}
+	}
+
+	/**
+	 * write the pending rows as a block
+	 * @throws IOException
+	 */
+	public void flush() throws IOException {
+		if(rows > 0) {
+			writeBlock();
+		}
+		out.flush();
+	}
+
+	/**
+	 * @return number of written positions
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+			out.writeInt(0);
+			out.flush();
+		} finally {
+			out.close();
+		}
+	}
+
+	private DataOutputStream column(Column column) {
+		return columns[column.ordinal()];
+	}
+
+	private long id(Object source) {
+		return source == null ? NO_SOURCE : ids.applyAsLong(source);
+	}
+
+	private void writeBlock() throws IOException {
+		out.writeInt(rows);
+		for(Column column : Column.values()) {
+			ByteArrayOutputStream b = bytes[column.ordinal()];
+			if(column == Column.CURRENCY) {
+				//dictionary first
+				ByteArrayOutputStream dictionary = new ByteArrayOutputStream();
+				DataOutputStream d = new DataOutputStream(dictionary);
+				d.writeShort(currencies.size());
+				for(String currency : currencies.keySet()) {
+					d.writeUTF(currency);
+				}
+				out.writeInt(dictionary.size() + b.size());
+				dictionary.writeTo(out);
+			} else {
+				out.writeInt(b.size());
+			}
+			b.writeTo(out);
+			b.reset();
+		}
+		currencies.clear();
+		rows = 0;
+	}
+}
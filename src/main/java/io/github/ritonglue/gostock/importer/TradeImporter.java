@@ -0,0 +1,374 @@
+package io.github.ritonglue.gostock.importer;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import javax.money.CurrencyUnit;
+import javax.money.Monetary;
+import javax.money.MonetaryAmount;
+import javax.money.MonetaryAmountFactory;
+
+import io.github.ritonglue.gostock.StockManager;
+import io.github.ritonglue.gostock.StockManager.TradeWrapper;
+import io.github.ritonglue.gostock.TradeType;
+import io.github.ritonglue.gostock.exception.ImportException;
+
+/**
+ * Streaming import of a delimited file (UTF-8, no quotes) : one trade by line.
+ * <p>
+ * The file is read by chunks cut at line ends. Chunks are parsed in parallel and their trades
+ * are applied in the file order. At most two chunks by thread are in memory.
+ * Numbers are parsed from the bytes ; the amount factory and the currencies are looked up once by chunk.
+ * <p>
+ * Columns : type (mapped to a TradeType), quantity, amount, currency (or a fixed currency) and source.
+ * An empty quantity of a reimbursement is a full reimbursement. Quantity modifications are not supported.
+ */
+public final class TradeImporter {
+	private final byte delimiter;
+	private final boolean header;
+	private final int typeColumn;
+	private final int quantityColumn;
+	private final int amountColumn;
+	private final int currencyColumn;
+	private final int sourceColumn;
+	private final String currency;
+	private final byte[][] typeKeys;
+	private final TradeType[] typeValues;
+	private final Function<String, Object> sourceMapper;
+	private final int chunkSize;
+	private final ForkJoinPool pool;
+	private final int columns;
+
+	public static class Builder {
+		private char delimiter = ',';
+		private boolean header;
+		private int typeColumn = -1;
+		private int quantityColumn = -1;
+		private int amountColumn = -1;
+		private int currencyColumn = -1;
+		private int sourceColumn = -1;
+		private String currency;
+		private final Map<String, TradeType> types = new LinkedHashMap<>();
+		private Function<String, Object> sourceMapper = s -> s;
+		private int chunkSize = 1 << 20;
+		private ForkJoinPool pool;
+
+		public Builder delimiter(char delimiter) {this.delimiter = delimiter; return this;}
+		/** the first line is skipped */
+		public Builder header(boolean header) {this.header = header; return this;}
+		public Builder typeColumn(int typeColumn) {this.typeColumn = typeColumn; return this;}
+		public Builder quantityColumn(int quantityColumn) {this.quantityColumn = quantityColumn; return this;}
+		public Builder amountColumn(int amountColumn) {this.amountColumn = amountColumn; return this;}
+		public Builder currencyColumn(int currencyColumn) {this.currencyColumn = currencyColumn; return this;}
+		public Builder sourceColumn(int sourceColumn) {this.sourceColumn = sourceColumn; return this;}
+		/** currency of all amounts when there's no currency column */
+		public Builder currency(String currency) {this.currency = currency; return this;}
+		/** value of the type column for this trade type */
+		public Builder type(String value, TradeType tradeType) {this.types.put(value, tradeType); return this;}
+		/** source of the trade from the source column. Default is the column value. */
+		public Builder sourceMapper(Function<String, Object> sourceMapper) {this.sourceMapper = sourceMapper; return this;}
+		/** size in bytes of a chunk. A line must fit in a chunk. */
+		public Builder chunkSize(int chunkSize) {this.chunkSize = chunkSize; return this;}
+		/** pool parsing the chunks, null for the common pool */
+		public Builder pool(ForkJoinPool pool) {this.pool = pool; return this;}
+
+		public TradeImporter build() {
+			return new TradeImporter(this);
+		}
+	}
+
+	public static Builder create() {
+		return new Builder();
+	}
+
+	private TradeImporter(Builder builder) {
+		if(builder.delimiter > 0x7F) {
+			throw new IllegalArgumentException("delimiter must be ASCII");
+		}
+		if(builder.typeColumn < 0 || builder.quantityColumn < 0 || builder.amountColumn < 0) {
+			throw new IllegalArgumentException("type, quantity and amount columns required");
+		}
+		if(builder.currencyColumn < 0 && builder.currency == null) {
+			throw new IllegalArgumentException("currency column or currency required");
+		}
+		if(builder.types.isEmpty()) {
+			throw new IllegalArgumentException("no trade type mapping");
+		}
+		if(builder.types.containsValue(TradeType.MODIFICATION_QUANTITY)) {
+			throw new IllegalArgumentException("quantity modifications not supported");
+		}
+		if(builder.chunkSize <= 0) {
+			throw new IllegalArgumentException("chunk size must be positive");
+		}
+		this.delimiter = (byte) builder.delimiter;
+		this.header = builder.header;
+		this.typeColumn = builder.typeColumn;
+		this.quantityColumn = builder.quantityColumn;
+		this.amountColumn = builder.amountColumn;
+		this.currencyColumn = builder.currencyColumn;
+		this.sourceColumn = builder.sourceColumn;
+		this.currency = builder.currency;
+		this.typeKeys = new byte[builder.types.size()][];
+		this.typeValues = new TradeType[builder.types.size()];
+		int i = 0;
+		for(Map.Entry<String, TradeType> e : builder.types.entrySet()) {
+			typeKeys[i] = e.getKey().getBytes(StandardCharsets.UTF_8);
+			typeValues[i] = Objects.requireNonNull(e.getValue(), "trade type null");
+			++i;
+		}
+		this.sourceMapper = Objects.requireNonNull(builder.sourceMapper, "source mapper null");
+		this.chunkSize = builder.chunkSize;
+		this.pool = builder.pool == null ? ForkJoinPool.commonPool() : builder.pool;
+		this.columns = 1 + Math.max(Math.max(typeColumn, quantityColumn), Math.max(Math.max(amountColumn, currencyColumn), sourceColumn));
+	}
+
+	/**
+	 * @param path
+	 * @param manager receives the trades in the file order
+	 * @return number of imported trades
+	 * @throws IOException
+	 */
+	public long importFile(Path path, StockManager manager) throws IOException {
+		return importFile(path, manager::add);
+	}
+
+	/**
+	 * @param path
+	 * @param consumer receives the trades in the file order
+	 * @return number of imported trades
+	 * @throws IOException
+	 */
+	public long importFile(Path path, Consumer<TradeWrapper> consumer) throws IOException {
+		int window = 2 * pool.getParallelism();
+		Deque<ForkJoinTask<List<TradeWrapper>>> tasks = new ArrayDeque<>();
+		Deque<Chunk> chunks = new ArrayDeque<>();
+		//free buffers
+		Deque<byte[]> buffers = new ArrayDeque<>();
+		long count = 0;
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			byte[] buffer = new byte[chunkSize];
+			int length = 0;
+			long offset = 0;
+			boolean first = true;
+			boolean eof = false;
+			while(!eof) {
+				int n = channel.read(ByteBuffer.wrap(buffer, length, buffer.length - length));
+				if(n < 0) {
+					eof = true;
+				} else {
+					length += n;
+					if(length < buffer.length) continue;
+				}
+				int end = eof ? length : lastLineEnd(buffer, length);
+				if(end < 0) {
+					throw new ImportException(offset, "line longer than chunk size");
+				}
+				Chunk chunk = new Chunk(buffer, end, offset, first && header);
+				chunks.add(chunk);
+				tasks.add(pool.submit(chunk::parse));
+				first = false;
+
+				byte[] next = buffers.isEmpty() ? new byte[chunkSize] : buffers.poll();
+				System.arraycopy(buffer, end, next, 0, length - end);
+				offset += end;
+				length -= end;
+				buffer = next;
+				//apply the parsed chunks in order
+				while(!tasks.isEmpty() && (tasks.size() >= window || eof)) {
+					for(TradeWrapper t : tasks.poll().join()) {
+						consumer.accept(t);
+						++count;
+					}
+					buffers.add(chunks.poll().bytes);
+				}
+			}
+		} finally {
+			for(ForkJoinTask<?> task : tasks) {
+				task.cancel(false);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return index after the last line feed, -1 if none
+	 */
+	private static int lastLineEnd(byte[] buffer, int length) {
+		for(int i = length - 1 ; i >= 0 ; --i) {
+			if(buffer[i] == '\n') return i + 1;
+		}
+		return -1;
+	}
+
+	private class Chunk {
+		private final byte[] bytes;
+		private final int length;
+		//position of the chunk in the file
+		private final long offset;
+		private final boolean skipFirst;
+		private final int[] starts = new int[columns];
+		private final int[] ends = new int[columns];
+		private final MonetaryAmountFactory<?> factory = Monetary.getDefaultAmountFactory();
+		private CurrencyUnit lastCurrency;
+		private int lastCurrencyStart = -1;
+		private int lastCurrencyEnd;
+
+		Chunk(byte[] bytes, int length, long offset, boolean skipFirst) {
+			this.bytes = bytes;
+			this.length = length;
+			this.offset = offset;
+			this.skipFirst = skipFirst;
+			if(currency != null) {
+				lastCurrency = Monetary.getCurrency(currency);
+			}
+		}
+
+		List<TradeWrapper> parse() {
+			List<TradeWrapper> list = new ArrayList<>();
+			int start = 0;
+			boolean skip = skipFirst;
+			while(start < length) {
+				int end = start;
+				while(end < length && bytes[end] != '\n') ++end;
+				int next = end + 1;
+				if(end > start && bytes[end - 1] == '\r') --end;
+				if(skip) {
+					skip = false;
+				} else if(end > start) {
+					list.add(parseLine(start, end));
+				}
+				start = next;
+			}
+			return list;
+		}
+
+		private TradeWrapper parseLine(int start, int end) {
+			long lineOffset = offset + start;
+			Arrays.fill(starts, -1);
+			int column = 0;
+			int fieldStart = start;
+			for(int i = start ; i <= end && column < columns ; ++i) {
+				if(i == end || bytes[i] == delimiter) {
+					starts[column] = fieldStart;
+					ends[column] = i;
+					++column;
+					fieldStart = i + 1;
+				}
+			}
+			if(column < columns) {
+				throw new ImportException(lineOffset, "%s columns expected, %s found".formatted(columns, column));
+			}
+			TradeType tradeType = tradeType(lineOffset);
+			Object source = sourceColumn < 0 ? null
+				: sourceMapper.apply(new String(bytes, starts[sourceColumn], ends[sourceColumn] - starts[sourceColumn], StandardCharsets.UTF_8));
+			BigDecimal quantity = decimal(quantityColumn, lineOffset);
+			switch(tradeType) {
+			case BUY:
+				return TradeWrapper.buy(required(quantity, "quantity", lineOffset), amount(lineOffset), source);
+			case SELL:
+				return TradeWrapper.sell(required(quantity, "quantity", lineOffset), source);
+			case RBT:
+				return TradeWrapper.reimbursement(quantity, source);
+			case MODIFICATION:
+				return TradeWrapper.modification(amount(lineOffset), source);
+			default:
+				throw new ImportException(lineOffset, "unsupported trade type %s".formatted(tradeType));
+			}
+		}
+
+		private TradeType tradeType(long lineOffset) {
+			int start = starts[typeColumn];
+			int length = ends[typeColumn] - start;
+			for(int k = 0 ; k < typeKeys.length ; ++k) {
+				byte[] key = typeKeys[k];
+				if(key.length == length && Arrays.equals(key, 0, length, bytes, start, start + length)) {
+					return typeValues[k];
+				}
+			}
+			throw new ImportException(lineOffset, "unknown trade type " + new String(bytes, start, length, StandardCharsets.UTF_8));
+		}
+
+		private MonetaryAmount amount(long lineOffset) {
+			BigDecimal number = required(decimal(amountColumn, lineOffset), "amount", lineOffset);
+			return factory.setCurrency(currency(lineOffset)).setNumber(number).create();
+		}
+
+		private CurrencyUnit currency(long lineOffset) {
+			if(currencyColumn < 0) return lastCurrency;
+			int start = starts[currencyColumn];
+			int end = ends[currencyColumn];
+			if(lastCurrencyStart < 0 || !Arrays.equals(bytes, lastCurrencyStart, lastCurrencyEnd, bytes, start, end)) {
+				try {
+					lastCurrency = Monetary.getCurrency(new String(bytes, start, end - start, StandardCharsets.US_ASCII));
+				} catch(RuntimeException e) {
+					throw new ImportException(lineOffset, "unknown currency");
+				}
+				lastCurrencyStart = start;
+				lastCurrencyEnd = end;
+			}
+			return lastCurrency;
+		}
+
+		/**
+		 * @return the decimal value of the column, null if empty
+		 */
+		private BigDecimal decimal(int column, long lineOffset) {
+			int start = starts[column];
+			int end = ends[column];
+			if(start == end) return null;
+			int i = start;
+			boolean negative = false;
+			if(bytes[i] == '-' || bytes[i] == '+') {
+				negative = bytes[i] == '-';
+				++i;
+			}
+			long unscaled = 0;
+			int digits = 0;
+			int scale = -1;
+			for( ; i < end ; ++i) {
+				byte b = bytes[i];
+				if(b >= '0' && b <= '9') {
+					unscaled = unscaled * 10 + (b - '0');
+					++digits;
+					if(scale >= 0) ++scale;
+				} else if(b == '.' && scale < 0) {
+					scale = 0;
+				} else {
+					throw new ImportException(lineOffset, "bad number in column %s".formatted(column));
+				}
+			}
+			if(digits == 0) {
+				throw new ImportException(lineOffset, "bad number in column %s".formatted(column));
+			}
+			if(digits > 18) {
+				//may overflow a long
+				return new BigDecimal(new String(bytes, start, end - start, StandardCharsets.US_ASCII));
+			}
+			return BigDecimal.valueOf(negative ? -unscaled : unscaled, Math.max(scale, 0));
+		}
+
+		private <T> T required(T value, String name, long lineOffset) {
+			if(value == null) {
+				throw new ImportException(lineOffset, name + " required");
+			}
+			return value;
+		}
+	}
+}
@@ -0,0 +1,249 @@
+package io.github.ritonglue.gostock.journal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.TreeMap;
+
+import javax.money.MonetaryRounding;
+
+import io.github.ritonglue.gostock.BinaryCodec;
+import io.github.ritonglue.gostock.Mode;
+import io.github.ritonglue.gostock.ModificationMode;
+import io.github.ritonglue.gostock.SourceCodec;
+import io.github.ritonglue.gostock.StockManager;
+import io.github.ritonglue.gostock.StockManager.TradeWrapper;
+import io.github.ritonglue.gostock.StockManagerSnapshot;
+
+/**
+ * A StockManager whose trades are written to a journal before being processed.
+ * <p>
+ * The directory holds snapshots (snapshot-&lt;sequence&gt;.bin) and journals (journal-&lt;first sequence&gt;.log).
+ * The sequence of a trade is the trade count of the manager after its addition.
+ * Every snapshot interval, a snapshot is written and a new journal is started : older files are deleted.
+ * Opening the directory restores the last snapshot and replays the journal tail.
+ * <p>
+ * {@link #add(TradeWrapper)} doesn't wait for the disk. Trades are durable after the next group commit
+ * (at most a commit interval) or after {@link #sync()}.
+ * <p>
+ * Forced amounts are not journaled : only those of the last snapshot are recovered.
+ * Trades must not be added to the manager directly. Not thread safe.
+ */
+public final class JournaledStockManager implements Closeable {
+	private static final String SNAPSHOT_PREFIX = "snapshot-";
+	private static final String SNAPSHOT_SUFFIX = ".bin";
+	private static final String JOURNAL_PREFIX = "journal-";
+	private static final String JOURNAL_SUFFIX = ".log";
+
+	private final Path directory;
+	private final BinaryCodec codec;
+	private final long snapshotInterval;
+	private final int regionSize;
+	private final long commitInterval;
+	private final StockManager manager;
+	private TradeJournal journal;
+
+	public static class Builder {
+		private Path directory;
+		private Mode mode;
+		private ModificationMode modificationMode = ModificationMode.MIXED;
+		private MonetaryRounding rounding;
+		private SourceCodec sourceCodec;
+		private long snapshotInterval = 100_000;
+		private int regionSize = 64 << 20;
+		private long commitInterval = 10;
+
+		public Builder directory(Path directory) {this.directory = directory; return this;}
+		public Builder mode(Mode mode) {this.mode = mode; return this;}
+		public Builder modificationMode(ModificationMode modificationMode) {this.modificationMode = modificationMode; return this;}
+		public Builder rounding(MonetaryRounding rounding) {this.rounding = rounding; return this;}
+		public Builder sourceCodec(SourceCodec sourceCodec) {this.sourceCodec = sourceCodec; return this;}
+		/** number of trades between two snapshots */
+		public Builder snapshotInterval(long snapshotInterval) {this.snapshotInterval = snapshotInterval; return this;}
+		/** size in bytes of a mapped region of the journal */
+		public Builder regionSize(int regionSize) {this.regionSize = regionSize; return this;}
+		/** maximum delay in milliseconds before a trade is durable */
+		public Builder commitInterval(long commitInterval) {this.commitInterval = commitInterval; return this;}
+
+		/**
+		 * Restore the state of the directory, creating it if needed
+		 * @return the journaled stock manager
+		 * @throws IOException
+		 */
+		public JournaledStockManager open() throws IOException {
+			return new JournaledStockManager(this);
+		}
+	}
+
+	public static Builder create(Path directory, Mode mode) {
+		return new Builder().directory(directory).mode(mode);
+	}
+
+	private JournaledStockManager(Builder builder) throws IOException {
+		this.directory = Objects.requireNonNull(builder.directory, "directory null");
+		Objects.requireNonNull(builder.mode, "mode null");
+		if(builder.snapshotInterval <= 0) {
+			throw new IllegalArgumentException("snapshot interval must be positive : " + builder.snapshotInterval);
+		}
+		this.codec = builder.sourceCodec == null ? new BinaryCodec() : new BinaryCodec(builder.sourceCodec);
+		this.snapshotInterval = builder.snapshotInterval;
+		this.regionSize = builder.regionSize;
+		this.commitInterval = builder.commitInterval;
+		Files.createDirectories(directory);
+
+		TreeMap<Long, Path> snapshots = list(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+		if(snapshots.isEmpty()) {
+			this.manager = new StockManager(builder.mode, builder.rounding, builder.modificationMode);
+		} else {
+			try(InputStream in = new BufferedInputStream(Files.newInputStream(snapshots.lastEntry().getValue()))) {
+				this.manager = StockManagerSnapshot.read(in, codec, builder.rounding);
+			}
+			if(manager.getMode() != builder.mode) {
+				throw new IllegalStateException("snapshot mode %s differs from %s".formatted(manager.getMode(), builder.mode));
+			}
+		}
+		recover();
+	}
+
+	/**
+	 * replay the journals after the snapshot and open the last one for appending
+	 */
+	private void recover() throws IOException {
+		TreeMap<Long, Path> journals = list(JOURNAL_PREFIX, JOURNAL_SUFFIX);
+		List<TradeWrapper> tail = new ArrayList<>();
+		for(Path path : journals.values()) {
+			TradeJournal j = TradeJournal.open(path, codec, regionSize, commitInterval);
+			try {
+				j.replay(manager.getTradeCount() + tail.size(), tail::add);
+			} finally {
+				if(path.equals(journals.lastEntry().getValue())) {
+					this.journal = j;
+				} else {
+					j.close();
+				}
+			}
+		}
+		for(TradeWrapper t : tail) {
+			try {
+				manager.add(t);
+			} catch(RuntimeException e) {
+				//the trade has failed the same way before the crash
+			}
+		}
+		if(journal == null) {
+			journal = openJournal(manager.getTradeCount() + 1);
+		}
+	}
+
+	public StockManager getManager() {
+		return manager;
+	}
+
+	public Path getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Journal then process the trade. A snapshot is written every snapshot interval.
+	 * If the manager rejects the trade, the exception is thrown and the trade stays in the journal :
+	 * it's rejected again when replayed.
+	 * @param trade
+	 * @throws IOException
+	 */
+	public void add(TradeWrapper trade) throws IOException {
+		if(trade == null) return;
+		long sequence = manager.getTradeCount() + 1;
+		journal.append(sequence, trade);
+		try {
+			manager.add(trade);
+		} finally {
+			if(sequence % snapshotInterval == 0) {
+				snapshot();
+			}
+		}
+	}
+
+	public void process(Iterable<TradeWrapper> trades) throws IOException {
+		for(TradeWrapper t : trades) {
+			add(t);
+		}
+	}
+
+	/**
+	 * Wait until the added trades are durable
+	 * @throws IOException
+	 */
+	public void sync() throws IOException {
+		journal.sync();
+	}
+
+	/**
+	 * Write a snapshot of the manager, start a new journal and delete the older files.
+	 * @throws IOException
+	 */
+	public void snapshot() throws IOException {
+		long sequence = manager.getTradeCount();
+		Path tmp = directory.resolve(SNAPSHOT_PREFIX + "tmp");
+		try(OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+			StockManagerSnapshot.write(manager, codec, out);
+		}
+		Files.move(tmp, directory.resolve(name(SNAPSHOT_PREFIX, sequence, SNAPSHOT_SUFFIX)),
+			StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+		TradeJournal old = journal;
+		journal = openJournal(sequence + 1);
+		old.close();
+		for(Path path : list(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX).headMap(sequence).values()) {
+			Files.delete(path);
+		}
+		for(Path path : list(JOURNAL_PREFIX, JOURNAL_SUFFIX).headMap(sequence + 1).values()) {
+			Files.delete(path);
+		}
+	}
+
+	/**
+	 * Force the journal and close it. No snapshot is written.
+	 */
+	@Override
+	public void close() throws IOException {
+		journal.close();
+	}
+
+	private TradeJournal openJournal(long firstSequence) throws IOException {
+		Path path = directory.resolve(name(JOURNAL_PREFIX, firstSequence, JOURNAL_SUFFIX));
+		return TradeJournal.open(path, codec, regionSize, commitInterval);
+	}
+
+	private static String name(String prefix, long sequence, String suffix) {
+		return "%s%020d%s".formatted(prefix, sequence, suffix);
+	}
+
+	/**
+	 * @return files by sequence
+	 */
+	private TreeMap<Long, Path> list(String prefix, String suffix) throws IOException {
+		TreeMap<Long, Path> map = new TreeMap<>();
+		try(DirectoryStream<Path> stream = Files.newDirectoryStream(directory, prefix + "*" + suffix)) {
+			for(Path path : stream) {
+				String name = path.getFileName().toString();
+				String sequence = name.substring(prefix.length(), name.length() - suffix.length());
+				try {
+					map.put(Long.parseLong(sequence), path);
+				} catch(NumberFormatException e) {
+					//not one of our files
+				}
+			}
+		}
+		return map;
+	}
+}
@@ -0,0 +1,356 @@
+package io.github.ritonglue.gostock.journal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+import io.github.ritonglue.gostock.BinaryCodec;
+import io.github.ritonglue.gostock.StockManager.TradeWrapper;
+
+/**
+ * Append-only journal of trades backed by a memory-mapped file.
+ * <p>
+ * The file is mapped by regions. A region starts with the header of the codec : its records are read with
+ * the schema version of the header. A journal of an older version is continued in a new region.
+ * A record is [length][sequence][trade][crc] and the length is written last :
+ * a zero length ends the journal, a torn or corrupted record too.
+ * <p>
+ * Appending only copies the record in the mapped region. A flusher thread forces the regions
+ * every commit interval or as soon as a thread waits in {@link #sync(long)} : all the records appended
+ * since the previous force are made durable by a single force (group commit).
+ */
+public final class TradeJournal implements Closeable {
+	//length + sequence
+	private static final int HEADER = Integer.BYTES + Long.BYTES;
+	//the rest of the region is unused
+	private static final int END_OF_REGION = -1;
+
+	private final Path path;
+	private final BinaryCodec codec;
+	private final int regionSize;
+	private final long commitInterval;
+	private final FileChannel channel;
+	private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	private final DataOutputStream data = new DataOutputStream(bytes);
+	private final CRC32 crc = new CRC32();
+	private final Thread flusher;
+
+	private MappedByteBuffer region;
+	private long regionIndex;
+	//regions filled and not yet forced
+	private List<MappedByteBuffer> filled = new ArrayList<>();
+	private long firstSequence;
+	private long lastSequence;
+	private long syncedSequence;
+	private int waiters;
+	private boolean closed;
+	private IOException failure;
+
+	/**
+	 * Open or create a journal. An existing journal is scanned to find its end.
+	 * @param path
+	 * @param codec
+	 * @param regionSize size of a mapped region. A record must fit in a region.
+	 * @param commitInterval maximum delay in milliseconds before appended records are forced
+	 * @return the journal
+	 * @throws IOException
+	 */
+	public static TradeJournal open(Path path, BinaryCodec codec, int regionSize, long commitInterval) throws IOException {
+		if(regionSize <= BinaryCodec.HEADER_SIZE + HEADER + 2 * Integer.BYTES) {
+			throw new IllegalArgumentException("region size too small : " + regionSize);
+		}
+		if(commitInterval <= 0) {
+			throw new IllegalArgumentException("commit interval must be positive : " + commitInterval);
+		}
+		return new TradeJournal(path, codec, regionSize, commitInterval);
+	}
+
+	private TradeJournal(Path path, BinaryCodec codec, int regionSize, long commitInterval) throws IOException {
+		this.path = path;
+		this.codec = Objects.requireNonNull(codec, "codec null");
+		this.regionSize = regionSize;
+		this.commitInterval = commitInterval;
+		this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			//find the end of the journal
+			long[] end = scan(Long.MAX_VALUE, t -> {});
+			map(end[0]);
+			if(end[1] > 0) {
+				region.position((int) end[1]);
+			}
+			if(end[2] != BinaryCodec.VERSION) {
+				region.putInt(region.position(), END_OF_REGION);
+				filled.add(region);
+				map(regionIndex + 1);
+			}
+		} catch(IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+		this.syncedSequence = lastSequence;
+		this.flusher = new Thread(this::flushLoop, "journal-flusher-" + path.getFileName());
+		this.flusher.setDaemon(true);
+		this.flusher.start();
+	}
+
+	public Path getPath() {
+		return path;
+	}
+
+	/**
+	 * @return sequence of the first record, 0 if the journal is empty
+	 */
+	public synchronized long getFirstSequence() {
+		return firstSequence;
+	}
+
+	/**
+	 * @return sequence of the last appended record, 0 if the journal is empty
+	 */
+	public synchronized long getLastSequence() {
+		return lastSequence;
+	}
+
+	/**
+	 * @return sequence of the last durable record
+	 */
+	public synchronized long getSyncedSequence() {
+		return syncedSequence;
+	}
+
+	/**
+	 * Append a record. It's durable after the next group commit.
+	 * @param sequence must be greater than the last sequence
+	 * @param t
+	 * @throws IOException
+	 */
+	public synchronized void append(long sequence, TradeWrapper t) throws IOException {
+		checkOpen();
+		if(sequence <= lastSequence) {
+			throw new IllegalArgumentException("sequence %s not after %s".formatted(sequence, lastSequence));
+		}
+		bytes.reset();
+		data.writeLong(sequence);
+		codec.writeTrade(data, t);
+		int length = bytes.size() - Long.BYTES;
+		int size = HEADER + length + Integer.BYTES;
+		//keep room for the end of region marker
+		if(BinaryCodec.HEADER_SIZE + size + Integer.BYTES > regionSize) {
+			throw new IllegalArgumentException("record too large : " + size);
+		}
+		if(region.remaining() < size + Integer.BYTES) {
+			region.putInt(region.position(), END_OF_REGION);
+			filled.add(region);
+			map(regionIndex + 1);
+		}
+		byte[] array = bytes.toByteArray();
+		crc.reset();
+		crc.update(array);
+		int position = region.position();
+		region.position(position + Integer.BYTES);
+		region.put(array);
+		region.putInt((int) crc.getValue());
+		region.putInt(position, length);
+		if(firstSequence == 0) firstSequence = sequence;
+		lastSequence = sequence;
+	}
+
+	/**
+	 * Wait until the record with this sequence is durable.
+	 * @param sequence
+	 * @throws IOException
+	 */
+	public synchronized void sync(long sequence) throws IOException {
+		++waiters;
+		notifyAll();
+		try {
+			while(syncedSequence < sequence && sequence <= lastSequence) {
+				checkOpen();
+				wait();
+			}
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while waiting for the journal");
+		} finally {
+			--waiters;
+		}
+	}
+
+	/**
+	 * Wait until every appended record is durable
+	 * @throws IOException
+	 */
+	public void sync() throws IOException {
+		sync(getLastSequence());
+	}
+
+	/**
+	 * Read the records in order
+	 * @param after only records with a greater sequence are read
+	 * @param consumer receives the trades
+	 * @throws IOException
+	 */
+	public synchronized void replay(long after, Consumer<TradeWrapper> consumer) throws IOException {
+		checkOpen();
+		scan(after, consumer);
+	}
+
+	@Override
+	public void close() throws IOException {
+		synchronized(this) {
+			if(closed) return;
+			closed = true;
+			notifyAll();
+		}
+		try {
+			flusher.join();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		try {
+			force(takeRegions());
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * read the records from the start
+	 * @return end of the journal : region index, position in the region (0 without header) and schema version of the region
+	 */
+	private long[] scan(long after, Consumer<TradeWrapper> consumer) throws IOException {
+		long size = channel.size();
+		long index = 0;
+		int position = 0;
+		short version = BinaryCodec.VERSION;
+		//one mapping by region : the number of mappings of a process is limited
+		regions:
+		while(index * regionSize < size) {
+			ByteBuffer buffer = channel.map(MapMode.READ_ONLY, index * regionSize, regionSize);
+			position = 0;
+			version = BinaryCodec.VERSION;
+			if(buffer.getInt(0) == 0) {
+				//region never written
+				break;
+			}
+			byte[] header = new byte[BinaryCodec.HEADER_SIZE];
+			buffer.get(header);
+			version = codec.readHeader(new DataInputStream(new ByteArrayInputStream(header)));
+			position = header.length;
+			while(true) {
+				//append keeps room for the end of region marker only : the header may not fit
+				if(position + Integer.BYTES > regionSize) {
+					break regions;
+				}
+				int length = buffer.getInt(position);
+				if(length == END_OF_REGION) {
+					++index;
+					position = 0;
+					continue regions;
+				}
+				if(length <= 0 || position + HEADER + length + Integer.BYTES > regionSize) {
+					break regions;
+				}
+				byte[] array = new byte[Long.BYTES + length];
+				buffer.position(position + Integer.BYTES);
+				buffer.get(array);
+				int expected = buffer.getInt();
+				crc.reset();
+				crc.update(array);
+				if((int) crc.getValue() != expected) {
+					//torn record
+					break regions;
+				}
+				long sequence = ByteBuffer.wrap(array).getLong();
+				if(sequence > after) {
+					consumer.accept(codec.readTrade(new DataInputStream(new ByteArrayInputStream(array, Long.BYTES, length)), version));
+				}
+				if(firstSequence == 0) firstSequence = sequence;
+				lastSequence = sequence;
+				position = buffer.position();
+			}
+		}
+		return new long[] {index, position, version};
+	}
+
+	/**
+	 * the header is written in a new region
+	 */
+	private void map(long index) throws IOException {
+		region = channel.map(MapMode.READ_WRITE, index * regionSize, regionSize);
+		regionIndex = index;
+		if(region.getInt(0) == 0) {
+			ByteArrayOutputStream header = new ByteArrayOutputStream();
+			codec.writeHeader(new DataOutputStream(header));
+			region.put(header.toByteArray());
+		} else {
+			region.position(BinaryCodec.HEADER_SIZE);
+		}
+	}
+
+	private synchronized List<MappedByteBuffer> takeRegions() {
+		List<MappedByteBuffer> list = filled;
+		filled = new ArrayList<>();
+		list.add(region);
+		return list;
+	}
+
+	private static void force(List<MappedByteBuffer> regions) {
+		for(MappedByteBuffer buffer : regions) {
+			buffer.force();
+		}
+	}
+
+	private void flushLoop() {
+		while(true) {
+			long target;
+			List<MappedByteBuffer> regions;
+			synchronized(this) {
+				try {
+					if(!closed && waiters == 0) {
+						wait(commitInterval);
+					}
+				} catch(InterruptedException e) {
+					return;
+				}
+				if(closed) return;
+				if(lastSequence == syncedSequence) continue;
+				target = lastSequence;
+				regions = takeRegions();
+			}
+			try {
+				force(regions);
+			} catch(RuntimeException e) {
+				synchronized(this) {
+					failure = new IOException("journal force failed", e);
+					notifyAll();
+				}
+				return;
+			}
+			synchronized(this) {
+				syncedSequence = Math.max(syncedSequence, target);
+				notifyAll();
+			}
+		}
+	}
+
+	private void checkOpen() throws IOException {
+		if(failure != null) throw failure;
+		if(closed) throw new IOException("journal closed");
+	}
+}
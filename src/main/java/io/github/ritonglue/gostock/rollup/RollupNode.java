@@ -0,0 +1,129 @@
+package io.github.ritonglue.gostock.rollup;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.money.MonetaryAmount;
+
+import io.github.ritonglue.gostock.StockListener;
+import io.github.ritonglue.gostock.StockManager;
+
+/**
+ * A node of a rollup tree : a portfolio, an account or an instrument.
+ * Totals are the sum of the totals of the attached stock managers below this node.
+ * All the stock managers of a tree must use the same currency.
+ */
+public final class RollupNode {
+	private final String name;
+	private final RollupNode parent;
+	//shared by the nodes of the same stripe
+	private final Object lock;
+	private final List<RollupNode> children = new ArrayList<>();
+	private BigDecimal quantity = BigDecimal.ZERO;
+	private MonetaryAmount amount;
+	private MonetaryAmount realized;
+	//attached stock manager
+	private StockManager manager;
+	private StockListener listener;
+
+	RollupNode(String name, RollupNode parent, Object lock) {
+		this.name = name;
+		this.parent = parent;
+		this.lock = lock;
+	}
+
+	/**
+	 * add the delta to this node and its ancestors. One lock is held at a time.
+	 */
+	void apply(BigDecimal quantity, MonetaryAmount amount, MonetaryAmount realized) {
+		for(RollupNode node = this ; node != null ; node = node.parent) {
+			synchronized(node.lock) {
+				if(quantity != null) {
+					node.quantity = node.quantity.add(quantity);
+				}
+				node.amount = add(node.amount, amount);
+				node.realized = add(node.realized, realized);
+			}
+		}
+	}
+
+	private static MonetaryAmount add(MonetaryAmount a, MonetaryAmount b) {
+		if(b == null) return a;
+		return a == null ? b : a.add(b);
+	}
+
+	void addChild(RollupNode child) {
+		synchronized(lock) {
+			children.add(child);
+		}
+	}
+
+	void removeChild(RollupNode child) {
+		synchronized(lock) {
+			children.remove(child);
+		}
+	}
+
+	void attach(StockManager manager, StockListener listener) {
+		this.manager = manager;
+		this.listener = listener;
+	}
+
+	StockManager getManager() {
+		return manager;
+	}
+
+	StockListener getListener() {
+		return listener;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public RollupNode getParent() {
+		return parent;
+	}
+
+	public List<RollupNode> getChildren() {
+		synchronized(lock) {
+			return Collections.unmodifiableList(new ArrayList<>(children));
+		}
+	}
+
+	/**
+	 * @return the quantity in stock
+	 */
+	public BigDecimal getQuantity() {
+		synchronized(lock) {
+			return quantity;
+		}
+	}
+
+	/**
+	 * @return the buy value in stock. Null if nothing was bought.
+	 */
+	public MonetaryAmount getAmount() {
+		synchronized(lock) {
+			return amount;
+		}
+	}
+
+	/**
+	 * @return the buy value of the closed positions. Null if nothing was sold.
+	 */
+	public MonetaryAmount getRealized() {
+		synchronized(lock) {
+			return realized;
+		}
+	}
+
+	@Override
+	public String toString() {
+		synchronized(lock) {
+			return String.format("RollupNode [name=%s, quantity=%s, amount=%s, realized=%s]", name, quantity, amount, realized);
+		}
+	}
+}
@@ -0,0 +1,110 @@
+package io.github.ritonglue.gostock.rollup;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.money.MonetaryAmount;
+
+import io.github.ritonglue.gostock.Position;
+import io.github.ritonglue.gostock.StockListener;
+import io.github.ritonglue.gostock.StockManager;
+import io.github.ritonglue.gostock.StockManager.TradeWrapper;
+
+/**
+ * Account and portfolio totals above stock managers.
+ * Each stock manager notifies its changes to its node, the delta is added to the node and its ancestors.
+ * Nodes share a fixed number of locks : stock managers used by different threads update the tree concurrently.
+ * <p>
+ * A stock manager is not thread safe : it must be used by one thread at a time.
+ */
+public final class RollupTree {
+	private static final int DEFAULT_STRIPES = 64;
+
+	private final Object[] locks;
+	private final AtomicInteger counter = new AtomicInteger();
+	private final RollupNode root;
+
+	public RollupTree(String name) {
+		this(name, DEFAULT_STRIPES);
+	}
+
+	/**
+	 * @param name name of the root node
+	 * @param stripes number of locks
+	 */
+	public RollupTree(String name, int stripes) {
+		if(stripes <= 0) {
+			throw new IllegalArgumentException("stripes must be positive");
+		}
+		this.locks = new Object[stripes];
+		for(int i = 0 ; i < stripes ; ++i) {
+			locks[i] = new Object();
+		}
+		this.root = newNode(name, null);
+	}
+
+	public RollupNode getRoot() {
+		return root;
+	}
+
+	/**
+	 * @param parent
+	 * @param name
+	 * @return a new empty node, an account for example
+	 */
+	public RollupNode addNode(RollupNode parent, String name) {
+		Objects.requireNonNull(parent, "parent null");
+		RollupNode node = newNode(name, parent);
+		parent.addChild(node);
+		return node;
+	}
+
+	/**
+	 * Create a node following the stock manager. The current state of the manager is added once,
+	 * then only the changes are propagated.
+	 *
+	 * @param parent
+	 * @param name
+	 * @param manager
+	 * @return the node of the stock manager
+	 */
+	public RollupNode attach(RollupNode parent, String name, StockManager manager) {
+		Objects.requireNonNull(manager, "manager null");
+		RollupNode node = addNode(parent, name);
+		StockListener listener = (m, quantity, amount, realized) -> node.apply(quantity, amount, realized);
+		node.attach(manager, listener);
+		TradeWrapper stock = manager.getStock();
+		node.apply(stock.getQuantity(), stock.getAmount(), realized(manager));
+		manager.addListener(listener);
+		return node;
+	}
+
+	/**
+	 * Remove the node of a stock manager. Its totals are removed from its ancestors.
+	 * @param node a node created by attach
+	 */
+	public void detach(RollupNode node) {
+		StockManager manager = node.getManager();
+		if(manager == null) {
+			throw new IllegalArgumentException("no stock manager attached to %s".formatted(node.getName()));
+		}
+		manager.removeListener(node.getListener());
+		MonetaryAmount amount = node.getAmount();
+		MonetaryAmount realized = node.getRealized();
+		node.apply(node.getQuantity().negate(), amount == null ? null : amount.negate(), realized == null ? null : realized.negate());
+		node.getParent().removeChild(node);
+	}
+
+	private RollupNode newNode(String name, RollupNode parent) {
+		int id = counter.getAndIncrement();
+		return new RollupNode(name, parent, locks[Math.floorMod(id, locks.length)]);
+	}
+
+	private static MonetaryAmount realized(StockManager manager) {
+		MonetaryAmount realized = null;
+		for(Position position : manager.getClosedPositions()) {
+			realized = realized == null ? position.getAmount() : realized.add(position.getAmount());
+		}
+		return realized;
+	}
+}
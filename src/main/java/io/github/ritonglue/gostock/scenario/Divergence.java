@@ -0,0 +1,95 @@
+package io.github.ritonglue.gostock.scenario;
+
+import io.github.ritonglue.gostock.StockManager;
+import io.github.ritonglue.gostock.StockManager.TradeWrapper;
+
+/**
+ * First difference between two replays
+ * @see ReplayDiff
+ */
+public final class Divergence {
+
+	public enum Component {
+		/** opened lots added, changed or removed differently */
+		LOTS,
+		CLOSED_POSITIONS,
+		MODIFICATIONS,
+		ORPHAN_SELLS,
+		/** short lots of a short selling manager */
+		SHORT_LOTS,
+		/** a trade failed in one replay only, or with another exception */
+		ERROR,
+		/** a stream ended before the other one */
+		LENGTH
+	}
+
+	private final long index;
+	private final Component component;
+	private final StockManager left;
+	private final StockManager right;
+	private final TradeWrapper leftTrade;
+	private final TradeWrapper rightTrade;
+	private final RuntimeException leftError;
+	private final RuntimeException rightError;
+
+	Divergence(long index, Component component, StockManager left, StockManager right, TradeWrapper leftTrade, TradeWrapper rightTrade,
+		RuntimeException leftError, RuntimeException rightError) {
+		this.index = index;
+		this.component = component;
+		this.left = left;
+		this.right = right;
+		this.leftTrade = leftTrade;
+		this.rightTrade = rightTrade;
+		this.leftError = leftError;
+		this.rightError = rightError;
+	}
+
+	/**
+	 * @return position of the trades in the streams
+	 */
+	public long getIndex() {
+		return index;
+	}
+
+	/**
+	 * @return the first component found different
+	 */
+	public Component getComponent() {
+		return component;
+	}
+
+	/**
+	 * @return the left manager after the trade
+	 */
+	public StockManager getLeft() {
+		return left;
+	}
+
+	public StockManager getRight() {
+		return right;
+	}
+
+	/**
+	 * @return the left trade, null at the end of the stream
+	 */
+	public TradeWrapper getLeftTrade() {
+		return leftTrade;
+	}
+
+	public TradeWrapper getRightTrade() {
+		return rightTrade;
+	}
+
+	public RuntimeException getLeftError() {
+		return leftError;
+	}
+
+	public RuntimeException getRightError() {
+		return rightError;
+	}
+
+	@Override
+	public String toString() {
+		return "Divergence [index=%s, component=%s, leftTrade=%s, rightTrade=%s]".formatted(index, component, leftTrade, rightTrade);
+	}
+}
@@ -0,0 +1,214 @@
+package io.github.ritonglue.gostock.scenario;
+
+import java.math.BigDecimal;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+
+import javax.money.MonetaryAmount;
+
+import io.github.ritonglue.gostock.LotChange;
+import io.github.ritonglue.gostock.Modification;
+import io.github.ritonglue.gostock.Position;
+import io.github.ritonglue.gostock.StockManager;
+import io.github.ritonglue.gostock.StockManager.TradeWrapper;
+
+/**
+ * Replay two trade streams in a single pass and find the first trade after which the states differ.
+ * <p>
+ * After each trade, the lot changes, the new closed positions, the new modifications and the new orphan sells
+ * of each manager are folded into rolling hashes : the cost of a trade doesn't depend on the length of the history.
+ * Short lots are not tracked as lots : they're hashed after each trade.
+ * Values are compared by value (trailing zeros ignored), sources by hashCode. Equal hashes of different states are
+ * possible but unlikely.
+ * <p>
+ * The managers are tracking their lots during the replay : the changes since the previous checkpoint are dropped.
+ */
+public final class ReplayDiff {
+
+	private ReplayDiff() {
+	}
+
+	/**
+	 * Replay the same trades under two scenarios branched from base. Each replay processes copies of the trades.
+	 * @param base the stock manager at the branch point. Not modified.
+	 * @param trades in ascending time order
+	 * @param left
+	 * @param right their mode must be null or the mode of base
+	 * @return the first divergence, null if none
+	 */
+	public static Divergence compare(StockManager base, Iterable<TradeWrapper> trades, Scenario left, Scenario right) {
+		Objects.requireNonNull(base, "base null");
+		for(Scenario scenario : List.of(left, right)) {
+			if(scenario.getMode() != null && scenario.getMode() != base.getMode()) {
+				throw new IllegalArgumentException("scenario %s : mode %s differs from branch mode %s".formatted(scenario.getName(), scenario.getMode(), base.getMode()));
+			}
+		}
+		return compare(left.branch(base), copies(trades.iterator()), right.branch(base), copies(trades.iterator()));
+	}
+
+	/**
+	 * Replay two streams. The managers and the trades are modified.
+	 * @param left
+	 * @param leftTrades in ascending time order
+	 * @param right
+	 * @param rightTrades in ascending time order
+	 * @return the first divergence, null if none
+	 */
+	public static Divergence compare(StockManager left, Iterator<TradeWrapper> leftTrades, StockManager right, Iterator<TradeWrapper> rightTrades) {
+		Replay l = new Replay(left);
+		Replay r = new Replay(right);
+		for(long index = 0 ; ; ++index) {
+			boolean leftNext = leftTrades.hasNext();
+			boolean rightNext = rightTrades.hasNext();
+			if(!leftNext && !rightNext) return null;
+			if(leftNext != rightNext) {
+				return new Divergence(index, Divergence.Component.LENGTH, left, right,
+					leftNext ? leftTrades.next() : null, rightNext ? rightTrades.next() : null, null, null);
+			}
+			TradeWrapper leftTrade = leftTrades.next();
+			TradeWrapper rightTrade = rightTrades.next();
+			RuntimeException leftError = l.add(leftTrade);
+			RuntimeException rightError = r.add(rightTrade);
+			Divergence.Component component = null;
+			if(leftError != null || rightError != null) {
+				if(leftError == null || rightError == null || leftError.getClass() != rightError.getClass()) {
+					component = Divergence.Component.ERROR;
+				}
+			}
+			if(component == null) {
+				component = l.compare(r);
+			}
+			if(component != null) {
+				return new Divergence(index, component, left, right, leftTrade, rightTrade, leftError, rightError);
+			}
+		}
+	}
+
+	private static Iterator<TradeWrapper> copies(Iterator<TradeWrapper> trades) {
+		return new Iterator<>() {
+			@Override
+			public boolean hasNext() {
+				return trades.hasNext();
+			}
+
+			@Override
+			public TradeWrapper next() {
+				TradeWrapper t = trades.next();
+				return t == null ? null : t.copy();
+			}
+		};
+	}
+
+	/**
+	 * rolling hashes of a manager
+	 */
+	private static class Replay {
+		private final StockManager manager;
+		private long lots;
+		private long closed;
+		private long modifications;
+		private long orphans;
+		private long shortLots;
+		private int closedCount;
+		private int modificationCount;
+		private int orphanCount;
+
+		Replay(StockManager manager) {
+			this.manager = manager;
+			manager.setLotTracking(true);
+			this.closedCount = manager.getClosedPositions().size();
+			this.modificationCount = manager.getModifications().size();
+			this.orphanCount = manager.getOrphanSells().size();
+		}
+
+		/**
+		 * @return the exception of the trade, null if none
+		 */
+		RuntimeException add(TradeWrapper t) {
+			RuntimeException error = null;
+			try {
+				manager.add(t);
+			} catch(RuntimeException e) {
+				error = e;
+			}
+			//a failed trade may have changed the state
+			fold();
+			return error;
+		}
+
+		private void fold() {
+			for(Iterator<LotChange> iter = manager.getLotChanges() ; iter.hasNext() ; ) {
+				LotChange c = iter.next();
+				lots = combine(lots, c.getKind().ordinal(), Objects.hashCode(c.getSource()), hash(c.getQuantity()), hash(c.getAmount()));
+			}
+			manager.checkpointLots();
+			List<Position> positions = manager.getClosedPositions();
+			//a period close restarts the lists
+			closedCount = Math.min(closedCount, positions.size());
+			for(Position p : positions.subList(closedCount, positions.size())) {
+				int cause = p.getCloseCause() == null ? 0 : p.getCloseCause().ordinal() + 1;
+				closed = combine(closed, Objects.hashCode(p.getBuy()), Objects.hashCode(p.getSell()), 31 * hash(p.getQuantity()) + cause, hash(p.getAmount()));
+			}
+			closedCount = positions.size();
+			List<Modification> list = manager.getModifications();
+			modificationCount = Math.min(modificationCount, list.size());
+			for(Modification m : list.subList(modificationCount, list.size())) {
+				modifications = combine(modifications, Objects.hashCode(m.getBuy().getSource()), Objects.hashCode(m.getModification().getSource()),
+					hash(m.getAmountBefore()), hash(m.getAmountAfter()));
+			}
+			modificationCount = list.size();
+			List<TradeWrapper> orphanSells = manager.getOrphanSells();
+			orphanCount = Math.min(orphanCount, orphanSells.size());
+			for(TradeWrapper t : orphanSells.subList(orphanCount, orphanSells.size())) {
+				orphans = combine(orphans, Objects.hashCode(t.getSource()), hash(t.getQuantity()), 0, 0);
+			}
+			orphanCount = orphanSells.size();
+			shortLots = 0;
+			for(Position p : manager.getShortPositions()) {
+				shortLots = combine(shortLots, Objects.hashCode(p.getSell()), hash(p.getQuantity()), hash(p.getAmount()), 0);
+			}
+		}
+
+		/**
+		 * @return the first different component, null if none
+		 */
+		Divergence.Component compare(Replay other) {
+			if(lots != other.lots) return Divergence.Component.LOTS;
+			if(closed != other.closed) return Divergence.Component.CLOSED_POSITIONS;
+			if(modifications != other.modifications) return Divergence.Component.MODIFICATIONS;
+			if(orphans != other.orphans) return Divergence.Component.ORPHAN_SELLS;
+			if(shortLots != other.shortLots) return Divergence.Component.SHORT_LOTS;
+			return null;
+		}
+	}
+
+	private static long combine(long h, int a, int b, int c, int d) {
+		h = mix(h ^ a);
+		h = mix(h ^ b);
+		h = mix(h ^ c);
+		return mix(h ^ d);
+	}
+
+	private static int hash(BigDecimal x) {
+		return x == null || x.signum() == 0 ? 0 : x.stripTrailingZeros().hashCode();
+	}
+
+	private static int hash(MonetaryAmount x) {
+		if(x == null) return 0;
+		return 31 * x.getCurrency().getCurrencyCode().hashCode() + hash(x.getNumber().numberValue(BigDecimal.class));
+	}
+
+	/**
+	 * murmur3 finalizer
+	 */
+	private static long mix(long h) {
+		h += 0x9e3779b97f4a7c15L;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
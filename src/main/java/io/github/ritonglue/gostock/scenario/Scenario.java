@@ -0,0 +1,104 @@
+package io.github.ritonglue.gostock.scenario;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+import javax.money.MonetaryAmount;
+import javax.money.MonetaryRounding;
+
+import io.github.ritonglue.gostock.Mode;
+import io.github.ritonglue.gostock.ModificationMode;
+import io.github.ritonglue.gostock.StockManager;
+import io.github.ritonglue.gostock.StockManager.TradeWrapper;
+
+/**
+ * A set of parameters applied from the branch point.
+ * Null values keep the parameters of the branched stock manager.
+ */
+public final class Scenario {
+	private final String name;
+	private final Mode mode;
+	private final ModificationMode modificationMode;
+	private final MonetaryRounding rounding;
+	private final List<Consumer<StockManager>> forcedAmounts;
+
+	public static class Builder {
+		private String name;
+		private Mode mode;
+		private ModificationMode modificationMode;
+		private MonetaryRounding rounding;
+		private final List<Consumer<StockManager>> forcedAmounts = new ArrayList<>();
+
+		public Builder name(String name) {this.name = name; return this;}
+		public Builder mode(Mode mode) {this.mode = mode; return this;}
+		public Builder modificationMode(ModificationMode modificationMode) {this.modificationMode = modificationMode; return this;}
+		public Builder rounding(MonetaryRounding rounding) {this.rounding = rounding; return this;}
+
+		/**
+		 * @see StockManager#addBuySellMoney(TradeWrapper, TradeWrapper, MonetaryAmount)
+		 */
+		public Builder buySellMoney(TradeWrapper buy, TradeWrapper sell, MonetaryAmount amount) {
+			forcedAmounts.add(m -> m.addBuySellMoney(buy, sell, amount));
+			return this;
+		}
+
+		/**
+		 * @see StockManager#addBuyModificationMoney(TradeWrapper, TradeWrapper, MonetaryAmount)
+		 */
+		public Builder buyModificationMoney(TradeWrapper buy, TradeWrapper modification, MonetaryAmount amount) {
+			forcedAmounts.add(m -> m.addBuyModificationMoney(buy, modification, amount));
+			return this;
+		}
+
+		public Scenario build() {
+			return new Scenario(this);
+		}
+	}
+
+	public static Builder create(String name) {
+		return new Builder().name(name);
+	}
+
+	private Scenario(Builder builder) {
+		this.name = builder.name;
+		this.mode = builder.mode;
+		this.modificationMode = builder.modificationMode;
+		this.rounding = builder.rounding;
+		this.forcedAmounts = Collections.unmodifiableList(new ArrayList<>(builder.forcedAmounts));
+	}
+
+	/**
+	 * @param base the stock manager at the branch point
+	 * @return a copy of base with the parameters of this scenario
+	 */
+	StockManager branch(StockManager base) {
+		StockManager manager = base.copy(modificationMode, rounding);
+		for(Consumer<StockManager> c : forcedAmounts) {
+			c.accept(manager);
+		}
+		return manager;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public Mode getMode() {
+		return mode;
+	}
+
+	public ModificationMode getModificationMode() {
+		return modificationMode;
+	}
+
+	public MonetaryRounding getRounding() {
+		return rounding;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Scenario [name=%s, mode=%s, modificationMode=%s]", name, mode, modificationMode);
+	}
+}
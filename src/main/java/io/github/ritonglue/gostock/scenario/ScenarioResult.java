@@ -0,0 +1,87 @@
+package io.github.ritonglue.gostock.scenario;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import javax.money.MonetaryAmount;
+
+import io.github.ritonglue.gostock.Position;
+import io.github.ritonglue.gostock.StockManager;
+import io.github.ritonglue.gostock.StockManager.TradeWrapper;
+
+/**
+ * Aggregated result of a scenario. Totals only count the positions closed after the branch point.
+ */
+public final class ScenarioResult {
+	private final Scenario scenario;
+	private final StockManager manager;
+	private final RuntimeException error;
+	private final int closedCount;
+	private final BigDecimal closedQuantity;
+	private final MonetaryAmount closedAmount;
+	private final TradeWrapper stock;
+
+	ScenarioResult(Scenario scenario, StockManager manager, int branchClosedCount, RuntimeException error) {
+		this.scenario = scenario;
+		this.manager = manager;
+		this.error = error;
+		List<Position> positions = manager.getClosedPositions();
+		positions = positions.subList(branchClosedCount, positions.size());
+		BigDecimal quantity = BigDecimal.ZERO;
+		MonetaryAmount amount = null;
+		for(Position position : positions) {
+			quantity = quantity.add(position.getQuantity());
+			amount = amount == null ? position.getAmount() : amount.add(position.getAmount());
+		}
+		this.closedCount = positions.size();
+		this.closedQuantity = quantity;
+		this.closedAmount = amount;
+		this.stock = manager.getStock();
+	}
+
+	public Scenario getScenario() {
+		return scenario;
+	}
+
+	/**
+	 * @return the stock manager of this scenario. In case of error, its state is the one at the failure.
+	 */
+	public StockManager getManager() {
+		return manager;
+	}
+
+	/**
+	 * @return the exception raised by the scenario or null
+	 */
+	public RuntimeException getError() {
+		return error;
+	}
+
+	public boolean isSuccess() {
+		return error == null;
+	}
+
+	public int getClosedCount() {
+		return closedCount;
+	}
+
+	public BigDecimal getClosedQuantity() {
+		return closedQuantity;
+	}
+
+	/**
+	 * @return the buy value of the closed positions. Null if there is none.
+	 */
+	public MonetaryAmount getClosedAmount() {
+		return closedAmount;
+	}
+
+	public TradeWrapper getStock() {
+		return stock;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("ScenarioResult [scenario=%s, closedQuantity=%s, closedAmount=%s, stock=%s, error=%s]", scenario, closedQuantity, closedAmount, stock, error);
+	}
+}
@@ -0,0 +1,123 @@
+package io.github.ritonglue.gostock.scenario;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import io.github.ritonglue.gostock.Mode;
+import io.github.ritonglue.gostock.ModificationMode;
+import io.github.ritonglue.gostock.StockManager;
+import io.github.ritonglue.gostock.StockManager.TradeWrapper;
+
+/**
+ * Run the same trades under many scenarios.
+ * The state at the branch point is copied for each scenario instead of being replayed.
+ * Each scenario processes copies of the trades : the given trades are never modified.
+ */
+public final class ScenarioRunner {
+	private final ForkJoinPool pool;
+
+	public ScenarioRunner() {
+		this(null);
+	}
+
+	/**
+	 * @param pool null for the common pool
+	 */
+	public ScenarioRunner(ForkJoinPool pool) {
+		this.pool = pool == null ? ForkJoinPool.commonPool() : pool;
+	}
+
+	/**
+	 * Branch base and process trades for each scenario.
+	 * Base must not be modified during the run.
+	 *
+	 * @param base the stock manager at the branch point
+	 * @param trades the trades after the branch point in ascending time order
+	 * @param scenarios their mode must be null or the mode of base
+	 * @return the result of each scenario
+	 */
+	public Map<Scenario, ScenarioResult> run(StockManager base, List<TradeWrapper> trades, Collection<Scenario> scenarios) {
+		Objects.requireNonNull(base, "base null");
+		int branchClosedCount = base.getClosedPositions().size();
+		List<ForkJoinTask<ScenarioResult>> tasks = new ArrayList<>(scenarios.size());
+		for(Scenario scenario : scenarios) {
+			Mode mode = scenario.getMode();
+			if(mode != null && mode != base.getMode()) {
+				throw new IllegalArgumentException("scenario %s : mode %s differs from branch mode %s".formatted(scenario.getName(), mode, base.getMode()));
+			}
+		}
+		for(Scenario scenario : scenarios) {
+			tasks.add(pool.submit(() -> run(scenario, scenario.branch(base), trades, branchClosedCount)));
+		}
+		Map<Scenario, ScenarioResult> results = new LinkedHashMap<>();
+		for(ForkJoinTask<ScenarioResult> task : tasks) {
+			ScenarioResult result = task.join();
+			results.put(result.getScenario(), result);
+		}
+		return results;
+	}
+
+	/**
+	 * Process the trades before the branch point once per configuration (mode, modification mode and rounding),
+	 * then the trades after the branch point for each scenario. The forced amounts of a scenario apply from the branch point.
+	 *
+	 * @param trades in ascending time order
+	 * @param branchPoint index of the first trade processed with the forced amounts of the scenario
+	 * @param scenarios their mode is mandatory
+	 * @return the result of each scenario
+	 */
+	public Map<Scenario, ScenarioResult> run(List<TradeWrapper> trades, int branchPoint, Collection<Scenario> scenarios) {
+		//the rounding is compared by equals
+		Map<List<Object>, List<Scenario>> byConfiguration = new LinkedHashMap<>();
+		for(Scenario scenario : scenarios) {
+			Mode mode = Objects.requireNonNull(scenario.getMode(), "scenario mode null");
+			byConfiguration.computeIfAbsent(Arrays.asList(mode, scenario.getModificationMode(), scenario.getRounding()), o -> new ArrayList<>()).add(scenario);
+		}
+		List<TradeWrapper> prefix = trades.subList(0, branchPoint);
+		List<TradeWrapper> suffix = trades.subList(branchPoint, trades.size());
+		Map<List<Object>, ForkJoinTask<StockManager>> bases = new HashMap<>();
+		for(Map.Entry<List<Object>, List<Scenario>> e : byConfiguration.entrySet()) {
+			Scenario scenario = e.getValue().get(0);
+			bases.put(e.getKey(), pool.submit(() -> {
+				ModificationMode modificationMode = scenario.getModificationMode();
+				StockManager manager = StockManager.create(scenario.getMode())
+					.modificationMode(modificationMode == null ? ModificationMode.MIXED : modificationMode)
+					.rouding(scenario.getRounding())
+					.build();
+				for(TradeWrapper t : prefix) {
+					manager.add(t == null ? null : t.copy());
+				}
+				return manager;
+			}));
+		}
+		Map<Scenario, ScenarioResult> results = new LinkedHashMap<>();
+		for(Scenario scenario : scenarios) {
+			results.put(scenario, null);
+		}
+		for(Map.Entry<List<Object>, List<Scenario>> e : byConfiguration.entrySet()) {
+			StockManager base = bases.get(e.getKey()).join();
+			results.putAll(run(base, suffix, e.getValue()));
+		}
+		return results;
+	}
+
+	private static ScenarioResult run(Scenario scenario, StockManager manager, List<TradeWrapper> trades, int branchClosedCount) {
+		RuntimeException error = null;
+		try {
+			for(TradeWrapper t : trades) {
+				manager.add(t == null ? null : t.copy());
+			}
+		} catch(RuntimeException e) {
+			error = e;
+		}
+		return new ScenarioResult(scenario, manager, branchClosedCount, error);
+	}
+}
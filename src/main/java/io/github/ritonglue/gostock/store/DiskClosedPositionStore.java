@@ -0,0 +1,445 @@
+package io.github.ritonglue.gostock.store;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+import io.github.ritonglue.gostock.BinaryCodec;
+import io.github.ritonglue.gostock.ClosedPositionStore;
+import io.github.ritonglue.gostock.MemoryClosedPositionStore;
+import io.github.ritonglue.gostock.Position;
+
+/**
+ * Append-only closed position store on disk. The heap usage doesn't depend on the number of positions.
+ * <p>
+ * Files of the directory :
+ * <ul>
+ * <li>positions-&lt;n&gt;.seg : segments of encoded positions, a new segment is started when the current one is full.
+ * A segment starts with the header of the codec : positions are appended to the segments of the current schema version only.</li>
+ * <li>positions.idx : a fixed size entry by position : its location, and its links in the buy and sell chains</li>
+ * <li>buy.idx, sell.idx : hash tables of the last position of each chain</li>
+ * </ul>
+ * A lookup walks the chain of the bucket of the key : the hash of the key is compared before reading a position.
+ * Sources are hashed with hashCode : it must be stable between runs (not an identity or enum hash code).
+ * <p>
+ * Not thread safe. Errors are thrown as UncheckedIOException. Copies are in memory.
+ */
+public final class DiskClosedPositionStore implements ClosedPositionStore, Closeable {
+	//location, next buy, next sell, buy hash, sell hash
+	private static final int ENTRY = 3 * Long.BYTES + 2 * Integer.BYTES;
+	private static final int NEXT_BUY = Long.BYTES;
+	private static final int NEXT_SELL = 2 * Long.BYTES;
+	private static final int BUY_HASH = 3 * Long.BYTES;
+	private static final int SELL_HASH = BUY_HASH + Integer.BYTES;
+	//location is segment << SEGMENT_SHIFT | offset
+	private static final int SEGMENT_SHIFT = 40;
+
+	private final Path directory;
+	private final BinaryCodec codec;
+	private final long segmentSize;
+	private final int buckets;
+	private final FileChannel index;
+	private final FileChannel buyHeads;
+	private final FileChannel sellHeads;
+	private final List<FileChannel> segments = new ArrayList<>();
+	//schema version by segment
+	private final List<Short> versions = new ArrayList<>();
+	private final ByteBuffer entry = ByteBuffer.allocate(ENTRY);
+	private final ByteBuffer number = ByteBuffer.allocate(Long.BYTES);
+	private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	private final DataOutputStream data = new DataOutputStream(bytes);
+	private long size;
+	private final List<Position> positions = new AbstractList<>() {
+		@Override
+		public Position get(int i) {
+			Objects.checkIndex(i, size());
+			return readPosition(readEntry(i).getLong(0));
+		}
+
+		@Override
+		public int size() {
+			return (int) Math.min(size, Integer.MAX_VALUE);
+		}
+	};
+
+	/**
+	 * Open or create a store
+	 * @param directory
+	 * @param codec
+	 * @param segmentSize size in bytes of a segment
+	 * @param buckets number of buckets of the hash tables : a power of two. Ignored if the store exists.
+	 * @return the store
+	 * @throws IOException
+	 */
+	public static DiskClosedPositionStore open(Path directory, BinaryCodec codec, long segmentSize, int buckets) throws IOException {
+		if(segmentSize <= 0 || segmentSize >= 1L << SEGMENT_SHIFT) {
+			throw new IllegalArgumentException("bad segment size " + segmentSize);
+		}
+		if(buckets <= 0 || Integer.bitCount(buckets) != 1) {
+			throw new IllegalArgumentException("buckets must be a power of two : " + buckets);
+		}
+		return new DiskClosedPositionStore(directory, codec, segmentSize, buckets);
+	}
+
+	private DiskClosedPositionStore(Path directory, BinaryCodec codec, long segmentSize, int buckets) throws IOException {
+		this.directory = directory;
+		this.codec = Objects.requireNonNull(codec, "codec null");
+		this.segmentSize = segmentSize;
+		Files.createDirectories(directory);
+		this.index = open(directory.resolve("positions.idx"));
+		this.buyHeads = open(directory.resolve("buy.idx"));
+		this.sellHeads = open(directory.resolve("sell.idx"));
+		if(buyHeads.size() == 0) {
+			//a zero head is an empty bucket
+			buyHeads.write(ByteBuffer.allocate(1), (long) buckets * Long.BYTES - 1);
+			sellHeads.write(ByteBuffer.allocate(1), (long) buckets * Long.BYTES - 1);
+		}
+		this.buckets = (int) (buyHeads.size() / Long.BYTES);
+		for(int n = 0 ; Files.exists(segment(n)) ; ++n) {
+			addSegment();
+		}
+		if(segments.isEmpty()) {
+			addSegment();
+		}
+		recover();
+	}
+
+	/**
+	 * An add interrupted by a crash : a partial entry is dropped, the heads are checked against the entries.
+	 * Entries are written before the heads : only the heads of the last entry may be missing.
+	 */
+	private void recover() throws IOException {
+		this.size = index.size() / ENTRY;
+		index.truncate(size * ENTRY);
+		for(FileChannel heads : List.of(buyHeads, sellHeads)) {
+			ByteBuffer buffer = ByteBuffer.allocate(buckets * Long.BYTES);
+			read(heads, buffer, 0);
+			for(int i = 0 ; i < buckets ; ++i) {
+				long head = buffer.getLong(i * Long.BYTES);
+				if(head < 0 || head > size) {
+					rebuildHeads();
+					return;
+				}
+			}
+		}
+		if(size == 0) return;
+		ByteBuffer e = readEntry(size - 1);
+		if(readPosition(e.getLong(0)).getSell() != null) {
+			setHead(buyHeads, e.getInt(BUY_HASH), size);
+			setHead(sellHeads, e.getInt(SELL_HASH), size);
+		}
+	}
+
+	/**
+	 * link again every entry
+	 */
+	private void rebuildHeads() throws IOException {
+		for(FileChannel heads : List.of(buyHeads, sellHeads)) {
+			heads.truncate(0);
+			heads.write(ByteBuffer.allocate(1), (long) buckets * Long.BYTES - 1);
+		}
+		for(long n = 0 ; n < size ; ++n) {
+			ByteBuffer e = readEntry(n);
+			if(readPosition(e.getLong(0)).getSell() == null) continue;
+			e.putLong(NEXT_BUY, readLong(buyHeads, bucket(e.getInt(BUY_HASH))));
+			e.putLong(NEXT_SELL, readLong(sellHeads, bucket(e.getInt(SELL_HASH))));
+			write(index, e, n * ENTRY);
+			setHead(buyHeads, e.getInt(BUY_HASH), n + 1);
+			setHead(sellHeads, e.getInt(SELL_HASH), n + 1);
+		}
+	}
+
+	private static FileChannel open(Path path) throws IOException {
+		return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+	}
+
+	private Path segment(int n) {
+		return directory.resolve("positions-%d.seg".formatted(n));
+	}
+
+	/**
+	 * open the next segment, the header is written if missing
+	 */
+	private FileChannel addSegment() throws IOException {
+		FileChannel segment = open(segment(segments.size()));
+		segments.add(segment);
+		if(segment.size() < BinaryCodec.HEADER_SIZE) {
+			versions.add(writeHeader(segment));
+		} else {
+			ByteBuffer header = ByteBuffer.allocate(BinaryCodec.HEADER_SIZE);
+			read(segment, header, 0);
+			versions.add(codec.readHeader(new DataInputStream(new ByteArrayInputStream(header.array()))));
+		}
+		return segment;
+	}
+
+	private short writeHeader(FileChannel segment) throws IOException {
+		segment.truncate(0);
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+		codec.writeHeader(new DataOutputStream(header));
+		write(segment, ByteBuffer.wrap(header.toByteArray()), 0);
+		return BinaryCodec.VERSION;
+	}
+
+	@Override
+	public void add(Position position) {
+		try {
+			bytes.reset();
+			data.writeInt(0);
+			codec.writePosition(data, position);
+			ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+			record.putInt(0, record.capacity() - Integer.BYTES);
+			FileChannel segment = segments.get(segments.size() - 1);
+			if(versions.get(versions.size() - 1) != BinaryCodec.VERSION
+					|| segment.size() > BinaryCodec.HEADER_SIZE && segment.size() + record.capacity() > segmentSize) {
+				segment = addSegment();
+			}
+			long offset = segment.size();
+			write(segment, record, offset);
+
+			long n = size;
+			entry.clear();
+			entry.putLong(0, (long) (segments.size() - 1) << SEGMENT_SHIFT | offset);
+			int buyHash = 0;
+			int sellHash = 0;
+			if(position.getSell() != null) {
+				buyHash = hash(position.getBuy());
+				sellHash = hash(position.getSell());
+				entry.putLong(NEXT_BUY, readLong(buyHeads, bucket(buyHash)));
+				entry.putLong(NEXT_SELL, readLong(sellHeads, bucket(sellHash)));
+			} else {
+				entry.putLong(NEXT_BUY, 0).putLong(NEXT_SELL, 0);
+			}
+			entry.putInt(BUY_HASH, buyHash).putInt(SELL_HASH, sellHash);
+			//the entry before the heads : a head never points to a missing entry
+			write(index, entry, n * ENTRY);
+			++size;
+			if(position.getSell() != null) {
+				setHead(buyHeads, buyHash, size);
+				setHead(sellHeads, sellHash, size);
+			}
+		} catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public List<Position> getPositions() {
+		return positions;
+	}
+
+	@Override
+	public List<Position> getByBuy(Object buy) {
+		return lookup(buy, buyHeads, NEXT_BUY, BUY_HASH, true);
+	}
+
+	@Override
+	public List<Position> getBySell(Object sell) {
+		return lookup(sell, sellHeads, NEXT_SELL, SELL_HASH, false);
+	}
+
+	/**
+	 * The positions are read once : the copy of a stock manager (scenarios, timelines) keeps its branch in memory.
+	 * @return a memory store with the same positions
+	 */
+	@Override
+	public ClosedPositionStore copy() {
+		MemoryClosedPositionStore store = new MemoryClosedPositionStore();
+		for(Position position : positions) {
+			store.add(position);
+		}
+		return store;
+	}
+
+	/**
+	 * truncate the files, the first segment is kept
+	 */
+	@Override
+	public void clear() {
+		try {
+			while(segments.size() > 1) {
+				versions.remove(versions.size() - 1);
+				segments.remove(segments.size() - 1).close();
+				Files.delete(segment(segments.size()));
+			}
+			versions.set(0, writeHeader(segments.get(0)));
+			index.truncate(0);
+			for(FileChannel heads : List.of(buyHeads, sellHeads)) {
+				heads.truncate(0);
+				heads.write(ByteBuffer.allocate(1), (long) buckets * Long.BYTES - 1);
+			}
+			size = 0;
+		} catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * the chain heads are restored from the removed entries
+	 */
+	@Override
+	public void truncate(int size) {
+		if(size >= this.size) return;
+		try {
+			long location = 0;
+			for(long n = this.size - 1 ; n >= size ; --n) {
+				ByteBuffer e = readEntry(n);
+				location = e.getLong(0);
+				Position position = readPosition(location);
+				if(position.getSell() != null) {
+					setHead(buyHeads, e.getInt(BUY_HASH), e.getLong(NEXT_BUY));
+					setHead(sellHeads, e.getInt(SELL_HASH), e.getLong(NEXT_SELL));
+				}
+			}
+			int segment = (int) (location >>> SEGMENT_SHIFT);
+			while(segments.size() > segment + 1) {
+				versions.remove(versions.size() - 1);
+				segments.remove(segments.size() - 1).close();
+				Files.delete(segment(segments.size()));
+			}
+			segments.get(segment).truncate(location & ((1L << SEGMENT_SHIFT) - 1));
+			index.truncate((long) size * ENTRY);
+			this.size = size;
+		} catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * @return number of positions
+	 */
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * force the files to the disk
+	 * @throws IOException
+	 */
+	public void force() throws IOException {
+		for(FileChannel segment : segments) {
+			segment.force(false);
+		}
+		index.force(false);
+		buyHeads.force(false);
+		sellHeads.force(false);
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			force();
+		} finally {
+			for(FileChannel segment : segments) {
+				segment.close();
+			}
+			index.close();
+			buyHeads.close();
+			sellHeads.close();
+		}
+	}
+
+	private List<Position> lookup(Object key, FileChannel heads, int next, int hashOffset, boolean buy) {
+		int hash = hash(key);
+		List<Position> list = new ArrayList<>();
+		try {
+			//position number + 1, 0 ends the chain
+			long n = readLong(heads, bucket(hash));
+			while(n != 0) {
+				ByteBuffer e = readEntry(n - 1);
+				if(e.getInt(hashOffset) == hash) {
+					Position p = readPosition(e.getLong(0));
+					if(Objects.equals(key, buy ? p.getBuy() : p.getSell())) {
+						list.add(p);
+					}
+				}
+				long previous = n;
+				n = e.getLong(next);
+				//chains go to older entries
+				if(n < 0 || n >= previous) {
+					throw new IOException("corrupted chain at position %s".formatted(previous - 1));
+				}
+			}
+		} catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		//chains are newest first
+		Collections.reverse(list);
+		return list;
+	}
+
+	private void setHead(FileChannel heads, int hash, long head) throws IOException {
+		number.clear();
+		number.putLong(0, head);
+		write(heads, number, bucket(hash));
+	}
+
+	private long bucket(int hash) {
+		return (long) (hash & (buckets - 1)) * Long.BYTES;
+	}
+
+	private static int hash(Object key) {
+		int h = Objects.hashCode(key);
+		return h ^ (h >>> 16);
+	}
+
+	private ByteBuffer readEntry(long n) {
+		ByteBuffer buffer = ByteBuffer.allocate(ENTRY);
+		try {
+			read(index, buffer, n * ENTRY);
+		} catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return buffer;
+	}
+
+	private long readLong(FileChannel channel, long position) throws IOException {
+		number.clear();
+		read(channel, number, position);
+		return number.getLong(0);
+	}
+
+	private Position readPosition(long location) {
+		int n = (int) (location >>> SEGMENT_SHIFT);
+		FileChannel segment = segments.get(n);
+		long offset = location & ((1L << SEGMENT_SHIFT) - 1);
+		try {
+			ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+			read(segment, length, offset);
+			ByteBuffer record = ByteBuffer.allocate(length.getInt(0));
+			read(segment, record, offset + Integer.BYTES);
+			return codec.readPosition(new DataInputStream(new ByteArrayInputStream(record.array())), versions.get(n));
+		} catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static void read(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while(buffer.hasRemaining()) {
+			if(channel.read(buffer, position + buffer.position()) < 0) {
+				throw new EOFException();
+			}
+		}
+	}
+
+	private static void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while(buffer.hasRemaining()) {
+			channel.write(buffer, position + buffer.position());
+		}
+	}
+}
@@ -1,15 +1,45 @@
 package io.github.ritonglue.gostock.strategy;
 
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Queue;
 
 import io.github.ritonglue.gostock.StockManager.TradeWrapper;
 
 public final class FIFOStrategy extends QueueStrategy {
-	private final Queue<TradeWrapper> queue = new LinkedList<>();
+	private final LinkedList<TradeWrapper> queue = new LinkedList<>();
 
 	@Override
 	public Queue<TradeWrapper> getQueue() {
 		return queue;
 	}
+
+	@Override
+	public void addAll(List<TradeWrapper> lots) {
+		queue.addAll(lots);
+	}
+
+	@Override
+	public boolean supportsUndo() {
+		return true;
+	}
+
+	@Override
+	public void undoAdd(TradeWrapper t) {
+		queue.removeLast();
+	}
+
+	@Override
+	public void undoRemove(TradeWrapper t) {
+		queue.addFirst(t);
+	}
+
+	@Override
+	public FIFOStrategy copy() {
+		FIFOStrategy strategy = new FIFOStrategy();
+		for(TradeWrapper t : queue) {
+			strategy.queue.add(t.copy());
+		}
+		return strategy;
+	}
 }
@@ -2,6 +2,7 @@ package io.github.ritonglue.gostock.strategy;
 
 import java.util.ArrayDeque;
 import java.util.Deque;
+import java.util.List;
 
 import io.github.ritonglue.gostock.StockManager.TradeWrapper;
 
@@ -14,8 +15,39 @@ public final class LIFOStrategy extends QueueStrategy {
 		return true;
 	}
 
+	@Override
+	public void addAll(List<TradeWrapper> lots) {
+		for(TradeWrapper t : lots) {
+			stack.addFirst(t);
+		}
+	}
+
+	@Override
+	public boolean supportsUndo() {
+		return true;
+	}
+
+	@Override
+	public void undoAdd(TradeWrapper t) {
+		stack.removeFirst();
+	}
+
+	@Override
+	public void undoRemove(TradeWrapper t) {
+		stack.addFirst(t);
+	}
+
 	@Override
 	public Deque<TradeWrapper> getQueue() {
 		return stack;
 	}
+
+	@Override
+	public LIFOStrategy copy() {
+		LIFOStrategy strategy = new LIFOStrategy();
+		for(TradeWrapper t : stack) {
+			strategy.stack.addLast(t.copy());
+		}
+		return strategy;
+	}
 }
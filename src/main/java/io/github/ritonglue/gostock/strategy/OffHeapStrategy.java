@@ -0,0 +1,306 @@
+package io.github.ritonglue.gostock.strategy;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+import javax.money.CurrencyUnit;
+import javax.money.Monetary;
+import javax.money.MonetaryAmount;
+import javax.money.MonetaryAmountFactory;
+
+import io.github.ritonglue.gostock.StockManager.TradeWrapper;
+
+/**
+ * FIFO or LIFO strategy keeping the lots in a direct buffer : quantity, amount and source id.
+ * A lot costs 32 bytes off heap instead of a TradeWrapper on heap.
+ * <p>
+ * Lots are read as new TradeWrappers, the same one for a slot until the next add, remove or {@link #flush()}.
+ * The StockManager modifies them : they're written back by the flush that ends each trade and each reading
+ * of the lots (only the lots of the current operation are on heap), at the next add or remove,
+ * and before the quantity or the amount of the stock are computed.
+ * Consequences :
+ * <ul>
+ * <li>forced amounts of a buy in stock are found by trade type and source : sources of the buys must be unique</li>
+ * <li>modifications and iterations materialize every lot in stock</li>
+ * </ul>
+ * Unscaled values of quantities and amounts must fit in a long. All lots share the same currency.
+ */
+public final class OffHeapStrategy implements Strategy {
+	//quantity : unscaled long + scale, amount : unscaled long + scale, source id
+	private static final int QUANTITY = 0;
+	private static final int QUANTITY_SCALE = 8;
+	private static final int AMOUNT = 12;
+	private static final int AMOUNT_SCALE = 20;
+	private static final int SOURCE = 24;
+	private static final int SLOT = 32;
+	private static final int INITIAL_CAPACITY = 16;
+
+	/**
+	 * Mapping between sources and ids
+	 */
+	public interface SourceMapping {
+		long toId(Object source);
+		Object toSource(long id);
+	}
+
+	private final boolean lifo;
+	private final SourceMapping mapping;
+	private final MonetaryAmountFactory<?> factory = Monetary.getDefaultAmountFactory();
+	private CurrencyUnit currency;
+	//ring buffer of slots. The first lot is the next sold.
+	private ByteBuffer buffer;
+	private int capacity;
+	private int head;
+	private int size;
+	//lots read since the last flush by slot
+	private final Map<Integer, TradeWrapper> pendings = new LinkedHashMap<>();
+
+	private OffHeapStrategy(boolean lifo, SourceMapping mapping, int capacity) {
+		this.lifo = lifo;
+		this.mapping = Objects.requireNonNull(mapping, "source mapping null");
+		this.capacity = capacity;
+		this.buffer = ByteBuffer.allocateDirect(capacity * SLOT);
+	}
+
+	public static OffHeapStrategy fifo(SourceMapping mapping) {
+		return new OffHeapStrategy(false, mapping, INITIAL_CAPACITY);
+	}
+
+	public static OffHeapStrategy lifo(SourceMapping mapping) {
+		return new OffHeapStrategy(true, mapping, INITIAL_CAPACITY);
+	}
+
+	/**
+	 * write back the lots read since the last call
+	 */
+	@Override
+	public void flush() {
+		sync();
+		pendings.clear();
+	}
+
+	/**
+	 * write back the lots read, they can still be modified
+	 */
+	private void sync() {
+		for(Map.Entry<Integer, TradeWrapper> e : pendings.entrySet()) {
+			writeValues(offset(e.getKey()), e.getValue());
+		}
+	}
+
+	/**
+	 * @return number of lots on heap
+	 */
+	int getMaterializedCount() {
+		return pendings.size();
+	}
+
+	@Override
+	public boolean keepsLots() {
+		return false;
+	}
+
+	@Override
+	public boolean add(TradeWrapper t) {
+		flush();
+		if(size == capacity) {
+			resize(2 * capacity);
+		}
+		int slot;
+		if(lifo) {
+			head = (head - 1 + capacity) % capacity;
+			slot = head;
+		} else {
+			slot = (head + size) % capacity;
+		}
+		write(slot, t);
+		++size;
+		return true;
+	}
+
+	/**
+	 * the buffer grows once
+	 */
+	@Override
+	public void addAll(List<TradeWrapper> lots) {
+		flush();
+		int n = lots.size();
+		if(size + n > capacity) {
+			int target = capacity;
+			while(target < size + n) target *= 2;
+			resize(target);
+		}
+		for(TradeWrapper t : lots) {
+			int slot;
+			if(lifo) {
+				head = (head - 1 + capacity) % capacity;
+				slot = head;
+			} else {
+				slot = (head + size) % capacity;
+			}
+			write(slot, t);
+			++size;
+		}
+	}
+
+	@Override
+	public TradeWrapper peek() {
+		return size == 0 ? null : read(head);
+	}
+
+	@Override
+	public TradeWrapper remove() {
+		if(size == 0) {
+			throw new NoSuchElementException();
+		}
+		sync();
+		//the lot returned by peek
+		TradeWrapper t = read(head);
+		pendings.clear();
+		head = (head + 1) % capacity;
+		--size;
+		return t;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	@Override
+	public void clear() {
+		pendings.clear();
+		head = 0;
+		size = 0;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public Iterator<TradeWrapper> iterator() {
+		return new Iterator<>() {
+			private int i;
+
+			@Override
+			public boolean hasNext() {
+				return i < size;
+			}
+
+			@Override
+			public TradeWrapper next() {
+				if(!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return read((head + i++) % capacity);
+			}
+		};
+	}
+
+	@Override
+	public BigDecimal getQuantity() {
+		sync();
+		BigDecimal quantity = BigDecimal.ZERO;
+		for(int i = 0 ; i < size ; ++i) {
+			quantity = quantity.add(quantity(offset((head + i) % capacity)));
+		}
+		return quantity;
+	}
+
+	@Override
+	public TradeWrapper getStock() {
+		sync();
+		BigDecimal quantity = BigDecimal.ZERO;
+		BigDecimal amount = null;
+		for(int i = 0 ; i < size ; ++i) {
+			int offset = offset((head + i) % capacity);
+			quantity = quantity.add(quantity(offset));
+			amount = amount == null ? amount(offset) : amount.add(amount(offset));
+		}
+		return TradeWrapper.buy(quantity, amount == null ? null : money(amount), null);
+	}
+
+	@Override
+	public OffHeapStrategy copy() {
+		sync();
+		OffHeapStrategy strategy = new OffHeapStrategy(lifo, mapping, capacity);
+		strategy.currency = currency;
+		copyTo(strategy.buffer);
+		strategy.size = size;
+		return strategy;
+	}
+
+	private void resize(int capacity) {
+		ByteBuffer target = ByteBuffer.allocateDirect(capacity * SLOT);
+		copyTo(target);
+		buffer = target;
+		this.capacity = capacity;
+		head = 0;
+	}
+
+	/**
+	 * copy the lots in order at the start of target
+	 */
+	private void copyTo(ByteBuffer target) {
+		int first = Math.min(size, capacity - head);
+		ByteBuffer source = buffer.duplicate();
+		source.limit((head + first) * SLOT).position(head * SLOT);
+		target.put(source);
+		source.clear().limit((size - first) * SLOT);
+		target.put(source);
+		target.clear();
+	}
+
+	private static int offset(int slot) {
+		return slot * SLOT;
+	}
+
+	private TradeWrapper read(int slot) {
+		int offset = offset(slot);
+		return pendings.computeIfAbsent(slot,
+			o -> TradeWrapper.buy(quantity(offset), money(amount(offset)), mapping.toSource(buffer.getLong(offset + SOURCE))));
+	}
+
+	private void write(int slot, TradeWrapper t) {
+		int offset = offset(slot);
+		writeValues(offset, t);
+		buffer.putLong(offset + SOURCE, mapping.toId(t.getSource()));
+	}
+
+	/**
+	 * the source of a lot doesn't change
+	 */
+	private void writeValues(int offset, TradeWrapper t) {
+		BigDecimal quantity = t.getQuantity();
+		BigDecimal amount = t.getAmount().getNumber().numberValueExact(BigDecimal.class);
+		if(currency == null) {
+			currency = t.getAmount().getCurrency();
+		} else if(!currency.equals(t.getAmount().getCurrency())) {
+			throw new IllegalArgumentException("currency %s differs from %s".formatted(t.getAmount().getCurrency(), currency));
+		}
+		buffer.putLong(offset + QUANTITY, quantity.unscaledValue().longValueExact());
+		buffer.putInt(offset + QUANTITY_SCALE, quantity.scale());
+		buffer.putLong(offset + AMOUNT, amount.unscaledValue().longValueExact());
+		buffer.putInt(offset + AMOUNT_SCALE, amount.scale());
+	}
+
+	private BigDecimal quantity(int offset) {
+		return BigDecimal.valueOf(buffer.getLong(offset + QUANTITY), buffer.getInt(offset + QUANTITY_SCALE));
+	}
+
+	private BigDecimal amount(int offset) {
+		return BigDecimal.valueOf(buffer.getLong(offset + AMOUNT), buffer.getInt(offset + AMOUNT_SCALE));
+	}
+
+	private MonetaryAmount money(BigDecimal amount) {
+		return factory.setCurrency(currency).setNumber(amount).create();
+	}
+}
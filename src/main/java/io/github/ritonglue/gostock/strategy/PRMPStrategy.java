@@ -33,6 +33,23 @@ public final class PRMPStrategy implements Strategy {
 		return true;
 	}
 
+	/**
+	 * the lots are summed before updating the stock
+	 */
+	@Override
+	public void addAll(List<TradeWrapper> lots) {
+		if(lots.isEmpty()) return;
+		MonetaryAmount amount = stock == null ? null : stock.getAmount();
+		BigDecimal quantity = stock == null ? BigDecimal.ZERO : stock.getQuantity();
+		for(TradeWrapper t : lots) {
+			amount = amount == null ? t.getAmount() : amount.add(t.getAmount());
+			quantity = quantity.add(t.getQuantity());
+		}
+		buyValue = amount;
+		buyQuantity = quantity;
+		stock = TradeWrapper.buy(buyQuantity, buyValue, null);
+	}
+
 	@Override
 	public BigDecimal getQuantity() {
 		return stock == null ? BigDecimal.ZERO : stock.getQuantity();
@@ -56,6 +73,21 @@ public final class PRMPStrategy implements Strategy {
 		return getStock();
 	}
 
+	@Override
+	public boolean supportsUndo() {
+		return true;
+	}
+
+	/**
+	 * t becomes the stock. The previous stock is restored this way to undo an add.
+	 */
+	@Override
+	public void undoRemove(TradeWrapper t) {
+		stock = t;
+		buyValue = t.getAmount();
+		buyQuantity = t.getQuantity();
+	}
+
 	@Override
 	public boolean isEmpty() {
 		TradeWrapper stock = getStock();
@@ -67,6 +99,15 @@ public final class PRMPStrategy implements Strategy {
 		return isEmpty() ? 0 : 1;
 	}
 
+	@Override
+	public PRMPStrategy copy() {
+		PRMPStrategy strategy = new PRMPStrategy();
+		strategy.buyValue = buyValue;
+		strategy.buyQuantity = buyQuantity;
+		strategy.stock = stock == null ? null : stock.copy();
+		return strategy;
+	}
+
 	@Override
 	public void clear() {
 		stock = null;
@@ -2,6 +2,7 @@ package io.github.ritonglue.gostock.strategy;
 
 import java.math.BigDecimal;
 import java.util.Iterator;
+import java.util.List;
 
 import javax.money.MonetaryAmount;
 
@@ -9,12 +10,65 @@ import io.github.ritonglue.gostock.StockManager.TradeWrapper;
 
 public interface Strategy extends Iterable<TradeWrapper> {
 	boolean add(TradeWrapper t);
+
+	/**
+	 * add lots in one call, same as add for each lot
+	 * @param lots buys in time order
+	 */
+	default void addAll(List<TradeWrapper> lots) {
+		for(TradeWrapper t : lots) {
+			add(t);
+		}
+	}
 	TradeWrapper peek();
 	TradeWrapper remove();
+
+	/**
+	 * @return true if undoAdd and undoRemove are supported
+	 */
+	default boolean supportsUndo() {
+		return false;
+	}
+
+	/**
+	 * Undo add(t) : t is the last added lot. Used by transactions.
+	 * @throws UnsupportedOperationException if the strategy doesn't support it
+	 */
+	default void undoAdd(TradeWrapper t) {
+		throw new UnsupportedOperationException("undo add");
+	}
+
+	/**
+	 * Undo remove() : t is the next lot again. Used by transactions.
+	 * @throws UnsupportedOperationException if the strategy doesn't support it
+	 */
+	default void undoRemove(TradeWrapper t) {
+		throw new UnsupportedOperationException("undo remove");
+	}
+
+	/**
+	 * @return true if the lots are the added TradeWrappers, false if they're read as new ones
+	 */
+	default boolean keepsLots() {
+		return true;
+	}
+
+	/**
+	 * Called by the StockManager after each trade and each reading of the lots.
+	 * A strategy reading its lots as new ones writes back their changes and releases them.
+	 */
+	default void flush() {
+	}
+
 	boolean isEmpty();
 	void clear();
 	int size();
 
+	/**
+	 * @return a new strategy holding a copy of each stock value
+	 */
+	Strategy copy();
+
 	/**
 	 * @return the quantity in stock
 	 */
@@ -0,0 +1,139 @@
+package io.github.ritonglue.gostock.timeline;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.function.Function;
+
+import io.github.ritonglue.gostock.StockManager;
+import io.github.ritonglue.gostock.StockManager.TradeWrapper;
+import io.github.ritonglue.gostock.TradeType;
+
+/**
+ * Timestamped trades of a stock manager with modifications scheduled at an effective date.
+ * <p>
+ * A scheduled modification is added to the manager when the processed trades pass its effective date :
+ * before the first trade of the same or a later time, or by {@link #advanceTo(Comparable)}.
+ * Modifications of the same effective date are added in scheduling order.
+ * <p>
+ * Not thread safe.
+ *
+ * @param <T> the timestamp type
+ */
+public final class ModificationScheduler<T extends Comparable<? super T>> {
+	private final StockManager manager;
+	private final PriorityQueue<Scheduled<T>> pending = new PriorityQueue<>(
+		Comparator.<Scheduled<T>, T>comparing(s -> s.effective).thenComparingLong(s -> s.sequence));
+	private long sequence;
+	//time of the last processed trade, null before the first one
+	private T time;
+
+	private static class Scheduled<T> {
+		private final T effective;
+		private final long sequence;
+		private final TradeWrapper trade;
+
+		Scheduled(T effective, long sequence, TradeWrapper trade) {
+			this.effective = effective;
+			this.sequence = sequence;
+			this.trade = trade;
+		}
+	}
+
+	public ModificationScheduler(StockManager manager) {
+		this.manager = Objects.requireNonNull(manager, "manager null");
+	}
+
+	/**
+	 * @param effective date the modification applies
+	 * @param t a MODIFICATION or MODIFICATION_QUANTITY trade
+	 * @throws IllegalArgumentException if t is not a modification or if the effective date is passed
+	 */
+	public void schedule(T effective, TradeWrapper t) {
+		Objects.requireNonNull(effective, "effective date null");
+		Objects.requireNonNull(t, "trade null");
+		TradeType type = t.getTradeType();
+		if(type != TradeType.MODIFICATION && type != TradeType.MODIFICATION_QUANTITY) {
+			throw new IllegalArgumentException("trade %s is not a modification".formatted(t));
+		}
+		if(time != null && effective.compareTo(time) < 0) {
+			throw new IllegalArgumentException("effective date %s before %s".formatted(effective, time));
+		}
+		pending.add(new Scheduled<>(effective, sequence++, t));
+	}
+
+	/**
+	 * Add the modifications due at this time, then the trade
+	 * @param time not before the time of the previous trade
+	 * @param t
+	 * @throws IllegalArgumentException if time is before the previous one
+	 */
+	public void add(T time, TradeWrapper t) {
+		advanceTo(time);
+		manager.add(t);
+	}
+
+	/**
+	 * Add the trades in time order. Modifications whose effective date is after their time are scheduled.
+	 * @param trades in ascending time order
+	 * @param timestamp time of a trade
+	 * @param effective effective date of a modification, null if immediate
+	 */
+	public void process(Iterable<TradeWrapper> trades, Function<? super TradeWrapper, ? extends T> timestamp, Function<? super TradeWrapper, ? extends T> effective) {
+		for(TradeWrapper t : trades) {
+			if(t == null) continue;
+			T time = Objects.requireNonNull(timestamp.apply(t), "timestamp null");
+			TradeType type = t.getTradeType();
+			T date = type == TradeType.MODIFICATION || type == TradeType.MODIFICATION_QUANTITY ? effective.apply(t) : null;
+			if(date != null && date.compareTo(time) > 0) {
+				advanceTo(time);
+				schedule(date, t);
+			} else {
+				add(time, t);
+			}
+		}
+	}
+
+	/**
+	 * Add the modifications effective at this time or before
+	 * @param time not before the time of the previous trade
+	 * @throws IllegalArgumentException if time is before the previous one
+	 */
+	public void advanceTo(T time) {
+		Objects.requireNonNull(time, "time null");
+		if(this.time != null && time.compareTo(this.time) < 0) {
+			throw new IllegalArgumentException("time %s before %s".formatted(time, this.time));
+		}
+		this.time = time;
+		while(!pending.isEmpty() && pending.peek().effective.compareTo(time) <= 0) {
+			//removed first : a failed modification is not added again
+			manager.add(pending.poll().trade);
+		}
+	}
+
+	/**
+	 * @return the scheduled modifications not added yet, in effective date order
+	 */
+	public List<TradeWrapper> getPending() {
+		List<Scheduled<T>> list = new ArrayList<>(pending);
+		list.sort(pending.comparator());
+		List<TradeWrapper> trades = new ArrayList<>(list.size());
+		for(Scheduled<T> s : list) {
+			trades.add(s.trade);
+		}
+		return trades;
+	}
+
+	/**
+	 * @return time of the last processed trade, null if none
+	 */
+	public T getTime() {
+		return time;
+	}
+
+	public StockManager getManager() {
+		return manager;
+	}
+}
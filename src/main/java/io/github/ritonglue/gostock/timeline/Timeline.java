@@ -0,0 +1,153 @@
+package io.github.ritonglue.gostock.timeline;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+import io.github.ritonglue.gostock.StockManager;
+import io.github.ritonglue.gostock.StockManager.TradeWrapper;
+
+/**
+ * Timestamped trades of an instrument accepting late bookings.
+ * <p>
+ * A savepoint of the stock manager is kept every checkpoint interval trades : a copy of the opened positions.
+ * A backdated trade rolls back to the last savepoint before it and replays the following trades only.
+ * The manager processes copies of the trades : the given trades are never modified.
+ * The manager is a copy of the initial state kept for the life of the timeline : listeners are notified
+ * of the roll back then of the replayed trades. The closed position store must support truncate.
+ * <p>
+ * Not thread safe.
+ *
+ * @param <T> the timestamp type. Trades with the same timestamp keep their insertion order.
+ */
+public final class Timeline<T extends Comparable<? super T>> {
+	private final int checkpointInterval;
+	private final List<T> times = new ArrayList<>();
+	private final List<TradeWrapper> trades = new ArrayList<>();
+	//state after the first index trades, by ascending index. The first one is the initial state.
+	private final List<Checkpoint> checkpoints = new ArrayList<>();
+	private final StockManager manager;
+	private long replayedCount;
+
+	private static class Checkpoint {
+		private final int index;
+		private final StockManager.Savepoint savepoint;
+
+		Checkpoint(int index, StockManager.Savepoint savepoint) {
+			this.index = index;
+			this.savepoint = savepoint;
+		}
+	}
+
+	/**
+	 * @param initial the state before the first trade. Not modified.
+	 * @param checkpointInterval number of trades between checkpoints
+	 */
+	public Timeline(StockManager initial, int checkpointInterval) {
+		Objects.requireNonNull(initial, "initial null");
+		if(checkpointInterval <= 0) {
+			throw new IllegalArgumentException("bad checkpoint interval " + checkpointInterval);
+		}
+		this.checkpointInterval = checkpointInterval;
+		this.manager = initial.copy();
+		this.checkpoints.add(new Checkpoint(0, manager.savepoint()));
+	}
+
+	/**
+	 * Add a trade at its time. A trade older than the last one is inserted after the trades of the same time
+	 * and the following trades are replayed from the previous checkpoint.
+	 * If the trade or a replayed trade fails, the trade is not added and the exception is thrown.
+	 * @param time
+	 * @param t
+	 */
+	public void add(T time, TradeWrapper t) {
+		Objects.requireNonNull(time, "time null");
+		Objects.requireNonNull(t, "trade null");
+		int index = upperBound(time);
+		times.add(index, time);
+		trades.add(index, t);
+		try {
+			if(index == trades.size() - 1) {
+				//in order : no replay
+				apply(index);
+			} else {
+				replay(index);
+			}
+		} catch(RuntimeException e) {
+			times.remove(index);
+			trades.remove(index);
+			replay(index);
+			throw e;
+		}
+	}
+
+	/**
+	 * @return the state after all the trades
+	 */
+	public StockManager getManager() {
+		return manager;
+	}
+
+	/**
+	 * @return number of trades
+	 */
+	public int size() {
+		return trades.size();
+	}
+
+	/**
+	 * @return the trades in time order
+	 */
+	public List<TradeWrapper> getTrades() {
+		return Collections.unmodifiableList(trades);
+	}
+
+	/**
+	 * @return number of trades processed again because of backdated trades
+	 */
+	public long getReplayedCount() {
+		return replayedCount;
+	}
+
+	/**
+	 * @return index of the first trade after time
+	 */
+	private int upperBound(T time) {
+		int low = 0;
+		int high = times.size();
+		while(low < high) {
+			int middle = (low + high) >>> 1;
+			if(times.get(middle).compareTo(time) <= 0) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * rewind to the last checkpoint at or before index and process the following trades
+	 */
+	private void replay(int index) {
+		int c = checkpoints.size() - 1;
+		while(checkpoints.get(c).index > index) {
+			checkpoints.remove(c--);
+		}
+		Checkpoint checkpoint = checkpoints.get(c);
+		manager.rollback(checkpoint.savepoint);
+		for(int i = checkpoint.index, n = trades.size() ; i < n ; ++i) {
+			apply(i);
+			++replayedCount;
+		}
+	}
+
+	private void apply(int index) {
+		manager.add(trades.get(index).copy());
+		int count = index + 1;
+		if(count % checkpointInterval == 0 && checkpoints.get(checkpoints.size() - 1).index < count) {
+			checkpoints.add(new Checkpoint(count, manager.savepoint()));
+		}
+	}
+}
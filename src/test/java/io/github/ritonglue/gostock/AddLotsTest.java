@@ -0,0 +1,119 @@
+package io.github.ritonglue.gostock;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.money.CurrencyUnit;
+import javax.money.Monetary;
+import javax.money.MonetaryAmount;
+import javax.money.MonetaryAmountFactory;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.github.ritonglue.gostock.StockManager.TradeWrapper;
+import io.github.ritonglue.gostock.strategy.OffHeapStrategy;
+
+public class AddLotsTest {
+	private final CurrencyUnit cu = Monetary.getCurrency("EUR");
+
+	private MonetaryAmount createMoney(String value) {
+		MonetaryAmountFactory<?> factory = Monetary.getDefaultAmountFactory();
+		return factory.setCurrency(cu).setNumber(new BigDecimal(value)).create();
+	}
+
+	private List<TradeWrapper> lots(int n) {
+		List<TradeWrapper> list = new ArrayList<>();
+		for(int id = 1 ; id <= n ; ++id) {
+			list.add(TradeWrapper.buy(new BigDecimal(id % 7 + 1), createMoney(id + ".33"), new SourceTest(id)));
+		}
+		return list;
+	}
+
+	private List<TradeWrapper> sells() {
+		List<TradeWrapper> list = new ArrayList<>();
+		for(int id = 1000 ; id < 1010 ; ++id) {
+			list.add(TradeWrapper.sell(new BigDecimal(id % 11 + 1), new SourceTest(id)));
+		}
+		return list;
+	}
+
+	private static void assertPositions(List<Position> expected, List<Position> actual) {
+		Assert.assertEquals(expected.size(), actual.size());
+		for(int i = 0 ; i < expected.size() ; ++i) {
+			Assert.assertEquals(expected.get(i).getBuy(), actual.get(i).getBuy());
+			Assert.assertEquals(expected.get(i).getSell(), actual.get(i).getSell());
+			Assert.assertEquals(expected.get(i).getQuantity(), actual.get(i).getQuantity());
+			Assert.assertEquals(expected.get(i).getAmount(), actual.get(i).getAmount());
+		}
+	}
+
+	private void assertSame(StockManager expected, StockManager actual) {
+		expected.process(lots(100));
+		actual.addLots(lots(100));
+		Assert.assertEquals(expected.getTradeCount(), actual.getTradeCount());
+		expected.process(sells());
+		actual.process(sells());
+		assertPositions(expected.getClosedPositions(), actual.getClosedPositions());
+		assertPositions(expected.getOpenedPositions(), actual.getOpenedPositions());
+		Assert.assertEquals(expected.getStock().getAmount(), actual.getStock().getAmount());
+	}
+
+	@Test
+	public void testModes() {
+		for(Mode mode : Mode.values()) {
+			StockManager expected = new StockManager(mode);
+			StockManager actual = new StockManager(mode);
+			//lots added to a non empty stock
+			expected.add(TradeWrapper.buy(BigDecimal.ONE, createMoney("2"), new SourceTest(0)));
+			actual.add(TradeWrapper.buy(BigDecimal.ONE, createMoney("2"), new SourceTest(0)));
+			assertSame(expected, actual);
+		}
+	}
+
+	@Test
+	public void testOffHeap() {
+		OffHeapStrategy.SourceMapping mapping = new OffHeapStrategy.SourceMapping() {
+			@Override
+			public long toId(Object source) {
+				return ((SourceTest) source).getId();
+			}
+
+			@Override
+			public Object toSource(long id) {
+				return new SourceTest((int) id);
+			}
+		};
+		assertSame(new StockManager(Mode.FIFO), new StockManager(Mode.FIFO, null, ModificationMode.MIXED, OffHeapStrategy.fifo(mapping)));
+		assertSame(new StockManager(Mode.LIFO), new StockManager(Mode.LIFO, null, ModificationMode.MIXED, OffHeapStrategy.lifo(mapping)));
+	}
+
+	@Test
+	public void testNotBuy() {
+		StockManager manager = new StockManager(Mode.FIFO);
+		List<TradeWrapper> lots = lots(3);
+		lots.add(TradeWrapper.sell(BigDecimal.ONE, new SourceTest(4)));
+		try {
+			manager.addLots(lots);
+			Assert.fail();
+		} catch(IllegalArgumentException e) {
+			Assert.assertTrue(manager.isEmpty());
+			Assert.assertEquals(0, manager.getTradeCount());
+		}
+	}
+
+	@Test
+	public void testListener() {
+		StockManager manager = new StockManager(Mode.PRMP);
+		List<BigDecimal> quantities = new ArrayList<>();
+		List<MonetaryAmount> amounts = new ArrayList<>();
+		manager.addListener((m, quantity, amount, realized) -> {
+			quantities.add(quantity);
+			amounts.add(amount);
+		});
+		manager.addLots(lots(3));
+		Assert.assertEquals(List.of(new BigDecimal(9)), quantities);
+		Assert.assertEquals(List.of(createMoney("6.99")), amounts);
+	}
+}
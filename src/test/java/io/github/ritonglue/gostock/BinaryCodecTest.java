@@ -0,0 +1,165 @@
+package io.github.ritonglue.gostock;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectOutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.List;
+
+import javax.money.CurrencyUnit;
+import javax.money.Monetary;
+import javax.money.MonetaryAmount;
+import javax.money.MonetaryAmountFactory;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.github.ritonglue.gostock.StockManager.TradeWrapper;
+
+public class BinaryCodecTest {
+	private final CurrencyUnit cu = Monetary.getCurrency("EUR");
+	private final BinaryCodec codec = new BinaryCodec(SourceTest.CODEC);
+
+	private MonetaryAmount createMoney(String value) {
+		MonetaryAmountFactory<?> factory = Monetary.getDefaultAmountFactory();
+		return factory.setCurrency(cu).setNumber(new BigDecimal(value)).create();
+	}
+
+	private static DataInputStream input(ByteArrayOutputStream out) {
+		return new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+	}
+
+	private static void assertTrade(TradeWrapper e, TradeWrapper a) {
+		Assert.assertEquals(e.getTradeType(), a.getTradeType());
+		Assert.assertEquals(e.getQuantity(), a.getQuantity());
+		Assert.assertEquals(e.getAmount(), a.getAmount());
+		Assert.assertEquals(e.getSource(), a.getSource());
+		Assert.assertEquals(e.getModificationMode(), a.getModificationMode());
+		Assert.assertEquals(e.getQuantityBefore(), a.getQuantityBefore());
+		Assert.assertEquals(e.getQuantityAfter(), a.getQuantityAfter());
+		Assert.assertEquals(e.getScale(), a.getScale());
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		StockManager manager = new StockManager(Mode.FIFO);
+		List<TradeWrapper> trades = List.of(
+			TradeWrapper.buy(new BigDecimal("3.5"), createMoney("100.01"), new SourceTest(1)),
+			TradeWrapper.buy(new BigDecimal(4), createMoney("12345678901234567890.12"), new SourceTest(2)),
+			TradeWrapper.modification(createMoney("10"), ModificationMode.MONEY, new SourceTest(3)),
+			TradeWrapper.sell(new BigDecimal(5), new SourceTest(4)),
+			TradeWrapper.modifyQuantity(new BigDecimal(2), new BigDecimal(3), 4, new SourceTest(5)),
+			TradeWrapper.reimbursement(null));
+		manager.process(trades);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		DataOutputStream data = new DataOutputStream(out);
+		codec.writeHeader(data);
+		for(TradeWrapper t : trades) {
+			codec.writeTrade(data, t);
+		}
+		for(Position p : manager.getClosedPositions()) {
+			codec.writePosition(data, p);
+		}
+		for(Modification m : manager.getModifications()) {
+			codec.writeModification(data, m);
+		}
+
+		DataInputStream in = input(out);
+		Assert.assertEquals(BinaryCodec.VERSION, codec.readHeader(in));
+		for(TradeWrapper t : trades) {
+			//the amount of the processed sell is kept
+			assertTrade(t, codec.readTrade(in));
+		}
+		for(Position e : manager.getClosedPositions()) {
+			Position a = codec.readPosition(in);
+			Assert.assertEquals(e.getBuy(), a.getBuy());
+			Assert.assertEquals(e.getSell(), a.getSell());
+			Assert.assertEquals(e.getQuantity(), a.getQuantity());
+			Assert.assertEquals(e.getAmount(), a.getAmount());
+			Assert.assertEquals(e.getCloseCause(), a.getCloseCause());
+		}
+		for(Modification e : manager.getModifications()) {
+			Modification a = codec.readModification(in);
+			assertTrade(e.getBuy(), a.getBuy());
+			assertTrade(e.getModification(), a.getModification());
+			Assert.assertEquals(e.getQuantity(), a.getQuantity());
+			Assert.assertEquals(e.getAmountBefore(), a.getAmountBefore());
+			Assert.assertEquals(e.getAmountAfter(), a.getAmountAfter());
+		}
+		Assert.assertEquals(-1, in.read());
+	}
+
+	@Test
+	public void testSmallerThanSerialization() throws IOException {
+		StockManager manager = new StockManager(Mode.FIFO);
+		//serializable sources
+		TradeWrapper sell = TradeWrapper.sell(new BigDecimal(30), 0);
+		for(int i = 1 ; i <= 30 ; ++i) {
+			manager.add(TradeWrapper.buy(BigDecimal.ONE, createMoney("1.25"), i));
+		}
+		manager.add(sell);
+		ByteArrayOutputStream binary = new ByteArrayOutputStream();
+		new BinaryCodec().writeTrade(new DataOutputStream(binary), sell);
+		ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+		try(ObjectOutputStream o = new ObjectOutputStream(serialized)) {
+			//drags the buy values
+			o.writeObject(sell);
+		}
+		Assert.assertTrue(binary.size() * 10 < serialized.size());
+	}
+
+	@Test
+	public void testLargeDecimals() throws IOException {
+		//unscaled values of 254, 255 and 1000 bytes
+		for(int length : new int[] {254, 255, 1000}) {
+			BigDecimal value = new BigDecimal(BigInteger.ONE.shiftLeft(length * 8 - 2).negate(), 3);
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			BinaryCodec.writeDecimal(new DataOutputStream(out), value);
+			Assert.assertEquals(value, BinaryCodec.readDecimal(input(out)));
+		}
+	}
+
+	@Test
+	public void testVersion1() throws IOException {
+		//version 1 : the length of 255 bytes is a byte
+		BigInteger unscaled = BigInteger.ONE.shiftLeft(255 * 8 - 2);
+		TradeWrapper buy = TradeWrapper.buy(new BigDecimal(unscaled, 2), createMoney("10.50"), new SourceTest(1));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		DataOutputStream data = new DataOutputStream(out);
+		data.writeInt(0x474F5343);
+		data.writeShort(1);
+		data.writeByte(TradeType.BUY.ordinal());
+		data.writeByte(1 | 2);
+		data.writeInt(2);
+		data.writeByte(255);
+		data.write(unscaled.toByteArray());
+		data.writeUTF("EUR");
+		BinaryCodec.writeDecimal(data, new BigDecimal("10.50"));
+		data.writeInt(buy.getScale());
+
+		DataInputStream in = input(out);
+		short version = codec.readHeader(in);
+		Assert.assertEquals(1, version);
+		TradeWrapper t = codec.readTrade(in, version);
+		Assert.assertEquals(buy.getQuantity(), t.getQuantity());
+		Assert.assertEquals(buy.getAmount(), t.getAmount());
+		Assert.assertNull(t.getSource());
+		Assert.assertEquals(-1, in.read());
+	}
+
+	@Test(expected = InvalidObjectException.class)
+	public void testUnknownVersion() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		DataOutputStream data = new DataOutputStream(out);
+		codec.writeHeader(data);
+		byte[] bytes = out.toByteArray();
+		bytes[5] = BinaryCodec.VERSION + 1;
+		codec.readHeader(new DataInputStream(new ByteArrayInputStream(bytes)));
+	}
+}
@@ -0,0 +1,129 @@
+package io.github.ritonglue.gostock;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.money.CurrencyUnit;
+import javax.money.Monetary;
+import javax.money.MonetaryAmount;
+import javax.money.MonetaryAmountFactory;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.github.ritonglue.gostock.StockManager.TradeWrapper;
+
+public class HistoryTest {
+	private final CurrencyUnit cu = Monetary.getCurrency("EUR");
+
+	private MonetaryAmount createMoney(String value) {
+		MonetaryAmountFactory<?> factory = Monetary.getDefaultAmountFactory();
+		return factory.setCurrency(cu).setNumber(new BigDecimal(value)).create();
+	}
+
+	private List<TradeWrapper> randomTrades(long seed, int n) {
+		Random random = new Random(seed);
+		List<TradeWrapper> list = new ArrayList<>();
+		for(int id = 1 ; id <= n ; ++id) {
+			SourceTest source = new SourceTest(id);
+			int r = random.nextInt(100);
+			if(r < 50) {
+				BigDecimal quantity = new BigDecimal(1 + random.nextInt(100));
+				list.add(TradeWrapper.buy(quantity, createMoney(BigDecimal.valueOf(1 + random.nextInt(1_000_000), 2).toPlainString()), source));
+			} else if(r < 90) {
+				list.add(TradeWrapper.sell(new BigDecimal(1 + random.nextInt(150)), source));
+			} else if(r < 97) {
+				list.add(TradeWrapper.modification(createMoney(BigDecimal.valueOf(random.nextInt(20_000) - 10_000, 2).toPlainString()), source));
+			} else {
+				list.add(TradeWrapper.modifyQuantity(BigDecimal.ONE, new BigDecimal(2), 0, source));
+			}
+		}
+		return list;
+	}
+
+	private static void add(StockManager manager, TradeWrapper t) {
+		try {
+			manager.add(t);
+		} catch(RuntimeException e) {
+		}
+	}
+
+	private static void assertPositions(List<Position> expected, List<Position> actual) {
+		Assert.assertEquals(expected.size(), actual.size());
+		for(int i = 0, n = expected.size() ; i < n ; ++i) {
+			Position e = expected.get(i);
+			Position a = actual.get(i);
+			Assert.assertEquals(e.getBuy(), a.getBuy());
+			Assert.assertEquals(e.getQuantity(), a.getQuantity());
+			Assert.assertEquals(e.getAmount(), a.getAmount());
+		}
+	}
+
+	@Test
+	public void testAsOf() {
+		for(Mode mode : Mode.values()) {
+			List<TradeWrapper> trades = randomTrades(mode.ordinal() + 1, 400);
+			StockManager manager = new StockManager(mode);
+			StockManager replay = new StockManager(mode);
+			//history started with opened positions
+			for(int i = 0 ; i < 50 ; ++i) {
+				add(replay, trades.get(i).copy());
+				add(manager, trades.get(i));
+			}
+			manager.enableHistory(16);
+			List<List<Position>> expected = new ArrayList<>();
+			List<MonetaryAmount> amounts = new ArrayList<>();
+			expected.add(replay.getOpenedPositions());
+			amounts.add(replay.getStock().getAmount());
+			for(int i = 50 ; i < trades.size() ; ++i) {
+				add(replay, trades.get(i).copy());
+				add(manager, trades.get(i));
+				expected.add(replay.getOpenedPositions());
+				amounts.add(replay.getStock().getAmount());
+			}
+			for(int i = 0 ; i < expected.size() ; ++i) {
+				assertPositions(expected.get(i), manager.getOpenedPositions(50L + i));
+				Assert.assertEquals(amounts.get(i), manager.getStock(50L + i).getAmount());
+			}
+		}
+	}
+
+	@Test
+	public void testRollback() {
+		StockManager manager = new StockManager(Mode.LIFO);
+		manager.enableHistory(4);
+		List<TradeWrapper> trades = randomTrades(9, 200);
+		for(int i = 0 ; i < 100 ; ++i) {
+			add(manager, trades.get(i));
+		}
+		List<Position> before = manager.getOpenedPositions();
+		manager.begin();
+		for(int i = 100 ; i < 200 ; ++i) {
+			add(manager, trades.get(i));
+		}
+		manager.rollback();
+		assertPositions(before, manager.getOpenedPositions(100));
+		manager.add(TradeWrapper.sell(BigDecimal.ONE, new SourceTest(1000)));
+		assertPositions(manager.getOpenedPositions(), manager.getOpenedPositions(101));
+	}
+
+	@Test
+	public void testBounds() {
+		StockManager manager = new StockManager();
+		try {
+			manager.getOpenedPositions(0);
+			Assert.fail();
+		} catch(IllegalStateException e) {
+		}
+		manager.add(TradeWrapper.buy(BigDecimal.ONE, createMoney("1"), new SourceTest(1)));
+		manager.enableHistory(10);
+		try {
+			manager.getOpenedPositions(0);
+			Assert.fail();
+		} catch(IllegalArgumentException e) {
+		}
+		Assert.assertEquals(1, manager.getOpenedPositions(1).size());
+	}
+}
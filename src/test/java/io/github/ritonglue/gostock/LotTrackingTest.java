@@ -0,0 +1,109 @@
+package io.github.ritonglue.gostock;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.money.CurrencyUnit;
+import javax.money.Monetary;
+import javax.money.MonetaryAmount;
+import javax.money.MonetaryAmountFactory;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.github.ritonglue.gostock.StockManager.TradeWrapper;
+
+public class LotTrackingTest {
+	private final CurrencyUnit cu = Monetary.getCurrency("EUR");
+
+	private MonetaryAmount createMoney(String value) {
+		MonetaryAmountFactory<?> factory = Monetary.getDefaultAmountFactory();
+		return factory.setCurrency(cu).setNumber(new BigDecimal(value)).create();
+	}
+
+	private static List<LotChange> changes(StockManager manager) {
+		List<LotChange> list = new ArrayList<>();
+		for(Iterator<LotChange> i = manager.getLotChanges() ; i.hasNext() ; ) {
+			list.add(i.next());
+		}
+		return list;
+	}
+
+	@Test
+	public void testFIFO() {
+		StockManager manager = new StockManager(Mode.FIFO);
+		manager.setLotTracking(true);
+		for(int i = 1 ; i <= 4 ; ++i) {
+			manager.add(TradeWrapper.buy(new BigDecimal(10), createMoney("100"), new SourceTest(i)));
+		}
+		List<LotChange> changes = changes(manager);
+		Assert.assertEquals(4, changes.size());
+		Assert.assertEquals(LotChange.Kind.ADDED, changes.get(0).getKind());
+		manager.checkpointLots();
+		Assert.assertTrue(changes(manager).isEmpty());
+
+		//lot 1 sold, lot 2 partially sold
+		manager.add(TradeWrapper.sell(new BigDecimal(15), new SourceTest(5)));
+		manager.add(TradeWrapper.buy(new BigDecimal(1), createMoney("10"), new SourceTest(6)));
+		changes = changes(manager);
+		Assert.assertEquals(3, changes.size());
+		Assert.assertEquals(LotChange.Kind.REMOVED, changes.get(0).getKind());
+		Assert.assertEquals(new SourceTest(1), changes.get(0).getSource());
+		Assert.assertEquals(LotChange.Kind.CHANGED, changes.get(1).getKind());
+		Assert.assertEquals(new SourceTest(2), changes.get(1).getSource());
+		Assert.assertEquals(new BigDecimal(5), changes.get(1).getQuantity());
+		Assert.assertEquals(createMoney("50"), changes.get(1).getAmount());
+		Assert.assertEquals(LotChange.Kind.ADDED, changes.get(2).getKind());
+
+		//added then removed : no change
+		manager.checkpointLots();
+		manager.add(TradeWrapper.buy(new BigDecimal(1), createMoney("10"), new SourceTest(7)));
+		manager.add(TradeWrapper.sell(new BigDecimal(100), new SourceTest(8)));
+		changes = changes(manager);
+		Assert.assertEquals(4, changes.size());
+		for(LotChange c : changes) {
+			Assert.assertEquals(LotChange.Kind.REMOVED, c.getKind());
+			Assert.assertEquals(0, c.getQuantity().signum());
+		}
+	}
+
+	@Test
+	public void testModification() {
+		StockManager manager = new StockManager(Mode.LIFO);
+		manager.add(TradeWrapper.buy(new BigDecimal(10), createMoney("100"), new SourceTest(1)));
+		manager.add(TradeWrapper.buy(new BigDecimal(10), createMoney("100"), new SourceTest(2)));
+		manager.setLotTracking(true);
+		manager.add(TradeWrapper.modification(createMoney("20"), new SourceTest(3)));
+		List<LotChange> changes = changes(manager);
+		Assert.assertEquals(2, changes.size());
+		Assert.assertEquals(LotChange.Kind.CHANGED, changes.get(0).getKind());
+		Assert.assertEquals(createMoney("110"), changes.get(0).getAmount());
+		//the copy has its own lots
+		StockManager copy = manager.copy();
+		Assert.assertTrue(copy.isLotTracking());
+		Assert.assertTrue(changes(copy).isEmpty());
+	}
+
+	@Test
+	public void testPRMP() {
+		StockManager manager = new StockManager(Mode.PRMP);
+		manager.setLotTracking(true);
+		Assert.assertTrue(changes(manager).isEmpty());
+		manager.add(TradeWrapper.buy(new BigDecimal(10), createMoney("100"), new SourceTest(1)));
+		manager.add(TradeWrapper.buy(new BigDecimal(10), createMoney("200"), new SourceTest(2)));
+		List<LotChange> changes = changes(manager);
+		Assert.assertEquals(1, changes.size());
+		Assert.assertEquals(LotChange.Kind.CHANGED, changes.get(0).getKind());
+		Assert.assertEquals(new BigDecimal(20), changes.get(0).getQuantity());
+		manager.checkpointLots();
+		manager.add(TradeWrapper.sell(new BigDecimal(20), new SourceTest(3)));
+		Assert.assertEquals(LotChange.Kind.REMOVED, changes(manager).get(0).getKind());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testNotTracked() {
+		new StockManager().getLotChanges();
+	}
+}
@@ -0,0 +1,96 @@
+package io.github.ritonglue.gostock;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import javax.money.CurrencyUnit;
+import javax.money.Monetary;
+import javax.money.MonetaryAmount;
+import javax.money.MonetaryAmountFactory;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.github.ritonglue.gostock.StockManager.TradeWrapper;
+
+public class MergeFeedsTest {
+	private final CurrencyUnit cu = Monetary.getCurrency("EUR");
+
+	private MonetaryAmount createMoney(String value) {
+		MonetaryAmountFactory<?> factory = Monetary.getDefaultAmountFactory();
+		return factory.setCurrency(cu).setNumber(new BigDecimal(value)).create();
+	}
+
+	@Test
+	public void testMerge() {
+		Random random = new Random(3);
+		Map<TradeWrapper, Integer> times = new HashMap<>();
+		List<TradeWrapper> buys = new ArrayList<>();
+		List<TradeWrapper> sells = new ArrayList<>();
+		List<TradeWrapper> actions = new ArrayList<>();
+		int id = 0;
+		TradeWrapper initial = TradeWrapper.buy(new BigDecimal(1000), createMoney("1000"), new SourceTest(++id));
+		buys.add(initial);
+		times.put(initial, -1);
+		for(int time = 0 ; time < 300 ; time += 1 + random.nextInt(2)) {
+			TradeWrapper t;
+			int r = random.nextInt(10);
+			if(r < 5) {
+				t = TradeWrapper.buy(new BigDecimal(1 + random.nextInt(50)), createMoney(String.valueOf(1 + random.nextInt(1000))), new SourceTest(++id));
+				buys.add(t);
+			} else if(r < 9) {
+				t = TradeWrapper.sell(new BigDecimal(1 + random.nextInt(20)), new SourceTest(++id));
+				sells.add(t);
+			} else {
+				t = TradeWrapper.modification(createMoney(String.valueOf(1 + random.nextInt(100))), new SourceTest(++id));
+				actions.add(t);
+			}
+			times.put(t, time);
+		}
+		//the expected order : time, then trade type
+		List<TradeWrapper> all = new ArrayList<>(times.keySet());
+		all.sort(Comparator.<TradeWrapper, Integer>comparing(times::get).thenComparing(TradeWrapper::getTradeType));
+		StockManager expected = new StockManager(Mode.FIFO);
+		for(TradeWrapper t : all) {
+			expected.add(t.copy());
+		}
+		StockManager actual = new StockManager(Mode.FIFO);
+		actual.process(List.of(sells.iterator(), actions.iterator(), buys.iterator()), times::get);
+		Assert.assertEquals(expected.getTradeCount(), actual.getTradeCount());
+		Assert.assertEquals(expected.getClosedPositions().size(), actual.getClosedPositions().size());
+		for(int i = 0 ; i < expected.getClosedPositions().size() ; ++i) {
+			Position e = expected.getClosedPositions().get(i);
+			Position a = actual.getClosedPositions().get(i);
+			Assert.assertEquals(e.getBuy(), a.getBuy());
+			Assert.assertEquals(e.getSell(), a.getSell());
+			Assert.assertEquals(e.getAmount(), a.getAmount());
+		}
+	}
+
+	@Test
+	public void testTieBreak() {
+		TradeWrapper buy = TradeWrapper.buy(BigDecimal.ONE, createMoney("10"), new SourceTest(1));
+		TradeWrapper sell = TradeWrapper.sell(BigDecimal.ONE, new SourceTest(2));
+		//same time : the buy is added first
+		StockManager manager = new StockManager();
+		manager.process(List.of(List.of(sell).iterator(), List.of(buy).iterator()), t -> 0);
+		Assert.assertEquals(1, manager.getClosedPositions().size());
+		//sells first
+		manager = new StockManager();
+		sell = TradeWrapper.sell(BigDecimal.ONE, new SourceTest(2));
+		manager.process(List.of(List.of(sell).iterator(), List.of(buy.copy()).iterator()), t -> 0, Comparator.<TradeType>reverseOrder());
+		Assert.assertEquals(1, manager.getOrphanSells().size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNotSorted() {
+		TradeWrapper b1 = TradeWrapper.buy(BigDecimal.ONE, createMoney("10"), new SourceTest(1));
+		TradeWrapper b2 = TradeWrapper.buy(BigDecimal.ONE, createMoney("10"), new SourceTest(2));
+		new StockManager().process(List.of(List.of(b1, b2).iterator()), t -> -t.getSource(SourceTest.class).getId());
+	}
+}
@@ -0,0 +1,131 @@
+package io.github.ritonglue.gostock;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.money.CurrencyUnit;
+import javax.money.Monetary;
+import javax.money.MonetaryAmount;
+import javax.money.MonetaryAmountFactory;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.github.ritonglue.gostock.StockManager.TradeWrapper;
+import io.github.ritonglue.gostock.exception.StockAmountReductionException;
+
+public class ModificationPipeliningTest {
+	private final CurrencyUnit cu = Monetary.getCurrency("EUR");
+
+	private MonetaryAmount createMoney(String value) {
+		MonetaryAmountFactory<?> factory = Monetary.getDefaultAmountFactory();
+		return factory.setCurrency(cu).setNumber(new BigDecimal(value)).create();
+	}
+
+	/**
+	 * buys, fee accruals, revaluations and sells
+	 */
+	private List<TradeWrapper> trades(ModificationMode revaluation) {
+		List<TradeWrapper> list = new ArrayList<>();
+		int id = 0;
+		for(int i = 1 ; i <= 7 ; ++i) {
+			list.add(TradeWrapper.buy(new BigDecimal(i % 3 + 1), createMoney(i + "7.31"), new SourceTest(++id)));
+		}
+		for(int day = 0 ; day < 5 ; ++day) {
+			for(int i = 0 ; i < 4 ; ++i) {
+				list.add(TradeWrapper.modification(createMoney("-0.0" + (i + day + 1)), new SourceTest(++id)));
+			}
+			for(int i = 0 ; i < 3 ; ++i) {
+				list.add(TradeWrapper.modification(createMoney("1.1" + i), revaluation, new SourceTest(++id)));
+			}
+			list.add(TradeWrapper.sell(BigDecimal.ONE, new SourceTest(++id)));
+		}
+		return list;
+	}
+
+	private static void assertSame(StockManager expected, StockManager actual) {
+		Assert.assertEquals(expected.getTradeCount(), actual.getTradeCount());
+		List<Modification> m1 = expected.getModifications();
+		List<Modification> m2 = actual.getModifications();
+		Assert.assertEquals(m1.size(), m2.size());
+		for(int i = 0 ; i < m1.size() ; ++i) {
+			Assert.assertEquals(m1.get(i).getBuy().getSource(), m2.get(i).getBuy().getSource());
+			Assert.assertEquals(m1.get(i).getModification().getSource(), m2.get(i).getModification().getSource());
+			Assert.assertEquals(m1.get(i).getAmountBefore(), m2.get(i).getAmountBefore());
+			Assert.assertEquals(m1.get(i).getAmountAfter(), m2.get(i).getAmountAfter());
+		}
+		List<Position> p1 = expected.getOpenedPositions();
+		List<Position> p2 = actual.getOpenedPositions();
+		Assert.assertEquals(p1.size(), p2.size());
+		for(int i = 0 ; i < p1.size() ; ++i) {
+			Assert.assertEquals(p1.get(i).getQuantity(), p2.get(i).getQuantity());
+			Assert.assertEquals(p1.get(i).getAmount(), p2.get(i).getAmount());
+		}
+		List<Position> c1 = expected.getClosedPositions();
+		List<Position> c2 = actual.getClosedPositions();
+		Assert.assertEquals(c1.size(), c2.size());
+		for(int i = 0 ; i < c1.size() ; ++i) {
+			Assert.assertEquals(c1.get(i).getAmount(), c2.get(i).getAmount());
+		}
+	}
+
+	private void assertPipelining(Mode mode, ModificationMode modificationMode, ModificationMode revaluation) {
+		StockManager expected = new StockManager(mode, null, modificationMode);
+		StockManager actual = new StockManager(mode, null, modificationMode);
+		actual.setModificationPipelining(true);
+		expected.process(trades(revaluation));
+		actual.process(trades(revaluation));
+		assertSame(expected, actual);
+	}
+
+	@Test
+	public void testSameAsOneByOne() {
+		for(Mode mode : Mode.values()) {
+			for(ModificationMode modificationMode : ModificationMode.values()) {
+				assertPipelining(mode, modificationMode, null);
+				assertPipelining(mode, modificationMode, ModificationMode.MONEY);
+			}
+		}
+	}
+
+	@Test
+	public void testForcedAmount() {
+		StockManager expected = new StockManager();
+		StockManager actual = new StockManager();
+		actual.setModificationPipelining(true);
+		for(StockManager manager : List.of(expected, actual)) {
+			TradeWrapper b1 = TradeWrapper.buy(BigDecimal.ONE, createMoney("10"), new SourceTest(1));
+			TradeWrapper b2 = TradeWrapper.buy(BigDecimal.TEN, createMoney("30"), new SourceTest(2));
+			TradeWrapper m1 = TradeWrapper.modification(createMoney("3"), new SourceTest(3));
+			TradeWrapper m2 = TradeWrapper.modification(createMoney("5"), new SourceTest(4));
+			TradeWrapper m3 = TradeWrapper.modification(createMoney("7"), new SourceTest(5));
+			manager.addBuyModificationMoney(b1, m2, createMoney("5"));
+			manager.process(List.of(b1, b2, m1, m2, m3));
+		}
+		assertSame(expected, actual);
+		Assert.assertEquals(createMoney("15.91"), actual.getOpenedPositions().get(0).getAmount());
+	}
+
+	@Test
+	public void testFailedReduction() {
+		StockManager manager = new StockManager();
+		manager.setModificationPipelining(true);
+		List<TradeWrapper> trades = List.of(
+			TradeWrapper.buy(BigDecimal.ONE, createMoney("10"), new SourceTest(1)),
+			TradeWrapper.buy(BigDecimal.ONE, createMoney("10"), new SourceTest(2)),
+			TradeWrapper.modification(createMoney("-6"), new SourceTest(3)),
+			TradeWrapper.modification(createMoney("-8"), new SourceTest(4)),
+			TradeWrapper.modification(createMoney("-7"), new SourceTest(5)),
+			TradeWrapper.modification(createMoney("-1"), new SourceTest(6)));
+		try {
+			manager.process(trades);
+			Assert.fail();
+		} catch(StockAmountReductionException e) {
+			//the modifications before the failing one are applied
+		}
+		Assert.assertEquals(5, manager.getTradeCount());
+		Assert.assertEquals(4, manager.getModifications().size());
+		Assert.assertEquals(createMoney("6"), manager.getStock().getAmount());
+	}
+}
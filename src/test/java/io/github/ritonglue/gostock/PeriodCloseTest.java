@@ -0,0 +1,67 @@
+package io.github.ritonglue.gostock;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.money.CurrencyUnit;
+import javax.money.Monetary;
+import javax.money.MonetaryAmount;
+import javax.money.MonetaryAmountFactory;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.github.ritonglue.gostock.StockManager.TradeWrapper;
+
+public class PeriodCloseTest {
+	private final CurrencyUnit cu = Monetary.getCurrency("EUR");
+
+	private MonetaryAmount createMoney(String value) {
+		MonetaryAmountFactory<?> factory = Monetary.getDefaultAmountFactory();
+		return factory.setCurrency(cu).setNumber(new BigDecimal(value)).create();
+	}
+
+	@Test
+	public void testClosePeriod() {
+		StockManager manager = new StockManager(Mode.FIFO);
+		manager.add(TradeWrapper.sell(BigDecimal.ONE, new SourceTest(1)));
+		TradeWrapper buy = TradeWrapper.buy(new BigDecimal(10), createMoney("100"), new SourceTest(2));
+		manager.add(buy);
+		manager.add(TradeWrapper.buy(new BigDecimal(10), createMoney("200"), new SourceTest(3)));
+		TradeWrapper sell = TradeWrapper.sell(new BigDecimal(4), new SourceTest(4));
+		manager.addBuySellMoney(buy, sell, createMoney("30"));
+		manager.add(sell);
+		manager.add(TradeWrapper.modification(createMoney("12"), new SourceTest(5)));
+
+		List<Position> positions = new ArrayList<>();
+		List<Modification> modifications = new ArrayList<>();
+		List<TradeWrapper> orphans = new ArrayList<>();
+		manager.closePeriod((m, p, mo, o) -> {
+			positions.addAll(p);
+			modifications.addAll(mo);
+			orphans.addAll(o);
+		});
+		Assert.assertEquals(1, positions.size());
+		Assert.assertEquals(createMoney("30"), positions.get(0).getAmount());
+		Assert.assertEquals(2, modifications.size());
+		Assert.assertEquals(1, orphans.size());
+
+		Assert.assertTrue(manager.getClosedPositions().isEmpty());
+		Assert.assertTrue(manager.getClosedPositionsBySell(new SourceTest(4)).isEmpty());
+		Assert.assertTrue(manager.getModifications().isEmpty());
+		Assert.assertTrue(manager.getOrphanSells().isEmpty());
+		Assert.assertTrue(manager.getMapBuySell().isEmpty());
+		Assert.assertEquals(5, manager.getTradeCount());
+
+		//opened positions are the opening balance
+		List<Position> opened = manager.getOpenedPositions();
+		Assert.assertEquals(2, opened.size());
+		Assert.assertEquals(new BigDecimal(6), opened.get(0).getQuantity());
+		Assert.assertEquals(createMoney("74.50"), opened.get(0).getAmount());
+		Assert.assertEquals(createMoney("207.50"), opened.get(1).getAmount());
+		manager.add(TradeWrapper.sell(new BigDecimal(6), new SourceTest(6)));
+		Assert.assertEquals(1, manager.getClosedPositions().size());
+		Assert.assertEquals(createMoney("74.50"), manager.getClosedPositions().get(0).getAmount());
+	}
+}
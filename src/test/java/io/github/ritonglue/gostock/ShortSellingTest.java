@@ -0,0 +1,136 @@
+package io.github.ritonglue.gostock;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import javax.money.CurrencyUnit;
+import javax.money.Monetary;
+import javax.money.MonetaryAmount;
+import javax.money.MonetaryAmountFactory;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.github.ritonglue.gostock.StockManager.TradeWrapper;
+
+public class ShortSellingTest {
+	private final CurrencyUnit cu = Monetary.getCurrency("EUR");
+
+	private MonetaryAmount createMoney(String value) {
+		MonetaryAmountFactory<?> factory = Monetary.getDefaultAmountFactory();
+		return factory.setCurrency(cu).setNumber(new BigDecimal(value)).create();
+	}
+
+	private StockManager manager(Mode mode) {
+		StockManager manager = new StockManager(mode);
+		manager.setShortSelling(true);
+		manager.add(TradeWrapper.sell(new BigDecimal("3"), new SourceTest(1)));
+		manager.add(TradeWrapper.sell(new BigDecimal("2"), new SourceTest(2)));
+		return manager;
+	}
+
+	private static void assertPosition(Position p, int buy, int sell, String quantity, MonetaryAmount amount) {
+		Assert.assertEquals(new SourceTest(buy), p.getBuy());
+		Assert.assertEquals(new SourceTest(sell), p.getSell());
+		Assert.assertEquals(new BigDecimal(quantity), p.getQuantity());
+		Assert.assertEquals(amount, p.getAmount());
+		Assert.assertEquals(CloseCause.SELL, p.getCloseCause());
+	}
+
+	@Test
+	public void testFIFO() {
+		StockManager manager = manager(Mode.FIFO);
+		Assert.assertTrue(manager.getOrphanSells().isEmpty());
+		Assert.assertEquals(new BigDecimal("5"), manager.getShortQuantity());
+		manager.add(TradeWrapper.buy(new BigDecimal("4"), createMoney("40"), new SourceTest(3)));
+		List<Position> closed = manager.getClosedPositions();
+		Assert.assertEquals(2, closed.size());
+		assertPosition(closed.get(0), 3, 1, "3", createMoney("30"));
+		assertPosition(closed.get(1), 3, 2, "1", createMoney("10"));
+		Assert.assertTrue(manager.isEmpty());
+		List<Position> shorts = manager.getShortPositions();
+		Assert.assertEquals(1, shorts.size());
+		Assert.assertEquals(new SourceTest(2), shorts.get(0).getSell());
+		Assert.assertEquals(BigDecimal.ONE, shorts.get(0).getQuantity());
+
+		//the rest of the buy is a long lot
+		manager.add(TradeWrapper.buy(new BigDecimal("2"), createMoney("10"), new SourceTest(4)));
+		assertPosition(manager.getClosedPositions().get(2), 4, 2, "1", createMoney("5"));
+		Assert.assertTrue(manager.getShortPositions().isEmpty());
+		Assert.assertEquals(BigDecimal.ONE, manager.getStock().getQuantity());
+		Assert.assertEquals(createMoney("5"), manager.getStock().getAmount());
+	}
+
+	@Test
+	public void testLIFO() {
+		StockManager manager = manager(Mode.LIFO);
+		manager.add(TradeWrapper.buy(new BigDecimal("4"), createMoney("40"), new SourceTest(3)));
+		List<Position> closed = manager.getClosedPositions();
+		assertPosition(closed.get(0), 3, 2, "2", createMoney("20"));
+		assertPosition(closed.get(1), 3, 1, "2", createMoney("20"));
+		Assert.assertEquals(new SourceTest(1), manager.getShortPositions().get(0).getSell());
+	}
+
+	@Test
+	public void testSellExceedingStock() {
+		StockManager manager = new StockManager(Mode.PRMP);
+		manager.setShortSelling(true);
+		manager.add(TradeWrapper.buy(BigDecimal.ONE, createMoney("10"), new SourceTest(1)));
+		manager.add(TradeWrapper.sell(new BigDecimal("3"), new SourceTest(2)));
+		Assert.assertEquals(1, manager.getClosedPositions().size());
+		Assert.assertEquals(new BigDecimal("2"), manager.getShortQuantity());
+		//reimbursements are never short
+		manager.add(TradeWrapper.reimbursement(BigDecimal.ONE, new SourceTest(3)));
+		Assert.assertEquals(1, manager.getOrphanSells().size());
+		try {
+			manager.setShortSelling(false);
+			Assert.fail();
+		} catch(IllegalStateException e) {
+			//short lots opened
+		}
+	}
+
+	@Test
+	public void testAddLots() {
+		StockManager manager = manager(Mode.FIFO);
+		manager.addLots(List.of(TradeWrapper.buy(new BigDecimal("4"), createMoney("40"), new SourceTest(3)),
+			TradeWrapper.buy(new BigDecimal("3"), createMoney("30"), new SourceTest(4))));
+		List<Position> positions = manager.getClosedPositions();
+		Assert.assertEquals(3, positions.size());
+		assertPosition(positions.get(0), 3, 1, "3", createMoney("30"));
+		assertPosition(positions.get(1), 3, 2, "1", createMoney("10"));
+		assertPosition(positions.get(2), 4, 2, "1", createMoney("10"));
+		Assert.assertEquals(0, manager.getShortQuantity().signum());
+		List<Position> opened = manager.getOpenedPositions();
+		Assert.assertEquals(1, opened.size());
+		Assert.assertEquals(new BigDecimal("2"), opened.get(0).getQuantity());
+		Assert.assertEquals(createMoney("20"), opened.get(0).getAmount());
+		Assert.assertEquals(4, manager.getTradeCount());
+	}
+
+	@Test
+	public void testRollback() {
+		StockManager manager = manager(Mode.FIFO);
+		manager.begin();
+		manager.add(TradeWrapper.buy(new BigDecimal("4"), createMoney("40"), new SourceTest(3)));
+		manager.add(TradeWrapper.sell(new BigDecimal("1"), new SourceTest(4)));
+		manager.rollback();
+		Assert.assertTrue(manager.getClosedPositions().isEmpty());
+		List<Position> shorts = manager.getShortPositions();
+		Assert.assertEquals(2, shorts.size());
+		Assert.assertEquals(new BigDecimal("3"), shorts.get(0).getQuantity());
+		Assert.assertNull(shorts.get(0).getAmount());
+		Assert.assertEquals(new BigDecimal("2"), shorts.get(1).getQuantity());
+	}
+
+	@Test
+	public void testValidate() {
+		StockManager manager = manager(Mode.FIFO);
+		List<TradeWrapper> trades = List.of(
+			TradeWrapper.buy(new BigDecimal("6"), createMoney("60"), new SourceTest(3)),
+			TradeWrapper.modification(createMoney("-11"), new SourceTest(4)));
+		List<ValidationIssue> issues = manager.validate(trades);
+		Assert.assertEquals(1, issues.size());
+		Assert.assertEquals(ValidationIssue.Kind.AMOUNT_REDUCTION, issues.get(0).getKind());
+	}
+}
@@ -1,6 +1,25 @@
 package io.github.ritonglue.gostock;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 public class SourceTest {
+	/**
+	 * writes the id
+	 */
+	public static final SourceCodec CODEC = new SourceCodec() {
+		@Override
+		public void write(DataOutput out, Object source) throws IOException {
+			out.writeInt(((SourceTest) source).getId());
+		}
+
+		@Override
+		public Object read(DataInput in) throws IOException {
+			return new SourceTest(in.readInt());
+		}
+	};
+
 	private final int id;
 
 	public SourceTest(int id) {
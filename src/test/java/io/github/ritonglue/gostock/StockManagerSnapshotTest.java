@@ -0,0 +1,144 @@
+package io.github.ritonglue.gostock;
+
+import static io.github.ritonglue.gostock.StockManagerFIFOTest.createQuantity;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.money.CurrencyUnit;
+import javax.money.Monetary;
+import javax.money.MonetaryAmount;
+import javax.money.MonetaryAmountFactory;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.github.ritonglue.gostock.StockManager.TradeWrapper;
+
+public class StockManagerSnapshotTest {
+	private static final BinaryCodec CODEC = new BinaryCodec(SourceTest.CODEC);
+	private final CurrencyUnit cu = Monetary.getCurrency("EUR");
+
+	private MonetaryAmount createMoney(String value) {
+		MonetaryAmountFactory<?> factory = Monetary.getDefaultAmountFactory();
+		return factory.setCurrency(cu).setNumber(createQuantity(value)).create();
+	}
+
+	private static StockManager restore(StockManager manager) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		StockManagerSnapshot.write(manager, CODEC, out);
+		return StockManagerSnapshot.read(new ByteArrayInputStream(out.toByteArray()), CODEC, null);
+	}
+
+	private static void assertOpened(StockManager expected, StockManager actual) {
+		List<Position> e = expected.getOpenedPositions();
+		List<Position> a = actual.getOpenedPositions();
+		Assert.assertEquals(e.size(), a.size());
+		for(int i = 0 ; i < e.size() ; ++i) {
+			Assert.assertEquals(e.get(i).getBuy(), a.get(i).getBuy());
+			Assert.assertEquals(e.get(i).getQuantity(), a.get(i).getQuantity());
+			Assert.assertEquals(e.get(i).getAmount(), a.get(i).getAmount());
+		}
+	}
+
+	private List<TradeWrapper> history(int id) {
+		List<TradeWrapper> list = new ArrayList<>();
+		list.add(TradeWrapper.buy(createQuantity(3), createMoney("100.00"), new SourceTest(id++)));
+		list.add(TradeWrapper.buy(createQuantity(4), createMoney("12.99"), new SourceTest(id++)));
+		list.add(TradeWrapper.sell(createQuantity(1), new SourceTest(id++)));
+		list.add(TradeWrapper.buy(createQuantity(2), createMoney("7.01"), new SourceTest(id++)));
+		list.add(TradeWrapper.modification(createMoney("-10.00"), new SourceTest(id++)));
+		list.add(TradeWrapper.sell(createQuantity(2), new SourceTest(id++)));
+		return list;
+	}
+
+	@Test
+	public void testModes() throws IOException {
+		for(Mode mode : Mode.values()) {
+			StockManager manager = new StockManager(mode, null, ModificationMode.QUANTITY);
+			manager.process(history(1));
+			StockManager restored = restore(manager);
+			Assert.assertEquals(mode, restored.getMode());
+			Assert.assertEquals(ModificationMode.QUANTITY, restored.getModificationMode());
+			Assert.assertEquals(6, restored.getTradeCount());
+			Assert.assertTrue(restored.getClosedPositions().isEmpty());
+			assertOpened(manager, restored);
+
+			//same future
+			manager.process(history(100));
+			restored.process(history(100));
+			assertOpened(manager, restored);
+			Assert.assertEquals(12, restored.getTradeCount());
+		}
+	}
+
+	@Test
+	public void testOrphanSells() throws IOException {
+		StockManager manager = new StockManager(Mode.FIFO);
+		manager.add(TradeWrapper.sell(createQuantity(2), new SourceTest(1)));
+		StockManager restored = restore(manager);
+		Assert.assertTrue(restored.isEmpty());
+		Assert.assertEquals(1, restored.getOrphanSells().size());
+		Assert.assertEquals(new SourceTest(1), restored.getOrphanSells().get(0).getSource());
+		Assert.assertEquals(createQuantity(2), restored.getOrphanSells().get(0).getQuantity());
+	}
+
+	@Test
+	public void testShortLots() throws IOException {
+		StockManager manager = new StockManager(Mode.FIFO);
+		manager.setShortSelling(true);
+		manager.add(TradeWrapper.buy(createQuantity(1), createMoney("10.00"), new SourceTest(1)));
+		manager.add(TradeWrapper.sell(createQuantity(3), new SourceTest(2)));
+		manager.add(TradeWrapper.buy(createQuantity(1), createMoney("12.00"), new SourceTest(3)));
+		StockManager restored = restore(manager);
+		Assert.assertTrue(restored.isShortSelling());
+		Assert.assertEquals(createQuantity(1), restored.getShortQuantity());
+		Assert.assertEquals(manager.getShortPositions().get(0).getAmount(), restored.getShortPositions().get(0).getAmount());
+
+		//the restored short lot is covered
+		restored.add(TradeWrapper.buy(createQuantity(2), createMoney("30.00"), new SourceTest(4)));
+		Assert.assertEquals(0, restored.getShortQuantity().signum());
+		Assert.assertEquals(createMoney("15.00"), restored.getClosedPositions().get(0).getAmount());
+		Assert.assertEquals(createMoney("15.00"), restored.getStock().getAmount());
+	}
+
+	@Test
+	public void testForcedAmounts() throws IOException {
+		int id = 1;
+		SourceTest a = new SourceTest(id++);
+		SourceTest b = new SourceTest(id++);
+		SourceTest c = new SourceTest(id++);
+		TradeWrapper buy1 = TradeWrapper.buy(createQuantity(3), createMoney("100.00"), a);
+		TradeWrapper buy2 = TradeWrapper.buy(createQuantity(4), createMoney("12.99"), b);
+		TradeWrapper sell = TradeWrapper.sell(createQuantity(1), c);
+		TradeWrapper modification = TradeWrapper.modification(createMoney("-10.00"), new SourceTest(id++));
+		StockManager manager = new StockManager(Mode.FIFO);
+		manager.add(buy1);
+		manager.add(buy2);
+		manager.addBuySellMoney(buy1, sell, createMoney("33.34"));
+		manager.addBuyModificationMoney(buy2, modification, createMoney("-5.00"));
+		StockManager restored = restore(manager);
+
+		//new trades with the same sources
+		restored.add(TradeWrapper.sell(createQuantity(1), c));
+		Assert.assertEquals(createMoney("33.34"), restored.getClosedPositions().get(0).getAmount());
+		restored.add(TradeWrapper.modification(createMoney("-10.00"), new SourceTest(4)));
+		List<Position> opened = restored.getOpenedPositions();
+		Assert.assertEquals(createMoney("61.66"), opened.get(0).getAmount());
+		Assert.assertEquals(createMoney("7.99"), opened.get(1).getAmount());
+	}
+
+	@Test(expected = InvalidObjectException.class)
+	public void testBadSnapshot() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try(ObjectOutputStream o = new ObjectOutputStream(out)) {
+			o.writeInt(0);
+		}
+		StockManagerSnapshot.read(new ByteArrayInputStream(out.toByteArray()), null);
+	}
+}
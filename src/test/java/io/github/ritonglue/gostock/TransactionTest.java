@@ -0,0 +1,251 @@
+package io.github.ritonglue.gostock;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.money.CurrencyUnit;
+import javax.money.Monetary;
+import javax.money.MonetaryAmount;
+import javax.money.MonetaryAmountFactory;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.github.ritonglue.gostock.StockManager.TradeWrapper;
+import io.github.ritonglue.gostock.exception.StockAmountReductionException;
+import io.github.ritonglue.gostock.strategy.OffHeapStrategy;
+
+public class TransactionTest {
+	private final CurrencyUnit cu = Monetary.getCurrency("EUR");
+
+	private MonetaryAmount createMoney(String value) {
+		MonetaryAmountFactory<?> factory = Monetary.getDefaultAmountFactory();
+		return factory.setCurrency(cu).setNumber(new BigDecimal(value)).create();
+	}
+
+	private List<TradeWrapper> randomTrades(long seed, int first, int n) {
+		Random random = new Random(seed);
+		List<TradeWrapper> list = new ArrayList<>();
+		for(int id = first ; id < first + n ; ++id) {
+			SourceTest source = new SourceTest(id);
+			int r = random.nextInt(100);
+			if(r < 50) {
+				BigDecimal quantity = new BigDecimal(1 + random.nextInt(100));
+				list.add(TradeWrapper.buy(quantity, createMoney(BigDecimal.valueOf(1 + random.nextInt(1_000_000), 2).toPlainString()), source));
+			} else if(r < 90) {
+				list.add(TradeWrapper.sell(new BigDecimal(1 + random.nextInt(150)), source));
+			} else if(r < 95) {
+				list.add(TradeWrapper.modification(createMoney(BigDecimal.valueOf(random.nextInt(20_000) - 10_000, 2).toPlainString()), source));
+			} else if(r < 98) {
+				list.add(TradeWrapper.modifyQuantity(BigDecimal.ONE, new BigDecimal(2), 0, source));
+			} else {
+				list.add(TradeWrapper.reimbursement(source));
+			}
+		}
+		return list;
+	}
+
+	private static void process(StockManager manager, List<TradeWrapper> trades) {
+		for(TradeWrapper t : trades) {
+			try {
+				manager.add(t);
+			} catch(RuntimeException e) {
+			}
+		}
+	}
+
+	private static void assertPositions(List<Position> expected, List<Position> actual) {
+		Assert.assertEquals(expected.size(), actual.size());
+		for(int i = 0, n = expected.size() ; i < n ; ++i) {
+			Position e = expected.get(i);
+			Position a = actual.get(i);
+			Assert.assertEquals(e.getBuy(), a.getBuy());
+			Assert.assertEquals(e.getSell(), a.getSell());
+			Assert.assertEquals(e.getQuantity(), a.getQuantity());
+			Assert.assertEquals(e.getAmount(), a.getAmount());
+		}
+	}
+
+	private static void assertSame(StockManager expected, StockManager actual) {
+		assertPositions(expected.getClosedPositions(), actual.getClosedPositions());
+		assertPositions(expected.getOpenedPositions(), actual.getOpenedPositions());
+		Assert.assertEquals(expected.getModifications().size(), actual.getModifications().size());
+		Assert.assertEquals(expected.getOrphanSells().size(), actual.getOrphanSells().size());
+		Assert.assertEquals(expected.getTradeCount(), actual.getTradeCount());
+		Assert.assertEquals(expected.getStock().getAmount(), actual.getStock().getAmount());
+	}
+
+	@Test
+	public void testRollback() {
+		for(Mode mode : Mode.values()) {
+			for(long seed = 1 ; seed <= 5 ; ++seed) {
+				List<TradeWrapper> before = randomTrades(seed, 1, 300);
+				List<TradeWrapper> after = randomTrades(seed + 100, 1000, 100);
+				StockManager expected = new StockManager(mode);
+				process(expected, copy(before));
+				StockManager actual = new StockManager(mode);
+				process(actual, before);
+				actual.begin();
+				process(actual, after);
+				actual.rollback();
+				Assert.assertFalse(actual.isInTransaction());
+				assertSame(expected, actual);
+				//the trades get their values back
+				process(expected, copy(after));
+				process(actual, after);
+				assertSame(expected, actual);
+			}
+		}
+	}
+
+	private static List<TradeWrapper> copy(List<TradeWrapper> trades) {
+		List<TradeWrapper> list = new ArrayList<>();
+		for(TradeWrapper t : trades) {
+			list.add(t.copy());
+		}
+		return list;
+	}
+
+	@Test
+	public void testFailedModification() {
+		StockManager manager = new StockManager(Mode.FIFO);
+		TradeWrapper b0 = TradeWrapper.buy(BigDecimal.ONE, createMoney("10"), new SourceTest(0));
+		TradeWrapper b1 = TradeWrapper.buy(BigDecimal.ONE, createMoney("10"), new SourceTest(1));
+		TradeWrapper b2 = TradeWrapper.buy(BigDecimal.ONE, createMoney("8"), new SourceTest(2));
+		manager.add(b0);
+		manager.add(b1);
+		manager.add(b2);
+		TradeWrapper modification = TradeWrapper.modification(createMoney("-15"), new SourceTest(3));
+		//the forced amount of b1 is applied, then the reduction of b2 fails
+		manager.addBuyModificationMoney(b1, modification, createMoney("-5"));
+		manager.begin();
+		manager.add(TradeWrapper.sell(BigDecimal.ONE, new SourceTest(4)));
+		try {
+			manager.add(modification);
+			Assert.fail();
+		} catch(StockAmountReductionException e) {
+		}
+		Assert.assertEquals(createMoney("5"), b1.getAmount());
+		manager.rollback();
+		Assert.assertEquals(3, manager.getOpenedPositions().size());
+		Assert.assertEquals(createMoney("10"), b1.getAmount());
+		Assert.assertEquals(createMoney("28"), manager.getStock().getAmount());
+		Assert.assertTrue(manager.getClosedPositions().isEmpty());
+		Assert.assertTrue(manager.getModifications().isEmpty());
+		Assert.assertEquals(3, manager.getTradeCount());
+	}
+
+	@Test
+	public void testCommit() {
+		StockManager manager = new StockManager(Mode.LIFO);
+		manager.begin();
+		manager.add(TradeWrapper.buy(BigDecimal.ONE, createMoney("10"), new SourceTest(1)));
+		manager.commit();
+		Assert.assertEquals(1, manager.getOpenedPositions().size());
+		try {
+			manager.rollback();
+			Assert.fail();
+		} catch(IllegalStateException e) {
+		}
+	}
+
+	@Test
+	public void testUnsupportedStrategy() {
+		OffHeapStrategy strategy = OffHeapStrategy.fifo(new OffHeapStrategy.SourceMapping() {
+			@Override
+			public long toId(Object source) {
+				return ((SourceTest) source).getId();
+			}
+
+			@Override
+			public Object toSource(long id) {
+				return new SourceTest((int) id);
+			}
+		});
+		StockManager manager = new StockManager(Mode.FIFO, null, ModificationMode.MIXED, strategy);
+		try {
+			manager.begin();
+			Assert.fail();
+		} catch(IllegalStateException e) {
+		}
+		Assert.assertFalse(manager.isInTransaction());
+	}
+
+	@Test
+	public void testListeners() {
+		StockManager manager = new StockManager(Mode.FIFO);
+		manager.add(TradeWrapper.buy(new BigDecimal(4), createMoney("40"), new SourceTest(1)));
+		BigDecimal[] quantity = {BigDecimal.ZERO};
+		MonetaryAmount[] amount = {createMoney("0")};
+		MonetaryAmount[] realized = {createMoney("0")};
+		manager.addListener((m, q, a, r) -> {
+			quantity[0] = quantity[0].add(q);
+			if(a != null) amount[0] = amount[0].add(a);
+			if(r != null) realized[0] = realized[0].add(r);
+		});
+		manager.begin();
+		manager.add(TradeWrapper.sell(new BigDecimal(3), new SourceTest(2)));
+		manager.add(TradeWrapper.buy(new BigDecimal(2), createMoney("30"), new SourceTest(3)));
+		manager.add(TradeWrapper.modification(createMoney("-5"), new SourceTest(4)));
+		Assert.assertEquals(createMoney("30"), realized[0]);
+		manager.rollback();
+		//the listener sees the reversal
+		Assert.assertEquals(0, quantity[0].signum());
+		Assert.assertTrue(amount[0].isZero());
+		Assert.assertTrue(realized[0].isZero());
+		Assert.assertEquals(createMoney("40"), manager.getStock().getAmount());
+	}
+
+	@Test
+	public void testSavepoint() {
+		for(Mode mode : Mode.values()) {
+			for(long seed = 1 ; seed <= 5 ; ++seed) {
+				List<TradeWrapper> first = randomTrades(seed, 1, 300);
+				List<TradeWrapper> second = randomTrades(seed + 100, 1000, 100);
+				List<TradeWrapper> third = randomTrades(seed + 200, 2000, 100);
+				StockManager expected = new StockManager(mode);
+				process(expected, copy(first));
+				StockManager actual = new StockManager(mode);
+				process(actual, copy(first));
+				StockManager.Savepoint savepoint1 = actual.savepoint();
+				process(actual, copy(second));
+				StockManager.Savepoint savepoint2 = actual.savepoint();
+				process(actual, copy(third));
+				actual.rollback(savepoint2);
+				process(expected, copy(second));
+				assertSame(expected, actual);
+				actual.rollback(savepoint1);
+				expected = new StockManager(mode);
+				process(expected, copy(first));
+				assertSame(expected, actual);
+				//the savepoint can be used again
+				process(actual, copy(third));
+				actual.rollback(savepoint1);
+				assertSame(expected, actual);
+				process(expected, copy(second));
+				process(actual, copy(second));
+				assertSame(expected, actual);
+			}
+		}
+	}
+
+	@Test
+	public void testInvalidSavepoint() {
+		StockManager manager = new StockManager(Mode.FIFO);
+		manager.add(TradeWrapper.buy(new BigDecimal(4), createMoney("40"), new SourceTest(1)));
+		StockManager.Savepoint savepoint = manager.savepoint();
+		try {
+			new StockManager(Mode.FIFO).rollback(savepoint);
+			Assert.fail();
+		} catch(IllegalArgumentException e) {
+		}
+		manager.begin();
+		try {
+			manager.rollback(savepoint);
+			Assert.fail();
+		} catch(IllegalStateException e) {
+		}
+	}
+}
@@ -0,0 +1,163 @@
+package io.github.ritonglue.gostock;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.money.CurrencyUnit;
+import javax.money.Monetary;
+import javax.money.MonetaryAmount;
+import javax.money.MonetaryAmountFactory;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.github.ritonglue.gostock.StockManager.TradeWrapper;
+import io.github.ritonglue.gostock.exception.BatchValidationException;
+
+public class ValidationTest {
+	private final CurrencyUnit cu = Monetary.getCurrency("EUR");
+
+	private MonetaryAmount createMoney(String value) {
+		MonetaryAmountFactory<?> factory = Monetary.getDefaultAmountFactory();
+		return factory.setCurrency(cu).setNumber(new BigDecimal(value)).create();
+	}
+
+	private List<TradeWrapper> badBatch() {
+		return List.of(
+			TradeWrapper.modification(createMoney("1"), new SourceTest(1)),
+			TradeWrapper.buy(new BigDecimal("2"), createMoney("10"), new SourceTest(2)),
+			TradeWrapper.buy(new BigDecimal("3"), createMoney("20"), new SourceTest(3)),
+			TradeWrapper.modification(createMoney("-31"), new SourceTest(4)),
+			TradeWrapper.sell(new BigDecimal("4"), new SourceTest(5)),
+			TradeWrapper.modification(createMoney("-5"), new SourceTest(6)),
+			TradeWrapper.sell(new BigDecimal("3"), new SourceTest(7)),
+			TradeWrapper.modification(createMoney("-2"), new SourceTest(8)));
+	}
+
+	@Test
+	public void testAllIssues() {
+		for(Mode mode : Mode.values()) {
+			StockManager manager = new StockManager(mode);
+			List<TradeWrapper> trades = badBatch();
+			List<ValidationIssue> issues = manager.validate(trades);
+			Assert.assertEquals(mode.toString(), 4, issues.size());
+			Assert.assertEquals(ValidationIssue.Kind.EMPTY_POSITION_MODIFICATION, issues.get(0).getKind());
+			Assert.assertEquals(0, issues.get(0).getIndex());
+			Assert.assertEquals(ValidationIssue.Kind.AMOUNT_REDUCTION, issues.get(1).getKind());
+			Assert.assertEquals(3, issues.get(1).getIndex());
+			Assert.assertEquals(ValidationIssue.Kind.ORPHAN_SELL, issues.get(2).getKind());
+			Assert.assertSame(trades.get(6), issues.get(2).getTrade());
+			Assert.assertEquals(ValidationIssue.Kind.EMPTY_POSITION_MODIFICATION, issues.get(3).getKind());
+			//nothing changed
+			Assert.assertEquals(0, manager.getTradeCount());
+			Assert.assertEquals(new BigDecimal("3"), trades.get(6).getQuantity());
+			Assert.assertNull(trades.get(6).getAmount());
+		}
+	}
+
+	@Test
+	public void testProcessValidated() {
+		StockManager manager = new StockManager();
+		manager.add(TradeWrapper.buy(BigDecimal.ONE, createMoney("10"), new SourceTest(0)));
+		List<TradeWrapper> trades = badBatch();
+		try {
+			manager.processValidated(trades);
+			Assert.fail();
+		} catch(BatchValidationException e) {
+			Assert.assertEquals(3, e.getIssues().size());
+		}
+		Assert.assertEquals(1, manager.getTradeCount());
+		Assert.assertEquals(createMoney("10"), manager.getStock().getAmount());
+		Assert.assertTrue(manager.getClosedPositions().isEmpty());
+
+		List<TradeWrapper> good = List.of(
+			TradeWrapper.buy(new BigDecimal("2"), createMoney("10"), new SourceTest(2)),
+			TradeWrapper.modification(createMoney("-5"), new SourceTest(3)),
+			TradeWrapper.sell(new BigDecimal("3"), new SourceTest(4)));
+		manager.processValidated(good);
+		Assert.assertEquals(4, manager.getTradeCount());
+		Assert.assertTrue(manager.isEmpty());
+	}
+
+	@Test
+	public void testForcedAmount() {
+		StockManager manager = new StockManager();
+		TradeWrapper b1 = TradeWrapper.buy(BigDecimal.ONE, createMoney("10"), new SourceTest(1));
+		TradeWrapper b2 = TradeWrapper.buy(BigDecimal.ONE, createMoney("10"), new SourceTest(2));
+		TradeWrapper m = TradeWrapper.modification(createMoney("-12"), new SourceTest(3));
+		TradeWrapper s = TradeWrapper.sell(new BigDecimal("1.5"), new SourceTest(4));
+		manager.addBuyModificationMoney(b1, m, createMoney("-11"));
+		manager.addBuySellMoney(b2, s, createMoney("20"));
+		List<ValidationIssue> issues = manager.validate(List.of(b1, b2, m, s));
+		Assert.assertEquals(2, issues.size());
+		Assert.assertEquals(ValidationIssue.Kind.AMOUNT_REDUCTION, issues.get(0).getKind());
+		Assert.assertEquals(2, issues.get(0).getIndex());
+		Assert.assertEquals(ValidationIssue.Kind.FORCED_AMOUNT, issues.get(1).getKind());
+		Assert.assertEquals(3, issues.get(1).getIndex());
+	}
+
+	@Test
+	public void testQuantityThreshold() {
+		StockManager manager = new StockManager(Mode.FIFO, null, ModificationMode.QUANTITY);
+		List<TradeWrapper> trades = List.of(
+			TradeWrapper.buy(BigDecimal.ONE, createMoney("0"), new SourceTest(1)),
+			TradeWrapper.buy(BigDecimal.ONE, createMoney("2"), new SourceTest(2)),
+			TradeWrapper.buy(BigDecimal.ONE, createMoney("4"), new SourceTest(3)),
+			TradeWrapper.modification(createMoney("-6"), new SourceTest(4)));
+		//the first lot is zeroed, then -3 exceeds the second lot
+		List<ValidationIssue> issues = manager.validate(trades);
+		Assert.assertEquals(1, issues.size());
+		Assert.assertEquals(ValidationIssue.Kind.AMOUNT_REDUCTION, issues.get(0).getKind());
+		Assert.assertEquals(3, issues.get(0).getIndex());
+	}
+
+	@Test
+	public void testModificationQuantity() {
+		StockManager manager = new StockManager(Mode.FIFO);
+		List<TradeWrapper> trades = List.of(
+			TradeWrapper.buy(BigDecimal.ONE, createMoney("1"), new SourceTest(1)),
+			TradeWrapper.buy(BigDecimal.ONE, createMoney("1"), new SourceTest(2)),
+			TradeWrapper.buy(BigDecimal.ONE, createMoney("1"), new SourceTest(3)),
+			TradeWrapper.modifyQuantity(new BigDecimal(3), BigDecimal.ONE, 0, new SourceTest(4)),
+			TradeWrapper.sell(BigDecimal.ONE, new SourceTest(5)));
+		//the first lot takes the rounded total
+		Assert.assertTrue(manager.validate(trades).isEmpty());
+		manager.processValidated(trades);
+		Assert.assertTrue(manager.getOrphanSells().isEmpty());
+	}
+
+	@Test
+	public void testSameAsProcess() {
+		for(ModificationMode modificationMode : ModificationMode.values()) {
+			for(long seed = 1 ; seed <= 50 ; ++seed) {
+				Random random = new Random(seed);
+				List<TradeWrapper> trades = new ArrayList<>();
+				for(int id = 1 ; id <= 12 ; ++id) {
+					int r = random.nextInt(10);
+					SourceTest source = new SourceTest(id);
+					if(r < 5) {
+						trades.add(TradeWrapper.buy(new BigDecimal(1 + random.nextInt(5)), createMoney(Integer.toString(random.nextInt(10))), source));
+					} else if(r < 7) {
+						trades.add(TradeWrapper.sell(new BigDecimal(1 + random.nextInt(3)), source));
+					} else if(r < 9) {
+						trades.add(TradeWrapper.modification(createMoney(Integer.toString(random.nextInt(21) - 15)), source));
+					} else {
+						trades.add(TradeWrapper.modifyQuantity(new BigDecimal(3), BigDecimal.ONE, 0, source));
+					}
+				}
+				StockManager manager = new StockManager(Mode.FIFO, null, modificationMode);
+				boolean valid = manager.validate(trades).isEmpty();
+				boolean processed = true;
+				try {
+					manager.process(trades);
+				} catch(RuntimeException e) {
+					processed = false;
+				}
+				processed &= manager.getOrphanSells().isEmpty();
+				Assert.assertEquals(modificationMode + " " + seed, processed, valid);
+			}
+		}
+	}
+}
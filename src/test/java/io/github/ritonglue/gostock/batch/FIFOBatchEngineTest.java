@@ -0,0 +1,182 @@
+package io.github.ritonglue.gostock.batch;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.money.CurrencyUnit;
+import javax.money.Monetary;
+import javax.money.MonetaryAmount;
+import javax.money.MonetaryAmountFactory;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.github.ritonglue.gostock.Mode;
+import io.github.ritonglue.gostock.Position;
+import io.github.ritonglue.gostock.SourceTest;
+import io.github.ritonglue.gostock.StockManager;
+import io.github.ritonglue.gostock.StockManager.TradeWrapper;
+
+public class FIFOBatchEngineTest {
+	private static final CurrencyUnit cu = Monetary.getCurrency("EUR");
+
+	static MonetaryAmount createMoney(String value) {
+		MonetaryAmountFactory<?> factory = Monetary.getDefaultAmountFactory();
+		return factory.setCurrency(cu).setNumber(new BigDecimal(value)).create();
+	}
+
+	static MonetaryAmount createMoney(long value) {
+		MonetaryAmountFactory<?> factory = Monetary.getDefaultAmountFactory();
+		return factory.setCurrency(cu).setNumber(value).create();
+	}
+
+	/**
+	 * random history of buys, sells and reimbursements
+	 */
+	static List<TradeWrapper> randomTrades(long seed, int n) {
+		Random random = new Random(seed);
+		List<TradeWrapper> list = new ArrayList<>();
+		for(int id = 1 ; id <= n ; ++id) {
+			SourceTest source = new SourceTest(id);
+			int r = random.nextInt(100);
+			if(r < 50) {
+				BigDecimal quantity = new BigDecimal(1 + random.nextInt(100));
+				MonetaryAmount amount = createMoney(BigDecimal.valueOf(1 + random.nextInt(1_000_000), 2).toPlainString());
+				list.add(TradeWrapper.buy(quantity, amount, source));
+			} else if(r < 98) {
+				list.add(TradeWrapper.sell(new BigDecimal(1 + random.nextInt(150)), source));
+			} else if(r < 99) {
+				list.add(TradeWrapper.reimbursement(source));
+			} else {
+				list.add(TradeWrapper.reimbursement(new BigDecimal(1 + random.nextInt(50)), source));
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * @return a copy : the StockManager modifies the trades
+	 */
+	static List<TradeWrapper> copy(List<TradeWrapper> trades) {
+		List<TradeWrapper> list = new ArrayList<>();
+		for(TradeWrapper t : trades) {
+			list.add(TradeWrapper.tradeType(t.getTradeType()).quantity(t.getQuantity()).amount(t.getAmount()).source(t.getSource()).build());
+		}
+		return list;
+	}
+
+	static void assertPositions(List<Position> expected, List<Position> actual) {
+		Assert.assertEquals(expected.size(), actual.size());
+		for(int i = 0, n = expected.size() ; i < n ; ++i) {
+			Position e = expected.get(i);
+			Position a = actual.get(i);
+			Assert.assertEquals(e.getBuy(), a.getBuy());
+			Assert.assertEquals(e.getSell(), a.getSell());
+			Assert.assertEquals(e.getQuantity(), a.getQuantity());
+			Assert.assertEquals(e.getAmount(), a.getAmount());
+			Assert.assertEquals(e.getCloseCause(), a.getCloseCause());
+		}
+	}
+
+	static void assertSame(StockManager manager, BatchResult result) {
+		assertPositions(manager.getClosedPositions(), result.getClosedPositions());
+		assertPositions(manager.getOpenedPositions(), result.getOpenedPositions());
+		List<TradeWrapper> orphans = manager.getOrphanSells();
+		Assert.assertEquals(orphans.size(), result.getOrphanSells().size());
+		for(int i = 0, n = orphans.size() ; i < n ; ++i) {
+			Assert.assertEquals(orphans.get(i).getSource(), result.getOrphanSells().get(i).getSource());
+			Assert.assertEquals(orphans.get(i).getQuantity(), result.getOrphanSells().get(i).getQuantity());
+		}
+	}
+
+	@Test
+	public void testFIFO() {
+		int id = 1;
+		SourceTest a = new SourceTest(id++);
+		SourceTest b = new SourceTest(id++);
+		SourceTest c = new SourceTest(id++);
+		SourceTest d = new SourceTest(id++);
+		List<TradeWrapper> list = new ArrayList<>();
+		list.add(TradeWrapper.buy(new BigDecimal(100), createMoney(100*50), a));
+		list.add(TradeWrapper.buy(new BigDecimal(125), createMoney(125*55), b));
+		list.add(TradeWrapper.buy(new BigDecimal(75), createMoney(75*59), c));
+		list.add(TradeWrapper.sell(new BigDecimal(210), d));
+		BatchResult result = new FIFOBatchEngine().process(list);
+
+		List<Position> closedPositions = result.getClosedPositions();
+		Assert.assertEquals(2, closedPositions.size());
+		Position position = closedPositions.get(0);
+		Assert.assertEquals(new BigDecimal(100), position.getQuantity());
+		Assert.assertEquals(createMoney(5000), position.getAmount());
+		Assert.assertEquals(a, position.getBuy());
+		Assert.assertEquals(d, position.getSell());
+		position = closedPositions.get(1);
+		Assert.assertEquals(new BigDecimal(110), position.getQuantity());
+		Assert.assertEquals(createMoney(110*55), position.getAmount());
+		Assert.assertEquals(b, position.getBuy());
+		Assert.assertEquals(d, position.getSell());
+
+		List<Position> openedPositions = result.getOpenedPositions();
+		Assert.assertEquals(2, openedPositions.size());
+		position = openedPositions.get(0);
+		Assert.assertEquals(new BigDecimal(15), position.getQuantity());
+		Assert.assertEquals(createMoney(15*55), position.getAmount());
+		Assert.assertEquals(b, position.getBuy());
+		position = openedPositions.get(1);
+		Assert.assertEquals(new BigDecimal(75), position.getQuantity());
+		Assert.assertEquals(createMoney(75*59), position.getAmount());
+		Assert.assertEquals(c, position.getBuy());
+		Assert.assertTrue(result.getOrphanSells().isEmpty());
+		//trades are not modified
+		Assert.assertEquals(new BigDecimal(210), list.get(3).getQuantity());
+	}
+
+	@Test
+	public void testRounding() {
+		int id = 1;
+		SourceTest a = new SourceTest(id++);
+		List<TradeWrapper> list = new ArrayList<>();
+		list.add(TradeWrapper.buy(new BigDecimal(3), createMoney("100.00"), a));
+		list.add(TradeWrapper.sell(BigDecimal.ONE, new SourceTest(id++)));
+		list.add(TradeWrapper.sell(BigDecimal.ONE, new SourceTest(id++)));
+		list.add(TradeWrapper.sell(BigDecimal.ONE, new SourceTest(id++)));
+		list.add(TradeWrapper.sell(BigDecimal.ONE, new SourceTest(id++)));
+		BatchResult result = new FIFOBatchEngine().process(list);
+		List<Position> closedPositions = result.getClosedPositions();
+		Assert.assertEquals(3, closedPositions.size());
+		Assert.assertEquals(createMoney("33.33"), closedPositions.get(0).getAmount());
+		Assert.assertEquals(createMoney("33.34"), closedPositions.get(1).getAmount());
+		Assert.assertEquals(createMoney("33.33"), closedPositions.get(2).getAmount());
+		Assert.assertTrue(result.getOpenedPositions().isEmpty());
+		Assert.assertEquals(1, result.getOrphanSells().size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testModification() {
+		List<TradeWrapper> list = new ArrayList<>();
+		list.add(TradeWrapper.buy(new BigDecimal(3), createMoney("100.00"), null));
+		list.add(TradeWrapper.modification(createMoney("10.00")));
+		new FIFOBatchEngine().process(list);
+	}
+
+	@Test
+	public void testRandom() {
+		for(long seed = 0 ; seed < 5 ; ++seed) {
+			List<TradeWrapper> trades = randomTrades(seed, 20_000);
+			StockManager manager = new StockManager(Mode.FIFO);
+			manager.process(copy(trades));
+			BatchResult result = new FIFOBatchEngine().process(trades);
+			assertSame(manager, result);
+		}
+	}
+
+	@Test
+	public void testEmpty() {
+		BatchResult result = new FIFOBatchEngine().process(List.of());
+		Assert.assertTrue(result.getClosedPositions().isEmpty());
+		Assert.assertTrue(result.getOpenedPositions().isEmpty());
+		Assert.assertTrue(result.getOrphanSells().isEmpty());
+	}
+}
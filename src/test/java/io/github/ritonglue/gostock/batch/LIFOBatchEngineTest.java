@@ -0,0 +1,71 @@
+package io.github.ritonglue.gostock.batch;
+
+import static io.github.ritonglue.gostock.batch.FIFOBatchEngineTest.assertSame;
+import static io.github.ritonglue.gostock.batch.FIFOBatchEngineTest.copy;
+import static io.github.ritonglue.gostock.batch.FIFOBatchEngineTest.createMoney;
+import static io.github.ritonglue.gostock.batch.FIFOBatchEngineTest.randomTrades;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.github.ritonglue.gostock.Mode;
+import io.github.ritonglue.gostock.Position;
+import io.github.ritonglue.gostock.SourceTest;
+import io.github.ritonglue.gostock.StockManager;
+import io.github.ritonglue.gostock.StockManager.TradeWrapper;
+
+public class LIFOBatchEngineTest {
+
+	@Test
+	public void testLIFO() {
+		int id = 1;
+		SourceTest a = new SourceTest(id++);
+		SourceTest b = new SourceTest(id++);
+		SourceTest c = new SourceTest(id++);
+		SourceTest d = new SourceTest(id++);
+		List<TradeWrapper> list = new ArrayList<>();
+		list.add(TradeWrapper.buy(new BigDecimal(100), createMoney(100*50), a));
+		list.add(TradeWrapper.buy(new BigDecimal(125), createMoney(125*55), b));
+		list.add(TradeWrapper.buy(new BigDecimal(75), createMoney(75*59), c));
+		list.add(TradeWrapper.sell(new BigDecimal(210), d));
+		BatchResult result = BatchEngine.create(Mode.LIFO, null, null).process(list);
+
+		List<Position> closedPositions = result.getClosedPositions();
+		Assert.assertEquals(3, closedPositions.size());
+		Position position = closedPositions.get(0);
+		Assert.assertEquals(new BigDecimal(75), position.getQuantity());
+		Assert.assertEquals(createMoney(75*59), position.getAmount());
+		Assert.assertEquals(c, position.getBuy());
+		Assert.assertEquals(d, position.getSell());
+		position = closedPositions.get(1);
+		Assert.assertEquals(new BigDecimal(125), position.getQuantity());
+		Assert.assertEquals(createMoney(125*55), position.getAmount());
+		Assert.assertEquals(b, position.getBuy());
+		position = closedPositions.get(2);
+		Assert.assertEquals(new BigDecimal(10), position.getQuantity());
+		Assert.assertEquals(createMoney(10*50), position.getAmount());
+		Assert.assertEquals(a, position.getBuy());
+
+		List<Position> openedPositions = result.getOpenedPositions();
+		Assert.assertEquals(1, openedPositions.size());
+		position = openedPositions.get(0);
+		Assert.assertEquals(new BigDecimal(90), position.getQuantity());
+		Assert.assertEquals(createMoney(90*50), position.getAmount());
+		Assert.assertEquals(a, position.getBuy());
+	}
+
+	@Test
+	public void testRandom() {
+		for(long seed = 0 ; seed < 5 ; ++seed) {
+			List<TradeWrapper> trades = randomTrades(seed, 20_000);
+			StockManager manager = new StockManager(Mode.LIFO);
+			manager.process(copy(trades));
+			BatchResult result = new LIFOBatchEngine().process(trades);
+			assertSame(manager, result);
+		}
+	}
+}
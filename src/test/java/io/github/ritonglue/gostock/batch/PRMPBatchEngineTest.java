@@ -0,0 +1,96 @@
+package io.github.ritonglue.gostock.batch;
+
+import static io.github.ritonglue.gostock.batch.FIFOBatchEngineTest.assertSame;
+import static io.github.ritonglue.gostock.batch.FIFOBatchEngineTest.copy;
+import static io.github.ritonglue.gostock.batch.FIFOBatchEngineTest.createMoney;
+import static io.github.ritonglue.gostock.batch.FIFOBatchEngineTest.randomTrades;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.money.Monetary;
+import javax.money.MonetaryRounding;
+import javax.money.RoundingQueryBuilder;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.github.ritonglue.gostock.Mode;
+import io.github.ritonglue.gostock.Position;
+import io.github.ritonglue.gostock.SourceTest;
+import io.github.ritonglue.gostock.StockManager;
+import io.github.ritonglue.gostock.StockManager.TradeWrapper;
+
+public class PRMPBatchEngineTest {
+
+	@Test
+	public void testPRMP() {
+		int id = 1;
+		SourceTest d = new SourceTest(4);
+		List<TradeWrapper> list = new ArrayList<>();
+		list.add(TradeWrapper.buy(new BigDecimal(100), createMoney(100*50), new SourceTest(id++)));
+		list.add(TradeWrapper.buy(new BigDecimal(125), createMoney(125*55), new SourceTest(id++)));
+		list.add(TradeWrapper.buy(new BigDecimal(75), createMoney(75*59), new SourceTest(id++)));
+		list.add(TradeWrapper.sell(new BigDecimal(210), d));
+		BatchResult result = new PRMPBatchEngine().process(list);
+
+		List<Position> closedPositions = result.getClosedPositions();
+		Assert.assertEquals(1, closedPositions.size());
+		Position position = closedPositions.get(0);
+		Assert.assertEquals(new BigDecimal(210), position.getQuantity());
+		Assert.assertEquals(createMoney(11410), position.getAmount());
+		Assert.assertEquals(d, position.getSell());
+		Assert.assertNull(position.getBuy());
+
+		List<Position> openedPositions = result.getOpenedPositions();
+		Assert.assertEquals(1, openedPositions.size());
+		position = openedPositions.get(0);
+		Assert.assertEquals(new BigDecimal(90), position.getQuantity());
+		Assert.assertEquals(createMoney(4890), position.getAmount());
+	}
+
+	@Test
+	public void testRandom() {
+		for(long seed = 0 ; seed < 5 ; ++seed) {
+			List<TradeWrapper> trades = randomTrades(seed, 20_000);
+			StockManager manager = new StockManager(Mode.PRMP);
+			manager.process(copy(trades));
+			BatchResult result = new PRMPBatchEngine().process(trades);
+			assertSame(manager, result);
+		}
+	}
+
+	@Test
+	public void testRandomRounding() {
+		MonetaryRounding rounding = Monetary.getRounding(RoundingQueryBuilder.of().setScale(0).set(RoundingMode.DOWN).build());
+		List<TradeWrapper> trades = randomTrades(42, 20_000);
+		StockManager manager = new StockManager(Mode.PRMP, rounding);
+		manager.process(copy(trades));
+		BatchResult result = new PRMPBatchEngine(rounding).process(trades);
+		assertSame(manager, result);
+	}
+
+	@Test
+	public void testNeverEmpty() {
+		//a single segment
+		Random random = new Random(7);
+		List<TradeWrapper> trades = new ArrayList<>();
+		trades.add(TradeWrapper.buy(new BigDecimal(1_000_000), createMoney("12345678.91"), new SourceTest(0)));
+		for(int id = 1 ; id <= 20_000 ; ++id) {
+			if(random.nextBoolean()) {
+				BigDecimal quantity = new BigDecimal(1 + random.nextInt(100));
+				trades.add(TradeWrapper.buy(quantity, createMoney(BigDecimal.valueOf(1 + random.nextInt(1_000_000), 2).toPlainString()), new SourceTest(id)));
+			} else {
+				trades.add(TradeWrapper.sell(new BigDecimal(1 + random.nextInt(99)), new SourceTest(id)));
+			}
+		}
+		StockManager manager = new StockManager(Mode.PRMP);
+		manager.process(copy(trades));
+		Assert.assertFalse(manager.isEmpty());
+		BatchResult result = new PRMPBatchEngine().process(trades);
+		assertSame(manager, result);
+	}
+}
@@ -0,0 +1,117 @@
+package io.github.ritonglue.gostock.dedup;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.money.Monetary;
+import javax.money.MonetaryAmount;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.github.ritonglue.gostock.Mode;
+import io.github.ritonglue.gostock.SourceTest;
+import io.github.ritonglue.gostock.StockManager;
+import io.github.ritonglue.gostock.StockManager.TradeWrapper;
+import io.github.ritonglue.gostock.TradeType;
+
+public class DeduplicatorTest {
+
+	private static MonetaryAmount createMoney(String value) {
+		return Monetary.getDefaultAmountFactory().setCurrency("EUR").setNumber(new BigDecimal(value)).create();
+	}
+
+	private static TradeWrapper buy(int id) {
+		return TradeWrapper.tradeType(TradeType.BUY).quantity(1).amount(createMoney("10")).source(new SourceTest(id)).idempotencyKey("b" + id).build();
+	}
+
+	private static TradeWrapper sell(int id) {
+		return TradeWrapper.tradeType(TradeType.SELL).quantity(1).source(new SourceTest(id)).idempotencyKey("s" + id).build();
+	}
+
+	@Test
+	public void testRedelivery() {
+		StockManager manager = new StockManager(Mode.FIFO);
+		Deduplicator deduplicator = Deduplicator.create().capacity(100).windowSize(100).windows(2).build();
+		List<TradeWrapper> trades = List.of(buy(1), buy(2), sell(3));
+		Assert.assertEquals(3, deduplicator.process(manager, trades, t -> Assert.fail()));
+		//redelivered copies : the sell is not applied twice
+		List<TradeWrapper> copies = new ArrayList<>();
+		for(TradeWrapper t : trades) {
+			copies.add(t.copy());
+		}
+		Assert.assertEquals(0, deduplicator.process(manager, copies, t -> Assert.fail()));
+		Assert.assertEquals(1, manager.getClosedPositions().size());
+		Assert.assertEquals(1, manager.getOpenedPositions().size());
+		//no key : always added
+		Assert.assertEquals(Deduplicator.Result.NEW, deduplicator.add(manager, TradeWrapper.buy(BigDecimal.ONE, createMoney("1"), new SourceTest(4))));
+		Assert.assertEquals(Deduplicator.Result.NEW, deduplicator.add(manager, TradeWrapper.buy(BigDecimal.ONE, createMoney("1"), new SourceTest(4))));
+	}
+
+	@Test
+	public void testWindows() {
+		//exact set smaller than the windows : old keys are found by the bloom filters
+		Deduplicator deduplicator = Deduplicator.create().capacity(10).windowSize(1000).windows(2).falsePositiveRate(0.0001).build();
+		for(int i = 0 ; i < 1000 ; ++i) {
+			Assert.assertEquals(Deduplicator.Result.NEW, deduplicator.check("k" + i));
+		}
+		Assert.assertEquals(Deduplicator.Result.DUPLICATE, deduplicator.check("k999"));
+		Assert.assertEquals(Deduplicator.Result.PROBABLE_DUPLICATE, deduplicator.check("k0"));
+		//two more windows : the first keys expire
+		int falsePositives = 0;
+		for(int i = 1000 ; i < 3000 ; ++i) {
+			if(deduplicator.check("k" + i) != Deduplicator.Result.NEW) ++falsePositives;
+		}
+		Assert.assertTrue(falsePositives < 10);
+		Assert.assertEquals(Deduplicator.Result.NEW, deduplicator.check("k0"));
+	}
+
+	@Test
+	public void testVerifier() {
+		StockManager manager = new StockManager(Mode.FIFO);
+		//the verifier says the probable duplicate is new
+		Set<Object> processed = new HashSet<>();
+		Deduplicator deduplicator = Deduplicator.create().capacity(1).windowSize(10).windows(1).verifier(t -> !processed.add(t.getIdempotencyKey())).build();
+		Assert.assertEquals(Deduplicator.Result.NEW, deduplicator.add(manager, buy(1)));
+		Assert.assertEquals(Deduplicator.Result.NEW, deduplicator.add(manager, buy(2)));
+		Assert.assertEquals(Deduplicator.Result.NEW, deduplicator.add(manager, buy(1)));
+		Assert.assertEquals(Deduplicator.Result.DUPLICATE, deduplicator.add(manager, buy(1)));
+		//the verified key is out of the exact set : still verified
+		Assert.assertEquals(Deduplicator.Result.NEW, deduplicator.add(manager, buy(3)));
+		Assert.assertEquals(Deduplicator.Result.DUPLICATE, deduplicator.add(manager, buy(1)));
+		Assert.assertEquals(4, manager.getOpenedPositions().size());
+	}
+
+	@Test
+	public void testProbableDuplicateWithoutVerifier() {
+		StockManager manager = new StockManager(Mode.FIFO);
+		Deduplicator deduplicator = Deduplicator.create().capacity(1).windowSize(10).windows(1).build();
+		deduplicator.add(manager, buy(1));
+		deduplicator.add(manager, buy(2));
+		//not dropped : handed back to the caller
+		List<TradeWrapper> probable = new ArrayList<>();
+		Assert.assertEquals(1, deduplicator.process(manager, List.of(buy(1), buy(3)), probable::add));
+		Assert.assertEquals(1, probable.size());
+		Assert.assertEquals("b1", probable.get(0).getIdempotencyKey());
+		//the caller found it new
+		manager.add(probable.get(0));
+		deduplicator.register("b1");
+		Assert.assertEquals(Deduplicator.Result.DUPLICATE, deduplicator.add(manager, buy(1)));
+		Assert.assertEquals(4, manager.getOpenedPositions().size());
+	}
+
+	@Test
+	public void testLeastRecentlyUsed() {
+		Deduplicator deduplicator = Deduplicator.create().capacity(2).windowSize(1000).windows(1).build();
+		deduplicator.check("a");
+		deduplicator.check("b");
+		//a is used again : b is the eldest
+		Assert.assertEquals(Deduplicator.Result.DUPLICATE, deduplicator.check("a"));
+		deduplicator.check("c");
+		Assert.assertEquals(Deduplicator.Result.DUPLICATE, deduplicator.check("a"));
+		Assert.assertEquals(Deduplicator.Result.PROBABLE_DUPLICATE, deduplicator.check("b"));
+	}
+}
@@ -0,0 +1,94 @@
+package io.github.ritonglue.gostock.export;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+import javax.money.Monetary;
+import javax.money.MonetaryAmount;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.github.ritonglue.gostock.CloseCause;
+import io.github.ritonglue.gostock.Position;
+import io.github.ritonglue.gostock.SourceTest;
+
+public class ColumnarPositionTest {
+
+	private static MonetaryAmount createMoney(String value, String currency) {
+		return Monetary.getDefaultAmountFactory().setCurrency(currency).setNumber(new BigDecimal(value)).create();
+	}
+
+	private static List<Position> positions(int n) {
+		List<Position> list = new ArrayList<>();
+		for(int i = 0 ; i < n ; ++i) {
+			String currency = i % 3 == 0 ? "USD" : "EUR";
+			CloseCause cause = i % 5 == 0 ? CloseCause.RBT : CloseCause.SELL;
+			list.add(new Position(new SourceTest(i), i % 7 == 0 ? null : new SourceTest(1000 + i),
+				new BigDecimal(i + 1), createMoney(i + ".25", currency), i % 7 == 0 ? null : cause));
+		}
+		return list;
+	}
+
+	private static byte[] export(List<Position> positions) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try(ColumnarPositionWriter writer = new ColumnarPositionWriter(bytes, Object::hashCode, 16)) {
+			writer.writeAll(positions);
+			Assert.assertEquals(positions.size(), writer.getCount());
+		}
+		return bytes.toByteArray();
+	}
+
+	@Test
+	public void testAllColumns() throws IOException {
+		List<Position> positions = positions(100);
+		int row = 0;
+		try(ColumnarPositionReader reader = new ColumnarPositionReader(new ByteArrayInputStream(export(positions)), EnumSet.allOf(Column.class))) {
+			while(reader.next()) {
+				for(int i = 0 ; i < reader.getRows() ; ++i, ++row) {
+					Position p = positions.get(row);
+					Assert.assertEquals(p.getQuantity(), reader.getQuantity(i));
+					Assert.assertEquals(p.getAmount().getNumber().numberValue(BigDecimal.class), reader.getAmount(i));
+					Assert.assertEquals(p.getAmount().getCurrency(), reader.getCurrency(i));
+					Assert.assertEquals(p.getBuy().hashCode(), reader.getBuy(i));
+					long sell = p.getSell() == null ? ColumnarPositionWriter.NO_SOURCE : p.getSell().hashCode();
+					Assert.assertEquals(sell, reader.getSell(i));
+					Assert.assertEquals(p.getCloseCause(), reader.getCloseCause(i));
+				}
+			}
+			Assert.assertFalse(reader.next());
+		}
+		Assert.assertEquals(positions.size(), row);
+	}
+
+	@Test
+	public void testProjection() throws IOException {
+		List<Position> positions = positions(50);
+		BigDecimal total = BigDecimal.ZERO;
+		try(ColumnarPositionReader reader = new ColumnarPositionReader(new ByteArrayInputStream(export(positions)), EnumSet.of(Column.QUANTITY))) {
+			while(reader.next()) {
+				for(int i = 0 ; i < reader.getRows() ; ++i) {
+					total = total.add(reader.getQuantity(i));
+				}
+				try {
+					reader.getAmount(0);
+					Assert.fail();
+				} catch(IllegalStateException e) {
+				}
+			}
+		}
+		Assert.assertEquals(new BigDecimal(50 * 51 / 2), total);
+	}
+
+	@Test
+	public void testEmpty() throws IOException {
+		try(ColumnarPositionReader reader = new ColumnarPositionReader(new ByteArrayInputStream(export(List.of())), EnumSet.allOf(Column.class))) {
+			Assert.assertFalse(reader.next());
+		}
+	}
+}
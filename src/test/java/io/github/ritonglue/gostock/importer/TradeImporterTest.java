@@ -0,0 +1,148 @@
+package io.github.ritonglue.gostock.importer;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.money.CurrencyUnit;
+import javax.money.Monetary;
+import javax.money.MonetaryAmount;
+import javax.money.MonetaryAmountFactory;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.github.ritonglue.gostock.Mode;
+import io.github.ritonglue.gostock.Position;
+import io.github.ritonglue.gostock.StockManager;
+import io.github.ritonglue.gostock.StockManager.TradeWrapper;
+import io.github.ritonglue.gostock.TradeType;
+import io.github.ritonglue.gostock.exception.ImportException;
+
+public class TradeImporterTest {
+	private final CurrencyUnit cu = Monetary.getCurrency("EUR");
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private MonetaryAmount createMoney(String value) {
+		MonetaryAmountFactory<?> factory = Monetary.getDefaultAmountFactory();
+		return factory.setCurrency(cu).setNumber(new BigDecimal(value)).create();
+	}
+
+	private TradeImporter.Builder importer() {
+		return TradeImporter.create()
+			.delimiter(';')
+			.header(true)
+			.sourceColumn(0)
+			.typeColumn(1)
+			.quantityColumn(2)
+			.amountColumn(3)
+			.currencyColumn(4)
+			.type("A", TradeType.BUY)
+			.type("V", TradeType.SELL)
+			.type("R", TradeType.RBT)
+			.type("OST", TradeType.MODIFICATION);
+	}
+
+	private Path write(String content) throws IOException {
+		Path path = folder.newFile().toPath();
+		Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+		return path;
+	}
+
+	@Test
+	public void testTypes() throws IOException {
+		Path path = write("id;type;quantity;amount;currency\r\n"
+			+ "1;A;10;100.50;EUR\r\n"
+			+ "2;A;5.5;-12;EUR\r\n"
+			+ "\r\n"
+			+ "3;OST;;-0.50;EUR\r\n"
+			+ "4;V;3;;EUR\r\n"
+			+ "5;R;;;EUR");
+		List<TradeWrapper> trades = new ArrayList<>();
+		Assert.assertEquals(5, importer().build().importFile(path, trades::add));
+		Assert.assertEquals(TradeType.BUY, trades.get(0).getTradeType());
+		Assert.assertEquals("1", trades.get(0).getSource());
+		Assert.assertEquals(new BigDecimal("10"), trades.get(0).getQuantity());
+		Assert.assertEquals(createMoney("100.50"), trades.get(0).getAmount());
+		Assert.assertEquals(new BigDecimal("5.5"), trades.get(1).getQuantity());
+		Assert.assertEquals(createMoney("-12"), trades.get(1).getAmount());
+		Assert.assertEquals(TradeType.MODIFICATION, trades.get(2).getTradeType());
+		Assert.assertEquals(createMoney("-0.50"), trades.get(2).getAmount());
+		Assert.assertEquals(TradeType.SELL, trades.get(3).getTradeType());
+		Assert.assertEquals(new BigDecimal("3"), trades.get(3).getQuantity());
+		Assert.assertEquals(TradeType.RBT, trades.get(4).getTradeType());
+		Assert.assertNull(trades.get(4).getQuantity());
+	}
+
+	@Test
+	public void testChunks() throws IOException {
+		Random random = new Random(1);
+		StringBuilder sb = new StringBuilder("id;type;quantity;amount;currency\n");
+		List<TradeWrapper> expectedTrades = new ArrayList<>();
+		for(int id = 1 ; id <= 5000 ; ++id) {
+			if(random.nextBoolean()) {
+				int quantity = 1 + random.nextInt(100);
+				String amount = BigDecimal.valueOf(1 + random.nextInt(1_000_000), 2).toPlainString();
+				sb.append("%s;A;%s;%s;EUR\n".formatted(id, quantity, amount));
+				expectedTrades.add(TradeWrapper.buy(new BigDecimal(quantity), createMoney(amount), Integer.valueOf(id)));
+			} else {
+				int quantity = 1 + random.nextInt(150);
+				sb.append("%s;V;%s;;EUR\n".formatted(id, quantity));
+				expectedTrades.add(TradeWrapper.sell(new BigDecimal(quantity), Integer.valueOf(id)));
+			}
+		}
+		Path path = write(sb.toString());
+		StockManager expected = new StockManager(Mode.FIFO);
+		expected.process(expectedTrades);
+
+		//small chunks : lines are cut
+		StockManager actual = new StockManager(Mode.FIFO);
+		TradeImporter importer = importer().chunkSize(100).sourceMapper(Integer::valueOf).build();
+		Assert.assertEquals(5000, importer.importFile(path, actual));
+
+		List<Position> e = expected.getClosedPositions();
+		List<Position> a = actual.getClosedPositions();
+		Assert.assertEquals(e.size(), a.size());
+		for(int i = 0 ; i < e.size() ; ++i) {
+			Assert.assertEquals(e.get(i).getBuy(), a.get(i).getBuy());
+			Assert.assertEquals(e.get(i).getSell(), a.get(i).getSell());
+			Assert.assertEquals(e.get(i).getQuantity(), a.get(i).getQuantity());
+			Assert.assertEquals(e.get(i).getAmount(), a.get(i).getAmount());
+		}
+		Assert.assertEquals(expected.getStock().getAmount(), actual.getStock().getAmount());
+	}
+
+	@Test
+	public void testErrors() throws IOException {
+		Path path = write("id;type;quantity;amount;currency\n1;A;10;100;EUR\n2;X;1;1;EUR\n");
+		try {
+			importer().build().importFile(path, t -> {});
+			Assert.fail();
+		} catch(ImportException e) {
+			Assert.assertEquals(48, e.getOffset());
+		}
+		path = write("id;type;quantity;amount;currency\n1;A;1O;100;EUR\n");
+		try {
+			importer().build().importFile(path, t -> {});
+			Assert.fail();
+		} catch(ImportException e) {
+			Assert.assertEquals(33, e.getOffset());
+		}
+		path = write("id;type;quantity;amount;currency\n1;A;10;100;EUR\n");
+		try {
+			importer().chunkSize(8).build().importFile(path, t -> {});
+			Assert.fail();
+		} catch(ImportException e) {
+			Assert.assertEquals(0, e.getOffset());
+		}
+	}
+}
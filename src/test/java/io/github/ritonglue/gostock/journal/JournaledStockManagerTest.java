@@ -0,0 +1,246 @@
+package io.github.ritonglue.gostock.journal;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.money.CurrencyUnit;
+import javax.money.Monetary;
+import javax.money.MonetaryAmount;
+import javax.money.MonetaryAmountFactory;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.github.ritonglue.gostock.BinaryCodec;
+import io.github.ritonglue.gostock.Mode;
+import io.github.ritonglue.gostock.Position;
+import io.github.ritonglue.gostock.SourceTest;
+import io.github.ritonglue.gostock.StockManager;
+import io.github.ritonglue.gostock.StockManager.TradeWrapper;
+
+public class JournaledStockManagerTest {
+	private final CurrencyUnit cu = Monetary.getCurrency("EUR");
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private MonetaryAmount createMoney(String value) {
+		MonetaryAmountFactory<?> factory = Monetary.getDefaultAmountFactory();
+		return factory.setCurrency(cu).setNumber(new BigDecimal(value)).create();
+	}
+
+	private List<TradeWrapper> history(int n) {
+		List<TradeWrapper> list = new ArrayList<>();
+		for(int id = 1 ; id <= n ; ++id) {
+			if(id % 3 == 0) {
+				list.add(TradeWrapper.sell(new BigDecimal(id % 7 + 1), new SourceTest(id)));
+			} else {
+				list.add(TradeWrapper.buy(new BigDecimal(id % 5 + 1), createMoney(id + ".37"), new SourceTest(id)));
+			}
+		}
+		return list;
+	}
+
+	private static void assertOpened(StockManager expected, StockManager actual) {
+		List<Position> e = expected.getOpenedPositions();
+		List<Position> a = actual.getOpenedPositions();
+		Assert.assertEquals(e.size(), a.size());
+		for(int i = 0 ; i < e.size() ; ++i) {
+			Assert.assertEquals(e.get(i).getBuy(), a.get(i).getBuy());
+			Assert.assertEquals(e.get(i).getQuantity(), a.get(i).getQuantity());
+			Assert.assertEquals(e.get(i).getAmount(), a.get(i).getAmount());
+		}
+		Assert.assertEquals(expected.getTradeCount(), actual.getTradeCount());
+	}
+
+	private List<String> files(Path directory) throws IOException {
+		try(Stream<Path> stream = Files.list(directory)) {
+			return stream.map(p -> p.getFileName().toString()).sorted().collect(Collectors.toList());
+		}
+	}
+
+	@Test
+	public void testReplayWithoutSnapshot() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		StockManager expected = new StockManager(Mode.FIFO);
+		expected.process(history(40));
+		try(JournaledStockManager manager = JournaledStockManager.create(directory, Mode.FIFO).sourceCodec(SourceTest.CODEC).open()) {
+			manager.process(history(40));
+			manager.sync();
+		}
+		try(JournaledStockManager manager = JournaledStockManager.create(directory, Mode.FIFO).sourceCodec(SourceTest.CODEC).open()) {
+			assertOpened(expected, manager.getManager());
+			//the journal continues
+			manager.add(TradeWrapper.sell(BigDecimal.ONE, new SourceTest(41)));
+			expected.add(TradeWrapper.sell(BigDecimal.ONE, new SourceTest(41)));
+		}
+		try(JournaledStockManager manager = JournaledStockManager.create(directory, Mode.FIFO).sourceCodec(SourceTest.CODEC).open()) {
+			assertOpened(expected, manager.getManager());
+		}
+	}
+
+	@Test
+	public void testSnapshotAndTail() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		StockManager expected = new StockManager(Mode.LIFO);
+		expected.process(history(50));
+		try(JournaledStockManager manager = JournaledStockManager.create(directory, Mode.LIFO).sourceCodec(SourceTest.CODEC).snapshotInterval(7).open()) {
+			manager.process(history(50));
+		}
+		//snapshot of trade 49 and the journal tail
+		Assert.assertEquals(List.of("journal-00000000000000000050.log", "snapshot-00000000000000000049.bin"), files(directory));
+		try(JournaledStockManager manager = JournaledStockManager.create(directory, Mode.LIFO).sourceCodec(SourceTest.CODEC).snapshotInterval(7).open()) {
+			assertOpened(expected, manager.getManager());
+		}
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testModeMismatch() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		try(JournaledStockManager manager = JournaledStockManager.create(directory, Mode.FIFO).sourceCodec(SourceTest.CODEC).open()) {
+			manager.process(history(5));
+			manager.snapshot();
+		}
+		JournaledStockManager.create(directory, Mode.PRMP).sourceCodec(SourceTest.CODEC).open();
+	}
+
+	@Test
+	public void testTornRecord() throws IOException {
+		Path path = folder.getRoot().toPath().resolve("journal.log");
+		List<TradeWrapper> trades = history(3);
+		try(TradeJournal journal = TradeJournal.open(path, new BinaryCodec(SourceTest.CODEC), 1 << 16, 10)) {
+			long sequence = 0;
+			for(TradeWrapper t : trades) {
+				journal.append(++sequence, t);
+			}
+			journal.sync();
+			Assert.assertEquals(3, journal.getSyncedSequence());
+		}
+		//corrupt the last byte of the last record
+		List<Long> ends = new ArrayList<>();
+		try(RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+			long position = BinaryCodec.HEADER_SIZE;
+			file.seek(position);
+			for(int length ; (length = file.readInt()) > 0 ; ) {
+				position += 4 + 8 + length + 4;
+				ends.add(position);
+				file.seek(position);
+			}
+			file.seek(ends.get(2) - 5);
+			file.write(file.read() ^ 0xFF);
+		}
+		try(TradeJournal journal = TradeJournal.open(path, new BinaryCodec(SourceTest.CODEC), 1 << 16, 10)) {
+			Assert.assertEquals(1, journal.getFirstSequence());
+			Assert.assertEquals(2, journal.getLastSequence());
+			List<TradeWrapper> list = new ArrayList<>();
+			journal.replay(0, list::add);
+			Assert.assertEquals(2, list.size());
+			Assert.assertEquals(trades.get(1).getSource(), list.get(1).getSource());
+			Assert.assertEquals(trades.get(1).getAmount(), list.get(1).getAmount());
+			//the torn record is overwritten
+			journal.append(3, trades.get(2));
+		}
+		try(TradeJournal journal = TradeJournal.open(path, new BinaryCodec(SourceTest.CODEC), 1 << 16, 10)) {
+			Assert.assertEquals(3, journal.getLastSequence());
+		}
+	}
+
+	@Test
+	public void testRegions() throws IOException {
+		Path path = folder.getRoot().toPath().resolve("journal.log");
+		List<TradeWrapper> trades = history(200);
+		try(TradeJournal journal = TradeJournal.open(path, new BinaryCodec(SourceTest.CODEC), 1024, 10)) {
+			long sequence = 0;
+			for(TradeWrapper t : trades) {
+				journal.append(++sequence, t);
+			}
+			List<TradeWrapper> list = new ArrayList<>();
+			journal.replay(150, list::add);
+			Assert.assertEquals(50, list.size());
+			Assert.assertEquals(trades.get(150).getSource(), list.get(0).getSource());
+		}
+		Assert.assertTrue(Files.size(path) > 1024);
+		try(TradeJournal journal = TradeJournal.open(path, new BinaryCodec(SourceTest.CODEC), 1024, 10)) {
+			Assert.assertEquals(200, journal.getLastSequence());
+		}
+	}
+
+	@Test
+	public void testRecoveryOfManyRecords() throws IOException {
+		//more records than the default limit of mappings of a process (65530)
+		int n = 70_000;
+		Path path = folder.getRoot().toPath().resolve("journal.log");
+		try(TradeJournal journal = TradeJournal.open(path, new BinaryCodec(SourceTest.CODEC), 1 << 16, 1000)) {
+			long sequence = 0;
+			for(TradeWrapper t : history(n)) {
+				journal.append(++sequence, t);
+			}
+		}
+		try(TradeJournal journal = TradeJournal.open(path, new BinaryCodec(SourceTest.CODEC), 1 << 16, 1000)) {
+			Assert.assertEquals(n, journal.getLastSequence());
+			int[] count = {0};
+			journal.replay(0, t -> ++count[0]);
+			Assert.assertEquals(n, count[0]);
+		}
+	}
+
+	@Test
+	public void testSmallGapAtEndOfRegion() throws IOException {
+		//gaps of 4 to 11 bytes before the end of region markers
+		for(int regionSize = 136 ; regionSize <= 306 ; ++regionSize) {
+			Path path = folder.getRoot().toPath().resolve("journal-" + regionSize + ".log");
+			try(TradeJournal journal = TradeJournal.open(path, new BinaryCodec(SourceTest.CODEC), regionSize, 1000)) {
+				long sequence = 0;
+				for(TradeWrapper t : history(6)) {
+					journal.append(++sequence, t);
+				}
+			}
+			try(TradeJournal journal = TradeJournal.open(path, new BinaryCodec(SourceTest.CODEC), regionSize, 1000)) {
+				Assert.assertEquals(6, journal.getLastSequence());
+				int[] count = {0};
+				journal.replay(0, t -> ++count[0]);
+				Assert.assertEquals(6, count[0]);
+			}
+		}
+	}
+
+	@Test
+	public void testOlderVersion() throws IOException {
+		Path path = folder.getRoot().toPath().resolve("journal.log");
+		List<TradeWrapper> trades = history(10);
+		try(TradeJournal journal = TradeJournal.open(path, new BinaryCodec(SourceTest.CODEC), 4096, 1000)) {
+			for(int i = 0 ; i < 5 ; ++i) {
+				journal.append(i + 1, trades.get(i));
+			}
+		}
+		//the records of the first region have the same layout in version 1
+		try(RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+			file.seek(Integer.BYTES);
+			file.writeShort(1);
+		}
+		try(TradeJournal journal = TradeJournal.open(path, new BinaryCodec(SourceTest.CODEC), 4096, 1000)) {
+			for(int i = 5 ; i < 10 ; ++i) {
+				journal.append(i + 1, trades.get(i));
+			}
+		}
+		Assert.assertEquals(2 * 4096, Files.size(path));
+		try(TradeJournal journal = TradeJournal.open(path, new BinaryCodec(SourceTest.CODEC), 4096, 1000)) {
+			List<TradeWrapper> list = new ArrayList<>();
+			journal.replay(0, list::add);
+			Assert.assertEquals(10, list.size());
+			for(int i = 0 ; i < 10 ; ++i) {
+				Assert.assertEquals(trades.get(i).getSource(), list.get(i).getSource());
+				Assert.assertEquals(trades.get(i).getQuantity(), list.get(i).getQuantity());
+			}
+		}
+	}
+}
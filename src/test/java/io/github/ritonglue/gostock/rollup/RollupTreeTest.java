@@ -0,0 +1,125 @@
+package io.github.ritonglue.gostock.rollup;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.money.CurrencyUnit;
+import javax.money.Monetary;
+import javax.money.MonetaryAmount;
+import javax.money.MonetaryAmountFactory;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.github.ritonglue.gostock.Mode;
+import io.github.ritonglue.gostock.Position;
+import io.github.ritonglue.gostock.SourceTest;
+import io.github.ritonglue.gostock.StockManager;
+import io.github.ritonglue.gostock.StockManager.TradeWrapper;
+
+public class RollupTreeTest {
+	private final CurrencyUnit cu = Monetary.getCurrency("EUR");
+
+	private MonetaryAmount createMoney(String value) {
+		MonetaryAmountFactory<?> factory = Monetary.getDefaultAmountFactory();
+		return factory.setCurrency(cu).setNumber(new BigDecimal(value)).create();
+	}
+
+	private static MonetaryAmount realized(StockManager manager) {
+		MonetaryAmount realized = null;
+		for(Position position : manager.getClosedPositions()) {
+			realized = realized == null ? position.getAmount() : realized.add(position.getAmount());
+		}
+		return realized;
+	}
+
+	@Test
+	public void testRollup() {
+		int id = 1;
+		RollupTree tree = new RollupTree("portfolio");
+		RollupNode account = tree.addNode(tree.getRoot(), "account");
+		StockManager a = new StockManager(Mode.FIFO);
+		a.add(TradeWrapper.buy(new BigDecimal(3), createMoney("100.00"), new SourceTest(id++)));
+		StockManager b = new StockManager(Mode.PRMP);
+		RollupNode nodeA = tree.attach(account, "a", a);
+		RollupNode nodeB = tree.attach(account, "b", b);
+		Assert.assertEquals(new BigDecimal(3), account.getQuantity());
+		Assert.assertEquals(createMoney("100.00"), tree.getRoot().getAmount());
+		Assert.assertNull(nodeB.getAmount());
+
+		a.add(TradeWrapper.sell(BigDecimal.ONE, new SourceTest(id++)));
+		b.add(TradeWrapper.buy(new BigDecimal(2), createMoney("10.00"), new SourceTest(id++)));
+		a.add(TradeWrapper.modification(createMoney("-6.67")));
+		Assert.assertEquals(new BigDecimal(2), nodeA.getQuantity());
+		Assert.assertEquals(createMoney("60.00"), nodeA.getAmount());
+		Assert.assertEquals(createMoney("33.33"), nodeA.getRealized());
+		Assert.assertEquals(new BigDecimal(4), tree.getRoot().getQuantity());
+		Assert.assertEquals(createMoney("70.00"), tree.getRoot().getAmount());
+		Assert.assertEquals(createMoney("33.33"), account.getRealized());
+
+		//the PRMP stock is modified in place
+		b.add(TradeWrapper.modification(createMoney("5.00"), new SourceTest(id++)));
+		b.add(TradeWrapper.modification(createMoney("-3.00"), new SourceTest(id++)));
+		Assert.assertEquals(createMoney("12.00"), nodeB.getAmount());
+		Assert.assertEquals(createMoney("72.00"), tree.getRoot().getAmount());
+
+		tree.detach(nodeA);
+		a.add(TradeWrapper.reimbursement(new SourceTest(id++)));
+		Assert.assertEquals(new BigDecimal(2), tree.getRoot().getQuantity());
+		Assert.assertEquals(createMoney("12.00"), tree.getRoot().getAmount());
+		Assert.assertEquals(1, account.getChildren().size());
+	}
+
+	@Test
+	public void testConcurrent() throws Exception {
+		RollupTree tree = new RollupTree("portfolio", 4);
+		List<StockManager> managers = new ArrayList<>();
+		for(int i = 0 ; i < 16 ; ++i) {
+			RollupNode account = tree.addNode(tree.getRoot(), "account" + i % 4);
+			StockManager manager = new StockManager(Mode.values()[i % 3]);
+			tree.attach(account, "instrument" + i, manager);
+			managers.add(manager);
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for(int i = 0 ; i < managers.size() ; ++i) {
+				StockManager manager = managers.get(i);
+				long seed = i;
+				futures.add(executor.submit(() -> {
+					Random random = new Random(seed);
+					for(int k = 0 ; k < 2000 ; ++k) {
+						if(random.nextBoolean()) {
+							manager.add(TradeWrapper.buy(new BigDecimal(1 + random.nextInt(10)), createMoney(Integer.toString(1 + random.nextInt(1000))), null));
+						} else {
+							manager.add(TradeWrapper.sell(new BigDecimal(1 + random.nextInt(10)), null));
+						}
+					}
+				}));
+			}
+			for(Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+		BigDecimal quantity = BigDecimal.ZERO;
+		MonetaryAmount amount = createMoney("0");
+		MonetaryAmount realized = createMoney("0");
+		for(StockManager manager : managers) {
+			TradeWrapper stock = manager.getStock();
+			quantity = quantity.add(stock.getQuantity());
+			if(stock.getAmount() != null) amount = amount.add(stock.getAmount());
+			MonetaryAmount r = realized(manager);
+			if(r != null) realized = realized.add(r);
+		}
+		Assert.assertEquals(0, quantity.compareTo(tree.getRoot().getQuantity()));
+		Assert.assertTrue(amount.isEqualTo(tree.getRoot().getAmount()));
+		Assert.assertTrue(realized.isEqualTo(tree.getRoot().getRealized()));
+	}
+}
@@ -0,0 +1,104 @@
+package io.github.ritonglue.gostock.scenario;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.money.CurrencyUnit;
+import javax.money.Monetary;
+import javax.money.MonetaryAmount;
+import javax.money.MonetaryAmountFactory;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.github.ritonglue.gostock.Mode;
+import io.github.ritonglue.gostock.ModificationMode;
+import io.github.ritonglue.gostock.SourceTest;
+import io.github.ritonglue.gostock.StockManager;
+import io.github.ritonglue.gostock.StockManager.TradeWrapper;
+import io.github.ritonglue.gostock.exception.StockAmountReductionException;
+
+public class ReplayDiffTest {
+	private final CurrencyUnit cu = Monetary.getCurrency("EUR");
+
+	private MonetaryAmount createMoney(String value) {
+		MonetaryAmountFactory<?> factory = Monetary.getDefaultAmountFactory();
+		return factory.setCurrency(cu).setNumber(new BigDecimal(value)).create();
+	}
+
+	private List<TradeWrapper> trades(String sellQuantity) {
+		List<TradeWrapper> list = new ArrayList<>();
+		list.add(TradeWrapper.buy(new BigDecimal("2"), createMoney("10"), new SourceTest(1)));
+		list.add(TradeWrapper.buy(new BigDecimal("2"), createMoney("30"), new SourceTest(2)));
+		list.add(TradeWrapper.sell(new BigDecimal(sellQuantity), new SourceTest(3)));
+		list.add(TradeWrapper.modification(createMoney("4"), new SourceTest(4)));
+		list.add(TradeWrapper.sell(new BigDecimal("2"), new SourceTest(5)));
+		return list;
+	}
+
+	@Test
+	public void testSameReplays() {
+		Scenario scenario = Scenario.create("a").build();
+		Assert.assertNull(ReplayDiff.compare(new StockManager(), trades("1"), scenario, scenario));
+		Assert.assertNull(ReplayDiff.compare(new StockManager(), trades("1").iterator(), new StockManager(), trades("1").iterator()));
+	}
+
+	@Test
+	public void testConfigurations() {
+		List<TradeWrapper> trades = trades("1");
+		Divergence d = ReplayDiff.compare(new StockManager(Mode.FIFO), trades,
+			Scenario.create("quantity").modificationMode(ModificationMode.QUANTITY).build(),
+			Scenario.create("money").modificationMode(ModificationMode.MONEY).build());
+		Assert.assertNotNull(d);
+		Assert.assertEquals(3, d.getIndex());
+		Assert.assertEquals(Divergence.Component.LOTS, d.getComponent());
+		Assert.assertEquals(new SourceTest(4), d.getLeftTrade().getSource());
+		//the given trades are not modified
+		Assert.assertEquals(BigDecimal.ONE, trades.get(2).getQuantity());
+	}
+
+	@Test
+	public void testStreams() {
+		List<TradeWrapper> left = trades("1");
+		List<TradeWrapper> right = trades("2");
+		Divergence d = ReplayDiff.compare(new StockManager(), left.iterator(), new StockManager(), right.iterator());
+		Assert.assertEquals(2, d.getIndex());
+		Assert.assertEquals(Divergence.Component.LOTS, d.getComponent());
+		Assert.assertSame(right.get(2), d.getRightTrade());
+
+		right = trades("1");
+		right.add(TradeWrapper.sell(BigDecimal.ONE, new SourceTest(6)));
+		d = ReplayDiff.compare(new StockManager(), trades("1").iterator(), new StockManager(), right.iterator());
+		Assert.assertEquals(5, d.getIndex());
+		Assert.assertEquals(Divergence.Component.LENGTH, d.getComponent());
+		Assert.assertNull(d.getLeftTrade());
+	}
+
+	@Test
+	public void testError() {
+		List<TradeWrapper> left = trades("1");
+		List<TradeWrapper> right = trades("1");
+		left.set(3, TradeWrapper.modification(createMoney("-100"), new SourceTest(4)));
+		Divergence d = ReplayDiff.compare(new StockManager(), left.iterator(), new StockManager(), right.iterator());
+		Assert.assertEquals(3, d.getIndex());
+		Assert.assertEquals(Divergence.Component.ERROR, d.getComponent());
+		Assert.assertTrue(d.getLeftError() instanceof StockAmountReductionException);
+		Assert.assertNull(d.getRightError());
+	}
+
+	@Test
+	public void testShortLots() {
+		List<TradeWrapper> left = List.of(TradeWrapper.sell(new BigDecimal("3"), new SourceTest(1)),
+			TradeWrapper.buy(new BigDecimal("1"), createMoney("10"), new SourceTest(2)));
+		List<TradeWrapper> right = List.of(TradeWrapper.sell(new BigDecimal("2"), new SourceTest(1)),
+			TradeWrapper.buy(new BigDecimal("1"), createMoney("10"), new SourceTest(2)));
+		StockManager l = new StockManager();
+		l.setShortSelling(true);
+		StockManager r = new StockManager();
+		r.setShortSelling(true);
+		Divergence d = ReplayDiff.compare(l, left.iterator(), r, right.iterator());
+		Assert.assertEquals(0, d.getIndex());
+		Assert.assertEquals(Divergence.Component.SHORT_LOTS, d.getComponent());
+	}
+}
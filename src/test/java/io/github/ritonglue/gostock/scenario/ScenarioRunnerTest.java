@@ -0,0 +1,170 @@
+package io.github.ritonglue.gostock.scenario;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.money.CurrencyUnit;
+import javax.money.Monetary;
+import javax.money.MonetaryAmount;
+import javax.money.MonetaryAmountFactory;
+import javax.money.MonetaryRounding;
+import javax.money.RoundingQueryBuilder;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.github.ritonglue.gostock.Mode;
+import io.github.ritonglue.gostock.ModificationMode;
+import io.github.ritonglue.gostock.Position;
+import io.github.ritonglue.gostock.SourceTest;
+import io.github.ritonglue.gostock.StockManager;
+import io.github.ritonglue.gostock.StockManager.TradeWrapper;
+import io.github.ritonglue.gostock.exception.StockAmountReductionException;
+
+public class ScenarioRunnerTest {
+	private final CurrencyUnit cu = Monetary.getCurrency("EUR");
+
+	private MonetaryAmount createMoney(String value) {
+		MonetaryAmountFactory<?> factory = Monetary.getDefaultAmountFactory();
+		return factory.setCurrency(cu).setNumber(new BigDecimal(value)).create();
+	}
+
+	@Test
+	public void testCopy() {
+		int id = 1;
+		SourceTest a = new SourceTest(id++);
+		SourceTest b = new SourceTest(id++);
+		StockManager manager = new StockManager(Mode.FIFO);
+		manager.add(TradeWrapper.buy(new BigDecimal(3), createMoney("100.00"), a));
+		StockManager copy = manager.copy();
+		copy.add(TradeWrapper.sell(BigDecimal.ONE, b));
+
+		Assert.assertTrue(manager.getClosedPositions().isEmpty());
+		Assert.assertEquals(new BigDecimal(3), manager.getStock().getQuantity());
+		Assert.assertEquals(createMoney("100.00"), manager.getStock().getAmount());
+
+		Assert.assertEquals(1, copy.getClosedPositions().size());
+		Assert.assertEquals(createMoney("33.33"), copy.getClosedPositions().get(0).getAmount());
+		Assert.assertEquals(new BigDecimal(2), copy.getStock().getQuantity());
+		Assert.assertEquals(1, copy.getClosedPositionsByBuy(a).size());
+		Assert.assertTrue(manager.getClosedPositionsByBuy(a).isEmpty());
+	}
+
+	@Test
+	public void testLIFOCopy() {
+		int id = 1;
+		SourceTest a = new SourceTest(id++);
+		SourceTest b = new SourceTest(id++);
+		StockManager manager = new StockManager(Mode.LIFO);
+		manager.add(TradeWrapper.buy(new BigDecimal(3), createMoney("100.00"), a));
+		manager.add(TradeWrapper.buy(new BigDecimal(2), createMoney("10.00"), b));
+		List<Position> expected = manager.getOpenedPositions();
+		List<Position> actual = manager.copy().getOpenedPositions();
+		Assert.assertEquals(expected.size(), actual.size());
+		Assert.assertEquals(expected.get(0).getBuy(), actual.get(0).getBuy());
+		Assert.assertEquals(expected.get(1).getBuy(), actual.get(1).getBuy());
+	}
+
+	@Test
+	public void testForcedAmount() {
+		int id = 1;
+		TradeWrapper buy = TradeWrapper.buy(new BigDecimal(3), createMoney("100.00"), new SourceTest(id++));
+		TradeWrapper sell = TradeWrapper.sell(BigDecimal.ONE, new SourceTest(id++));
+		StockManager base = new StockManager(Mode.FIFO);
+		base.add(buy);
+
+		Scenario standard = Scenario.create("standard").build();
+		Scenario forced = Scenario.create("forced").buySellMoney(buy, sell, createMoney("33.34")).build();
+		Map<Scenario, ScenarioResult> results = new ScenarioRunner().run(base, List.of(sell), List.of(standard, forced));
+		Assert.assertEquals(2, results.size());
+		Assert.assertEquals(createMoney("33.33"), results.get(standard).getClosedAmount());
+		Assert.assertEquals(createMoney("33.34"), results.get(forced).getClosedAmount());
+		Assert.assertEquals(1, results.get(forced).getClosedCount());
+		//neither base nor trades are modified
+		Assert.assertEquals(new BigDecimal(3), base.getStock().getQuantity());
+		Assert.assertEquals(BigDecimal.ONE, sell.getQuantity());
+	}
+
+	@Test
+	public void testModes() {
+		int id = 1;
+		List<TradeWrapper> trades = new ArrayList<>();
+		trades.add(TradeWrapper.buy(new BigDecimal(100), createMoney("5000"), new SourceTest(id++)));
+		trades.add(TradeWrapper.buy(new BigDecimal(125), createMoney("6875"), new SourceTest(id++)));
+		trades.add(TradeWrapper.buy(new BigDecimal(75), createMoney("4425"), new SourceTest(id++)));
+		trades.add(TradeWrapper.sell(new BigDecimal(210), new SourceTest(id++)));
+		trades.add(TradeWrapper.modification(createMoney("-100.00")));
+
+		Scenario fifo = Scenario.create("fifo").mode(Mode.FIFO).build();
+		Scenario lifo = Scenario.create("lifo").mode(Mode.LIFO).build();
+		Scenario lifoQuantity = Scenario.create("lifo quantity").mode(Mode.LIFO).modificationMode(ModificationMode.QUANTITY).build();
+		Scenario prmp = Scenario.create("prmp").mode(Mode.PRMP).build();
+		Map<Scenario, ScenarioResult> results = new ScenarioRunner().run(trades, 3, List.of(fifo, lifo, lifoQuantity, prmp));
+		Assert.assertEquals(4, results.size());
+
+		for(Scenario scenario : results.keySet()) {
+			StockManager manager = new StockManager(scenario.getMode(), null,
+				scenario.getModificationMode() == null ? ModificationMode.MIXED : scenario.getModificationMode());
+			for(TradeWrapper t : trades) {
+				manager.add(t.copy());
+			}
+			ScenarioResult result = results.get(scenario);
+			Assert.assertTrue(result.isSuccess());
+			Assert.assertEquals(manager.getStock().getAmount(), result.getStock().getAmount());
+			Assert.assertEquals(manager.getClosedPositions().size(), result.getClosedCount());
+		}
+		Assert.assertEquals(createMoney("11050"), results.get(fifo).getClosedAmount());
+		Assert.assertEquals(createMoney("11800"), results.get(lifo).getClosedAmount());
+	}
+
+	@Test
+	public void testPrefixConfiguration() {
+		int id = 1;
+		List<TradeWrapper> trades = new ArrayList<>();
+		trades.add(TradeWrapper.buy(new BigDecimal(3), createMoney("10"), new SourceTest(id++)));
+		trades.add(TradeWrapper.buy(new BigDecimal(7), createMoney("100"), new SourceTest(id++)));
+		trades.add(TradeWrapper.modification(createMoney("-10.00")));
+		trades.add(TradeWrapper.sell(new BigDecimal(5), new SourceTest(id++)));
+		MonetaryRounding rounding = Monetary.getRounding(RoundingQueryBuilder.of().setScale(0).set(RoundingMode.DOWN).build());
+
+		Scenario quantity = Scenario.create("quantity").mode(Mode.FIFO).modificationMode(ModificationMode.QUANTITY).build();
+		Scenario money = Scenario.create("money").mode(Mode.FIFO).modificationMode(ModificationMode.MONEY).build();
+		Scenario rounded = Scenario.create("rounded").mode(Mode.FIFO).rounding(rounding).build();
+		//the modification is before the branch point
+		Map<Scenario, ScenarioResult> results = new ScenarioRunner().run(trades, 3, List.of(quantity, money, rounded));
+		for(Scenario scenario : results.keySet()) {
+			StockManager manager = StockManager.create(scenario.getMode())
+				.modificationMode(scenario.getModificationMode() == null ? ModificationMode.MIXED : scenario.getModificationMode())
+				.rouding(scenario.getRounding())
+				.build();
+			for(TradeWrapper t : trades) {
+				manager.add(t.copy());
+			}
+			ScenarioResult result = results.get(scenario);
+			Assert.assertTrue(result.isSuccess());
+			Assert.assertEquals(manager.getStock().getAmount(), result.getStock().getAmount());
+			Assert.assertEquals(manager.getClosedPositions().get(0).getAmount(), result.getManager().getClosedPositions().get(0).getAmount());
+		}
+		Assert.assertNotEquals(results.get(quantity).getStock().getAmount(), results.get(money).getStock().getAmount());
+	}
+
+	@Test
+	public void testError() {
+		StockManager base = new StockManager(Mode.FIFO);
+		base.add(TradeWrapper.buy(new BigDecimal(3), createMoney("100.00"), null));
+		Scenario scenario = Scenario.create("error").build();
+		TradeWrapper modification = TradeWrapper.modification(createMoney("-200.00"));
+		ScenarioResult result = new ScenarioRunner().run(base, List.of(modification), List.of(scenario)).get(scenario);
+		Assert.assertFalse(result.isSuccess());
+		Assert.assertTrue(result.getError() instanceof StockAmountReductionException);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBadMode() {
+		StockManager base = new StockManager(Mode.FIFO);
+		new ScenarioRunner().run(base, List.of(), List.of(Scenario.create("lifo").mode(Mode.LIFO).build()));
+	}
+}
@@ -0,0 +1,217 @@
+package io.github.ritonglue.gostock.store;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.money.CurrencyUnit;
+import javax.money.Monetary;
+import javax.money.MonetaryAmount;
+import javax.money.MonetaryAmountFactory;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.github.ritonglue.gostock.BinaryCodec;
+import io.github.ritonglue.gostock.Mode;
+import io.github.ritonglue.gostock.ModificationMode;
+import io.github.ritonglue.gostock.Position;
+import io.github.ritonglue.gostock.SourceTest;
+import io.github.ritonglue.gostock.StockManager;
+import io.github.ritonglue.gostock.StockManager.TradeWrapper;
+
+public class DiskClosedPositionStoreTest {
+	private final CurrencyUnit cu = Monetary.getCurrency("EUR");
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private MonetaryAmount createMoney(String value) {
+		MonetaryAmountFactory<?> factory = Monetary.getDefaultAmountFactory();
+		return factory.setCurrency(cu).setNumber(new BigDecimal(value)).create();
+	}
+
+	private List<TradeWrapper> randomTrades(long seed, int n) {
+		Random random = new Random(seed);
+		List<TradeWrapper> list = new ArrayList<>();
+		for(int id = 1 ; id <= n ; ++id) {
+			SourceTest source = new SourceTest(id);
+			if(random.nextBoolean()) {
+				BigDecimal quantity = new BigDecimal(1 + random.nextInt(100));
+				list.add(TradeWrapper.buy(quantity, createMoney(BigDecimal.valueOf(1 + random.nextInt(1_000_000), 2).toPlainString()), source));
+			} else {
+				list.add(TradeWrapper.sell(new BigDecimal(1 + random.nextInt(150)), source));
+			}
+		}
+		return list;
+	}
+
+	private static void assertPositions(List<Position> expected, List<Position> actual) {
+		Assert.assertEquals(expected.size(), actual.size());
+		for(int i = 0, n = expected.size() ; i < n ; ++i) {
+			Position e = expected.get(i);
+			Position a = actual.get(i);
+			Assert.assertEquals(e.getBuy(), a.getBuy());
+			Assert.assertEquals(e.getSell(), a.getSell());
+			Assert.assertEquals(e.getQuantity(), a.getQuantity());
+			Assert.assertEquals(e.getAmount(), a.getAmount());
+			Assert.assertEquals(e.getCloseCause(), a.getCloseCause());
+		}
+	}
+
+	@Test
+	public void testSameAsMemory() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		int n = 1000;
+		StockManager expected = new StockManager(Mode.FIFO);
+		expected.process(randomTrades(1, n));
+		//few buckets and small segments
+		try(DiskClosedPositionStore store = DiskClosedPositionStore.open(directory, new BinaryCodec(SourceTest.CODEC), 4096, 16)) {
+			StockManager actual = StockManager.create(Mode.FIFO).modificationMode(ModificationMode.MIXED)
+				.closedPositionStore(store).build();
+			actual.process(randomTrades(1, n));
+			assertPositions(expected.getClosedPositions(), actual.getClosedPositions());
+			for(int id = 1 ; id <= n ; ++id) {
+				SourceTest source = new SourceTest(id);
+				assertPositions(expected.getClosedPositionsByBuy(source), actual.getClosedPositionsByBuy(source));
+				assertPositions(expected.getClosedPositionsBySell(source), actual.getClosedPositionsBySell(source));
+			}
+		}
+		Assert.assertTrue(Files.exists(directory.resolve("positions-1.seg")));
+
+		//reopen
+		try(DiskClosedPositionStore store = DiskClosedPositionStore.open(directory, new BinaryCodec(SourceTest.CODEC), 4096, 1024)) {
+			Assert.assertEquals(expected.getClosedPositions().size(), store.size());
+			assertPositions(expected.getClosedPositions(), store.getPositions());
+			for(int id = 1 ; id <= n ; ++id) {
+				SourceTest source = new SourceTest(id);
+				assertPositions(expected.getClosedPositionsByBuy(source), store.getByBuy(source));
+				assertPositions(expected.getClosedPositionsBySell(source), store.getBySell(source));
+			}
+		}
+	}
+
+	@Test
+	public void testCopy() throws IOException {
+		try(DiskClosedPositionStore store = DiskClosedPositionStore.open(folder.getRoot().toPath(), new BinaryCodec(SourceTest.CODEC), 4096, 16)) {
+			StockManager manager = StockManager.create(Mode.FIFO).modificationMode(ModificationMode.MIXED).closedPositionStore(store).build();
+			manager.process(randomTrades(3, 300));
+			long size = store.size();
+			StockManager copy = manager.copy();
+			assertPositions(manager.getClosedPositions(), copy.getClosedPositions());
+			SourceTest source = (SourceTest) manager.getClosedPositions().get(0).getSell();
+			assertPositions(manager.getClosedPositionsBySell(source), copy.getClosedPositionsBySell(source));
+			//the copy is independent of the disk store
+			copy.process(randomTrades(4, 100));
+			Assert.assertEquals(size, store.size());
+		}
+	}
+
+	@Test
+	public void testCrashRecovery() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		StockManager expected = new StockManager(Mode.FIFO);
+		expected.process(randomTrades(6, 400));
+		List<Position> positions = expected.getClosedPositions();
+		try(DiskClosedPositionStore store = DiskClosedPositionStore.open(directory, new BinaryCodec(SourceTest.CODEC), 4096, 16)) {
+			for(Position p : positions) {
+				store.add(p);
+			}
+		}
+		//the heads are written, the last entry is partial : entries are 32 bytes
+		Path index = directory.resolve("positions.idx");
+		try(FileChannel channel = FileChannel.open(index, StandardOpenOption.WRITE)) {
+			channel.truncate(channel.size() - 32 - 5);
+		}
+		List<Position> kept = positions.subList(0, positions.size() - 2);
+		try(DiskClosedPositionStore store = DiskClosedPositionStore.open(directory, new BinaryCodec(SourceTest.CODEC), 4096, 16)) {
+			Assert.assertEquals(kept.size(), store.size());
+			for(int id = 1 ; id <= 400 ; ++id) {
+				SourceTest source = new SourceTest(id);
+				List<Position> bySell = new ArrayList<>();
+				for(Position p : kept) {
+					if(source.equals(p.getSell())) bySell.add(p);
+				}
+				assertPositions(bySell, store.getBySell(source));
+			}
+			store.add(positions.get(positions.size() - 2));
+			Object sell = positions.get(positions.size() - 2).getSell();
+			Assert.assertFalse(store.getBySell(sell).isEmpty());
+		}
+	}
+
+	@Test
+	public void testClear() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		try(DiskClosedPositionStore store = DiskClosedPositionStore.open(directory, new BinaryCodec(SourceTest.CODEC), 4096, 16)) {
+			StockManager manager = StockManager.create(Mode.FIFO).modificationMode(ModificationMode.MIXED)
+				.closedPositionStore(store).build();
+			manager.process(randomTrades(2, 500));
+			Assert.assertTrue(store.size() > 0);
+			manager.closePeriod(null);
+			Assert.assertEquals(0, store.size());
+			Assert.assertTrue(manager.getClosedPositionsBySell(new SourceTest(2)).isEmpty());
+			Assert.assertFalse(Files.exists(directory.resolve("positions-1.seg")));
+			manager.process(randomTrades(3, 200));
+			StockManager expected = new StockManager(Mode.FIFO);
+			expected.process(randomTrades(2, 500));
+			expected.closePeriod(null);
+			expected.process(randomTrades(3, 200));
+			assertPositions(expected.getClosedPositions(), manager.getClosedPositions());
+		}
+	}
+
+	@Test
+	public void testTruncate() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		try(DiskClosedPositionStore store = DiskClosedPositionStore.open(directory, new BinaryCodec(SourceTest.CODEC), 4096, 16)) {
+			StockManager manager = StockManager.create(Mode.FIFO).modificationMode(ModificationMode.MIXED)
+				.closedPositionStore(store).build();
+			manager.process(randomTrades(4, 300));
+			manager.begin();
+			manager.process(randomTrades(5, 300));
+			manager.rollback();
+			StockManager expected = new StockManager(Mode.FIFO);
+			expected.process(randomTrades(4, 300));
+			assertPositions(expected.getClosedPositions(), manager.getClosedPositions());
+			for(int id = 1 ; id <= 300 ; ++id) {
+				assertPositions(expected.getClosedPositionsBySell(new SourceTest(id)), manager.getClosedPositionsBySell(new SourceTest(id)));
+				assertPositions(expected.getClosedPositionsByBuy(new SourceTest(id)), manager.getClosedPositionsByBuy(new SourceTest(id)));
+			}
+		}
+	}
+
+	@Test
+	public void testOlderVersion() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		StockManager expected = StockManager.create(Mode.FIFO).modificationMode(ModificationMode.MIXED).build();
+		try(DiskClosedPositionStore store = DiskClosedPositionStore.open(directory, new BinaryCodec(SourceTest.CODEC), 1 << 20, 16)) {
+			StockManager manager = StockManager.create(Mode.FIFO).modificationMode(ModificationMode.MIXED)
+				.closedPositionStore(store).build();
+			manager.process(randomTrades(6, 200));
+			expected.process(randomTrades(6, 200));
+		}
+		//the positions have the same layout in version 1
+		try(FileChannel segment = FileChannel.open(directory.resolve("positions-0.seg"), StandardOpenOption.WRITE)) {
+			segment.write(ByteBuffer.wrap(new byte[] {0, 1}), Integer.BYTES);
+		}
+		try(DiskClosedPositionStore store = DiskClosedPositionStore.open(directory, new BinaryCodec(SourceTest.CODEC), 1 << 20, 16)) {
+			for(Position p : expected.getClosedPositions()) {
+				store.add(p);
+			}
+			Assert.assertTrue(Files.exists(directory.resolve("positions-1.seg")));
+			List<Position> positions = new ArrayList<>(expected.getClosedPositions());
+			positions.addAll(expected.getClosedPositions());
+			assertPositions(positions, store.getPositions());
+		}
+	}
+}
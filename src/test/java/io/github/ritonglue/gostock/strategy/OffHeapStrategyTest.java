@@ -0,0 +1,217 @@
+package io.github.ritonglue.gostock.strategy;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import javax.money.CurrencyUnit;
+import javax.money.Monetary;
+import javax.money.MonetaryAmount;
+import javax.money.MonetaryAmountFactory;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.github.ritonglue.gostock.Mode;
+import io.github.ritonglue.gostock.ModificationMode;
+import io.github.ritonglue.gostock.Position;
+import io.github.ritonglue.gostock.SourceTest;
+import io.github.ritonglue.gostock.StockManager;
+import io.github.ritonglue.gostock.StockManager.TradeWrapper;
+
+public class OffHeapStrategyTest {
+	private static final OffHeapStrategy.SourceMapping MAPPING = new OffHeapStrategy.SourceMapping() {
+		@Override
+		public long toId(Object source) {
+			return ((SourceTest) source).getId();
+		}
+
+		@Override
+		public Object toSource(long id) {
+			return new SourceTest((int) id);
+		}
+	};
+
+	private final CurrencyUnit cu = Monetary.getCurrency("EUR");
+
+	private MonetaryAmount createMoney(String value) {
+		MonetaryAmountFactory<?> factory = Monetary.getDefaultAmountFactory();
+		return factory.setCurrency(cu).setNumber(new BigDecimal(value)).create();
+	}
+
+	private List<TradeWrapper> randomTrades(long seed, int n) {
+		Random random = new Random(seed);
+		List<TradeWrapper> list = new ArrayList<>();
+		for(int id = 1 ; id <= n ; ++id) {
+			SourceTest source = new SourceTest(id);
+			int r = random.nextInt(100);
+			if(r < 50) {
+				BigDecimal quantity = new BigDecimal(1 + random.nextInt(100));
+				list.add(TradeWrapper.buy(quantity, createMoney(BigDecimal.valueOf(1 + random.nextInt(1_000_000), 2).toPlainString()), source));
+			} else if(r < 95) {
+				list.add(TradeWrapper.sell(new BigDecimal(1 + random.nextInt(150)), source));
+			} else if(r < 98) {
+				BigDecimal amount = BigDecimal.valueOf(1 + random.nextInt(10_000), 2);
+				list.add(TradeWrapper.modification(createMoney((random.nextBoolean() ? amount : amount.negate()).toPlainString()), source));
+			} else {
+				list.add(TradeWrapper.reimbursement(new BigDecimal(1 + random.nextInt(50)), source));
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * force amounts of the last buy for some sells and modifications
+	 */
+	private static void forceAmounts(StockManager manager, List<TradeWrapper> trades) {
+		TradeWrapper buy = null;
+		for(TradeWrapper t : trades) {
+			int id = ((SourceTest) t.getSource()).getId();
+			switch(t.getTradeType()) {
+			case BUY:
+				buy = t;
+				break;
+			case SELL:
+				if(buy != null && id % 5 == 0) {
+					manager.addBuySellMoney(buy, t, buy.getAmount().divide(4));
+				}
+				break;
+			case MODIFICATION:
+				if(buy != null && id % 2 == 0) {
+					manager.addBuyModificationMoney(buy, t, t.getAmount().divide(4));
+				}
+				break;
+			default:
+				break;
+			}
+		}
+	}
+
+	private static void assertPositions(List<Position> expected, List<Position> actual) {
+		Assert.assertEquals(expected.size(), actual.size());
+		for(int i = 0, n = expected.size() ; i < n ; ++i) {
+			Position e = expected.get(i);
+			Position a = actual.get(i);
+			Assert.assertEquals(e.getBuy(), a.getBuy());
+			Assert.assertEquals(e.getSell(), a.getSell());
+			Assert.assertEquals(e.getQuantity(), a.getQuantity());
+			Assert.assertEquals(e.getAmount(), a.getAmount());
+		}
+	}
+
+	@Test
+	public void testRing() {
+		OffHeapStrategy q = OffHeapStrategy.fifo(MAPPING);
+		for(int i = 1 ; i <= 100 ; ++i) {
+			q.add(TradeWrapper.buy(new BigDecimal(i), createMoney(i + ".5"), new SourceTest(i)));
+			if(i % 3 == 0) {
+				q.remove();
+			}
+		}
+		Assert.assertEquals(67, q.size());
+		Assert.assertEquals(new SourceTest(34), q.peek().getSource());
+		Iterator<TradeWrapper> iterator = q.iterator();
+		for(int i = 34 ; i <= 100 ; ++i) {
+			TradeWrapper t = iterator.next();
+			Assert.assertEquals(new SourceTest(i), t.getSource());
+			Assert.assertEquals(new BigDecimal(i), t.getQuantity());
+			Assert.assertEquals(createMoney(i + ".5"), t.getAmount());
+		}
+		Assert.assertFalse(iterator.hasNext());
+
+		OffHeapStrategy s = OffHeapStrategy.lifo(MAPPING);
+		for(int i = 1 ; i <= 40 ; ++i) {
+			s.add(TradeWrapper.buy(BigDecimal.ONE, createMoney("1.00"), new SourceTest(i)));
+		}
+		Assert.assertEquals(new SourceTest(40), s.remove().getSource());
+		Assert.assertEquals(new SourceTest(39), s.peek().getSource());
+		Assert.assertEquals(new BigDecimal(39), s.getQuantity());
+		Assert.assertEquals(createMoney("39.00"), s.getStock().getAmount());
+	}
+
+	@Test
+	public void testWriteBack() {
+		StockManager manager = StockManager.create(Mode.FIFO).modificationMode(ModificationMode.MIXED).strategy(OffHeapStrategy.fifo(MAPPING)).build();
+		manager.add(TradeWrapper.buy(new BigDecimal(10), createMoney("100"), new SourceTest(1)));
+		StockManager copy = manager.copy();
+		//partial sell modifies the lot
+		manager.add(TradeWrapper.sell(new BigDecimal(6), new SourceTest(2)));
+		Assert.assertEquals(new BigDecimal(4), manager.getOpenedPositions().get(0).getQuantity());
+		Assert.assertEquals(createMoney("40"), manager.getOpenedPositions().get(0).getAmount());
+		Assert.assertEquals(new BigDecimal(10), copy.getOpenedPositions().get(0).getQuantity());
+	}
+
+	@Test
+	public void testSameAsHeap() {
+		for(Mode mode : List.of(Mode.FIFO, Mode.LIFO)) {
+			for(long seed = 1 ; seed <= 5 ; ++seed) {
+				StockManager expected = new StockManager(mode);
+				OffHeapStrategy strategy = mode == Mode.FIFO ? OffHeapStrategy.fifo(MAPPING) : OffHeapStrategy.lifo(MAPPING);
+				StockManager actual = new StockManager(mode, null, ModificationMode.MIXED, strategy);
+				List<TradeWrapper> trades = randomTrades(seed, 2000);
+				//the copies added to expected share the forced amounts of the trades
+				forceAmounts(expected, trades);
+				forceAmounts(actual, trades);
+				for(TradeWrapper t : trades) {
+					Exception e = null;
+					try {
+						expected.add(t.copy());
+					} catch(RuntimeException x) {
+						e = x;
+					}
+					try {
+						actual.add(t);
+						Assert.assertNull(e);
+					} catch(RuntimeException x) {
+						Assert.assertEquals(e.getClass(), x.getClass());
+					}
+				}
+				assertPositions(expected.getClosedPositions(), actual.getClosedPositions());
+				assertPositions(expected.getOpenedPositions(), actual.getOpenedPositions());
+				Assert.assertEquals(expected.getStock().getAmount(), actual.getStock().getAmount());
+				Assert.assertEquals(expected.getModifications().size(), actual.getModifications().size());
+			}
+		}
+	}
+
+	@Test
+	public void testNegativeModification() {
+		StockManager manager = new StockManager(Mode.FIFO, null, ModificationMode.MIXED, OffHeapStrategy.fifo(MAPPING));
+		manager.add(TradeWrapper.buy(new BigDecimal(10), createMoney("100.00"), new SourceTest(1)));
+		manager.add(TradeWrapper.buy(new BigDecimal(10), createMoney("100.00"), new SourceTest(2)));
+		manager.add(TradeWrapper.modification(createMoney("-10.00"), new SourceTest(3)));
+		Assert.assertEquals(createMoney("190.00"), manager.getStock().getAmount());
+		Assert.assertEquals(createMoney("95.00"), manager.getOpenedPositions().get(0).getAmount());
+	}
+
+	@Test
+	public void testForcedModification() {
+		StockManager manager = new StockManager(Mode.FIFO, null, ModificationMode.MIXED, OffHeapStrategy.fifo(MAPPING));
+		TradeWrapper buy = TradeWrapper.buy(new BigDecimal(10), createMoney("100.00"), new SourceTest(1));
+		TradeWrapper modification = TradeWrapper.modification(createMoney("-10.00"), new SourceTest(3));
+		manager.addBuyModificationMoney(buy, modification, createMoney("-8.00"));
+		manager.add(buy);
+		manager.add(TradeWrapper.buy(new BigDecimal(10), createMoney("100.00"), new SourceTest(2)));
+		manager.add(modification);
+		Assert.assertEquals(createMoney("92.00"), manager.getOpenedPositions().get(0).getAmount());
+		Assert.assertEquals(createMoney("98.00"), manager.getOpenedPositions().get(1).getAmount());
+	}
+
+	@Test
+	public void testReleased() {
+		OffHeapStrategy strategy = OffHeapStrategy.fifo(MAPPING);
+		StockManager manager = new StockManager(Mode.FIFO, null, ModificationMode.MIXED, strategy);
+		for(int i = 1 ; i <= 100 ; ++i) {
+			manager.add(TradeWrapper.buy(new BigDecimal(10), createMoney("100.00"), new SourceTest(i)));
+		}
+		manager.add(TradeWrapper.sell(new BigDecimal(5), new SourceTest(101)));
+		Assert.assertEquals(0, strategy.getMaterializedCount());
+		manager.add(TradeWrapper.modification(createMoney("-100.00"), new SourceTest(102)));
+		Assert.assertEquals(0, strategy.getMaterializedCount());
+		Assert.assertEquals(100, manager.getOpenedPositions().size());
+		Assert.assertEquals(0, strategy.getMaterializedCount());
+		Assert.assertEquals(createMoney("98.99"), manager.getOpenedPositions().get(1).getAmount());
+	}
+}
@@ -0,0 +1,85 @@
+package io.github.ritonglue.gostock.timeline;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.money.CurrencyUnit;
+import javax.money.Monetary;
+import javax.money.MonetaryAmount;
+import javax.money.MonetaryAmountFactory;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.github.ritonglue.gostock.SourceTest;
+import io.github.ritonglue.gostock.StockManager;
+import io.github.ritonglue.gostock.StockManager.TradeWrapper;
+
+public class ModificationSchedulerTest {
+	private final CurrencyUnit cu = Monetary.getCurrency("EUR");
+	private static final LocalDate D = LocalDate.of(2024, 1, 1);
+
+	private MonetaryAmount createMoney(String value) {
+		MonetaryAmountFactory<?> factory = Monetary.getDefaultAmountFactory();
+		return factory.setCurrency(cu).setNumber(new BigDecimal(value)).create();
+	}
+
+	@Test
+	public void testSchedule() {
+		ModificationScheduler<LocalDate> scheduler = new ModificationScheduler<>(new StockManager());
+		scheduler.add(D, TradeWrapper.buy(new BigDecimal("2"), createMoney("10"), new SourceTest(1)));
+		TradeWrapper late = TradeWrapper.modification(createMoney("4"), new SourceTest(2));
+		TradeWrapper early = TradeWrapper.modification(createMoney("2"), new SourceTest(3));
+		scheduler.schedule(D.plusDays(5), late);
+		scheduler.schedule(D.plusDays(3), early);
+		Assert.assertEquals(List.of(early, late), scheduler.getPending());
+
+		scheduler.add(D.plusDays(2), TradeWrapper.sell(BigDecimal.ONE, new SourceTest(4)));
+		Assert.assertEquals(createMoney("5"), scheduler.getManager().getStock().getAmount());
+		//effective at the time of the trade : added before it
+		scheduler.add(D.plusDays(3), TradeWrapper.buy(BigDecimal.ONE, createMoney("1"), new SourceTest(5)));
+		Assert.assertEquals(createMoney("8"), scheduler.getManager().getStock().getAmount());
+		Assert.assertEquals(List.of(late), scheduler.getPending());
+
+		scheduler.advanceTo(D.plusDays(10));
+		Assert.assertTrue(scheduler.getPending().isEmpty());
+		Assert.assertEquals(createMoney("12"), scheduler.getManager().getStock().getAmount());
+		Assert.assertEquals(3, scheduler.getManager().getModifications().size());
+	}
+
+	@Test
+	public void testProcess() {
+		Map<TradeWrapper, LocalDate> times = new HashMap<>();
+		Map<TradeWrapper, LocalDate> effective = new HashMap<>();
+		TradeWrapper buy = TradeWrapper.buy(new BigDecimal("2"), createMoney("10"), new SourceTest(1));
+		TradeWrapper fee = TradeWrapper.modification(createMoney("-1"), new SourceTest(2));
+		TradeWrapper sell = TradeWrapper.sell(BigDecimal.ONE, new SourceTest(3));
+		times.put(buy, D);
+		times.put(fee, D);
+		effective.put(fee, D.plusDays(2));
+		times.put(sell, D.plusDays(1));
+		ModificationScheduler<LocalDate> scheduler = new ModificationScheduler<>(new StockManager());
+		scheduler.process(List.of(buy, fee, sell), times::get, effective::get);
+		//the fee is not effective at the sell
+		Assert.assertEquals(createMoney("5"), scheduler.getManager().getClosedPositions().get(0).getAmount());
+		Assert.assertEquals(List.of(fee), scheduler.getPending());
+		scheduler.advanceTo(D.plusDays(2));
+		Assert.assertEquals(createMoney("4"), scheduler.getManager().getStock().getAmount());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testPassedDate() {
+		ModificationScheduler<LocalDate> scheduler = new ModificationScheduler<>(new StockManager());
+		scheduler.advanceTo(D);
+		scheduler.schedule(D.minusDays(1), TradeWrapper.modification(createMoney("1"), new SourceTest(1)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNotModification() {
+		ModificationScheduler<LocalDate> scheduler = new ModificationScheduler<>(new StockManager());
+		scheduler.schedule(D, TradeWrapper.sell(BigDecimal.ONE, new SourceTest(1)));
+	}
+}
@@ -0,0 +1,124 @@
+package io.github.ritonglue.gostock.timeline;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import javax.money.CurrencyUnit;
+import javax.money.Monetary;
+import javax.money.MonetaryAmount;
+import javax.money.MonetaryAmountFactory;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.github.ritonglue.gostock.Mode;
+import io.github.ritonglue.gostock.Position;
+import io.github.ritonglue.gostock.SourceTest;
+import io.github.ritonglue.gostock.StockManager;
+import io.github.ritonglue.gostock.StockManager.TradeWrapper;
+import io.github.ritonglue.gostock.exception.EmptyPositionModificationException;
+
+public class TimelineTest {
+	private final CurrencyUnit cu = Monetary.getCurrency("EUR");
+
+	private MonetaryAmount createMoney(String value) {
+		MonetaryAmountFactory<?> factory = Monetary.getDefaultAmountFactory();
+		return factory.setCurrency(cu).setNumber(new BigDecimal(value)).create();
+	}
+
+	private List<TradeWrapper> randomTrades(long seed, int n) {
+		Random random = new Random(seed);
+		List<TradeWrapper> list = new ArrayList<>();
+		for(int id = 1 ; id <= n ; ++id) {
+			SourceTest source = new SourceTest(id);
+			if(random.nextInt(100) < 55) {
+				BigDecimal quantity = new BigDecimal(1 + random.nextInt(100));
+				list.add(TradeWrapper.buy(quantity, createMoney(BigDecimal.valueOf(1 + random.nextInt(1_000_000), 2).toPlainString()), source));
+			} else {
+				list.add(TradeWrapper.sell(new BigDecimal(1 + random.nextInt(120)), source));
+			}
+		}
+		return list;
+	}
+
+	private static void assertPositions(List<Position> expected, List<Position> actual) {
+		Assert.assertEquals(expected.size(), actual.size());
+		for(int i = 0, n = expected.size() ; i < n ; ++i) {
+			Position e = expected.get(i);
+			Position a = actual.get(i);
+			Assert.assertEquals(e.getBuy(), a.getBuy());
+			Assert.assertEquals(e.getSell(), a.getSell());
+			Assert.assertEquals(e.getQuantity(), a.getQuantity());
+			Assert.assertEquals(e.getAmount(), a.getAmount());
+		}
+	}
+
+	@Test
+	public void testShuffled() {
+		for(Mode mode : Mode.values()) {
+			List<TradeWrapper> trades = randomTrades(mode.ordinal(), 500);
+			List<Integer> order = new ArrayList<>();
+			for(int i = 0 ; i < trades.size() ; ++i) {
+				order.add(i);
+			}
+			//mostly in order with late bookings
+			Random random = new Random(7);
+			for(int i = 0 ; i < 50 ; ++i) {
+				int a = random.nextInt(order.size());
+				int b = Math.min(order.size() - 1, a + 1 + random.nextInt(30));
+				Collections.swap(order, a, b);
+			}
+			Timeline<Integer> timeline = new Timeline<>(new StockManager(mode), 32);
+			for(int i : order) {
+				timeline.add(i, trades.get(i));
+			}
+			StockManager expected = new StockManager(mode);
+			for(TradeWrapper t : trades) {
+				expected.add(t.copy());
+			}
+			assertPositions(expected.getClosedPositions(), timeline.getManager().getClosedPositions());
+			assertPositions(expected.getOpenedPositions(), timeline.getManager().getOpenedPositions());
+			Assert.assertEquals(expected.getOrphanSells().size(), timeline.getManager().getOrphanSells().size());
+			Assert.assertTrue(timeline.getReplayedCount() < 50L * 500);
+		}
+	}
+
+	@Test
+	public void testRejected() {
+		Timeline<Integer> timeline = new Timeline<>(new StockManager(Mode.FIFO), 2);
+		timeline.add(1, TradeWrapper.buy(BigDecimal.ONE, createMoney("10"), new SourceTest(1)));
+		timeline.add(2, TradeWrapper.sell(BigDecimal.ONE, new SourceTest(2)));
+		timeline.add(3, TradeWrapper.buy(BigDecimal.ONE, createMoney("20"), new SourceTest(3)));
+		//a sell before the modification empties the stock
+		timeline.add(5, TradeWrapper.modification(createMoney("-5"), new SourceTest(4)));
+		try {
+			timeline.add(4, TradeWrapper.sell(BigDecimal.ONE, new SourceTest(5)));
+			Assert.fail();
+		} catch(EmptyPositionModificationException e) {
+		}
+		Assert.assertEquals(4, timeline.size());
+		Assert.assertEquals(createMoney("15"), timeline.getManager().getStock().getAmount());
+	}
+
+	@Test
+	public void testListener() {
+		Timeline<Integer> timeline = new Timeline<>(new StockManager(Mode.FIFO), 3);
+		StockManager manager = timeline.getManager();
+		BigDecimal[] quantity = {BigDecimal.ZERO};
+		manager.addListener((m, q, a, r) -> quantity[0] = quantity[0].add(q));
+		List<TradeWrapper> trades = randomTrades(7, 100);
+		for(int i = 0 ; i < trades.size() ; ++i) {
+			try {
+				timeline.add(trades.size() - i, trades.get(i));
+			} catch(RuntimeException e) {
+			}
+		}
+		//the manager is rolled back in place
+		Assert.assertSame(manager, timeline.getManager());
+		Assert.assertTrue(timeline.getReplayedCount() > 0);
+		Assert.assertEquals(manager.getStock().getQuantity(), quantity[0]);
+	}
+}